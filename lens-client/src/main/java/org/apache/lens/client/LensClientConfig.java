@@ -90,6 +90,24 @@ public class LensClientConfig extends Configuration {
 
   public static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = 60000; //60 secs
 
+  /**
+   * Maximum number of connections to the server pooled by the HTTP client of a connection.
+   */
+  public static final String HTTP_MAX_CONNECTIONS = CLIENT_PFX + "http.max.connections";
+
+  public static final int DEFAULT_HTTP_MAX_CONNECTIONS = 20;
+
+  /**
+   * Number of threads running async requests of a connection, unbounded if not positive.
+   */
+  public static final String ASYNC_THREADS = CLIENT_PFX + "async.threads";
+
+  public static final int DEFAULT_ASYNC_THREADS = 0;
+
+  public static final String RESULT_FETCH_SIZE = CLIENT_PFX + "result.fetch.size";
+
+  public static final int DEFAULT_RESULT_FETCH_SIZE = 1000;
+
   public static final String KERBEROS_PRINCIPAL = CLIENT_PFX + "authentication.kerberos.principal";
 
   public static final String KERBEROS_REALM = CLIENT_PFX + "authentication.kerberos.realm";
@@ -44,13 +44,24 @@ import org.apache.lens.api.util.MoxyJsonConfigurationContextResolver;
 import org.apache.lens.client.exceptions.LensClientException;
 import org.apache.lens.client.exceptions.LensClientServerConnectionException;
 
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.glassfish.jersey.moxy.json.MoxyJsonFeature;
 
+import com.codahale.metrics.MetricRegistry;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -71,6 +82,13 @@ public class LensConnection implements AutoCloseable {
   private LensSessionHandle sessionHandle;
   private boolean closed = false;
 
+  /** The client shared by requests of this connection, built on first use. */
+  private Client client;
+
+  /** Round trip times of requests of this connection. */
+  @Getter
+  private final MetricRegistry metrics = new MetricRegistry();
+
   /**
    * Construct a connection to lens server specified by connection parameters.
    *
@@ -120,20 +138,61 @@ public class LensConnection implements AutoCloseable {
     return client.target(params.getBaseConnectionUrl()).path(params.getMetastoreResourcePath());
   }
 
+  /**
+   * Gets the client shared by requests of this connection. Its connections to the server are kept alive and reused,
+   * and its SSL context is set up once. Timeouts are read from the config on every call, so that they can be changed
+   * while the connection is open.
+   *
+   * @return the client
+   */
+  public synchronized Client getClient() {
+    if (client == null) {
+      client = buildClient();
+    } else {
+      setTimeouts(client);
+    }
+    return client;
+  }
+
+  /**
+   * Builds a new client, separate from the one shared by requests of this connection.
+   *
+   * @return the client
+   */
   public Client buildClient() {
-    ClientBuilder cb = getClientBuilder(params.getConf());
+    LensClientConfig config = params.getConf();
+    ClientBuilder cb = getClientBuilder(config);
     for (Class<?> aClass : params.getRequestFilters()) {
       cb.register(aClass);
     }
+    cb.register(new RoundTripTimer(metrics));
     Client client = cb.build();
 
-    //Set Timeouts
+    setTimeouts(client);
+    int asyncThreads = config.getInt(ASYNC_THREADS, DEFAULT_ASYNC_THREADS);
+    if (asyncThreads > 0) {
+      client.property(ClientProperties.ASYNC_THREADPOOL_SIZE, asyncThreads);
+    }
+
+    return client;
+  }
+
+  private void setTimeouts(Client client) {
     LensClientConfig config = params.getConf();
-    client.property(ClientProperties.CONNECT_TIMEOUT, config.getInt(CONNECTION_TIMEOUT_MILLIS,
+    setProperty(client, ClientProperties.CONNECT_TIMEOUT, config.getInt(CONNECTION_TIMEOUT_MILLIS,
       DEFAULT_CONNECTION_TIMEOUT_MILLIS));
-    client.property(ClientProperties.READ_TIMEOUT, config.getInt(READ_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS));
+    setProperty(client, ClientProperties.READ_TIMEOUT, config.getInt(READ_TIMEOUT_MILLIS,
+      DEFAULT_READ_TIMEOUT_MILLIS));
+  }
 
-    return client;
+  /**
+   * Set a client property if its value changes, as changing the client configuration makes the client set up its
+   * connector again.
+   */
+  private static void setProperty(Client client, String name, Object value) {
+    if (!value.equals(client.getConfiguration().getProperty(name))) {
+      client.property(name, value);
+    }
   }
 
   /**
@@ -157,7 +216,8 @@ public class LensConnection implements AutoCloseable {
         sc.init(null, trustedCerts, new java.security.SecureRandom());
         HostnameVerifier trustedHosts = new LensHostnameVerifier(config);
 
-        return ClientBuilder.newBuilder().sslContext(sc).hostnameVerifier(trustedHosts)
+        return ClientBuilder.newBuilder().withConfig(getClientConfig(config, sc, trustedHosts))
+                .sslContext(sc).hostnameVerifier(trustedHosts)
                 .register(MultiPartFeature.class).register(MoxyJsonFeature.class)
                 .register(MoxyJsonConfigurationContextResolver.class);
       } catch (Exception e) {
@@ -165,22 +225,51 @@ public class LensConnection implements AutoCloseable {
       }
     } else {
       log.info("SSL is disabled, Creating http client.");
-      return ClientBuilder.newBuilder().register(MultiPartFeature.class).register(MoxyJsonFeature.class)
+      return ClientBuilder.newBuilder().withConfig(getClientConfig(config, null, null))
+              .register(MultiPartFeature.class).register(MoxyJsonFeature.class)
               .register(MoxyJsonConfigurationContextResolver.class);
     }
   }
 
+  /**
+   * Config of a client whose connections to the server are pooled by the client, and closed with it. The pool holds
+   * at most {@link LensClientConfig#HTTP_MAX_CONNECTIONS} connections.
+   *
+   * @param config           client side config
+   * @param sslContext       SSL context of https connections, null for the default
+   * @param hostnameVerifier host name verifier of https connections, null for the default
+   * @return the client config
+   */
+  private static ClientConfig getClientConfig(LensClientConfig config, SSLContext sslContext,
+    HostnameVerifier hostnameVerifier) {
+    RegistryBuilder<ConnectionSocketFactory> sockets = RegistryBuilder.<ConnectionSocketFactory>create()
+      .register("http", PlainConnectionSocketFactory.getSocketFactory());
+    if (sslContext != null) {
+      sockets.register("https", new SSLConnectionSocketFactory(sslContext, hostnameVerifier));
+    } else {
+      sockets.register("https", SSLConnectionSocketFactory.getSocketFactory());
+    }
+    PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(sockets.build());
+    int maxConnections = config.getInt(HTTP_MAX_CONNECTIONS, DEFAULT_HTTP_MAX_CONNECTIONS);
+    pool.setMaxTotal(maxConnections);
+    pool.setDefaultMaxPerRoute(maxConnections);
+    return new ClientConfig()
+      .connectorProvider(new ApacheConnectorProvider())
+      .property(ApacheClientProperties.CONNECTION_MANAGER, pool)
+      // buffer request entities like the default connector, so that requests have a content length
+      .property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.BUFFERED);
+  }
+
   private WebTarget getSessionWebTarget() {
-    return getSessionWebTarget(buildClient());
+    return getSessionWebTarget(getClient());
   }
 
   private WebTarget getMetastoreWebTarget() {
-    return getMetastoreWebTarget(buildClient());
+    return getMetastoreWebTarget(getClient());
   }
 
   public WebTarget getLogWebTarget() {
-    Client client = buildClient();
-    return getLogWebTarget(client);
+    return getLogWebTarget(getClient());
   }
 
   public WebTarget getLogWebTarget(Client client) {
@@ -251,26 +340,34 @@ public class LensConnection implements AutoCloseable {
       log.warn("Session already closed. Ignoring the attempt to close again.");
       return;
     }
-    WebTarget target = getSessionWebTarget();
-    Response response = target.queryParam("sessionid", this.sessionHandle).request().delete();
-    if (response == null) {
-      // Should never come here, just fool-proofing
-      throw new LensClientException("Null response from server while closing connection.");
-    }
-    switch(response.getStatus()){
-    case 410:
-      log.warn("Session is already gone. Ignoring the attempt to close again.");
-      break;
-    case 200:
-      APIResult apiResult = response.readEntity(APIResult.class);
-      if (apiResult.getStatus() != APIResult.Status.SUCCEEDED) {
-        throw new LensClientException("Error closing lens connection: " + apiResult.getMessage());
+    try {
+      WebTarget target = getSessionWebTarget();
+      Response response = target.queryParam("sessionid", this.sessionHandle).request().delete();
+      if (response == null) {
+        // Should never come here, just fool-proofing
+        throw new LensClientException("Null response from server while closing connection.");
+      }
+      switch(response.getStatus()){
+      case 410:
+        log.warn("Session is already gone. Ignoring the attempt to close again.");
+        break;
+      case 200:
+        APIResult apiResult = response.readEntity(APIResult.class);
+        if (apiResult.getStatus() != APIResult.Status.SUCCEEDED) {
+          throw new LensClientException("Error closing lens connection: " + apiResult.getMessage());
+        }
+        break;
+      default:
+        throw new LensClientException("Couldn't close session, error code: " + response.getStatus());
+      }
+      closed = true;
+    } finally {
+      // release the pooled connections even if the session could not be closed, a retry builds a new client
+      if (client != null) {
+        client.close();
+        client = null;
       }
-      break;
-    default:
-      throw new LensClientException("Couldn't close session, error code: " + response.getStatus());
     }
-    closed = true;
   }
 
 
@@ -61,7 +61,7 @@ public class LensMetadataClient {
 
 
   private WebTarget getMetastoreWebTarget() {
-    return getMetastoreWebTarget(connection.buildClient());
+    return getMetastoreWebTarget(connection.getClient());
   }
 
   private APIResult translate(Response response) {
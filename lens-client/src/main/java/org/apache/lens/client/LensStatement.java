@@ -20,9 +20,11 @@ package org.apache.lens.client;
 
 import java.net.SocketTimeoutException;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
@@ -191,7 +193,7 @@ public class LensStatement {
       throw new IllegalStateException("Lens Connection has to be established before querying");
     }
 
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
     FormDataMultiPart mp = new FormDataMultiPart();
     mp.bodyPart(new FormDataBodyPart(FormDataContentDisposition.name("sessionid").build(), connection
         .getSessionHandle(), MediaType.APPLICATION_XML_TYPE));
@@ -244,7 +246,7 @@ public class LensStatement {
       throw new IllegalStateException("Lens Connection has to be established before querying");
     }
 
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
     WebTarget target = getPreparedQueriesWebTarget(client);
 
     Response response = target.request().post(Entity.entity(prepareForm(sql, "PREPARE", queryName, conf),
@@ -285,7 +287,7 @@ public class LensStatement {
       throw new IllegalStateException("Lens Connection has to be established before querying");
     }
 
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
 
     WebTarget target = getPreparedQueriesWebTarget(client);
 
@@ -392,7 +394,7 @@ public class LensStatement {
    */
   public LensQuery getQuery(QueryHandle handle) {
     try {
-      Client client = connection.buildClient();
+      Client client = connection.getClient();
       WebTarget target = getQueryWebTarget(client);
       return target.path(handle.toString()).queryParam("sessionid", connection.getSessionHandle()).request()
         .get(LensQuery.class);
@@ -402,6 +404,19 @@ public class LensStatement {
     }
   }
 
+  /**
+   * Gets the query without waiting for the response. The request runs on the async threads of the connection's
+   * client, see {@link LensClientConfig#ASYNC_THREADS}.
+   *
+   * @param handle the handle
+   * @return future of the query
+   */
+  public Future<LensQuery> getQueryAsync(QueryHandle handle) {
+    WebTarget target = getQueryWebTarget(connection.getClient());
+    return target.path(handle.toString()).queryParam("sessionid", connection.getSessionHandle()).request().async()
+      .get(LensQuery.class);
+  }
+
   LensQuery getQueryWithRetryOnTimeout(QueryHandle handle) {
     while (true) {
       try {
@@ -436,7 +451,7 @@ public class LensStatement {
    */
   public LensPreparedQuery getPreparedQuery(QueryPrepareHandle handle) {
     try {
-      Client client = connection.buildClient();
+      Client client = connection.getClient();
       WebTarget target = getPreparedQueriesWebTarget((client));
       return target.path(handle.toString()).queryParam("sessionid", connection.getSessionHandle()).request()
         .get(LensPreparedQuery.class);
@@ -459,7 +474,7 @@ public class LensStatement {
       throw new IllegalStateException("Lens Connection has to be established before querying");
     }
 
-    Client client  = connection.buildClient();
+    Client client  = connection.getClient();
     FormDataMultiPart mp = new FormDataMultiPart();
     mp.bodyPart(new FormDataBodyPart(FormDataContentDisposition.name("sessionid").build(), connection
       .getSessionHandle(), MediaType.APPLICATION_XML_TYPE));
@@ -495,7 +510,7 @@ public class LensStatement {
       throw new IllegalStateException("Lens Connection has to be " + "established before querying");
     }
 
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
     WebTarget target = getPreparedQueriesWebTarget((client)).path(phandle.toString());
     FormDataMultiPart mp = new FormDataMultiPart();
     mp.bodyPart(new FormDataBodyPart(FormDataContentDisposition.name("sessionid").build(), connection
@@ -537,7 +552,7 @@ public class LensStatement {
       throw new IllegalStateException("Lens Connection has to be established before querying");
     }
 
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
     FormDataMultiPart mp = new FormDataMultiPart();
     mp.bodyPart(new FormDataBodyPart(FormDataContentDisposition.name("sessionid").build(), connection
       .getSessionHandle(), MediaType.APPLICATION_XML_TYPE));
@@ -569,10 +584,29 @@ public class LensStatement {
    */
   public List<QueryHandle> getAllQueries(String state, String queryName, String user, String driver, String fromDate,
     String toDate) {
-    WebTarget target = getQueryWebTarget(connection.buildClient());
+    return getAllQueries(state, queryName, user, driver, fromDate, toDate, null, 0);
+  }
+
+  /**
+   * Gets a page of the queries, latest submitted first.
+   *
+   * @param state     the state
+   * @param queryName the query name
+   * @param user      the user
+   * @param driver    the driver name
+   * @param fromDate  the from date
+   * @param toDate    the to date
+   * @param after     the last query of the previous page, null for the first page
+   * @param limit     the maximum number of queries in the page, all queries if not positive
+   * @return the queries in the page
+   */
+  public List<QueryHandle> getAllQueries(String state, String queryName, String user, String driver, String fromDate,
+    String toDate, QueryHandle after, int limit) {
+    WebTarget target = getQueryWebTarget(connection.getClient());
     return target.queryParam("sessionid", connection.getSessionHandle())
       .queryParam("state", state).queryParam("queryName", queryName).queryParam("user", user)
-      .queryParam("driver", driver).queryParam("fromDate", fromDate).queryParam("toDate", toDate).request()
+      .queryParam("driver", driver).queryParam("fromDate", fromDate).queryParam("toDate", toDate)
+      .queryParam("after", after == null ? null : after.toString()).queryParam("limit", limit).request()
       .get(new GenericType<List<QueryHandle>>() {
       });
   }
@@ -590,10 +624,31 @@ public class LensStatement {
    */
   public List<LensQuery> getAllQueryDetails(String state, String queryName, String user, String driver,
      String fromDate, String toDate) {
-    WebTarget target = getQueryWebTarget(connection.buildClient());
+    return getAllQueryDetails(state, queryName, user, driver, fromDate, toDate, null, 0, false);
+  }
+
+  /**
+   * Gets a page of the queries with details, latest submitted first.
+   *
+   * @param state     the state
+   * @param queryName the query name
+   * @param user      the user
+   * @param driver    the driver name
+   * @param fromDate  the from date
+   * @param toDate    the to date
+   * @param after     the last query of the previous page, null for the first page
+   * @param limit     the maximum number of queries in the page, all queries if not positive
+   * @param summary   whether driver query and conf of finished queries can be left out
+   * @return the queries in the page
+   */
+  public List<LensQuery> getAllQueryDetails(String state, String queryName, String user, String driver,
+    String fromDate, String toDate, QueryHandle after, int limit, boolean summary) {
+    WebTarget target = getQueryWebTarget(connection.getClient());
     return target.queryParam("sessionid", connection.getSessionHandle())
       .queryParam("state", state).queryParam("queryName", queryName).queryParam("user", user)
-      .queryParam("driver", driver).queryParam("fromDate", fromDate).queryParam("toDate", toDate).request()
+      .queryParam("driver", driver).queryParam("fromDate", fromDate).queryParam("toDate", toDate)
+      .queryParam("after", after == null ? null : after.toString()).queryParam("limit", limit)
+      .queryParam("summary", summary).request()
       .get(new GenericType<List<LensQuery>>() {
       });
   }
@@ -609,7 +664,7 @@ public class LensStatement {
    */
   public List<QueryPrepareHandle> getAllPreparedQueries(String userName, String queryName, String fromDate,
     String toDate) {
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
     WebTarget target = getPreparedQueriesWebTarget(client);
     return target.queryParam("sessionid", connection.getSessionHandle())
       .queryParam("user", userName).queryParam("queryName", queryName).queryParam("fromDate", fromDate)
@@ -633,7 +688,7 @@ public class LensStatement {
     if (query.getStatus().getStatus() != QueryStatus.Status.SUCCESSFUL) {
       throw new IllegalArgumentException("Result set metadata " + "can be only queries for successful queries");
     }
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
 
     try {
       WebTarget target = getQueryWebTarget(client);
@@ -667,16 +722,29 @@ public class LensStatement {
    * @return the result set
    */
   public QueryResult getResultSet(LensQuery query) {
+    return getResultSet(query, 0, 0);
+  }
+
+  /**
+   * Gets a page of the result set. Rows of in-memory results are read on the server only when requested, so large
+   * results can be iterated page by page. Persisted results are returned as is.
+   *
+   * @param query      the query
+   * @param startIndex 0 based index of the first row of the page
+   * @param fetchSize  maximum number of rows in the page, all the remaining rows if not positive
+   * @return the result set
+   */
+  public QueryResult getResultSet(LensQuery query, long startIndex, int fetchSize) {
     if (query.getStatus().getStatus() != QueryStatus.Status.SUCCESSFUL) {
       throw new IllegalArgumentException("Result set metadata can be only queries for successful queries");
     }
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
 
     try {
       WebTarget target = getQueryWebTarget(client);
       return target.path(query.getQueryHandle().toString()).path("resultset")
-        .queryParam("sessionid", connection.getSessionHandle()).request(MediaType.APPLICATION_XML_TYPE).get(
-          QueryResult.class);
+        .queryParam("sessionid", connection.getSessionHandle()).queryParam("fromindex", startIndex)
+        .queryParam("fetchsize", fetchSize).request(MediaType.APPLICATION_XML_TYPE).get(QueryResult.class);
     } catch (Exception e) {
       log.error("Failed to get resultset, cause:", e);
       throw new IllegalStateException("Failed to get resultset, cause:" + e.getMessage());
@@ -690,15 +758,38 @@ public class LensStatement {
    * @return the http result set
    */
   public Response getHttpResultSet(LensQuery query) {
+    return getHttpResultSet(query, 0, null);
+  }
+
+  /**
+   * Gets the http result set from the given byte offset, to resume an interrupted download. If the result has not
+   * changed since the interrupted download, the response has status 206 (partial content) with the bytes from the
+   * offset, and status 200 with the whole result otherwise. The response has status 416 (range not satisfiable) if
+   * the offset is not before the end of the result.
+   *
+   * @param query  the query
+   * @param offset number of bytes already downloaded
+   * @param eTag   value of the ETag header of the interrupted download, the whole result is sent if it has changed.
+   *               Can be null.
+   * @return the http result set
+   */
+  public Response getHttpResultSet(LensQuery query, long offset, String eTag) {
     if (query.getStatus().getStatus() != QueryStatus.Status.SUCCESSFUL) {
       throw new IllegalArgumentException("Result set metadata " + "can be only queries for successful queries");
     }
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
 
     try {
       WebTarget target = getQueryWebTarget(client);
-      return target.path(query.getQueryHandle().toString()).path("httpresultset")
-        .queryParam("sessionid", connection.getSessionHandle()).request().get();
+      Invocation.Builder request = target.path(query.getQueryHandle().toString()).path("httpresultset")
+        .queryParam("sessionid", connection.getSessionHandle()).request();
+      if (offset > 0) {
+        request.header("Range", "bytes=" + offset + "-");
+        if (eTag != null) {
+          request.header("If-Range", eTag);
+        }
+      }
+      return request.get();
     } catch (Exception e) {
       log.error("Failed to get http resultset, cause:", e);
       throw new IllegalStateException("Failed to get http resultset, cause:" + e.getMessage());
@@ -726,7 +817,7 @@ public class LensStatement {
       return false;
     }
 
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
     WebTarget target = getQueryWebTarget(client);
 
     APIResult result = target.path(query.getQueryHandle().toString())
@@ -744,7 +835,7 @@ public class LensStatement {
     if (!this.getQuery().getStatus().isResultSetAvailable()) {
       return false;
     }
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
     WebTarget target = getQueryWebTarget(client);
 
     APIResult result = target.path(query.getQueryHandle().toString()).path("resultset")
@@ -760,7 +851,7 @@ public class LensStatement {
    * @return true, if successful
    */
   public boolean destroyPrepared(QueryPrepareHandle phandle) {
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
     WebTarget target = getPreparedQueriesWebTarget(client);
 
     APIResult result = target.path(phandle.toString()).queryParam("sessionid", connection.getSessionHandle()).request()
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.client;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Records the time from sending a request till receiving its response headers, for all requests and by HTTP method.
+ * Requests which get no response are not recorded.
+ */
+class RoundTripTimer implements ClientRequestFilter, ClientResponseFilter {
+
+  static final String ROUND_TRIP_TIME = "round-trip-time";
+
+  private static final String START_PROPERTY = RoundTripTimer.class.getName() + ".start";
+
+  private final MetricRegistry registry;
+  private final Timer allRequests;
+
+  RoundTripTimer(MetricRegistry registry) {
+    this.registry = registry;
+    this.allRequests = registry.timer(MetricRegistry.name(LensConnection.class, ROUND_TRIP_TIME));
+  }
+
+  @Override
+  public void filter(ClientRequestContext request) {
+    request.setProperty(START_PROPERTY, System.nanoTime());
+  }
+
+  @Override
+  public void filter(ClientRequestContext request, ClientResponseContext response) {
+    Object start = request.getProperty(START_PROPERTY);
+    if (start == null) {
+      return;
+    }
+    long nanos = System.nanoTime() - (Long) start;
+    allRequests.update(nanos, TimeUnit.NANOSECONDS);
+    registry.timer(MetricRegistry.name(LensConnection.class, ROUND_TRIP_TIME, request.getMethod()))
+      .update(nanos, TimeUnit.NANOSECONDS);
+  }
+}
@@ -33,10 +33,19 @@ import org.apache.lens.api.query.*;
 public class LensJdbcResultSet implements ResultSet {
 
   /** The result. */
-  private final QueryResult result;
+  private QueryResult result;
 
   /** The iterators. */
-  private final Iterator<ResultRow> iterators;
+  private Iterator<ResultRow> iterators;
+
+  /** Index of the first row of the next page to be fetched. */
+  private long nextPageIndex;
+
+  /** Number of rows fetched in one page. */
+  private int fetchSize;
+
+  /** Number of rows requested for the current page. */
+  private int pageSize;
 
   /** The current row. */
   private ResultRow currentRow;
@@ -76,8 +85,43 @@ public class LensJdbcResultSet implements ResultSet {
       colNames.add(col.getName());
       colTypes.add(col.getType());
     }
+    try {
+      fetchSize = statement.getFetchSize();
+    } catch (SQLException e) {
+      fetchSize = 0;
+    }
+    // the first page is fetched by the statement, with its fetch size
+    pageSize = fetchSize;
+    if (result instanceof InMemoryQueryResult) {
+      List<ResultRow> rows = ((InMemoryQueryResult) result).getRows();
+      iterators = rows.iterator();
+      nextPageIndex = rows.size();
+    } else {
+      iterators = null;
+    }
+  }
+
+  /**
+   * Whether more rows may be available on the server. Only in-memory results are fetched in pages, and a page with
+   * less rows than were requested for it is the last one.
+   *
+   * @return true if next page has to be fetched
+   */
+  private boolean hasMorePages() {
+    return result instanceof InMemoryQueryResult && pageSize > 0
+      && ((InMemoryQueryResult) result).getRows().size() >= pageSize;
+  }
+
+  /**
+   * Fetch the next page of in-memory result from server, with the current fetch size of the result set.
+   */
+  private void fetchNextPage() {
+    pageSize = fetchSize;
+    result = statement.fetchResultPage(nextPageIndex, pageSize);
     if (result instanceof InMemoryQueryResult) {
-      iterators = ((InMemoryQueryResult) result).getRows().iterator();
+      List<ResultRow> rows = ((InMemoryQueryResult) result).getRows();
+      iterators = rows.iterator();
+      nextPageIndex += rows.size();
     } else {
       iterators = null;
     }
@@ -94,6 +138,9 @@ public class LensJdbcResultSet implements ResultSet {
       throw new SQLException("You cannot iterate after resultset is closed");
     }
 
+    if (iterators != null && !iterators.hasNext() && hasMorePages()) {
+      fetchNextPage();
+    }
     if (iterators != null && iterators.hasNext()) {
       currentRow = iterators.next();
       return true;
@@ -812,12 +859,15 @@ public class LensJdbcResultSet implements ResultSet {
 
   @Override
   public int getFetchSize() throws SQLException {
-    throw new SQLException("Operation not supported");
+    return fetchSize;
   }
 
   @Override
   public void setFetchSize(int i) throws SQLException {
-    throw new SQLException("Operation not supported");
+    if (i < 0) {
+      throw new SQLException("Fetch size can not be negative: " + i);
+    }
+    this.fetchSize = i;
   }
 
   /*
@@ -21,6 +21,8 @@ package org.apache.lens.client.jdbc;
 import java.sql.*;
 
 import org.apache.lens.api.LensConf;
+import org.apache.lens.api.query.QueryResult;
+import org.apache.lens.client.LensClientConfig;
 import org.apache.lens.client.LensStatement;
 import org.apache.lens.client.exceptions.LensAPIException;
 
@@ -41,6 +43,9 @@ public class LensJdbcStatement implements Statement {
   /** The closed. */
   private boolean closed;
 
+  /** Number of rows fetched from server in one call. */
+  private int fetchSize;
+
   /**
    * Instantiates a new lens jdbc statement.
    *
@@ -49,6 +54,8 @@ public class LensJdbcStatement implements Statement {
   public LensJdbcStatement(LensJdbcConnection connection) {
     this.connection = connection;
     statement = new LensStatement(connection.getConnection());
+    fetchSize = connection.getConnection().getLensConnectionParams().getConf().getInt(
+      LensClientConfig.RESULT_FETCH_SIZE, LensClientConfig.DEFAULT_RESULT_FETCH_SIZE);
   }
 
   /*
@@ -63,7 +70,7 @@ public class LensJdbcStatement implements Statement {
     } catch (LensAPIException e) {
       log.error("Execution Failed for Statement:{}", s, e);
     }
-    return new LensJdbcResultSet(statement.getResultSet(), statement.getResultSetMetaData(), this);
+    return new LensJdbcResultSet(fetchResultPage(0, fetchSize), statement.getResultSetMetaData(), this);
   }
 
   /*
@@ -128,7 +135,7 @@ public class LensJdbcStatement implements Statement {
     if (closed) {
       throw new SQLException("Cannot get resultset for closed statements");
     }
-    return new LensJdbcResultSet(statement.getResultSet(), statement.getResultSetMetaData(), this);
+    return new LensJdbcResultSet(fetchResultPage(0, fetchSize), statement.getResultSetMetaData(), this);
   }
 
   @Override
@@ -156,6 +163,17 @@ public class LensJdbcStatement implements Statement {
     return this.connection;
   }
 
+  /**
+   * Fetch a page of result of the most recently executed query.
+   *
+   * @param startIndex 0 based index of first row of the page
+   * @param pageSize   maximum number of rows in the page, all the remaining rows if not positive
+   * @return the page of result
+   */
+  QueryResult fetchResultPage(long startIndex, int pageSize) {
+    return statement.getResultSet(statement.getQuery(), startIndex, pageSize);
+  }
+
   /**
    * Close result set.
    */
@@ -221,13 +239,15 @@ public class LensJdbcStatement implements Statement {
 
   @Override
   public void setFetchSize(int i) throws SQLException {
-    throw new SQLException("Operation not supported!!!!");
-
+    if (i < 0) {
+      throw new SQLException("Fetch size can not be negative: " + i);
+    }
+    this.fetchSize = i;
   }
 
   @Override
   public int getFetchSize() throws SQLException {
-    throw new SQLException("Operation not supported!!!!");
+    return fetchSize;
   }
 
   /*
@@ -27,6 +27,7 @@ import java.io.File;
 import java.net.URI;
 import java.util.*;
 
+import javax.ws.rs.client.Client;
 import javax.ws.rs.core.UriBuilder;
 import javax.xml.datatype.DatatypeFactory;
 
@@ -44,6 +45,8 @@ import org.apache.lens.server.LensAllApplicationJerseyTest;
 import org.testng.Assert;
 import org.testng.annotations.*;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 @Test(groups = "unit-test")
@@ -276,6 +279,35 @@ public class TestLensClient extends LensAllApplicationJerseyTest {
     lensClient.closeConnection();
   }
 
+  @Test
+  public void testSharedClient() throws Exception {
+    LensClientConfig config = createLensClientConfigWithServerUrl();
+    config.setInt(LensClientConfig.ASYNC_THREADS, 2);
+    try (LensClient lensClient = new LensClient(config)) {
+      assertTrue(lensClient.setDatabase(TEST_DB));
+      LensConnection connection = lensClient.getConnection();
+      assertSame(connection.getClient(), connection.getClient());
+      Client separate = connection.buildClient();
+      try {
+        assertNotSame(separate, connection.getClient());
+      } finally {
+        separate.close();
+      }
+
+      QueryHandle handle = lensClient.executeQueryAsynch("cube select id,name from test_dim", "testSharedClient",
+        new LensConf());
+      LensQuery query = lensClient.getStatement().getQueryAsync(handle).get();
+      assertEquals(query.getQueryHandle(), handle);
+
+      Timer roundTrips = connection.getMetrics().getTimers().get(MetricRegistry.name(LensConnection.class,
+        RoundTripTimer.ROUND_TRIP_TIME));
+      assertNotNull(roundTrips);
+      assertTrue(roundTrips.getCount() > 0);
+      assertTrue(connection.getMetrics().getTimers().containsKey(MetricRegistry.name(LensConnection.class,
+        RoundTripTimer.ROUND_TRIP_TIME, "GET")));
+    }
+  }
+
   @Test
   public void testWaitForQueryToCompleteWithAndWithoutRetryOnTimeOut() throws LensAPIException {
     LensClientConfig config = createLensClientConfigWithServerUrl();
@@ -27,6 +27,14 @@ import static org.apache.lens.cube.metadata.MetastoreUtil.*;
 import java.text.ParseException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.lens.api.metastore.*;
 import org.apache.lens.cube.authorization.AuthorizationUtil;
@@ -41,9 +49,12 @@ import org.apache.lens.server.api.authorization.LensAuthorizer;
 import org.apache.lens.server.api.authorization.LensPrivilegeObject;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.metastore.DataCompletenessChecker;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.util.LensUtil;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.TableType;
 import org.apache.hadoop.hive.metastore.api.FieldSchema;
@@ -61,10 +72,17 @@ import org.jvnet.jaxb2_commons.lang.Equals;
 import org.jvnet.jaxb2_commons.lang.HashCode;
 import org.jvnet.jaxb2_commons.lang.ToString;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -72,12 +90,243 @@ import lombok.extern.slf4j.Slf4j;
  */
 @Slf4j
 public class CubeMetastoreClient {
+  private static final String TIMELINE_CACHE = "partition-timeline-cache";
+  /** Time taken to load the timelines of a fact-storage pair */
+  static final Timer TIMELINE_LOAD_TIMER = LensMetricsRegistry.getStaticRegistry()
+    .timer(MetricRegistry.name(CubeMetastoreClient.class, TIMELINE_CACHE, "load"));
+  /** Lookups of timelines which were already loaded */
+  static final Meter TIMELINE_CACHE_HITS = LensMetricsRegistry.getStaticRegistry()
+    .meter(MetricRegistry.name(CubeMetastoreClient.class, TIMELINE_CACHE, "hits"));
+  /** Lookups of timelines which had to be loaded */
+  static final Meter TIMELINE_CACHE_MISSES = LensMetricsRegistry.getStaticRegistry()
+    .meter(MetricRegistry.name(CubeMetastoreClient.class, TIMELINE_CACHE, "misses"));
+  /** Lookups which waited for a load of the same timelines by another thread */
+  static final Meter TIMELINE_LOAD_WAITS = LensMetricsRegistry.getStaticRegistry()
+    .meter(MetricRegistry.name(CubeMetastoreClient.class, TIMELINE_CACHE, "blocked-on-load"));
+
+  private static final String CHANGE_FEED = "metastore-change-feed";
+  /** Time from a change in the metastore till it is applied to the caches */
+  static final Timer CHANGE_FEED_LAG = LensMetricsRegistry.getStaticRegistry()
+    .timer(MetricRegistry.name(CubeMetastoreClient.class, CHANGE_FEED, "lag"));
+  /** Tables dropped from the caches because they changed */
+  static final Meter CHANGE_FEED_EVICTIONS = LensMetricsRegistry.getStaticRegistry()
+    .meter(MetricRegistry.name(CubeMetastoreClient.class, CHANGE_FEED, "evicted-tables"));
+  /** Polls of the change feed which failed */
+  static final Meter CHANGE_FEED_POLL_FAILURES = LensMetricsRegistry.getStaticRegistry()
+    .meter(MetricRegistry.name(CubeMetastoreClient.class, CHANGE_FEED, "poll-failures"));
+  /** Instances polling a change feed, the staleness of a database is of its least recently synced instance */
+  private static final Set<CubeMetastoreClient> CHANGE_FEED_CLIENTS = ConcurrentHashMap.newKeySet();
+
+  static {
+    String hitRatio = MetricRegistry.name(CubeMetastoreClient.class, TIMELINE_CACHE, "hit-ratio");
+    if (!LensMetricsRegistry.getStaticRegistry().getGauges().containsKey(hitRatio)) {
+      LensMetricsRegistry.getStaticRegistry().register(hitRatio, new RatioGauge() {
+        @Override
+        protected Ratio getRatio() {
+          return Ratio.of(TIMELINE_CACHE_HITS.getCount(), TIMELINE_CACHE_HITS.getCount()
+            + TIMELINE_CACHE_MISSES.getCount());
+        }
+      });
+    }
+  }
+
   private final HiveConf config;
   private final boolean enableCaching;
+  private final String dbName;
+  private MetastoreChangeFeed changeFeed;
+  private ScheduledExecutorService changeFeedPoller;
+  // time of the last successful poll of the change feed, caches may miss changes made after it
+  private volatile long changeFeedSyncTime;
 
-  private CubeMetastoreClient(HiveConf conf) {
+  private CubeMetastoreClient(HiveConf conf, String dbName) {
     this.config = new HiveConf(conf);
     this.enableCaching = conf.getBoolean(MetastoreConstants.METASTORE_ENABLE_CACHING, true);
+    this.dbName = dbName;
+    partitionTimelineCache.scheduleRefresh(
+      conf.getLong(MetastoreConstants.METASTORE_PARTITION_TIMELINE_REFRESH_INTERVAL_SECS, 0));
+    if (enableCaching) {
+      scheduleChangeFeed();
+    }
+  }
+
+  /**
+   * Start polling the configured change feed, if any. Tables changed in the metastore, including through other
+   * servers, are dropped from the caches as the changes are polled, and timelines of changed storage tables are
+   * reloaded.
+   */
+  private void scheduleChangeFeed() {
+    Class<? extends MetastoreChangeFeed> feedClass = config.getClass(MetastoreConstants.METASTORE_CHANGE_FEED_CLASS,
+      null, MetastoreChangeFeed.class);
+    if (feedClass == null) {
+      return;
+    }
+    try {
+      changeFeed = ReflectionUtils.newInstance(feedClass, config);
+      changeFeed.init(config, dbName);
+    } catch (LensException | RuntimeException e) {
+      log.error("Couldn't start metastore change feed {} for {}, changes through other servers will not be seen",
+        feedClass.getName(), dbName, e);
+      changeFeed = null;
+      return;
+    }
+    changeFeedSyncTime = System.currentTimeMillis();
+    CHANGE_FEED_CLIENTS.add(this);
+    registerStalenessGauge(dbName);
+    long interval = config.getLong(MetastoreConstants.METASTORE_CHANGE_FEED_POLL_INTERVAL_MILLIS,
+      MetastoreConstants.DEFAULT_METASTORE_CHANGE_FEED_POLL_INTERVAL_MILLIS);
+    changeFeedPoller = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+      .namingPattern("metastore-change-feed-" + dbName + "-%d").daemon(true).build());
+    changeFeedPoller.scheduleWithFixedDelay(this::pollChangeFeed, interval, interval, TimeUnit.MILLISECONDS);
+    log.info("Polling metastore changes of {} from {} every {} millis", dbName, feedClass.getName(), interval);
+  }
+
+  /**
+   * Register the gauge of the time since the last sync with the change feed of a database. There can be more than one
+   * instance for a database, as instances are replaced after {@link #shutdown()}, so the gauge reports the staleness
+   * of the least recently synced instance which is polling.
+   */
+  private static synchronized void registerStalenessGauge(final String dbName) {
+    String staleness = MetricRegistry.name(CubeMetastoreClient.class, CHANGE_FEED, dbName, "staleness");
+    if (!LensMetricsRegistry.getStaticRegistry().getGauges().containsKey(staleness)) {
+      LensMetricsRegistry.getStaticRegistry().register(staleness, new Gauge<Long>() {
+        @Override
+        public Long getValue() {
+          return getChangeFeedStaleness(dbName);
+        }
+      });
+    }
+  }
+
+  /**
+   * @return millis since the least recent sync with the change feed of the instances of a database, 0 if none polls
+   */
+  static long getChangeFeedStaleness(String dbName) {
+    long oldestSync = Long.MAX_VALUE;
+    for (CubeMetastoreClient client : CHANGE_FEED_CLIENTS) {
+      if (client.dbName.equals(dbName)) {
+        oldestSync = Math.min(oldestSync, client.changeFeedSyncTime);
+      }
+    }
+    return oldestSync == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldestSync;
+  }
+
+  /**
+   * Poll the change feed once and apply the changes to the caches.
+   */
+  void pollChangeFeed() {
+    try {
+      long pollTime = System.currentTimeMillis();
+      applyChanges(changeFeed.poll());
+      changeFeedSyncTime = pollTime;
+    } catch (LensException | RuntimeException e) {
+      CHANGE_FEED_POLL_FAILURES.mark();
+      log.warn("Couldn't poll metastore changes of {}", dbName, e);
+    }
+  }
+
+  /**
+   * Drop the changed tables from the caches.
+   *
+   * @param changes changes polled from the change feed, or otherwise found
+   */
+  public void applyChanges(List<MetastoreChange> changes) {
+    Map<String, Set<MetastoreChange.Type>> changedTables = new LinkedHashMap<>();
+    boolean tableListChanged = false;
+    long now = System.currentTimeMillis();
+    for (MetastoreChange change : changes) {
+      if (!dbName.equalsIgnoreCase(change.getDbName())) {
+        continue;
+      }
+      changedTables.computeIfAbsent(change.getTableName().trim().toLowerCase(),
+        table -> EnumSet.noneOf(MetastoreChange.Type.class)).add(change.getType());
+      tableListChanged |= change.getType().changesTableList();
+      CHANGE_FEED_LAG.update(Math.max(0, now - change.getTime()), TimeUnit.MILLISECONDS);
+    }
+    int evicted = 0;
+    for (Map.Entry<String, Set<MetastoreChange.Type>> entry : changedTables.entrySet()) {
+      if (isCachedTableCurrent(entry.getKey(), entry.getValue())) {
+        log.debug("Metastore caches already have the change of {}", entry.getKey());
+        continue;
+      }
+      log.debug("Dropping {} from metastore caches after a change", entry.getKey());
+      invalidateTable(entry.getKey(), tableListChanged);
+      evicted++;
+    }
+    CHANGE_FEED_EVICTIONS.mark(evicted);
+  }
+
+  /**
+   * Whether the cached table is the same as the table in the metastore, as it is after changes made through this
+   * client, which refreshes the cached table. Partition changes are seen only in the timelines stored in the table
+   * properties, so they are checked only for tables storing timelines.
+   *
+   * @param tableName table name, in lower case
+   * @param types     types of the changes of the table
+   * @return whether the caches need not be updated for the changes
+   */
+  private boolean isCachedTableCurrent(String tableName, Set<MetastoreChange.Type> types) {
+    Table cached = allHiveTables.get(tableName);
+    if (cached == null) {
+      return false;
+    }
+    boolean storesTimelines = "true".equalsIgnoreCase(cached.getParameters().get(
+      getPartitionTimelineCachePresenceKey()));
+    for (MetastoreChange.Type type : types) {
+      if (type.changesTableList() || (type != MetastoreChange.Type.ALTER_TABLE && !storesTimelines)) {
+        return false;
+      }
+    }
+    try {
+      Table current = getClient().getTable(dbName, tableName, false);
+      return current != null && current.getTTable().equals(cached.getTTable());
+    } catch (HiveException e) {
+      log.warn("Couldn't get {} to compare with the cached table", tableName, e);
+      return false;
+    }
+  }
+
+  /**
+   * Drop a table from the caches. Lists of all entities are fetched again if the table was in them, or if the list
+   * of tables changed. Timelines of a changed storage table are reloaded, those of a changed fact are dropped.
+   *
+   * @param tableName        table name, in lower case
+   * @param tableListChanged whether tables were created or dropped
+   */
+  private void invalidateTable(String tableName, boolean tableListChanged) {
+    if (allHiveTables.remove(tableName) != null || tableListChanged) {
+      allTablesPopulated = false;
+    }
+    if (allCubes.remove(tableName) != null || tableListChanged) {
+      allCubesPopulated = false;
+    }
+    if (allDims.remove(tableName) != null || tableListChanged) {
+      allDimensionsPopulated = false;
+    }
+    if (allDimTables.remove(tableName) != null || tableListChanged) {
+      allDimTablesPopulated = false;
+    }
+    if (allSegmentations.remove(tableName) != null || tableListChanged) {
+      allSegmentationPopulated = false;
+    }
+    if (allStorages.remove(tableName) != null || tableListChanged) {
+      allStoragesPopulated = false;
+    }
+    boolean factChanged = allFactTables.remove(tableName) != null;
+    // virtual facts are built on their source fact, they are added back to the mapping as they are loaded again
+    List<String> virtualFacts = factToVirtualFactMapping.remove(tableName);
+    if (virtualFacts != null) {
+      for (String virtualFact : virtualFacts) {
+        factChanged |= allFactTables.remove(virtualFact.trim().toLowerCase()) != null;
+      }
+    }
+    for (List<String> virtualFactsOfSource : factToVirtualFactMapping.values()) {
+      virtualFactsOfSource.remove(tableName);
+    }
+    if (factChanged || tableListChanged) {
+      allFactTablesPopulated = false;
+    }
+    latestLookupCache.remove(tableName);
+    partitionTimelineCache.invalidate(tableName);
   }
 
   // map from table name to Table
@@ -94,7 +343,8 @@ public class CubeMetastoreClient {
   private volatile boolean allDimTablesPopulated = false;
   // map from fact name to fact table
   private final Map<String, FactTable> allFactTables = Maps.newConcurrentMap();
-  // map from fact name to all virtual fact tables, any changes to facts must reflect in all of its virtual facts
+  // map from fact name to all virtual fact tables, any changes to facts must reflect in all of its virtual facts.
+  // The lists are copy on write, as the change feed poller removes from them while queries read them
   private final Map<String, List<String>> factToVirtualFactMapping = Maps.newConcurrentMap();
   private volatile boolean allFactTablesPopulated = false;
   //map from segmentation name to segmentation
@@ -203,6 +453,26 @@ public class CubeMetastoreClient {
     allHiveTables.clear();
   }
 
+  /** @return hive tables in the table cache */
+  public Collection<Table> getCachedHiveTables() {
+    return Collections.unmodifiableCollection(allHiveTables.values());
+  }
+
+  /**
+   * Add hive tables to the table cache, for example from a snapshot of an earlier run. Tables already in the cache are
+   * kept. Nothing is added if caching is disabled.
+   *
+   * @param tables tables of this client's database
+   */
+  public void preloadHiveTables(Collection<Table> tables) {
+    if (!enableCaching) {
+      return;
+    }
+    for (Table table : tables) {
+      allHiveTables.putIfAbsent(table.getTableName().trim().toLowerCase(), table);
+    }
+  }
+
   public List<PartitionTimeline> getTimelines(String factName, String storage, String updatePeriodStr,
     String timeDimension)
     throws LensException, HiveException {
@@ -421,11 +691,147 @@ public class CubeMetastoreClient {
    * In-memory storage of {@link PartitionTimeline} objects for each valid
    * storagetable-updateperiod-partitioncolumn tuple. also simultaneously stored in metastore table of the
    * storagetable.
-   */
-  class PartitionTimelineCache extends CaseInsensitiveStringHashMap<// storage table
-    TreeMap<UpdatePeriod,
-      CaseInsensitiveStringHashMap<// partition column
-        PartitionTimeline>>> {
+   * <p></p>
+   * Timelines of a fact-storage pair are loaded once, by the first lookup. Other lookups of the same pair wait for that
+   * load, and lookups of loaded timelines don't lock. Updates to the timelines of a fact-storage pair hold the lock
+   * returned by {@link #updateLock(String, String)}, which is striped by fact-storage pair. If a refresh interval is
+   * configured, loaded timelines are periodically reloaded from the metastore, so that partitions added through other
+   * servers become visible.
+   */
+  class PartitionTimelineCache {
+    private static final int UPDATE_LOCK_STRIPES = 64;
+
+    // timeline key to loaded timelines
+    private final ConcurrentMap<String, TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>>
+      timelines = new ConcurrentHashMap<>();
+    // timeline key to running load
+    private final ConcurrentMap<String, FutureTask<TreeMap<UpdatePeriod,
+      CaseInsensitiveStringHashMap<PartitionTimeline>>>> loads = new ConcurrentHashMap<>();
+    // timeline key to fact and storage of loaded timelines, for refresh
+    private final ConcurrentMap<String, Pair<String, String>> factStorages = new ConcurrentHashMap<>();
+    // storage table name to timeline key of loaded timelines, for reloading timelines of changed storage tables
+    private final ConcurrentMap<String, String> storageTableKeys = new ConcurrentHashMap<>();
+    private final Striped<Lock> updateLocks = Striped.lock(UPDATE_LOCK_STRIPES);
+    private ScheduledExecutorService refresher;
+
+    /**
+     * Start refreshing loaded timelines from the metastore.
+     *
+     * @param intervalSecs interval between refreshes, refresh is disabled if not positive
+     */
+    synchronized void scheduleRefresh(long intervalSecs) {
+      if (intervalSecs <= 0) {
+        return;
+      }
+      refresher = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+        .namingPattern("partition-timeline-refresh-%d").daemon(true).build());
+      refresher.scheduleWithFixedDelay(this::refresh, intervalSecs, intervalSecs, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop refreshing loaded timelines, if refresh was started.
+     */
+    synchronized void stopRefresh() {
+      if (refresher != null) {
+        refresher.shutdownNow();
+      }
+    }
+
+    /**
+     * @return whether loaded timelines are being refreshed
+     */
+    synchronized boolean isRefreshing() {
+      return refresher != null && !refresher.isShutdown();
+    }
+
+    /**
+     * Reload all loaded timelines from the metastore. Timelines which can't be reloaded are dropped from the cache,
+     * so that the next lookup loads them again.
+     */
+    void refresh() {
+      for (String timeLineKey : factStorages.keySet()) {
+        reload(timeLineKey);
+      }
+    }
+
+    /**
+     * Reload loaded timelines of a fact-storage pair from the metastore, or drop them from the cache if they can't be
+     * reloaded.
+     *
+     * @param timeLineKey key for the time line
+     */
+    private void reload(String timeLineKey) {
+      Lock lock = updateLocks.get(timeLineKey);
+      lock.lock();
+      try {
+        Pair<String, String> factStorage = factStorages.get(timeLineKey);
+        if (factStorage == null) {
+          return;
+        }
+        Map<UpdatePeriod, String> updatePeriodTableName = new HashMap<>();
+        timelines.put(timeLineKey, buildTimeLines(factStorage.getLeft(), factStorage.getRight(), true,
+          updatePeriodTableName));
+        addStorageTableKeys(updatePeriodTableName, timeLineKey);
+      } catch (HiveException | LensException | RuntimeException e) {
+        log.warn("Couldn't refresh timelines of {}, dropping them from cache", timeLineKey, e);
+        timelines.remove(timeLineKey);
+        factStorages.remove(timeLineKey);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Bring loaded timelines up to date with a change of a table: timelines stored in a changed storage table are
+     * reloaded, and timelines of a changed fact are dropped, so that the next lookup loads them with the new fact.
+     *
+     * @param tableName changed table, in lower case
+     */
+    void invalidate(String tableName) {
+      String timeLineKey = storageTableKeys.get(tableName);
+      if (timeLineKey != null) {
+        reload(timeLineKey);
+      }
+      for (Map.Entry<String, Pair<String, String>> entry : factStorages.entrySet()) {
+        if (entry.getValue().getLeft().equalsIgnoreCase(tableName)) {
+          Lock lock = updateLocks.get(entry.getKey());
+          lock.lock();
+          try {
+            factStorages.remove(entry.getKey());
+            timelines.remove(entry.getKey());
+          } finally {
+            lock.unlock();
+          }
+        }
+      }
+    }
+
+    private void addStorageTableKeys(Map<UpdatePeriod, String> updatePeriodTableName, String timeLineKey) {
+      for (String storageTableName : updatePeriodTableName.values()) {
+        storageTableKeys.put(storageTableName.trim().toLowerCase(), timeLineKey);
+      }
+    }
+
+    /**
+     * Lock to be held while updating timelines of the given fact-storage pair and storing them back in table
+     * properties. Lookups don't need the lock.
+     *
+     * @param fact    fact
+     * @param storage storage
+     * @return        update lock of the fact-storage pair
+     */
+    Lock updateLock(String fact, String storage) {
+      return updateLocks.get(getTimeLineKey(fact, storage));
+    }
+
+    /**
+     * @param timeLineKey key for the time line
+     * @return            loaded timelines for the key, null if they are not loaded
+     */
+    TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> getLoaded(String timeLineKey) {
+      return timelines.get(timeLineKey);
+    }
+
     /**
      *
      * @param fact      fact
@@ -453,7 +859,7 @@ public class CubeMetastoreClient {
      * get all timelines for all update periods and partition columns for the given fact-storage pair. If already loaded
      * in memory, it'll return that. If not, it'll first try to load it from table properties. If not found in table
      * properties, it'll get all partitions, compute timelines in memory, write back all loads timelines to table
-     * properties for further usage and return them.
+     * properties for further usage and return them. Concurrent lookups of timelines not yet loaded share one load.
      *
      * @param fact          fact
      * @param storage       storage
@@ -463,59 +869,123 @@ public class CubeMetastoreClient {
      */
     public TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> get(String fact, String storage)
       throws HiveException, LensException {
-      // SUSPEND CHECKSTYLE CHECK DoubleCheckedLockingCheck
       // Unique key for the timeline cache, based on storage and fact.
-      String timeLineKey = (Storage.getPrefix(storage)+ fact).toLowerCase();
-      synchronized (this) {
-        if (get(timeLineKey) == null) {
-          loadTimeLines(fact, storage, timeLineKey);
+      String timeLineKey = getTimeLineKey(fact, storage);
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loaded = timelines.get(timeLineKey);
+      if (loaded != null) {
+        TIMELINE_CACHE_HITS.mark();
+        return loaded;
+      }
+      FutureTask<TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>> load =
+        new FutureTask<>(() -> loadTimeLines(fact, storage, timeLineKey));
+      FutureTask<TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>> running =
+        loads.putIfAbsent(timeLineKey, load);
+      if (running == null) {
+        TIMELINE_CACHE_MISSES.mark();
+        running = load;
+        try {
+          load.run();
+        } finally {
+          loads.remove(timeLineKey, load);
         }
-        log.debug("timeline for {} is: {}", storage, get(timeLineKey));
-        // return the final value from memory
-        return get(timeLineKey);
-        // RESUME CHECKSTYLE CHECK DoubleCheckedLockingCheck
+      } else {
+        TIMELINE_LOAD_WAITS.mark();
       }
+      try {
+        loaded = running.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new LensException("Interrupted while loading timelines of " + timeLineKey, e);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), HiveException.class);
+        Throwables.propagateIfInstanceOf(e.getCause(), LensException.class);
+        throw Throwables.propagate(e.getCause());
+      }
+      log.debug("timeline for {} is: {}", storage, loaded);
+      return loaded;
+    }
+
+    private String getTimeLineKey(String fact, String storage) {
+      return (Storage.getPrefix(storage) + fact).toLowerCase();
     }
 
     /**
+     * Load timelines of the fact-storage pair, store them back in table properties and publish them in the cache.
+     *
      * @param fact
      * @param storage
      */
-    private void loadTimeLines(String fact, String storage, String timeLineKey) throws LensException, HiveException {
+    private TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loadTimeLines(String fact,
+      String storage, String timeLineKey) throws LensException, HiveException {
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> loaded = timelines.get(timeLineKey);
+      if (loaded != null) {
+        // loaded by a lookup which finished after this lookup missed
+        return loaded;
+      }
+      Timer.Context loadTime = TIMELINE_LOAD_TIMER.time();
+      try {
+        Map<UpdatePeriod, String> updatePeriodTableName = new HashMap<>();
+        loaded = buildTimeLines(fact, storage, false, updatePeriodTableName);
+        for (Map.Entry<UpdatePeriod, String> entry : updatePeriodTableName.entrySet()) {
+          alterTablePartitionCache(loaded, entry.getKey(), entry.getValue());
+        }
+        factStorages.put(timeLineKey, Pair.of(fact, storage));
+        addStorageTableKeys(updatePeriodTableName, timeLineKey);
+        timelines.put(timeLineKey, loaded);
+        return loaded;
+      } finally {
+        loadTime.stop();
+      }
+    }
+
+    /**
+     * Compute timelines of the fact-storage pair from table properties, or from all partitions if they are not in
+     * table properties.
+     *
+     * @param fact                  fact
+     * @param storage               storage
+     * @param refresh               whether to get storage tables from metastore instead of from table cache
+     * @param updatePeriodTableName filled with storage table of each update period
+     * @return                      timelines
+     */
+    private TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> buildTimeLines(String fact,
+      String storage, boolean refresh, Map<UpdatePeriod, String> updatePeriodTableName)
+      throws LensException, HiveException {
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> timeLines = new TreeMap<>();
       Set<String> uniqueStorageTables = new HashSet<>();
-      Map<UpdatePeriod, String> updatePeriodTableName = new HashMap<>();
+      Set<String> refreshedStorageTables = new HashSet<>();
       for (UpdatePeriod updatePeriod : getFactTable(fact).getUpdatePeriods().get(storage)) {
         String storageTableName = getStorageTableName(fact, storage, updatePeriod);
         updatePeriodTableName.put(updatePeriod, storageTableName);
-        Table storageTable = getTable(storageTableName);
+        Table storageTable = refresh && refreshedStorageTables.add(storageTableName)
+          ? refreshTable(storageTableName) : getTable(storageTableName);
         if ("true".equalsIgnoreCase(storageTable.getParameters().get(getPartitionTimelineCachePresenceKey()))) {
           try {
-            loadTimelinesFromTableProperties(updatePeriod, storageTableName, timeLineKey);
+            loadTimelinesFromTableProperties(timeLines, updatePeriod, storageTableName);
           } catch (Exception e) {
             // Ideally this should never come. But since we have another source,
             // let's piggyback on that for loading timeline
             log.error("Error while loading timelines from table properties.", e);
-            ensureEntryForTimeLineKey(fact, storage, updatePeriod, storageTableName, timeLineKey);
+            ensureEntryForTimeLineKey(timeLines, fact, storage, updatePeriod, storageTableName);
             if (!uniqueStorageTables.contains(storageTableName)) {
               uniqueStorageTables.add(storageTableName);
-              loadTimelinesFromAllPartitions(storageTableName, timeLineKey);
+              loadTimelinesFromAllPartitions(timeLines, storageTableName);
             }
           }
         } else {
-          ensureEntryForTimeLineKey(fact, storage, updatePeriod, storageTableName, timeLineKey);
+          ensureEntryForTimeLineKey(timeLines, fact, storage, updatePeriod, storageTableName);
           if (!uniqueStorageTables.contains(storageTableName)) {
             uniqueStorageTables.add(storageTableName);
-            loadTimelinesFromAllPartitions(storageTableName, timeLineKey);
+            loadTimelinesFromAllPartitions(timeLines, storageTableName);
           }
         }
       }
-      for (Map.Entry entry : updatePeriodTableName.entrySet()) {
-        alterTablePartitionCache(timeLineKey, (UpdatePeriod) entry.getKey(), (String) entry.getValue());
-      }
+      return timeLines;
     }
 
-    private void ensureEntryForTimeLineKey(String fact, String storage, UpdatePeriod updatePeriod,
-      String storageTableName, String timeLineKey) throws LensException {
+    private void ensureEntryForTimeLineKey(
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> timeLines, String fact, String storage,
+      UpdatePeriod updatePeriod, String storageTableName) throws LensException {
       // Not found in table properties either, compute from all partitions of the fact-storage table.
       // First make sure all combinations of update period and partition column have an entry even
       // if no partitions exist
@@ -523,13 +993,14 @@ public class CubeMetastoreClient {
         log.info("loading from all partitions: {}", storageTableName);
         Table storageTable = getTable(storageTableName);
         for (String partCol : getTimePartColNamesOfTable(storageTable)) {
-          ensureEntry(timeLineKey, storageTableName, updatePeriod, partCol);
+          ensureEntry(timeLines, storageTableName, updatePeriod, partCol);
         }
       }
 
     }
 
-    private void loadTimelinesFromAllPartitions(String storageTableName, String timeLineKey)
+    private void loadTimelinesFromAllPartitions(
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> timeLines, String storageTableName)
       throws HiveException, LensException {
       // Then add all existing partitions for batch addition in respective timelines.
       Table storageTable = getTable(storageTableName);
@@ -546,17 +1017,18 @@ public class CubeMetastoreClient {
         }
         for (int i = 0; i < partCols.size(); i++) {
           if (timeParts.contains(partCols.get(i).getName())) {
-            addForBatchAddition(timeLineKey, storageTableName, period, partCols.get(i).getName(), values.get(i));
+            addForBatchAddition(timeLines, storageTableName, period, partCols.get(i).getName(), values.get(i));
           }
         }
       }
     }
 
-    private void loadTimelinesFromTableProperties(UpdatePeriod updatePeriod,
-      String storageTableName, String timeLineKey) throws HiveException, LensException {
+    private void loadTimelinesFromTableProperties(
+      TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> timeLines, UpdatePeriod updatePeriod,
+      String storageTableName) throws HiveException, LensException {
       log.info("loading from table properties: {}", storageTableName);
       for (String partCol : getTimePartColNamesOfTable(storageTableName)) {
-        ensureEntry(timeLineKey, storageTableName, updatePeriod, partCol).init(getTable(storageTableName));
+        ensureEntry(timeLines, storageTableName, updatePeriod, partCol).init(getTable(storageTableName));
       }
     }
 
@@ -564,16 +1036,16 @@ public class CubeMetastoreClient {
      * Adds given partition(for storageTable, updatePeriod, partitionColum=partition) for batch addition in an
      * appropriate timeline object. Ignore if partition is not valid.
      *
-     * @param timeLineKey       key for the timeLine map
+     * @param timeLines         timelines of the fact-storage pair being loaded
      * @param storageTableName  hive table name
      * @param updatePeriod      update period
      * @param partitionColumn   partition column
      * @param partition         partition
      */
-    public void addForBatchAddition(String timeLineKey, String storageTableName, UpdatePeriod updatePeriod,
-      String partitionColumn, String partition) {
+    public void addForBatchAddition(TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>> timeLines,
+      String storageTableName, UpdatePeriod updatePeriod, String partitionColumn, String partition) {
       try {
-        ensureEntry(timeLineKey, storageTableName, updatePeriod, partitionColumn)
+        ensureEntry(timeLines, storageTableName, updatePeriod, partitionColumn)
           .addForBatchAddition(TimePartition.of(updatePeriod, partition));
       } catch (LensException e) {
         // to take care of the case where partition name is something like `latest`
@@ -582,19 +1054,19 @@ public class CubeMetastoreClient {
     }
 
     /**
-     * helper method for ensuring get(storageTable).get(updatePeriod).get(partitionColumn) gives a non-null object.
+     * helper method for ensuring timeLines.get(updatePeriod).get(partitionColumn) gives a non-null object.
      * <p></p>
      * kind of like mkdir -p
      *
-     * @param timeLineKey    storage table
+     * @param timeLines       timelines of the fact-storage pair being loaded
+     * @param storagTableName storage table
      * @param updatePeriod    update period
      * @param partitionColumn partition column
      * @return timeline if already exists, or puts a new timeline and returns.
      */
-    public PartitionTimeline ensureEntry(String timeLineKey, String storagTableName, UpdatePeriod updatePeriod,
-      String partitionColumn) {
-      return this
-        .computeIfAbsent(timeLineKey, s -> new TreeMap<>())
+    public PartitionTimeline ensureEntry(TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>
+      timeLines, String storagTableName, UpdatePeriod updatePeriod, String partitionColumn) {
+      return timeLines
         .computeIfAbsent(updatePeriod, k -> new CaseInsensitiveStringHashMap<>())
         .computeIfAbsent(partitionColumn, c -> PartitionTimelineFactory.get(
           CubeMetastoreClient.this, storagTableName, updatePeriod, c));
@@ -675,11 +1147,25 @@ public class CubeMetastoreClient {
    * @throws HiveException
    */
   public static CubeMetastoreClient getInstance(HiveConf conf) throws HiveException {
-    String currentdb = SessionState.get().getCurrentDatabase();
-    if (CLIENT_MAPPING.get(currentdb) == null) {
-      CLIENT_MAPPING.put(currentdb, new CubeMetastoreClient(conf));
+    return CLIENT_MAPPING.computeIfAbsent(SessionState.get().getCurrentDatabase(),
+      db -> new CubeMetastoreClient(conf, db));
+  }
+
+  /**
+   * Stop the background threads of all the instances created so far and forget them. Later calls to {@link
+   * #getInstance(HiveConf)} create new instances.
+   */
+  public static void shutdownInstances() {
+    for (CubeMetastoreClient client : CLIENT_MAPPING.values()) {
+      client.shutdown();
     }
-    return CLIENT_MAPPING.get(currentdb);
+  }
+
+  /**
+   * @return instances created so far, by database name
+   */
+  public static Map<String, CubeMetastoreClient> getInstances() {
+    return Collections.unmodifiableMap(CLIENT_MAPPING);
   }
 
   private Hive getClient() throws HiveException {
@@ -695,6 +1181,19 @@ public class CubeMetastoreClient {
     return config;
   }
 
+  /**
+   * Stop the background threads of this instance, and forget it, so that {@link #getInstance(HiveConf)} creates a new
+   * instance for the database. The caches of this instance are no longer refreshed.
+   */
+  public void shutdown() {
+    CLIENT_MAPPING.remove(dbName, this);
+    partitionTimelineCache.stopRefresh();
+    if (changeFeedPoller != null) {
+      changeFeedPoller.shutdownNow();
+    }
+    CHANGE_FEED_CLIENTS.remove(this);
+  }
+
   /**
    * Close the current metastore client
    */
@@ -1116,18 +1615,24 @@ public class CubeMetastoreClient {
       return partsAdded;
     } else if (type == CubeTableType.FACT) {
       List<Partition> partsAdded = new ArrayList<>();
-      // first update in memory, then add to hive table's partitions. delete is reverse.
-      partitionTimelineCache.updateForAddition(factOrDimTable, storageName, updatePeriod,
-        getTimePartSpecs(storagePartitionDescs, getStorageTableStartDate(storageTableName,
-          getFactTable(factOrDimTable)), getStorageTableEndDate(storageTableName, getFactTable(factOrDimTable))));
-      // Adding partition in fact table.
-      if (storagePartitionDescs.size() > 0) {
-        partsAdded = getStorage(storageName).addPartitions(getClient(), factOrDimTable, updatePeriod,
-          storagePartitionDescs, null, storageTableName);
-      }
-      // update hive table
-      alterTablePartitionCache((Storage.getPrefix(storageName) + factOrDimTable).toLowerCase(), updatePeriod,
-        storageTableName);
+      Lock updateLock = partitionTimelineCache.updateLock(factOrDimTable, storageName);
+      updateLock.lock();
+      try {
+        // first update in memory, then add to hive table's partitions. delete is reverse.
+        partitionTimelineCache.updateForAddition(factOrDimTable, storageName, updatePeriod,
+          getTimePartSpecs(storagePartitionDescs, getStorageTableStartDate(storageTableName,
+            getFactTable(factOrDimTable)), getStorageTableEndDate(storageTableName, getFactTable(factOrDimTable))));
+        // Adding partition in fact table.
+        if (storagePartitionDescs.size() > 0) {
+          partsAdded = getStorage(storageName).addPartitions(getClient(), factOrDimTable, updatePeriod,
+            storagePartitionDescs, null, storageTableName);
+        }
+        // update hive table
+        alterTablePartitionCache((Storage.getPrefix(storageName) + factOrDimTable).toLowerCase(), updatePeriod,
+          storageTableName);
+      } finally {
+        updateLock.unlock();
+      }
       return partsAdded;
     } else {
       throw new LensException("Can't add partitions to anything other than fact or dimtable");
@@ -1222,16 +1727,28 @@ public class CubeMetastoreClient {
    */
   private void alterTablePartitionCache(String timeLineKey, UpdatePeriod updatePeriod, String storageTableName)
     throws HiveException, LensException {
+    if (partitionTimelineCache.getLoaded(timeLineKey) != null) {
+      alterTablePartitionCache(partitionTimelineCache.getLoaded(timeLineKey), updatePeriod, storageTableName);
+    }
+  }
+
+  /**
+   * store back given timelines of a storage to table properties
+   *
+   * @param timeLines        timelines of the fact-storage pair
+   * @param updatePeriod     update period of the storage table
+   * @param storageTableName Storage table name
+   * @throws HiveException
+   */
+  private void alterTablePartitionCache(TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>
+    timeLines, UpdatePeriod updatePeriod, String storageTableName) throws HiveException, LensException {
     Table table = getTable(storageTableName);
     Map<String, String> params = table.getParameters();
-    if (partitionTimelineCache.get(timeLineKey) != null) {
-      for (Map.Entry<String, PartitionTimeline> entry : partitionTimelineCache.get(timeLineKey).get(updatePeriod)
-        .entrySet()) {
-        entry.getValue().updateTableParams(table);
-      }
-      params.put(getPartitionTimelineCachePresenceKey(), "true");
-      alterHiveTable(storageTableName, table);
+    for (Map.Entry<String, PartitionTimeline> entry : timeLines.get(updatePeriod).entrySet()) {
+      entry.getValue().updateTableParams(table);
     }
+    params.put(getPartitionTimelineCachePresenceKey(), "true");
+    alterHiveTable(storageTableName, table);
   }
 
   /** extract update period from partition properties */
@@ -1437,10 +1954,16 @@ public class CubeMetastoreClient {
       }
     } else {
       // dropping fact partition
-      getStorage(storageName).dropPartition(getClient(), storageTableName, partVals, null, null);
-      if (partitionTimelineCache.updateForDeletion(cubeTableName, storageName, updatePeriod, timePartSpec)) {
-        this.alterTablePartitionCache((Storage.getPrefix(storageName) + cubeTableName).toLowerCase(), updatePeriod,
-          storageTableName);
+      Lock updateLock = partitionTimelineCache.updateLock(cubeTableName, storageName);
+      updateLock.lock();
+      try {
+        getStorage(storageName).dropPartition(getClient(), storageTableName, partVals, null, null);
+        if (partitionTimelineCache.updateForDeletion(cubeTableName, storageName, updatePeriod, timePartSpec)) {
+          this.alterTablePartitionCache((Storage.getPrefix(storageName) + cubeTableName).toLowerCase(), updatePeriod,
+            storageTableName);
+        }
+      } finally {
+        updateLock.unlock();
       }
     }
   }
@@ -2046,14 +2569,8 @@ public class CubeMetastoreClient {
             String sourceFactName = tbl.getParameters().get(getSourceFactNameKey(tbl.getTableName()));
             if (sourceFactName != null) {
               fact = new CubeVirtualFactTable(tbl, getCubeFactTable(sourceFactName));
-              if (factToVirtualFactMapping.get(sourceFactName) != null) {
-                List<String> prevList = factToVirtualFactMapping.get(sourceFactName);
-                prevList.add(tableName);
-              } else {
-                List<String> newList = new ArrayList<>();
-                newList.add(tableName);
-                factToVirtualFactMapping.put(sourceFactName, newList);
-              }
+              factToVirtualFactMapping.computeIfAbsent(sourceFactName, source -> new CopyOnWriteArrayList<>())
+                .add(tableName);
             } else {
               fact = new CubeFactTable(tbl);
             }
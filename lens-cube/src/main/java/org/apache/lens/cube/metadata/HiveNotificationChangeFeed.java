@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.cube.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lens.server.api.error.LensException;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.NotificationEvent;
+import org.apache.hadoop.hive.ql.metadata.Hive;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads metastore changes from hive metastore notification events. The metastore should be configured with a listener
+ * which records notification events, like {@code org.apache.hive.hcatalog.listener.DbNotificationListener} in
+ * {@code hive.metastore.transactional.event.listeners} or {@code hive.metastore.event.listeners}.
+ */
+@Slf4j
+public class HiveNotificationChangeFeed implements MetastoreChangeFeed {
+
+  private HiveConf conf;
+  private String dbName;
+  private int batchSize;
+  private long lastEventId;
+
+  @Override
+  public void init(HiveConf conf, String dbName) throws LensException {
+    this.conf = conf;
+    this.dbName = dbName;
+    this.batchSize = conf.getInt(MetastoreConstants.METASTORE_CHANGE_FEED_BATCH_SIZE,
+      MetastoreConstants.DEFAULT_METASTORE_CHANGE_FEED_BATCH_SIZE);
+    try {
+      lastEventId = getClient().getCurrentNotificationEventId().getEventId();
+    } catch (Exception e) {
+      throw new LensException("Couldn't get current notification event id from metastore", e);
+    }
+    log.info("Reading changes of {} from metastore notification events after {}", dbName, lastEventId);
+  }
+
+  @Override
+  public List<MetastoreChange> poll() throws LensException {
+    List<MetastoreChange> changes = new ArrayList<>();
+    long eventId = lastEventId;
+    try {
+      IMetaStoreClient client = getClient();
+      List<NotificationEvent> events;
+      do {
+        events = client.getNextNotification(eventId, batchSize, null).getEvents();
+        for (NotificationEvent event : events) {
+          eventId = event.getEventId();
+          MetastoreChange.Type type = getType(event.getEventType());
+          if (type != null && event.getTableName() != null && dbName.equalsIgnoreCase(event.getDbName())) {
+            changes.add(new MetastoreChange(type, event.getDbName(), event.getTableName(),
+              event.getEventTime() * 1000L));
+          }
+        }
+      } while (events.size() >= batchSize);
+    } catch (Exception e) {
+      // events read in this poll are read again by the next one
+      throw new LensException("Couldn't read notification events from metastore", e);
+    }
+    lastEventId = eventId;
+    return changes;
+  }
+
+  private IMetaStoreClient getClient() throws Exception {
+    return Hive.get(conf).getMSC();
+  }
+
+  private static MetastoreChange.Type getType(String eventType) {
+    try {
+      return MetastoreChange.Type.valueOf(eventType);
+    } catch (IllegalArgumentException e) {
+      // not a table change, like database or function events
+      return null;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.cube.metadata;
+
+import lombok.Data;
+
+/**
+ * A change of a table in the metastore, read from a {@link MetastoreChangeFeed}.
+ */
+@Data
+public class MetastoreChange {
+
+  public enum Type {
+    CREATE_TABLE, ALTER_TABLE, DROP_TABLE, ADD_PARTITION, ALTER_PARTITION, DROP_PARTITION;
+
+    /**
+     * @return whether tables are created or dropped by the change, which changes the list of tables
+     */
+    public boolean changesTableList() {
+      return this == CREATE_TABLE || this == DROP_TABLE;
+    }
+  }
+
+  private final Type type;
+  private final String dbName;
+  private final String tableName;
+  /** time of the change, in milliseconds */
+  private final long time;
+}
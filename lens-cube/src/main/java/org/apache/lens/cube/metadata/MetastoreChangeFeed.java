@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.cube.metadata;
+
+import java.util.List;
+
+import org.apache.lens.server.api.error.LensException;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+
+/**
+ * Feed of changes made to the metastore, including changes made through other lens servers. {@link
+ * CubeMetastoreClient} polls the feed configured with {@link MetastoreConstants#METASTORE_CHANGE_FEED_CLASS} and
+ * drops changed tables from its caches, so that caching can stay enabled when several servers share one metastore.
+ */
+public interface MetastoreChangeFeed {
+
+  /**
+   * Start the feed. Changes made after this are returned by {@link #poll()}.
+   *
+   * @param conf   metastore client conf
+   * @param dbName database whose changes are polled
+   * @throws LensException if the feed can't be started
+   */
+  void init(HiveConf conf, String dbName) throws LensException;
+
+  /**
+   * @return changes made since the last poll, in the order they were made. Empty if there are none.
+   * @throws LensException if changes can't be read. The next poll returns them.
+   */
+  List<MetastoreChange> poll() throws LensException;
+}
@@ -117,6 +117,21 @@ public final class MetastoreConstants {
   public static final String HIERARCHY_SFX = ".hierarchy.";
   public static final String CLASS_SFX = ".class";
   public static final String METASTORE_ENABLE_CACHING = "cube.metastore.enable.cache";
+  // interval in seconds between reloads of partition timelines from metastore, not reloaded if not positive
+  public static final String METASTORE_PARTITION_TIMELINE_REFRESH_INTERVAL_SECS =
+    "cube.metastore.partition.timeline.refresh.interval.secs";
+  // timeline class of storage tables which don't have one in their params
+  public static final String METASTORE_PARTITION_TIMELINE_DEFAULT_CLASS =
+    "cube.metastore.partition.timeline.default.class";
+  // feed of metastore changes made through other servers, evicted from caches as they come. No feed if not set
+  public static final String METASTORE_CHANGE_FEED_CLASS = "cube.metastore.change.feed.class";
+  // interval in milliseconds between polls of the metastore change feed
+  public static final String METASTORE_CHANGE_FEED_POLL_INTERVAL_MILLIS =
+    "cube.metastore.change.feed.poll.interval.millis";
+  public static final long DEFAULT_METASTORE_CHANGE_FEED_POLL_INTERVAL_MILLIS = 5000;
+  // maximum number of events read from hive metastore notifications in one call
+  public static final String METASTORE_CHANGE_FEED_BATCH_SIZE = "cube.metastore.change.feed.batch.size";
+  public static final int DEFAULT_METASTORE_CHANGE_FEED_BATCH_SIZE = 1000;
 
   // join chain constants
   public static final String JOIN_CHAIN_KEY = "joinchain.";
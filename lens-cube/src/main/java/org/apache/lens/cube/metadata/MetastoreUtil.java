@@ -497,6 +497,22 @@ public class MetastoreUtil {
     }
   }
 
+  /**
+   * Puts a string which can be longer than the maximum length of a table param, split in as many params as needed.
+   * Read back with {@link #getNamedStringValue(Map, String)}.
+   *
+   * @param props param map
+   * @param key   key prefix of the params
+   * @param value string value
+   */
+  public static void addSplitString(Map<String, String> props, String key, String value) {
+    int parts = (value.length() + MAX_PARAM_LENGTH - 1) / MAX_PARAM_LENGTH;
+    props.put(key + ".size", String.valueOf(parts));
+    for (int i = 0; i < parts; i++) {
+      props.put(key + i, value.substring(i * MAX_PARAM_LENGTH, Math.min(value.length(), (i + 1) * MAX_PARAM_LENGTH)));
+    }
+  }
+
   public static String getNamedStringValue(Map<String, String> props, String key) {
     if (props.containsKey(key + ".size")) {
       int size = Integer.parseInt(props.get(key + ".size"));
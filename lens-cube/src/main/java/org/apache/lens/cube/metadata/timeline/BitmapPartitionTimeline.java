@@ -0,0 +1,353 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.cube.metadata.timeline;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import org.apache.lens.cube.metadata.*;
+import org.apache.lens.server.api.error.LensException;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+
+/**
+ * One implementation of PartitionTimeline that stores presence of partitions as a bitmap. Partition at index
+ * <code>base + i</code> exists if bit i is set, where the index of a partition is its number of update periods from
+ * an epoch. Needs a bit per update period between first and latest partitions, irrespective of how many partitions
+ * are missing in between, so it suits dense timelines with long history, like minutely or hourly facts. The bitmap is
+ * stored deflated in table properties.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class BitmapPartitionTimeline extends PartitionTimeline {
+  /** index of partition at bit 0. Always a multiple of 64, so that the bitmap can be extended by whole words. */
+  private long base;
+  private BitSet partitions = new BitSet();
+
+  public BitmapPartitionTimeline(String storageTableName, UpdatePeriod updatePeriod,
+    String partCol) {
+    super(storageTableName, updatePeriod, partCol);
+  }
+
+  /**
+   * Index of the partition of given update period starting at date. Partitions shorter than a day are indexed by
+   * their time from epoch in the standard time of the default time zone, like {@link TimePartition#next()} moves them.
+   * Longer partitions are indexed by their local date.
+   *
+   * @param period update period
+   * @param date   start date of the partition
+   * @return       partition index
+   */
+  static long indexOf(UpdatePeriod period, Date date) {
+    switch (period) {
+    case MINUTELY:
+    case HOURLY:
+      return Math.floorDiv(date.getTime() + TimeZone.getDefault().getRawOffset(), period.weight());
+    case DAILY:
+      return localDate(date).toEpochDay();
+    case WEEKLY:
+      // weeks start on the same day of week, so their start days have distinct quotients by 7
+      return Math.floorDiv(localDate(date).toEpochDay(), 7L);
+    case MONTHLY:
+      return localDate(date).getYear() * 12L + localDate(date).getMonthValue() - 1;
+    case QUARTERLY:
+      return Math.floorDiv(localDate(date).getYear() * 12L + localDate(date).getMonthValue() - 1, 3L);
+    case YEARLY:
+      return localDate(date).getYear();
+    default:
+      return Math.floorDiv(date.getTime() + TimeZone.getDefault().getRawOffset(), UpdatePeriod.SECONDLY.weight());
+    }
+  }
+
+  private static LocalDate localDate(Date date) {
+    return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+  }
+
+  /**
+   * Date in the partition of given update period and index.
+   *
+   * @param period update period
+   * @param index  partition index
+   * @return       date in the partition
+   * @see #indexOf(UpdatePeriod, Date)
+   */
+  static Date dateOf(UpdatePeriod period, long index) {
+    LocalDate date;
+    switch (period) {
+    case MINUTELY:
+    case HOURLY:
+      return new Date(index * period.weight() - TimeZone.getDefault().getRawOffset());
+    case DAILY:
+      date = LocalDate.ofEpochDay(index);
+      break;
+    case WEEKLY:
+      // the week starting in [index * 7, index * 7 + 6] contains the last day of that interval
+      date = LocalDate.ofEpochDay(index * 7 + 6);
+      break;
+    case MONTHLY:
+      date = LocalDate.of((int) Math.floorDiv(index, 12L), (int) Math.floorMod(index, 12L) + 1, 1);
+      break;
+    case QUARTERLY:
+      date = LocalDate.of((int) Math.floorDiv(index * 3, 12L), (int) Math.floorMod(index * 3, 12L) + 1, 1);
+      break;
+    case YEARLY:
+      date = LocalDate.of((int) index, 1, 1);
+      break;
+    default:
+      return new Date(index * UpdatePeriod.SECONDLY.weight() - TimeZone.getDefault().getRawOffset());
+    }
+    return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+  }
+
+  private long indexOf(TimePartition partition) {
+    return indexOf(getUpdatePeriod(), partition.getDate());
+  }
+
+  private TimePartition partitionAt(int bit) {
+    try {
+      return TimePartition.of(getUpdatePeriod(), dateOf(getUpdatePeriod(), base + bit));
+    } catch (LensException e) {
+      // only thrown for null date
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * bit of partition index, -1 if the index is before {@link #base} and beyond the bitmap if after the last bit.
+   */
+  private int bitOf(long index) {
+    long bit = index - base;
+    return bit < 0 ? -1 : (int) Math.min(bit, Integer.MAX_VALUE);
+  }
+
+  /**
+   * bit of partition index to be set, after moving {@link #base} before the index if needed.
+   */
+  private int bitToSet(long index) throws LensException {
+    long newBase = Math.floorDiv(index, (long) Long.SIZE) * Long.SIZE;
+    if (partitions.isEmpty()) {
+      base = newBase;
+    } else if (newBase < base) {
+      long[] words = partitions.toLongArray();
+      long shift = (base - newBase) / Long.SIZE;
+      if (shift + words.length > Integer.MAX_VALUE / Long.SIZE) {
+        throw new LensException("Partition at index " + index + " is too far from latest partition of " + this);
+      }
+      long[] shifted = new long[(int) shift + words.length];
+      System.arraycopy(words, 0, shifted, (int) shift, words.length);
+      partitions = BitSet.valueOf(shifted);
+      base = newBase;
+    }
+    if (index - base >= Integer.MAX_VALUE) {
+      throw new LensException("Partition at index " + index + " is too far from first partition of " + this);
+    }
+    return (int) (index - base);
+  }
+
+  @Override
+  public boolean add(@NonNull TimePartition partition) throws LensException {
+    partitions.set(bitToSet(indexOf(partition)));
+    return true;
+  }
+
+  @Override
+  public boolean add(TimePartitionRange partitionRange) throws LensException {
+    if (!partitionRange.isValidAndNonEmpty()) {
+      return true;
+    }
+    int from = bitToSet(indexOf(partitionRange.getBegin()));
+    // set begin first, so that base doesn't move again for end
+    partitions.set(from);
+    int to = bitToSet(indexOf(partitionRange.getEnd()) - 1) + 1;
+    partitions.set(from, to);
+    return true;
+  }
+
+  @Override
+  public boolean drop(@NonNull TimePartition toDrop) throws LensException {
+    int bit = bitOf(indexOf(toDrop));
+    if (bit >= 0) {
+      partitions.clear(bit);
+    }
+    if (partitions.isEmpty()) {
+      base = 0;
+    }
+    return true;
+  }
+
+  @Override
+  public TimePartition latest() {
+    return isEmpty() ? null : partitionAt(partitions.length() - 1);
+  }
+
+  @Override
+  public Map<String, String> toProperties() {
+    HashMap<String, String> ret = Maps.newHashMap();
+    ret.put("base", String.valueOf(base));
+    MetastoreUtil.addSplitString(ret, "bitmap", isEmpty() ? "" : encode(partitions));
+    return ret;
+  }
+
+  @Override
+  public boolean initFromProperties(Map<String, String> properties) throws LensException {
+    base = 0;
+    partitions = new BitSet();
+    String baseStr = properties.get("base");
+    String bitmapStr = MetastoreUtil.getNamedStringValue(properties, "bitmap");
+    if (!Strings.isNullOrEmpty(bitmapStr)) {
+      try {
+        base = Long.parseLong(baseStr);
+      } catch (NumberFormatException e) {
+        throw new LensException("Invalid base index of bitmap: " + baseStr, e);
+      }
+      partitions = decode(bitmapStr);
+    }
+    return isConsistent();
+  }
+
+  private static String encode(BitSet bitSet) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_COMPRESSION))) {
+      out.write(bitSet.toByteArray());
+    } catch (IOException e) {
+      // not thrown by ByteArrayOutputStream
+      throw new IllegalStateException(e);
+    }
+    return Base64.getEncoder().encodeToString(bytes.toByteArray());
+  }
+
+  private static BitSet decode(String encoded) throws LensException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(Base64.getDecoder().decode(encoded));
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(buffer);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new LensException("Bitmap of partitions is truncated");
+        }
+        bytes.write(buffer, 0, inflated);
+      }
+      return BitSet.valueOf(bytes.toByteArray());
+    } catch (IllegalArgumentException | DataFormatException e) {
+      throw new LensException("Invalid bitmap of partitions", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  public boolean isEmpty() {
+    return partitions.isEmpty();
+  }
+
+  @Override
+  public boolean isConsistent() {
+    return base % Long.SIZE == 0 && (!partitions.isEmpty() || base == 0);
+  }
+
+  @Override
+  public boolean exists(TimePartition toCheck) {
+    int bit = bitOf(indexOf(toCheck));
+    return bit >= 0 && partitions.get(bit);
+  }
+
+  /**
+   * Finds missing partitions with a scan of the bitmap words covering the range, instead of a lookup per partition.
+   */
+  @Override
+  public TimePartitionRangeList getMissingRanges(TimePartitionRange range) throws LensException {
+    TimePartitionRangeList missing = new TimePartitionRangeList();
+    if (!range.isValidAndNonEmpty()) {
+      return missing;
+    }
+    long from = indexOf(range.getBegin());
+    long to = indexOf(range.getEnd());
+    long index = from;
+    while (index < to) {
+      // index is missing if before base, otherwise look for the first missing partition from index
+      long missingFrom = index < base ? index : base + partitions.nextClearBit(bitOf(index));
+      if (missingFrom >= to) {
+        break;
+      }
+      int presentBit = partitions.nextSetBit(Math.max(bitOf(missingFrom), 0));
+      long missingTo = presentBit < 0 ? to : Math.min(base + presentBit, to);
+      missing.add(new TimePartitionRange(missingFrom == from ? range.getBegin() : partitionAt(bitOf(missingFrom)),
+        missingTo == to ? range.getEnd() : partitionAt(bitOf(missingTo))));
+      index = missingTo;
+    }
+    return missing;
+  }
+
+  @Override
+  public boolean covers(TimePartitionRange range) throws LensException {
+    if (!range.isValidAndNonEmpty()) {
+      return true;
+    }
+    long from = indexOf(range.getBegin());
+    return from >= base && base + partitions.nextClearBit(bitOf(from)) >= indexOf(range.getEnd());
+  }
+
+  @Override
+  public Iterator<TimePartition> iterator() {
+
+    return new Iterator<TimePartition>() {
+      int next = partitions.nextSetBit(0);
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      public TimePartition next() {
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        TimePartition toReturn = partitionAt(next);
+        next = partitions.nextSetBit(next + 1);
+        return toReturn;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "BitmapPartitionTimeline(super=" + super.toString() + ", base=" + base + ", count="
+      + partitions.cardinality() + ", first=" + (isEmpty() ? null : partitionAt(partitions.nextSetBit(0)))
+      + ", latest=" + latest() + ")";
+  }
+}
@@ -24,6 +24,7 @@ import java.util.*;
 import org.apache.lens.cube.metadata.MetastoreUtil;
 import org.apache.lens.cube.metadata.TimePartition;
 import org.apache.lens.cube.metadata.TimePartitionRange;
+import org.apache.lens.cube.metadata.TimePartitionRangeList;
 import org.apache.lens.cube.metadata.UpdatePeriod;
 import org.apache.lens.server.api.error.LensException;
 
@@ -42,6 +43,7 @@ import lombok.extern.slf4j.Slf4j;
  *
  * @see org.apache.lens.cube.metadata.timeline.EndsAndHolesPartitionTimeline
  * @see org.apache.lens.cube.metadata.timeline.StoreAllPartitionTimeline
+ * @see org.apache.lens.cube.metadata.timeline.BitmapPartitionTimeline
  */
 @Data
 @Slf4j
@@ -220,4 +222,42 @@ public abstract class PartitionTimeline implements Iterable<TimePartition> {
    * @return
    */
   public abstract boolean exists(TimePartition partition);
+
+  /**
+   * Partitions of the given range which are not in the timeline, as sub ranges. Default implementation checks
+   * existence of each partition of the range. Implementing classes can override.
+   *
+   * @param range range of partitions
+   * @return      missing sub ranges, in order. Empty if all partitions of the range exist.
+   * @throws LensException
+   */
+  public TimePartitionRangeList getMissingRanges(TimePartitionRange range) throws LensException {
+    TimePartitionRangeList missing = new TimePartitionRangeList();
+    TimePartition missingFrom = null;
+    for (TimePartition partition : range) {
+      if (!exists(partition)) {
+        if (missingFrom == null) {
+          missingFrom = partition;
+        }
+      } else if (missingFrom != null) {
+        missing.add(missingFrom.rangeUpto(partition));
+        missingFrom = null;
+      }
+    }
+    if (missingFrom != null) {
+      missing.add(missingFrom.rangeUpto(range.getEnd()));
+    }
+    return missing;
+  }
+
+  /**
+   * Whether all partitions of the given range are in the timeline.
+   *
+   * @param range range of partitions
+   * @return      true if no partition of the range is missing
+   * @throws LensException
+   */
+  public boolean covers(TimePartitionRange range) throws LensException {
+    return getMissingRanges(range).isEmpty();
+  }
 }
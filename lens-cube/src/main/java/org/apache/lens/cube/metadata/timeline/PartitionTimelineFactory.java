@@ -22,6 +22,7 @@ package org.apache.lens.cube.metadata.timeline;
 import java.lang.reflect.Constructor;
 
 import org.apache.lens.cube.metadata.CubeMetastoreClient;
+import org.apache.lens.cube.metadata.MetastoreConstants;
 import org.apache.lens.cube.metadata.MetastoreUtil;
 import org.apache.lens.cube.metadata.UpdatePeriod;
 
@@ -32,8 +33,10 @@ public final class PartitionTimelineFactory {
   }
 
   /**
-   * Checks in table params if desired implementing class is given. Otherwise by default returns instance of {@link
-   * org.apache.lens.cube.metadata.timeline.EndsAndHolesPartitionTimeline}.
+   * Checks in table params if desired implementing class is given. Otherwise returns instance of the class configured
+   * with {@link MetastoreConstants#METASTORE_PARTITION_TIMELINE_DEFAULT_CLASS}, by default {@link
+   * org.apache.lens.cube.metadata.timeline.EndsAndHolesPartitionTimeline}. {@link BitmapPartitionTimeline} is
+   * preferable for dense timelines with long history.
    *
    * @param client
    * @param storageTable
@@ -47,6 +50,10 @@ public final class PartitionTimelineFactory {
       String storageClassName = client.getTable(storageTable).getParameters().get(
         MetastoreUtil.getPartitionTimelineStorageClassKey(
           updatePeriod, partitionColumn));
+      if (storageClassName == null) {
+        storageClassName = client.getConf().get(MetastoreConstants.METASTORE_PARTITION_TIMELINE_DEFAULT_CLASS,
+          EndsAndHolesPartitionTimeline.class.getName());
+      }
       Class<? extends PartitionTimeline> clz = (Class<? extends PartitionTimeline>) Class.forName(storageClassName);
       Constructor<? extends PartitionTimeline> constructor = clz.getConstructor(
         String.class, UpdatePeriod.class, String.class);
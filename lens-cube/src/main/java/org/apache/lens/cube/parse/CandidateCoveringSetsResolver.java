@@ -23,10 +23,8 @@ import static org.apache.lens.cube.parse.CandidateUtil.getColumns;
 import java.util.*;
 
 import org.apache.lens.cube.error.LensCubeErrorCode;
-import org.apache.lens.cube.metadata.TimeRange;
 import org.apache.lens.server.api.error.LensException;
 
-import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -98,15 +96,6 @@ public class CandidateCoveringSetsResolver implements ContextRewriter {
     cubeql.getCandidates().addAll(finalCandidates);
   }
 
-  private boolean isCandidateCoveringTimeRanges(UnionCandidate uc, List<TimeRange> ranges) {
-    for (TimeRange range : ranges) {
-      if (!CandidateUtil.isTimeRangeCovered(uc.getChildren(), range.getFromDate(), range.getToDate())) {
-        return false;
-      }
-    }
-    return true;
-  }
-
   private List<Candidate> resolveTimeRangeCoveringFactSet(CubeQueryContext cubeql,
       Set<QueriedPhraseContext> queriedMsrs, List<QueriedPhraseContext> qpcList) throws LensException {
     List<Candidate> candidateSet = new ArrayList<>();
@@ -124,113 +113,34 @@ public class CandidateCoveringSetsResolver implements ContextRewriter {
           cubeql.getTimeRanges()));
       }
     }
-    // Get all covering fact sets
-//    List<UnionCandidate> unionCoveringSet = getCombinations(new ArrayList<>(allCandidatesPartiallyValid), cubeql);
-    List<UnionCandidate> unionCoveringSet = getCombinationTailIterative(allCandidatesPartiallyValid, cubeql);
-    pruneRedundantUnionCoveringSets(unionCoveringSet);
-    // Sort the Collection based on no of elements
-    unionCoveringSet.sort(Comparator.comparing(Candidate::getChildrenCount));
-    // prune candidate set which doesn't contain any common measure i
-    if (!queriedMsrs.isEmpty()) {
-      pruneUnionCoveringSetWithoutAnyCommonMeasure(unionCoveringSet, queriedMsrs);
-    }
-    // pruing done in the previous steps, now create union candidates
+    // Get all covering fact sets which contain a common measure
+    List<UnionCandidate> unionCoveringSet = getUnionCoveringSets(allCandidatesPartiallyValid, queriedMsrs, cubeql);
     candidateSet.addAll(unionCoveringSet);
     updateQueriableMeasures(candidateSet, qpcList);
     return candidateSet;
   }
-  private void pruneUnionCoveringSetWithoutAnyCommonMeasure(List<UnionCandidate> ucs,
-    Set<QueriedPhraseContext> queriedMsrs) throws LensException {
-    for (ListIterator<UnionCandidate> itr = ucs.listIterator(); itr.hasNext();) {
-      boolean toRemove = true;
-      UnionCandidate uc = itr.next();
-      for (QueriedPhraseContext msr : queriedMsrs) {
-        if (uc.isPhraseAnswerable(msr)) {
-          toRemove = false;
-          break;
-        }
-      }
-      if (toRemove) {
-        itr.remove();
-      }
-    }
-  }
-
-  private void pruneRedundantUnionCoveringSets(List<UnionCandidate> candidates) {
-    for (int i = 0; i < candidates.size(); i++) {
-      UnionCandidate current = candidates.get(i);
-      int j = i + 1;
-      for (ListIterator<UnionCandidate> itr = candidates.listIterator(j); itr.hasNext();) {
-        UnionCandidate next = itr.next();
-        if (next.getChildren().containsAll(current.getChildren())) {
-          itr.remove();
-        }
-      }
-    }
-  }
-  @Deprecated
-  private List<UnionCandidate> getCombinations(final List<Candidate> candidates, CubeQueryContext cubeql)
-    throws LensException {
-    List<UnionCandidate> combinations = new LinkedList<>();
-    int size = candidates.size();
-    int threshold = Double.valueOf(Math.pow(2, size)).intValue() - 1;
-
-    for (int i = 1; i <= threshold; ++i) {
-      LinkedList<Candidate> individualCombinationList = new LinkedList<>();
-      int count = size - 1;
-      int clonedI = i;
-      while (count >= 0) {
-        if ((clonedI & 1) != 0) {
-          individualCombinationList.addFirst(candidates.get(count));
-        }
-        clonedI = clonedI >>> 1;
-        --count;
-      }
-      UnionCandidate uc = new UnionCandidate(individualCombinationList, cubeql);
-      if (isCandidateCoveringTimeRanges(uc, cubeql.getTimeRanges())) {
-        uc.cloneChildren();
-        combinations.add(uc);
-      }
-    }
-    return combinations;
-  }
 
   /**
-   * The following function is iterative rewrite of the following tail-recursive implementation:
-   * (ignoring cubeql for clarity)
-   * getCombinations(candidates) = getCombinationsTailRecursive(emptyList(), candidates)
-   *
-   * getCombinationsTailRecursive(incompleteCombinations: List[List[Candidate]], candidates: List[Candidate]) =
-   *   head, tail = head and tail of linked List candidates
-   *   add head to all elements of incompleteCombinations.
-   *   complete = remove now complete combinations from incompleteCombinations
-   *   return complete ++ getCombinationsTailRecursive(incompleteCombinations, tail)
-   * @param candidates
-   * @param cubeql
-   * @return
+   * Union candidates of the minimal sets of candidates covering the queried time ranges, whose members all answer
+   * one of the queried measures. All sets are returned with smaller sets first, or only the cheapest
+   * {@link CubeQueryConfUtil#UNION_COVERING_SETS_LIMIT} sets with cheaper sets first, if the limit is set and all
+   * candidates have a cost.
    */
-  private List<UnionCandidate> getCombinationTailIterative(List<Candidate> candidates, CubeQueryContext cubeql)
-  throws LensException {
-    LinkedList<Candidate> candidateLinkedList = Lists.newLinkedList(candidates);
-    List<List<Candidate>> incompleteCombinations = Lists.newArrayList();
-    incompleteCombinations.add(Lists.newArrayList());
-    List<UnionCandidate> unionCandidates = Lists.newArrayList();
-
-    while(!candidateLinkedList.isEmpty()) {
-      List<List<Candidate>> moreIncomplete = Lists.newArrayList();
-      Candidate candidate = candidateLinkedList.remove();
-      for (List<Candidate> combination : incompleteCombinations) {
-        List<Candidate> incompleteCombination = Lists.newArrayList(combination);
-        incompleteCombination.add(candidate);
-        UnionCandidate unionCandidate = new UnionCandidate(incompleteCombination, cubeql);
-        if (isCandidateCoveringTimeRanges(unionCandidate, cubeql.getTimeRanges())) {
-          unionCandidate.cloneChildren();
-          unionCandidates.add(unionCandidate);
-        } else {
-          moreIncomplete.add(incompleteCombination);
-        }
-      }
-      incompleteCombinations.addAll(moreIncomplete);
+  private List<UnionCandidate> getUnionCoveringSets(List<Candidate> candidates, Set<QueriedPhraseContext> queriedMsrs,
+    CubeQueryContext cubeql) throws LensException {
+    CoveringSetSearch search = new CoveringSetSearch(candidates, cubeql.getTimeRanges());
+    if (!queriedMsrs.isEmpty()) {
+      search.requireCommonPhrase(queriedMsrs);
+    }
+    int limit = cubeql.getConf().getInt(CubeQueryConfUtil.UNION_COVERING_SETS_LIMIT,
+      CubeQueryConfUtil.DEFAULT_UNION_COVERING_SETS_LIMIT);
+    List<List<Candidate>> coveringSets = limit > 0 && search.hasCosts() ? search.findCheapest(limit)
+      : search.findAll();
+    List<UnionCandidate> unionCandidates = new ArrayList<>(coveringSets.size());
+    for (List<Candidate> coveringSet : coveringSets) {
+      UnionCandidate unionCandidate = new UnionCandidate(coveringSet, cubeql);
+      unionCandidate.cloneChildren();
+      unionCandidates.add(unionCandidate);
     }
     return unionCandidates;
   }
@@ -0,0 +1,416 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.cube.parse;
+
+import java.util.*;
+
+import org.apache.lens.cube.metadata.TimeRange;
+import org.apache.lens.server.api.error.LensException;
+
+/**
+ * Finds the sets of candidates whose union covers the queried time ranges. Only minimal sets are found, i.e. sets
+ * from which no candidate can be removed without leaving a part of the time ranges uncovered.
+ * <p></p>
+ * The time ranges are split into segments at the start and end times of the candidates, and the time covered by each
+ * candidate is computed once, as the set of segments it covers. Sets are built by adding candidates in their order,
+ * and a set is not extended when it already covers the time ranges, when the next candidate covers no uncovered
+ * segment or makes a member redundant, or when the remaining candidates can not cover the uncovered segments. So
+ * supersets of covering sets are never visited, instead of checking all 2^n subsets of the candidates.
+ * <p></p>
+ * When all candidates have a cost, {@link #findCheapest(int)} finds the cheapest sets first, costing a set like
+ * {@link UnionCandidate#getCost()} does: each segment is answered by the cheapest member covering it.
+ * <p></p>
+ * With {@link #requireCommonPhrase(Collection)}, only sets whose members can all answer one of the given phrases are
+ * found. A set is not extended once its members have no phrase in common, so the limit of
+ * {@link #findCheapest(int)} applies to the sets that can answer a phrase.
+ */
+class CoveringSetSearch {
+
+  private final List<Candidate> candidates;
+
+  /**
+   * Number of segments of all the time ranges.
+   */
+  private final int segmentCount;
+
+  /**
+   * Fraction of its time range that each segment is.
+   */
+  private final double[] segmentWeights;
+
+  /**
+   * Segments covered by each candidate.
+   */
+  private final BitSet[] coverage;
+
+  /**
+   * Segments covered by the candidates from each index till the last, with an empty set at the end.
+   */
+  private final BitSet[] suffixCoverage;
+
+  /**
+   * Cost of each candidate, null if any candidate has no cost.
+   */
+  private final double[] costs;
+
+  /**
+   * Indices of the phrases each candidate can answer, null if sets are not required to answer a common phrase.
+   */
+  private BitSet[] answerable;
+
+  /**
+   * Number of phrases in {@link #answerable}.
+   */
+  private int phraseCount;
+
+  CoveringSetSearch(List<? extends Candidate> candidates, List<TimeRange> ranges) {
+    this.candidates = new ArrayList<>(candidates);
+    int size = candidates.size();
+    long[] startTimes = new long[size];
+    long[] endTimes = new long[size];
+    for (int i = 0; i < size; i++) {
+      startTimes[i] = candidates.get(i).getStartTime().getTime();
+      endTimes[i] = candidates.get(i).getEndTime().getTime();
+    }
+
+    List<Double> weights = new ArrayList<>();
+    coverage = new BitSet[size];
+    for (int i = 0; i < size; i++) {
+      coverage[i] = new BitSet();
+    }
+    for (TimeRange range : ranges) {
+      long from = range.getFromDate().getTime();
+      long to = range.getToDate().getTime();
+      TreeSet<Long> points = new TreeSet<>();
+      points.add(from);
+      points.add(to);
+      for (int i = 0; i < size; i++) {
+        addIfInside(points, startTimes[i], from, to);
+        addIfInside(points, endTimes[i], from, to);
+      }
+      Long segmentStart = null;
+      for (Long segmentEnd : points) {
+        if (segmentStart != null && segmentStart < segmentEnd) {
+          for (int i = 0; i < size; i++) {
+            if (startTimes[i] <= segmentStart && endTimes[i] >= segmentEnd) {
+              coverage[i].set(weights.size());
+            }
+          }
+          weights.add((double) (segmentEnd - segmentStart) / (to - from));
+        }
+        segmentStart = segmentEnd;
+      }
+    }
+    segmentCount = weights.size();
+    segmentWeights = new double[segmentCount];
+    for (int s = 0; s < segmentCount; s++) {
+      segmentWeights[s] = weights.get(s);
+    }
+
+    suffixCoverage = new BitSet[size + 1];
+    suffixCoverage[size] = new BitSet();
+    for (int i = size - 1; i >= 0; i--) {
+      suffixCoverage[i] = (BitSet) suffixCoverage[i + 1].clone();
+      suffixCoverage[i].or(coverage[i]);
+    }
+
+    double[] candidateCosts = new double[size];
+    for (int i = 0; i < size; i++) {
+      OptionalDouble cost = candidates.get(i).getCost();
+      if (!cost.isPresent()) {
+        candidateCosts = null;
+        break;
+      }
+      candidateCosts[i] = cost.getAsDouble();
+    }
+    costs = candidateCosts;
+  }
+
+  private static void addIfInside(Set<Long> points, long point, long from, long to) {
+    if (point > from && point < to) {
+      points.add(point);
+    }
+  }
+
+  /**
+   * Find only the sets whose members can all answer one of the given phrases.
+   *
+   * @param phrases the phrases, like the queried measures
+   * @throws LensException if answerability of a phrase can not be checked
+   */
+  void requireCommonPhrase(Collection<QueriedPhraseContext> phrases) throws LensException {
+    List<QueriedPhraseContext> phraseList = new ArrayList<>(phrases);
+    BitSet[] candidatePhrases = new BitSet[candidates.size()];
+    for (int i = 0; i < candidatePhrases.length; i++) {
+      candidatePhrases[i] = new BitSet(phraseList.size());
+      for (int p = 0; p < phraseList.size(); p++) {
+        if (candidates.get(i).isPhraseAnswerable(phraseList.get(p))) {
+          candidatePhrases[i].set(p);
+        }
+      }
+    }
+    answerable = candidatePhrases;
+    phraseCount = phraseList.size();
+  }
+
+  private boolean answersAnyPhrase(int candidate) {
+    return answerable == null || !answerable[candidate].isEmpty();
+  }
+
+  /**
+   * @return whether all candidates have a cost, which {@link #findCheapest(int)} needs
+   */
+  boolean hasCosts() {
+    return costs != null;
+  }
+
+  /**
+   * Find all minimal covering sets, smaller sets first.
+   *
+   * @return the covering sets, each with candidates in their order
+   */
+  List<List<Candidate>> findAll() {
+    List<List<Candidate>> sets = new ArrayList<>();
+    if (segmentCount == 0) {
+      // nothing to cover, any candidate does
+      for (int i = 0; i < candidates.size(); i++) {
+        if (answersAnyPhrase(i)) {
+          sets.add(Collections.singletonList(candidates.get(i)));
+        }
+      }
+      return sets;
+    }
+    search(new Node(), sets);
+    sets.sort(Comparator.comparing(List::size));
+    return sets;
+  }
+
+  private void search(Node node, List<List<Candidate>> sets) {
+    for (int i = node.next; i < candidates.size(); i++) {
+      if (!node.uncovered.intersects(coverage[i])) {
+        continue;
+      }
+      if (!isCoverable(node.uncovered, i)) {
+        // the candidates after this one cover even less
+        break;
+      }
+      Node child = node.add(i);
+      if (child == null) {
+        continue;
+      }
+      if (child.uncovered.isEmpty()) {
+        sets.add(child.getCandidates());
+      } else {
+        search(child, sets);
+      }
+    }
+  }
+
+  /**
+   * Find the cheapest minimal covering sets, cheapest first. Sets are expanded best first, ordered by a lower bound
+   * of the cost of the covering sets they can grow into, so only the sets that can be cheaper than the last one
+   * found are visited.
+   *
+   * @param limit maximum number of sets to find
+   * @return the covering sets, each with candidates in their order
+   * @throws IllegalStateException if some candidate has no cost
+   */
+  List<List<Candidate>> findCheapest(int limit) {
+    if (!hasCosts()) {
+      throw new IllegalStateException("Not all candidates have a cost: " + candidates);
+    }
+    List<List<Candidate>> sets = new ArrayList<>();
+    if (segmentCount == 0) {
+      Integer[] order = new Integer[candidates.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, Comparator.comparingDouble(i -> costs[i]));
+      for (int i = 0; i < order.length && sets.size() < limit; i++) {
+        if (answersAnyPhrase(order[i])) {
+          sets.add(Collections.singletonList(candidates.get(order[i])));
+        }
+      }
+      return sets;
+    }
+    double[][] suffixCheapest = getSuffixCheapest();
+    PriorityQueue<Node> queue = new PriorityQueue<>(Comparator.<Node>comparingDouble(node -> node.cost)
+      .thenComparing(node -> !node.uncovered.isEmpty()));
+    Node root = new Node();
+    root.cost = getCostBound(root, suffixCheapest);
+    queue.add(root);
+    while (!queue.isEmpty() && sets.size() < limit) {
+      Node node = queue.poll();
+      if (node.uncovered.isEmpty()) {
+        sets.add(node.getCandidates());
+        continue;
+      }
+      for (int i = node.next; i < candidates.size(); i++) {
+        if (!node.uncovered.intersects(coverage[i])) {
+          continue;
+        }
+        if (!isCoverable(node.uncovered, i)) {
+          break;
+        }
+        Node child = node.add(i);
+        if (child != null) {
+          child.cost = getCostBound(child, suffixCheapest);
+          queue.add(child);
+        }
+      }
+    }
+    return sets;
+  }
+
+  /**
+   * Cheapest cost of the candidates from each index till the last that cover each segment, infinite for segments
+   * none of them covers.
+   */
+  private double[][] getSuffixCheapest() {
+    int size = candidates.size();
+    double[][] suffixCheapest = new double[size + 1][segmentCount];
+    Arrays.fill(suffixCheapest[size], Double.POSITIVE_INFINITY);
+    for (int i = size - 1; i >= 0; i--) {
+      System.arraycopy(suffixCheapest[i + 1], 0, suffixCheapest[i], 0, segmentCount);
+      for (int s = coverage[i].nextSetBit(0); s >= 0; s = coverage[i].nextSetBit(s + 1)) {
+        suffixCheapest[i][s] = Math.min(suffixCheapest[i][s], costs[i]);
+      }
+    }
+    return suffixCheapest;
+  }
+
+  /**
+   * The cost of a covering set, or a lower bound of the cost of the covering sets a set can grow into. Each segment
+   * costs the cheapest of the members and of the candidates that can still be added covering it.
+   */
+  private double getCostBound(Node node, double[][] suffixCheapest) {
+    double[] cheapest = new double[segmentCount];
+    if (node.uncovered.isEmpty()) {
+      Arrays.fill(cheapest, Double.POSITIVE_INFINITY);
+    } else {
+      System.arraycopy(suffixCheapest[node.next], 0, cheapest, 0, segmentCount);
+    }
+    for (int member : node.members) {
+      for (int s = coverage[member].nextSetBit(0); s >= 0; s = coverage[member].nextSetBit(s + 1)) {
+        cheapest[s] = Math.min(cheapest[s], costs[member]);
+      }
+    }
+    double cost = 0;
+    for (int s = 0; s < segmentCount; s++) {
+      cost += cheapest[s] * segmentWeights[s];
+    }
+    return cost;
+  }
+
+  /**
+   * @return whether the candidates from index {@code from} till the last cover the uncovered segments
+   */
+  private boolean isCoverable(BitSet uncovered, int from) {
+    BitSet left = (BitSet) uncovered.clone();
+    left.andNot(suffixCoverage[from]);
+    return left.isEmpty();
+  }
+
+  /**
+   * A set of candidates, given by their indices in increasing order.
+   */
+  private class Node {
+    private final int[] members;
+    private final int next;
+    private final BitSet uncovered;
+    /**
+     * Number of members covering each segment.
+     */
+    private final int[] coverCount;
+    /**
+     * Phrases all members can answer, null if not required.
+     */
+    private final BitSet commonPhrases;
+    private double cost;
+
+    Node() {
+      members = new int[0];
+      next = 0;
+      uncovered = new BitSet(segmentCount);
+      uncovered.set(0, segmentCount);
+      coverCount = new int[segmentCount];
+      if (answerable != null) {
+        commonPhrases = new BitSet(phraseCount);
+        commonPhrases.set(0, phraseCount);
+      } else {
+        commonPhrases = null;
+      }
+    }
+
+    private Node(Node parent, int candidate) {
+      members = Arrays.copyOf(parent.members, parent.members.length + 1);
+      members[parent.members.length] = candidate;
+      next = candidate + 1;
+      uncovered = (BitSet) parent.uncovered.clone();
+      uncovered.andNot(coverage[candidate]);
+      coverCount = parent.coverCount.clone();
+      for (int s = coverage[candidate].nextSetBit(0); s >= 0; s = coverage[candidate].nextSetBit(s + 1)) {
+        coverCount[s]++;
+      }
+      if (parent.commonPhrases != null) {
+        commonPhrases = (BitSet) parent.commonPhrases.clone();
+        commonPhrases.and(answerable[candidate]);
+      } else {
+        commonPhrases = null;
+      }
+    }
+
+    /**
+     * Add a candidate, which covers some uncovered segment.
+     *
+     * @return the new set, null if a member is redundant in it, as then it can not grow into a minimal set, or if
+     * its members have no phrase in common
+     */
+    Node add(int candidate) {
+      Node child = new Node(this, candidate);
+      if (child.commonPhrases != null && child.commonPhrases.isEmpty()) {
+        return null;
+      }
+      for (int member : members) {
+        if (!child.coversAlone(member)) {
+          return null;
+        }
+      }
+      return child;
+    }
+
+    private boolean coversAlone(int member) {
+      BitSet covered = coverage[member];
+      for (int s = covered.nextSetBit(0); s >= 0; s = covered.nextSetBit(s + 1)) {
+        if (coverCount[s] == 1) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    List<Candidate> getCandidates() {
+      List<Candidate> set = new ArrayList<>(members.length);
+      for (int member : members) {
+        set.add(candidates.get(member));
+      }
+      return set;
+    }
+  }
+}
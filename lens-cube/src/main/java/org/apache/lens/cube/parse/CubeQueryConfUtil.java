@@ -132,4 +132,6 @@ public final class CubeQueryConfUtil {
   public static final boolean DEFAULT_REWRITE_DIM_FILTER_TO_FACT_FILTER = false;
   public static final String COMPLETENESS_THRESHOLD = "lens.cube.query.completeness.threshold";
   public static final float DEFAULT_COMPLETENESS_THRESHOLD = 100f;
+  public static final String UNION_COVERING_SETS_LIMIT = "lens.cube.query.union.covering.sets.limit";
+  public static final int DEFAULT_UNION_COVERING_SETS_LIMIT = 0;
 }
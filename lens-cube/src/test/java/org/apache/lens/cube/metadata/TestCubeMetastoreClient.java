@@ -29,6 +29,9 @@ import static org.testng.Assert.*;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.lens.api.metastore.XFact;
 import org.apache.lens.cube.error.LensCubeErrorCode;
@@ -2068,6 +2071,49 @@ public class TestCubeMetastoreClient {
     assertEquals(client.getAllParts(storageTableName).size(), 0);
   }
 
+  @Test(priority = 2)
+  public void testConcurrentTimelineLoad() throws Exception {
+    final String factName = "testFactConcurrentTimelines";
+    List<FieldSchema> factColumns = new ArrayList<>(cubeMeasures.size());
+    for (CubeMeasure measure : cubeMeasures) {
+      factColumns.add(measure.getColumn());
+    }
+    StorageTableDesc s1 = new StorageTableDesc(TextInputFormat.class, HiveIgnoreKeyTextOutputFormat.class,
+      datePartSingleton, datePartKeySingleton);
+    Set<UpdatePeriod> updates = Sets.newHashSet(HOURLY, DAILY);
+    Map<String, Set<UpdatePeriod>> updatePeriods = getHashMap(c1, updates);
+    Map<String, StorageTableDesc> storageTables = getHashMap(c1, s1);
+    client.createCubeFactTable(CUBE_NAME, factName, factColumns, updatePeriods, 0L, null, storageTables);
+
+    long loads = CubeMetastoreClient.TIMELINE_LOAD_TIMER.getCount();
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>>> lookups = new ArrayList<>();
+    try {
+      for (int i = 0; i < 8; i++) {
+        lookups.add(pool.submit(() -> client.partitionTimelineCache.get(factName, c1)));
+      }
+      for (Future<TreeMap<UpdatePeriod, CaseInsensitiveStringHashMap<PartitionTimeline>>> lookup : lookups) {
+        assertSame(lookup.get(), lookups.get(0).get());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    // all lookups shared one load
+    assertEquals(CubeMetastoreClient.TIMELINE_LOAD_TIMER.getCount(), loads + 1);
+    assertEquals(lookups.get(0).get().keySet(), updates);
+
+    Map<String, Date> timeParts = getTimePartitionByOffsets(getDatePartitionKey(), 0);
+    client.addPartition(new StoragePartitionDesc(factName, timeParts, null, HOURLY), c1, CubeTableType.FACT);
+    assertSame(client.partitionTimelineCache.get(factName, c1), lookups.get(0).get());
+
+    // refresh reloads timelines from table properties
+    client.partitionTimelineCache.refresh();
+    assertNotSame(client.partitionTimelineCache.get(factName, c1), lookups.get(0).get());
+    assertTrue(client.partitionTimelineCache.partitionTimeExists(factName, c1, HOURLY, getDatePartitionKey(),
+      timeParts.get(getDatePartitionKey())));
+    assertEquals(CubeMetastoreClient.TIMELINE_LOAD_TIMER.getCount(), loads + 1);
+  }
+
   @Test(priority = 2)
   public void testCubeFactWithParts() throws Exception {
     List<FieldSchema> factColumns = new ArrayList<>(cubeMeasures.size());
@@ -3043,6 +3089,83 @@ public class TestCubeMetastoreClient {
     client = CubeMetastoreClient.getInstance(conf);
   }
 
+  @Test(priority = 3)
+  public void testInstanceShutdown() throws Exception {
+    HiveConf refreshConf = new HiveConf(conf);
+    refreshConf.setLong(MetastoreConstants.METASTORE_PARTITION_TIMELINE_REFRESH_INTERVAL_SECS, 3600);
+    SessionState state = SessionState.get();
+    String currentDb = state.getCurrentDatabase();
+    state.setCurrentDatabase("instance_shutdown");
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<CubeMetastoreClient>> instances = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        instances.add(pool.submit(() -> {
+          SessionState.setCurrentSessionState(state);
+          return CubeMetastoreClient.getInstance(refreshConf);
+        }));
+      }
+      CubeMetastoreClient instance = instances.get(0).get();
+      for (Future<CubeMetastoreClient> other : instances) {
+        assertSame(other.get(), instance);
+      }
+      assertTrue(instance.partitionTimelineCache.isRefreshing());
+
+      instance.shutdown();
+      assertFalse(instance.partitionTimelineCache.isRefreshing());
+      CubeMetastoreClient next = CubeMetastoreClient.getInstance(refreshConf);
+      assertNotSame(next, instance);
+      assertTrue(next.partitionTimelineCache.isRefreshing());
+      next.shutdown();
+    } finally {
+      pool.shutdownNow();
+      state.setCurrentDatabase(currentDb);
+    }
+  }
+
+  @Test(priority = 3)
+  public void testChangeFeedEvictsChangedTables() throws HiveException, LensException {
+    client = CubeMetastoreClient.getInstance(conf);
+    String dbName = TestCubeMetastoreClient.class.getSimpleName();
+    defineCube("changefeed1", "changefeed2", "changefeedderived1", "changefeedderived2");
+    client.createCube("changefeed1", cubeMeasures, cubeDimensions);
+    client.createCube("changefeed2", cubeMeasures, cubeDimensions);
+    CubeInterface cached = client.getCube("changefeed1");
+    assertNotNull(cached);
+    int cubes = client.getAllCubes().size();
+
+    // change tables directly in the metastore, as another server would
+    Hive hive = Hive.get(conf);
+    Table changed = hive.getTable("changefeed1");
+    changed.getParameters().put("changefeed.test.property", "changed");
+    hive.alterTable("changefeed1", changed, null);
+    hive.dropTable("changefeed2");
+    assertNull(client.getHiveTable("changefeed1").getParameters().get("changefeed.test.property"));
+    assertEquals(client.getAllCubes().size(), cubes);
+
+    long now = System.currentTimeMillis();
+    client.applyChanges(Lists.newArrayList(
+      new MetastoreChange(MetastoreChange.Type.ALTER_TABLE, dbName, "changefeed1", now),
+      new MetastoreChange(MetastoreChange.Type.DROP_TABLE, dbName, "changefeed2", now),
+      new MetastoreChange(MetastoreChange.Type.DROP_TABLE, "otherdb", "changefeed1", now)));
+
+    assertEquals(client.getHiveTable("changefeed1").getParameters().get("changefeed.test.property"), "changed");
+    assertNotSame(client.getCube("changefeed1"), cached);
+    assertEquals(client.getAllCubes().size(), cubes - 1);
+
+    // changes made through this client are already in the caches
+    Table own = client.getHiveTable("changefeed1");
+    own.getParameters().put("changefeed.test.property", "own");
+    client.alterHiveTable("changefeed1", own);
+    Table cachedTable = client.getHiveTable("changefeed1");
+    cached = client.getCube("changefeed1");
+    client.applyChanges(Lists.newArrayList(
+      new MetastoreChange(MetastoreChange.Type.ALTER_TABLE, dbName, "changefeed1", System.currentTimeMillis())));
+    assertSame(client.getHiveTable("changefeed1"), cachedTable);
+    assertSame(client.getCube("changefeed1"), cached);
+    client.dropCube("changefeed1");
+  }
+
   @Test(priority = 4)
   public void testMetastoreAuthorization() throws HiveException, LensException {
 
@@ -25,6 +25,7 @@ import java.util.*;
 
 import org.apache.lens.cube.metadata.TestTimePartition;
 import org.apache.lens.cube.metadata.TimePartition;
+import org.apache.lens.cube.metadata.TimePartitionRange;
 import org.apache.lens.cube.metadata.UpdatePeriod;
 import org.apache.lens.cube.metadata.UpdatePeriodTest;
 import org.apache.lens.server.api.error.LensException;
@@ -44,7 +45,8 @@ public class TestPartitionTimelines {
   private static final List<Class<? extends PartitionTimeline>> TIMELINE_IMPLEMENTATIONS = Arrays.asList(
     StoreAllPartitionTimeline.class,
     EndsAndHolesPartitionTimeline.class,
-    RangesPartitionTimeline.class
+    RangesPartitionTimeline.class,
+    BitmapPartitionTimeline.class
   );
 
   @DataProvider(name = "update-periods")
@@ -173,4 +175,69 @@ public class TestPartitionTimelines {
     assertTrue(inst2.isConsistent());
     assertEquals(inst1, inst2);
   }
+
+  @Test(dataProvider = "update-periods")
+  public void testMissingRanges(UpdatePeriod period) throws LensException, InvocationTargetException,
+    NoSuchMethodException, InstantiationException, IllegalAccessException {
+    final Random randomGenerator = new Random();
+    List<PartitionTimeline> timelines = Lists.newArrayList();
+    for (Class<? extends PartitionTimeline> clazz : TIMELINE_IMPLEMENTATIONS) {
+      timelines.add(getInstance(clazz, period));
+    }
+    for (int i = 0; i < 40; i++) {
+      TimePartition part = TimePartition.of(period, TestTimePartition.timeAtDiff(TestTimePartition.NOW, period,
+        randomGenerator.nextInt(60) - 30));
+      for (PartitionTimeline timeline : timelines) {
+        timeline.add(part);
+      }
+    }
+    for (int i = 0; i < 20; i++) {
+      int from = randomGenerator.nextInt(80) - 40;
+      TimePartitionRange range = TimePartition.of(period, TestTimePartition.timeAtDiff(TestTimePartition.NOW, period,
+        from)).rangeUpto(TimePartition.of(period, TestTimePartition.timeAtDiff(TestTimePartition.NOW, period,
+        from + randomGenerator.nextInt(20))));
+      // StoreAllPartitionTimeline uses the default implementation
+      List<TimePartitionRange> expected = timelines.get(0).getMissingRanges(range);
+      for (TimePartitionRange missing : expected) {
+        for (TimePartition part : missing) {
+          assertFalse(timelines.get(0).exists(part));
+        }
+      }
+      for (PartitionTimeline timeline : timelines) {
+        assertEquals(timeline.getMissingRanges(range), expected, timeline.getClass() + " for " + range);
+        assertEquals(timeline.covers(range), expected.isEmpty());
+      }
+    }
+  }
+
+  @Test
+  public void testBitmapProperties() throws LensException {
+    final Random randomGenerator = new Random();
+    BitmapPartitionTimeline timeline = new BitmapPartitionTimeline(TABLE_NAME, UpdatePeriod.MINUTELY, PART_COL);
+    // a year of minutely partitions, a tenth of them missing
+    TimePartition first = TimePartition.of(UpdatePeriod.MINUTELY, TestTimePartition.NOW);
+    TimePartition latest = first.partitionAtDiff(365 * 24 * 60);
+    assertTrue(timeline.add(first.rangeUpto(latest.next())));
+    for (int i = 0; i < 50000; i++) {
+      timeline.drop(first.partitionAtDiff(1 + randomGenerator.nextInt(365 * 24 * 60 - 1)));
+    }
+    assertEquals(timeline.latest(), latest);
+    assertTrue(timeline.exists(first));
+    assertFalse(timeline.exists(first.previous()));
+
+    Map<String, String> props = timeline.toProperties();
+    assertTrue(Integer.parseInt(props.get("bitmap.size")) > 1);
+    BitmapPartitionTimeline other = new BitmapPartitionTimeline(TABLE_NAME, UpdatePeriod.MINUTELY, PART_COL);
+    assertTrue(other.initFromProperties(props));
+    assertEquals(other, timeline);
+
+    // adding before the first partition keeps existing partitions
+    TimePartition before = first.partitionAtDiff(-1000);
+    assertTrue(timeline.add(before));
+    assertTrue(timeline.isConsistent());
+    assertTrue(timeline.exists(before));
+    assertTrue(timeline.exists(first));
+    assertEquals(timeline.latest(), latest);
+    assertEquals(timeline.iterator().next(), before);
+  }
 }
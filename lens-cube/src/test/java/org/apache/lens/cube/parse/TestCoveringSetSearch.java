@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.cube.parse;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.*;
+
+import org.apache.lens.cube.metadata.TimeRange;
+import org.apache.lens.server.api.error.LensException;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+
+public class TestCoveringSetSearch {
+
+  static Candidate candidate(long start, long end, Double cost) {
+    Candidate candidate = mock(Candidate.class);
+    when(candidate.getStartTime()).thenReturn(new Date(start));
+    when(candidate.getEndTime()).thenReturn(new Date(end));
+    when(candidate.getCost()).thenReturn(cost == null ? OptionalDouble.empty() : OptionalDouble.of(cost));
+    return candidate;
+  }
+
+  static TimeRange range(long from, long to) {
+    return TimeRange.builder().partitionColumn("dt").fromDate(new Date(from)).toDate(new Date(to)).build();
+  }
+
+  private static boolean covers(List<Candidate> set, List<TimeRange> ranges) {
+    for (TimeRange range : ranges) {
+      if (!CandidateUtil.isTimeRangeCovered(set, range.getFromDate(), range.getToDate())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * All minimal covering sets, by checking all subsets.
+   */
+  private static Set<List<Candidate>> allMinimalCoveringSets(List<Candidate> candidates, List<TimeRange> ranges) {
+    Set<List<Candidate>> sets = new HashSet<>();
+    for (int mask = 1; mask < 1 << candidates.size(); mask++) {
+      List<Candidate> set = new ArrayList<>();
+      for (int i = 0; i < candidates.size(); i++) {
+        if ((mask & 1 << i) != 0) {
+          set.add(candidates.get(i));
+        }
+      }
+      if (!covers(set, ranges)) {
+        continue;
+      }
+      boolean minimal = true;
+      for (Candidate member : set) {
+        List<Candidate> others = new ArrayList<>(set);
+        others.remove(member);
+        minimal &= !covers(others, ranges) || others.isEmpty();
+      }
+      if (minimal) {
+        sets.add(set);
+      }
+    }
+    return sets;
+  }
+
+  /**
+   * Cost of a covering set as {@link UnionCandidate#getCost()} computes it: cheaper members answer their time first.
+   */
+  private static double cost(List<Candidate> set, List<TimeRange> ranges) {
+    List<Candidate> byCost = new ArrayList<>(set);
+    byCost.sort(Comparator.comparingDouble(candidate -> candidate.getCost().getAsDouble()));
+    double cost = 0;
+    for (TimeRange range : ranges) {
+      RangeSet<Long> left = TreeRangeSet.create();
+      left.add(Range.closedOpen(range.getFromDate().getTime(), range.getToDate().getTime()));
+      for (Candidate candidate : byCost) {
+        Range<Long> covered = Range.closedOpen(candidate.getStartTime().getTime(), candidate.getEndTime().getTime());
+        for (Range<Long> part : left.subRangeSet(covered).asRanges()) {
+          cost += candidate.getCost().getAsDouble() * (part.upperEndpoint() - part.lowerEndpoint())
+            / range.milliseconds();
+        }
+        left.remove(covered);
+      }
+    }
+    return cost;
+  }
+
+  @Test
+  public void testFindAll() {
+    Candidate a = candidate(0, 10, 1.0);
+    Candidate b = candidate(5, 20, 1.0);
+    Candidate c = candidate(10, 30, 1.0);
+    Candidate d = candidate(0, 30, 1.0);
+    Candidate e = candidate(18, 25, 1.0);
+    CoveringSetSearch search = new CoveringSetSearch(Lists.newArrayList(a, b, c, d, e),
+      Collections.singletonList(range(0, 30)));
+    assertEquals(search.findAll(), Arrays.asList(Collections.singletonList(d), Arrays.asList(a, c)));
+
+    search = new CoveringSetSearch(Lists.newArrayList(a, b, e), Collections.singletonList(range(0, 30)));
+    assertTrue(search.findAll().isEmpty());
+    assertTrue(search.findCheapest(3).isEmpty());
+  }
+
+  @Test
+  public void testFindCheapest() {
+    Candidate a = candidate(0, 10, 1.0);
+    Candidate b = candidate(10, 30, 2.0);
+    Candidate c = candidate(0, 30, 3.0);
+    Candidate d = candidate(0, 30, 1.5);
+    CoveringSetSearch search = new CoveringSetSearch(Lists.newArrayList(a, b, c, d),
+      Collections.singletonList(range(0, 30)));
+    assertTrue(search.hasCosts());
+    assertEquals(search.findCheapest(2), Arrays.asList(Collections.singletonList(d), Arrays.asList(a, b)));
+    assertEquals(search.findCheapest(5).size(), 3);
+
+    search = new CoveringSetSearch(Lists.newArrayList(a, candidate(10, 30, null)),
+      Collections.singletonList(range(0, 30)));
+    assertFalse(search.hasCosts());
+    assertEquals(search.findAll().size(), 1);
+  }
+
+  @Test
+  public void testCommonPhrase() throws LensException {
+    QueriedPhraseContext msr1 = mock(QueriedPhraseContext.class);
+    QueriedPhraseContext msr2 = mock(QueriedPhraseContext.class);
+    Candidate a = candidate(0, 10, 1.0);
+    Candidate b = candidate(10, 30, 1.0);
+    Candidate c = candidate(0, 30, 5.0);
+    Candidate d = candidate(0, 10, 2.0);
+    when(a.isPhraseAnswerable(msr1)).thenReturn(true);
+    when(b.isPhraseAnswerable(msr2)).thenReturn(true);
+    when(c.isPhraseAnswerable(msr1)).thenReturn(true);
+    when(d.isPhraseAnswerable(msr2)).thenReturn(true);
+    List<Candidate> candidates = Lists.newArrayList(a, b, c, d);
+    List<TimeRange> ranges = Collections.singletonList(range(0, 30));
+
+    // the cheapest sets answer no measure in common
+    CoveringSetSearch search = new CoveringSetSearch(candidates, ranges);
+    assertEquals(search.findCheapest(1), Collections.singletonList(Arrays.asList(a, b)));
+
+    search = new CoveringSetSearch(candidates, ranges);
+    search.requireCommonPhrase(Arrays.asList(msr1, msr2));
+    assertEquals(search.findCheapest(1), Collections.singletonList(Arrays.asList(b, d)));
+    assertEquals(search.findCheapest(3), Arrays.asList(Arrays.asList(b, d), Collections.singletonList(c)));
+    assertEquals(search.findAll(), Arrays.asList(Collections.singletonList(c), Arrays.asList(b, d)));
+
+    // nothing to cover, candidates answering no measure are left out
+    search = new CoveringSetSearch(Lists.newArrayList(a, candidate(0, 10, 0.5)),
+      Collections.singletonList(range(5, 5)));
+    search.requireCommonPhrase(Collections.singletonList(msr1));
+    assertEquals(search.findCheapest(2), Collections.singletonList(Collections.singletonList(a)));
+  }
+
+  @Test
+  public void testAgainstAllSubsets() {
+    Random random = new Random(42);
+    for (int iteration = 0; iteration < 300; iteration++) {
+      List<Candidate> candidates = new ArrayList<>();
+      int size = 1 + random.nextInt(10);
+      for (int i = 0; i < size; i++) {
+        long start = random.nextInt(40);
+        candidates.add(candidate(start, start + random.nextInt(40), (double) (1 + random.nextInt(5))));
+      }
+      List<TimeRange> ranges = new ArrayList<>();
+      for (int i = random.nextInt(2); i >= 0; i--) {
+        long from = random.nextInt(30);
+        ranges.add(range(from, from + random.nextInt(30)));
+      }
+      Set<List<Candidate>> expected = allMinimalCoveringSets(candidates, ranges);
+      CoveringSetSearch search = new CoveringSetSearch(candidates, ranges);
+
+      List<List<Candidate>> all = search.findAll();
+      assertEquals(new HashSet<>(all), expected);
+      assertEquals(all.size(), expected.size());
+      for (int i = 1; i < all.size(); i++) {
+        assertTrue(all.get(i - 1).size() <= all.get(i).size());
+      }
+
+      List<Double> expectedCosts = new ArrayList<>();
+      for (List<Candidate> set : expected) {
+        expectedCosts.add(cost(set, ranges));
+      }
+      Collections.sort(expectedCosts);
+      int limit = 1 + random.nextInt(5);
+      List<List<Candidate>> cheapest = search.findCheapest(limit);
+      assertEquals(cheapest.size(), Math.min(limit, expected.size()));
+      for (int i = 0; i < cheapest.size(); i++) {
+        assertTrue(expected.contains(cheapest.get(i)));
+        assertEquals(cost(cheapest.get(i), ranges), expectedCosts.get(i), 1e-9);
+      }
+    }
+  }
+}
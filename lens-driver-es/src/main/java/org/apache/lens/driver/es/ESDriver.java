@@ -34,6 +34,7 @@ import org.apache.lens.cube.parse.HQLParser;
 import org.apache.lens.driver.es.client.ESClient;
 import org.apache.lens.driver.es.client.ESResultSet;
 import org.apache.lens.driver.es.client.jest.JestClientImpl;
+import org.apache.lens.driver.es.exceptions.ESClientException;
 import org.apache.lens.driver.es.translator.ESVisitor;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.driver.*;
@@ -82,10 +83,30 @@ public class ESDriver extends AbstractLensDriver {
   private final Map<String, ESQuery> rewrittenQueriesCache = Maps.newConcurrentMap();
   private final Map<QueryHandle, Future<LensResultSet>> resultSetMap = Maps.newConcurrentMap();
   private final Map<QueryHandle, QueryContext> handleContextMap = Maps.newConcurrentMap();
+  /**
+   * Result sets which may hold scroll contexts on elastic search, till they are closed
+   */
+  private final Map<QueryHandle, ESResultSet> openResultSets = Maps.newConcurrentMap();
 
+  /**
+   * Cost of the query is the rows it is estimated to return, times {@link ESDriverConfig#COST_PER_ROW_KEY}. The cost
+   * is 0 when the estimation is turned off, or when the rows can't be estimated in time, so that a slow or failing
+   * estimate search does not keep the query from running on the driver.
+   */
   @Override
-  public QueryCost estimate(AbstractQueryContext qctx) {
-    return ES_DRIVER_COST;
+  public QueryCost estimate(AbstractQueryContext qctx) throws LensException {
+    if (config.getCostPerRow() <= 0) {
+      return ES_DRIVER_COST;
+    }
+    final ESQuery esQuery = rewrite(qctx);
+    try {
+      final long rows = esClient.estimateRows(esQuery);
+      log.debug("Estimated {} rows for {}", rows, esQuery);
+      return new FactPartitionBasedQueryCost(rows * config.getCostPerRow());
+    } catch (ESClientException | RuntimeException e) {
+      log.warn("Could not estimate rows of {}, using the default cost", esQuery, e);
+      return ES_DRIVER_COST;
+    }
   }
 
   @Override
@@ -130,17 +151,30 @@ public class ESDriver extends AbstractLensDriver {
   public LensResultSet execute(QueryContext context) throws LensException {
     handleContextMap.put(context.getQueryHandle(), context);
     final ESQuery esQuery = rewrite(context);
-    final ESResultSet resultSet = esClient.execute(esQuery);
+    final ESResultSet resultSet = esClient.execute(esQuery, tagFor(context.getQueryHandle()));
+    if (Thread.currentThread().isInterrupted()) {
+      // cancelled while the search was running
+      resultSet.close();
+      handleContextMap.remove(context.getQueryHandle());
+      throw new LensException("Query " + context.getQueryHandleString() + " was cancelled");
+    }
+    openResultSets.put(context.getQueryHandle(), resultSet);
     context.setDriverStatus(DriverQueryStatus.DriverQueryState.SUCCESSFUL);
     handleContextMap.remove(context.getQueryHandle());
     return resultSet;
   }
 
   @Override
-  public void executeAsync(final QueryContext context) {
+  public void executeAsync(final QueryContext context) throws LensException {
     handleContextMap.put(context.getQueryHandle(), context);
-    final Future<LensResultSet> futureResult
-      = asyncQueryPool.submit(new ESQueryExecuteCallable(context, SessionState.get()));
+    final Future<LensResultSet> futureResult;
+    try {
+      futureResult = asyncQueryPool.submit(new ESQueryExecuteCallable(context, SessionState.get()));
+    } catch (RejectedExecutionException e) {
+      handleContextMap.remove(context.getQueryHandle());
+      throw new LensException("Driver " + getFullyQualifiedName()
+        + " is running and queueing as many queries as it can", e);
+    }
     resultSetMap.put(context.getQueryHandle(), futureResult);
   }
 
@@ -152,17 +186,29 @@ public class ESDriver extends AbstractLensDriver {
       context.getDriverStatus().setState(DriverQueryStatus.DriverQueryState.CLOSED);
       context.getDriverStatus().setStatusMessage(queryHandle + " closed");
       context.getDriverStatus().setResultSetAvailable(false);
-    } else if (lensResultSetFuture.isDone()) {
-      context.getDriverStatus().setState(DriverQueryStatus.DriverQueryState.SUCCESSFUL);
-      context.getDriverStatus().setStatusMessage(queryHandle + " successful");
-      context.getDriverStatus().setResultSetAvailable(true);
     } else if (lensResultSetFuture.isCancelled()) {
       context.getDriverStatus().setState(DriverQueryStatus.DriverQueryState.CANCELED);
       context.getDriverStatus().setStatusMessage(queryHandle + " cancelled");
       context.getDriverStatus().setResultSetAvailable(false);
+    } else if (lensResultSetFuture.isDone()) {
+      try {
+        lensResultSetFuture.get();
+        context.getDriverStatus().setState(DriverQueryStatus.DriverQueryState.SUCCESSFUL);
+        context.getDriverStatus().setStatusMessage(queryHandle + " successful");
+        context.getDriverStatus().setResultSetAvailable(true);
+      } catch (InterruptedException | ExecutionException e) {
+        context.getDriverStatus().setState(DriverQueryStatus.DriverQueryState.FAILED);
+        context.getDriverStatus().setStatusMessage(queryHandle + " failed");
+        context.getDriverStatus().setErrorMessage(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        context.getDriverStatus().setResultSetAvailable(false);
+      }
     }
   }
 
+  private static String tagFor(QueryHandle handle) {
+    return "lens-" + handle.getHandleIdString();
+  }
+
   @Override
   public LensResultSet fetchResultSet(QueryContext context) throws LensException {
     try {
@@ -184,19 +230,40 @@ public class ESDriver extends AbstractLensDriver {
     if (resultSetMap.containsKey(handle)) {
       resultSetMap.remove(handle);
     }
+    closeOpenResultSet(handle);
+  }
+
+  private void closeOpenResultSet(QueryHandle handle) {
+    final ESResultSet resultSet = openResultSets.remove(handle);
+    if (resultSet != null) {
+      resultSet.close();
+    }
   }
 
   @Override
   public boolean cancelQuery(QueryHandle handle) throws LensException {
-    try {
-      boolean cancelled = resultSetMap.get(handle).cancel(true);
-      if (cancelled) {
-        handleContextMap.get(handle).setDriverStatus(DriverQueryStatus.DriverQueryState.CANCELED);
+    closeOpenResultSet(handle);
+    final Future<LensResultSet> future = resultSetMap.get(handle);
+    if (future == null) {
+      throw new LensException("The query does not exist or was already purged");
+    }
+    boolean cancelled = future.cancel(true);
+    if (cancelled) {
+      /**
+       * The thread of the query is blocked on the search request, which returns once the search is cancelled on
+       * elastic search
+       */
+      try {
+        esClient.cancel(tagFor(handle));
+      } catch (ESClientException e) {
+        log.warn("Could not cancel searches of {} on elastic search", handle, e);
+      }
+      final QueryContext context = handleContextMap.get(handle);
+      if (context != null) {
+        context.setDriverStatus(DriverQueryStatus.DriverQueryState.CANCELED);
       }
-      return cancelled;
-    } catch (NullPointerException e) {
-      throw new LensException("The query does not exist or was already purged", e);
     }
+    return cancelled;
   }
 
   @Override
@@ -215,6 +282,12 @@ public class ESDriver extends AbstractLensDriver {
         log.error("Error while closing query {}", handle.getHandleIdString(), e);
       }
     }
+    for (QueryHandle handle : openResultSets.keySet()) {
+      closeOpenResultSet(handle);
+    }
+    if (asyncQueryPool != null) {
+      asyncQueryPool.shutdownNow();
+    }
   }
 
   @Override
@@ -303,14 +376,19 @@ public class ESDriver extends AbstractLensDriver {
       throw new LensException("Cannot start es driver", e);
     }
     log.info("ES Driver {} configured", getFullyQualifiedName());
-    asyncQueryPool = Executors.newCachedThreadPool(new ThreadFactory() {
-      @Override
-      public Thread newThread(Runnable runnable) {
-        Thread th = new Thread(runnable);
-        th.setName("lens-driver-es-" + THID.incrementAndGet());
-        return th;
-      }
-    });
+    final int threads = config.getMaxConcurrentQueries();
+    // as many queries as there are threads can wait, launches beyond that are rejected
+    final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(threads), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread th = new Thread(runnable);
+          th.setName("lens-driver-es-" + THID.incrementAndGet());
+          return th;
+        }
+      });
+    pool.allowCoreThreadTimeOut(true);
+    asyncQueryPool = pool;
   }
 
   @Override
@@ -19,6 +19,7 @@
 package org.apache.lens.driver.es;
 
 import org.apache.lens.driver.es.translator.ASTVisitor;
+import org.apache.lens.server.api.query.constraint.MaxConcurrentDriverQueriesConstraintFactory;
 
 import org.apache.hadoop.conf.Configuration;
 
@@ -34,6 +35,13 @@ public final class ESDriverConfig {
   public static final String TERM_FETCH_SIZE_KEY = "lens.driver.es.term.fetch.size";
   public static final String AGGR_BUCKET_SIZE_LENS_KEY = "lens.driver.es.aggr.bucket.size";
   public static final String QUERY_TIME_OUT_LENS_KEY = "lens.driver.es.query.timeout.millis";
+  public static final String SCROLL_ENABLED_KEY = "lens.driver.es.scroll.enabled";
+  public static final String SCROLL_KEEP_ALIVE_KEY = "lens.driver.es.scroll.keepalive";
+  public static final String AGGR_COMPOSITE_ENABLED_KEY = "lens.driver.es.aggr.composite.enabled";
+  public static final String COST_PER_ROW_KEY = "lens.driver.es.cost.per.row";
+  public static final String ESTIMATE_TIME_OUT_LENS_KEY = "lens.driver.es.estimate.timeout.millis";
+  public static final String MAX_CONCURRENT_QUERIES_KEY =
+    MaxConcurrentDriverQueriesConstraintFactory.MAX_CONCURRENT_QUERIES_KEY;
 
   public static final String AGGS = "aggs";
   public static final String MATCH_ALL = "match_all";
@@ -48,6 +56,11 @@ public final class ESDriverConfig {
   public static final String TERM_SORT = "sort";
   public static final String SIZE = "size";
   public static final String QUERY_TIME_OUT_STRING = "timeout";
+  public static final String COMPOSITE = "composite";
+  public static final String COMPOSITE_GROUPS = "composite_groups";
+  public static final String SOURCES = "sources";
+  public static final String AFTER = "after";
+  public static final String CARDINALITY = "cardinality";
 
   public static final ImmutableMap<ASTVisitor.OrderBy, String> ORDER_BYS;
   public static final int AGGR_TERM_FETCH_SIZE = 0;
@@ -57,6 +70,12 @@ public final class ESDriverConfig {
   private static final int QUERY_TIME_OUT_MS_DEFAULT = 10000;
 
   private static final int TERM_FETCH_SIZE_DEFAULT = 5000;
+  private static final boolean SCROLL_ENABLED_DEFAULT = true;
+  private static final String SCROLL_KEEP_ALIVE_DEFAULT = "1m";
+  private static final boolean AGGR_COMPOSITE_ENABLED_DEFAULT = true;
+  private static final double COST_PER_ROW_DEFAULT = 0;
+  private static final int ESTIMATE_TIME_OUT_MS_DEFAULT = 1000;
+  private static final int MAX_CONCURRENT_QUERIES_DEFAULT = 10;
 
   static {
     final ImmutableMap.Builder<ASTVisitor.OrderBy, String> orderByBuilder = ImmutableMap.builder();
@@ -72,6 +91,18 @@ public final class ESDriverConfig {
   @Getter
   private final int queryTimeOutMs;
   private final int termFetchSize;
+  @Getter
+  private final boolean scrollEnabled;
+  @Getter
+  private final String scrollKeepAlive;
+  @Getter
+  private final boolean compositeAggregationEnabled;
+  @Getter
+  private final double costPerRow;
+  @Getter
+  private final int estimateTimeOutMs;
+  @Getter
+  private final int maxConcurrentQueries;
 
   public int getTermFetchSize() {
     return termFetchSize;
@@ -82,6 +113,12 @@ public final class ESDriverConfig {
     aggrBucketSize = conf.getInt(AGGR_BUCKET_SIZE_LENS_KEY, AGGR_BUCKET_SIZE_DEFAULT);
     queryTimeOutMs = conf.getInt(QUERY_TIME_OUT_LENS_KEY, QUERY_TIME_OUT_MS_DEFAULT);
     termFetchSize = conf.getInt(TERM_FETCH_SIZE_KEY, TERM_FETCH_SIZE_DEFAULT);
+    scrollEnabled = conf.getBoolean(SCROLL_ENABLED_KEY, SCROLL_ENABLED_DEFAULT);
+    scrollKeepAlive = conf.get(SCROLL_KEEP_ALIVE_KEY, SCROLL_KEEP_ALIVE_DEFAULT);
+    compositeAggregationEnabled = conf.getBoolean(AGGR_COMPOSITE_ENABLED_KEY, AGGR_COMPOSITE_ENABLED_DEFAULT);
+    costPerRow = conf.getDouble(COST_PER_ROW_KEY, COST_PER_ROW_DEFAULT);
+    estimateTimeOutMs = conf.getInt(ESTIMATE_TIME_OUT_LENS_KEY, ESTIMATE_TIME_OUT_MS_DEFAULT);
+    maxConcurrentQueries = conf.getInt(MAX_CONCURRENT_QUERIES_KEY, MAX_CONCURRENT_QUERIES_DEFAULT);
   }
 
 
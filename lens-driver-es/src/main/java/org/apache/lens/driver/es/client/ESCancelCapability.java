@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.driver.es.client;
+
+import org.apache.lens.driver.es.exceptions.ESClientException;
+
+/**
+ * Implemented by {@link ESClient}s which can cancel the searches of a query running on elastic search. Searches of
+ * queries are tagged by such clients, see {@link ESClient#execute(org.apache.lens.driver.es.ESQuery, String)}.
+ */
+public interface ESCancelCapability {
+
+  /**
+   * Cancel the searches running on elastic search which were started with a tag, including the fetches of their
+   * scrolls.
+   *
+   * @param tag the tag the searches were started with
+   * @return number of searches cancelled
+   * @throws ESClientException if the searches can't be listed or cancelled
+   */
+  int cancelTagged(String tag) throws ESClientException;
+}
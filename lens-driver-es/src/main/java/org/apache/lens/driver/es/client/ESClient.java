@@ -18,7 +18,10 @@
  */
 package org.apache.lens.driver.es.client;
 
+import java.io.Closeable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.apache.lens.api.query.ResultRow;
@@ -29,25 +32,197 @@ import org.apache.lens.driver.es.exceptions.ESClientException;
 import org.apache.hadoop.conf.Configuration;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import lombok.Data;
 import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 public abstract class ESClient {
 
+  private static final String HITS = "hits";
+  private static final String TOTAL = "total";
+  private static final String AGGREGATIONS = "aggregations";
+  private static final String DOC_COUNT = "doc_count";
+  private static final String VALUE = "value";
+  private static final String TIMED_OUT = "timed_out";
+  private static final String STATS = "stats";
+
   @NonNull
   protected final ESDriverConfig esDriverConfig;
 
   private ExecutionMode getExecutionModeFor(ESQuery esQuery) {
-    return esQuery.getQueryType().equals(ESQuery.QueryType.AGGR)
+    if (esQuery.getQueryType().equals(ESQuery.QueryType.AGGR)) {
+      final JsonObject jsonQuery = (JsonObject) new JsonParser().parse(esQuery.getQuery());
+      return getCompositeNode(jsonQuery) != null
+        ?
+        new CompositePagingExecutionMode(esQuery, jsonQuery)
+        :
+        new DefaultExecutionMode(esQuery);
+    }
+    return esDriverConfig.isScrollEnabled() && this instanceof ESScrollCapability
       ?
-      new DefaultExecutionMode(esQuery)
+      new StreamingExecutionMode(esQuery, (ESScrollCapability) this)
       :
       new ScrollingExecutionMode(esQuery);
   }
 
   protected abstract ESResultSet executeImpl(ESQuery esQuery) throws ESClientException;
 
+  /**
+   * Tag the searches of a query with a stats group, which is part of the description of their tasks on elastic
+   * search, so that they can be found to cancel them.
+   */
+  private static ESQuery tag(ESQuery esQuery, String tag) {
+    final JsonObject jsonQuery = (JsonObject) new JsonParser().parse(esQuery.getQuery());
+    final JsonArray stats = new JsonArray();
+    stats.add(new JsonPrimitive(tag));
+    jsonQuery.add(STATS, stats);
+    return withQuery(esQuery, jsonQuery);
+  }
+
+  /**
+   * @return the tag the query was executed with, null if it is not tagged
+   */
+  protected static String getTag(ESQuery esQuery) {
+    final JsonArray stats = ((JsonObject) new JsonParser().parse(esQuery.getQuery())).getAsJsonArray(STATS);
+    return stats == null || stats.size() == 0 ? null : stats.get(0).getAsString();
+  }
+
+  private static ESQuery withQuery(ESQuery esQuery, JsonObject jsonQuery) {
+    return new ESQuery(
+      esQuery.getIndex(),
+      esQuery.getType(),
+      jsonQuery.toString(),
+      ImmutableList.copyOf(esQuery.getSchema()),
+      ImmutableList.copyOf(esQuery.getColumns()),
+      esQuery.getQueryType(),
+      esQuery.getLimit()
+    );
+  }
+
+  /**
+   * Estimate the number of rows a query returns, with a search which fetches no hits. Document look up queries return
+   * a row for each matching document. Group by queries return a row for each group, estimated as the product of the
+   * cardinalities of the group by columns, which is at most the number of matching documents. Aggregations without
+   * group by return a single row. The limit of the query bounds the estimate. The search times out after
+   * {@link ESDriverConfig#ESTIMATE_TIME_OUT_LENS_KEY}. Rows can be estimated by clients which implement
+   * {@link ESSearchCapability}.
+   *
+   * @param esQuery the query
+   * @return the estimated number of rows
+   * @throws ESClientException if the search fails or times out, or the client can't search
+   */
+  public long estimateRows(ESQuery esQuery) throws ESClientException {
+    if (!(this instanceof ESSearchCapability)) {
+      throw new ESClientException("Rows can't be estimated by " + getClass().getName());
+    }
+    final JsonObject jsonQuery = (JsonObject) new JsonParser().parse(esQuery.getQuery());
+    jsonQuery.addProperty(ESDriverConfig.SIZE, 0);
+    jsonQuery.addProperty(ESDriverConfig.QUERY_TIME_OUT_STRING, esDriverConfig.getEstimateTimeOutMs());
+    jsonQuery.remove(ESDriverConfig.FROM);
+    jsonQuery.remove(ESDriverConfig.FIELDS);
+    jsonQuery.remove(ESDriverConfig.TERM_SORT);
+    final JsonObject aggs = jsonQuery.getAsJsonObject(ESDriverConfig.AGGS);
+    final boolean paged = getCompositeNode(jsonQuery) != null;
+    final List<String> groupByFields = Lists.newArrayList();
+    if (aggs != null) {
+      final JsonObject filterWrapper = aggs.getAsJsonObject(ESDriverConfig.FILTER_WRAPPER);
+      collectTermsFields(filterWrapper.get(ESDriverConfig.AGGS), groupByFields);
+      if (groupByFields.isEmpty()) {
+        return 1;
+      }
+      final JsonObject cardinalities = new JsonObject();
+      for (int i = 0; i < groupByFields.size(); i++) {
+        final JsonObject cardinality = new JsonObject();
+        cardinality.addProperty(ESDriverConfig.FIELD, groupByFields.get(i));
+        final JsonObject cardinalityAgg = new JsonObject();
+        cardinalityAgg.add(ESDriverConfig.CARDINALITY, cardinality);
+        cardinalities.add(ESDriverConfig.CARDINALITY + i, cardinalityAgg);
+      }
+      filterWrapper.add(ESDriverConfig.AGGS, cardinalities);
+    }
+    final JsonObject response = ((ESSearchCapability) this).search(withQuery(esQuery, jsonQuery));
+    if (response.has(TIMED_OUT) && response.get(TIMED_OUT).getAsBoolean()) {
+      // counts of a timed out search are partial, and would under estimate the rows
+      throw new ESClientException("Estimate timed out after " + esDriverConfig.getEstimateTimeOutMs() + "ms");
+    }
+    long rows;
+    if (aggs == null) {
+      rows = getTotal(response.getAsJsonObject(HITS).get(TOTAL));
+    } else {
+      final JsonObject filterWrapper = response.getAsJsonObject(AGGREGATIONS)
+        .getAsJsonObject(ESDriverConfig.FILTER_WRAPPER);
+      final long docs = filterWrapper.get(DOC_COUNT).getAsLong();
+      rows = 1;
+      for (int i = 0; i < groupByFields.size() && rows < docs; i++) {
+        long cardinality = filterWrapper.getAsJsonObject(ESDriverConfig.CARDINALITY + i).get(VALUE).getAsLong();
+        if (!paged) {
+          // terms aggregations return at most the bucket size groups of each column
+          cardinality = Math.min(cardinality, esDriverConfig.getAggrBucketSize());
+        }
+        rows = cardinality == 0 || rows <= docs / cardinality ? rows * cardinality : docs;
+      }
+      rows = Math.min(rows, docs);
+    }
+    return esQuery.getLimit() == -1 ? rows : Math.min(rows, esQuery.getLimit());
+  }
+
+  private static long getTotal(JsonElement total) {
+    // the total is an object with the value from elasticsearch 7
+    return total.isJsonObject() ? total.getAsJsonObject().get(VALUE).getAsLong() : total.getAsLong();
+  }
+
+  private static void collectTermsFields(JsonElement element, List<String> fields) {
+    if (element == null) {
+      return;
+    }
+    if (element.isJsonArray()) {
+      for (JsonElement child : element.getAsJsonArray()) {
+        collectTermsFields(child, fields);
+      }
+    } else if (element.isJsonObject()) {
+      for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+        if (entry.getKey().equals(ESDriverConfig.TERMS) && entry.getValue().isJsonObject()) {
+          fields.add(entry.getValue().getAsJsonObject().get(ESDriverConfig.FIELD).getAsString());
+        } else {
+          collectTermsFields(entry.getValue(), fields);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the composite aggregation of a group by query, null if the query has none
+   */
+  private static JsonObject getCompositeNode(JsonObject jsonQuery) {
+    JsonObject node = jsonQuery;
+    for (String name : new String[]{ESDriverConfig.AGGS, ESDriverConfig.FILTER_WRAPPER, ESDriverConfig.AGGS,
+      ESDriverConfig.COMPOSITE_GROUPS, ESDriverConfig.COMPOSITE}) {
+      node = node.getAsJsonObject(name);
+      if (node == null) {
+        return null;
+      }
+    }
+    return node;
+  }
+
+  /**
+   * A batch of hits of a scroll, and the scroll id to fetch the next batch with.
+   */
+  @Data
+  public static class ScrollBatch {
+    @NonNull
+    private final ESResultSet rows;
+    /** null if elastic search keeps no scroll context */
+    private final String scrollId;
+  }
+
   private abstract static class ExecutionMode {
 
     @NonNull
@@ -144,6 +319,216 @@ public abstract class ESClient {
     }
   }
 
+  /**
+   * Streams hits of the query through the scroll API. Only the current batch is held, and the scroll context is
+   * cleared once all rows are read, once the limit is reached or when the result set is closed.
+   */
+  private class StreamingExecutionMode extends ExecutionMode {
+
+    @NonNull
+    private final ESScrollCapability scroller;
+
+    StreamingExecutionMode(ESQuery query, ESScrollCapability scroller) {
+      super(query);
+      this.scroller = scroller;
+    }
+
+    @Override
+    ESResultSet executeInternal() throws ESClientException {
+      final String keepAlive = esDriverConfig.getScrollKeepAlive();
+      final ScrollBatch first = scroller.startScroll(esQuery, keepAlive);
+      final ScrollCursor cursor = new ScrollCursor(first, keepAlive);
+      return new ESResultSet(
+        esQuery.getLimit(),
+        new Iterable<ResultRow>() {
+          @Override
+          public Iterator<ResultRow> iterator() {
+            return cursor;
+          }
+        },
+        first.getRows().getMetadata(),
+        cursor
+      );
+    }
+
+    private class ScrollCursor implements Iterator<ResultRow>, Closeable {
+      private final String keepAlive;
+      private final int limit;
+      private ESResultSet batch;
+      private String scrollId;
+      private boolean closed;
+      private int processed = 0;
+
+      ScrollCursor(ScrollBatch first, String keepAlive) {
+        this.keepAlive = keepAlive;
+        this.limit = esQuery.getLimit();
+        this.batch = first.getRows();
+        this.scrollId = first.getScrollId();
+      }
+
+      @Override
+      public boolean hasNext() {
+        if (isClosed()) {
+          return false;
+        }
+        if (limit != -1 && processed >= limit) {
+          close();
+          return false;
+        }
+        try {
+          while (!batch.hasNext()) {
+            String currentScrollId = getScrollId();
+            if (currentScrollId == null) {
+              return false;
+            }
+            ScrollBatch next = scroller.continueScroll(esQuery, currentScrollId, keepAlive);
+            batch = next.getRows();
+            if (!setScrollId(next.getScrollId()) || batch.size() == 0) {
+              close();
+              return false;
+            }
+          }
+          return true;
+        } catch (ESClientException e) {
+          close();
+          throw new RuntimeException("Encountered a runtime issue during execution", e);
+        }
+      }
+
+      @Override
+      public ResultRow next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException("Processed : " + processed + ", Limit : " + limit);
+        }
+        processed++;
+        return batch.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("Cannot remove from es resultset!");
+      }
+
+      private synchronized boolean isClosed() {
+        return closed;
+      }
+
+      private synchronized String getScrollId() {
+        return closed ? null : scrollId;
+      }
+
+      /**
+       * @return false if the cursor was closed while the batch was fetched, the new scroll is cleared then
+       */
+      private boolean setScrollId(String newScrollId) {
+        synchronized (this) {
+          if (!closed) {
+            scrollId = newScrollId;
+            return true;
+          }
+        }
+        clear(newScrollId);
+        return false;
+      }
+
+      @Override
+      public void close() {
+        String toClear;
+        synchronized (this) {
+          closed = true;
+          toClear = scrollId;
+          scrollId = null;
+        }
+        clear(toClear);
+      }
+
+      private void clear(String id) {
+        if (id == null) {
+          return;
+        }
+        try {
+          scroller.clearScroll(id);
+        } catch (ESClientException | RuntimeException e) {
+          log.warn("Could not clear scroll of {}, it is cleared by elastic search after {}", esQuery, keepAlive, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Pages through the buckets of a composite aggregation. Only the current page is held, the next page is fetched
+   * with the key of the last bucket once the rows of the current page are read.
+   */
+  private class CompositePagingExecutionMode extends ExecutionMode {
+
+    @NonNull
+    final JsonObject jsonQuery;
+    @NonNull
+    final JsonObject compositeNode;
+
+    CompositePagingExecutionMode(ESQuery query, JsonObject jsonQuery) {
+      super(query);
+      this.jsonQuery = jsonQuery;
+      this.compositeNode = getCompositeNode(jsonQuery);
+    }
+
+    ESQuery modify(JsonObject afterKey) {
+      compositeNode.add(ESDriverConfig.AFTER, afterKey);
+      return withQuery(esQuery, jsonQuery);
+    }
+
+    @Override
+    ESResultSet executeInternal() throws ESClientException {
+      final ESResultSet first = executeImpl(esQuery);
+      final int limit = esQuery.getLimit();
+      return new ESResultSet(
+        limit,
+        new Iterable<ResultRow>() {
+          @Override
+          public Iterator<ResultRow> iterator() {
+            return new Iterator<ResultRow>() {
+              ESResultSet page = first;
+              int processed = 0;
+
+              @Override
+              public boolean hasNext() {
+                if (limit != -1 && processed >= limit) {
+                  return false;
+                }
+                try {
+                  while (!page.hasNext()) {
+                    if (page.getAfterKey() == null) {
+                      return false;
+                    }
+                    page = executeImpl(modify(page.getAfterKey()));
+                  }
+                  return true;
+                } catch (ESClientException e) {
+                  throw new RuntimeException("Encountered a runtime issue during execution", e);
+                }
+              }
+
+              @Override
+              public ResultRow next() {
+                if (!hasNext()) {
+                  throw new NoSuchElementException("Processed : " + processed + ", Limit : " + limit);
+                }
+                processed++;
+                return page.next();
+              }
+
+              @Override
+              public void remove() {
+                throw new UnsupportedOperationException("Cannot remove from es resultset!");
+              }
+            };
+          }
+        },
+        first.getMetadata()
+      );
+    }
+  }
+
   private class DefaultExecutionMode extends ExecutionMode {
 
     DefaultExecutionMode(ESQuery query) {
@@ -165,5 +550,30 @@ public abstract class ESClient {
     return getExecutionModeFor(esQuery).executeInternal();
   }
 
+  /**
+   * Execute a query whose searches are tagged, so that they can be cancelled with {@link #cancel(String)}.
+   *
+   * @param esQuery the query
+   * @param tag     unique tag of the query
+   * @return the result set
+   * @throws ESClientException if the query fails
+   */
+  public final ESResultSet execute(final ESQuery esQuery, final String tag) throws ESClientException {
+    return execute(this instanceof ESCancelCapability ? tag(esQuery, tag) : esQuery);
+  }
+
+  /**
+   * Cancel the searches of a query running on elastic search, which makes their requests return. Searches are
+   * cancelled through the task management API, which cancels searches from elasticsearch 5.1, by clients which
+   * implement {@link ESCancelCapability}.
+   *
+   * @param tag the tag the query was executed with
+   * @return whether any search was cancelled
+   * @throws ESClientException if the searches can't be cancelled
+   */
+  public final boolean cancel(final String tag) throws ESClientException {
+    return this instanceof ESCancelCapability && ((ESCancelCapability) this).cancelTagged(tag) > 0;
+  }
+
   public abstract String explain(ESQuery esQuery) throws ESClientException;
 }
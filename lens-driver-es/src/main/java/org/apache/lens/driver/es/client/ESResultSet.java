@@ -18,17 +18,24 @@
  */
 package org.apache.lens.driver.es.client;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Iterator;
 
 import org.apache.lens.api.query.ResultRow;
 import org.apache.lens.server.api.driver.InMemoryResultSet;
 import org.apache.lens.server.api.driver.LensResultSetMetadata;
 
+import com.google.gson.JsonObject;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * The class ESResultset for iterating over elastic search result set
  */
+@Slf4j
 public class ESResultSet extends InMemoryResultSet {
 
   @NonNull
@@ -36,11 +43,37 @@ public class ESResultSet extends InMemoryResultSet {
   @NonNull
   final LensResultSetMetadata resultSetMetadata;
   final Integer size;
+  /** Releases resources held on the server for the rows, null if there are none */
+  private final Closeable closer;
+  /** Key of the last bucket of a page of a composite aggregation, null if there are no more pages */
+  @Getter
+  @Setter
+  private JsonObject afterKey;
 
   public ESResultSet(int size, final Iterable<ResultRow> resultSetIterable, final LensResultSetMetadata metadata) {
+    this(size, resultSetIterable, metadata, null);
+  }
+
+  public ESResultSet(int size, final Iterable<ResultRow> resultSetIterable, final LensResultSetMetadata metadata,
+    Closeable closer) {
     this.size = size;
     this.resultSetIterator = resultSetIterable.iterator();
     this.resultSetMetadata = metadata;
+    this.closer = closer;
+  }
+
+  /**
+   * Release resources held on the server for rows not yet read, like scroll contexts. Rows not yet read can't be read
+   * after this.
+   */
+  public void close() {
+    if (closer != null) {
+      try {
+        closer.close();
+      } catch (IOException e) {
+        log.warn("Error closing es result set", e);
+      }
+    }
   }
 
   @Override
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.driver.es.client;
+
+import org.apache.lens.driver.es.ESQuery;
+import org.apache.lens.driver.es.client.ESClient.ScrollBatch;
+import org.apache.lens.driver.es.exceptions.ESClientException;
+
+/**
+ * Implemented by {@link ESClient}s which can stream hits through the scroll API. Document look up queries are run
+ * through the scroll API by such clients, when {@link org.apache.lens.driver.es.ESDriverConfig#SCROLL_ENABLED_KEY} is
+ * set.
+ */
+public interface ESScrollCapability {
+
+  /**
+   * Run a search which keeps a scroll context on elastic search.
+   *
+   * @param esQuery   the query, its size is the number of hits in a batch
+   * @param keepAlive time for which the scroll context is kept between fetches
+   * @return the first batch
+   * @throws ESClientException if the search fails
+   */
+  ScrollBatch startScroll(ESQuery esQuery, String keepAlive) throws ESClientException;
+
+  /**
+   * Fetch the next batch of a scroll. The request is tagged like the search the scroll was started with, so that
+   * cancelling the query reaches it.
+   *
+   * @param esQuery   the query the scroll was started with
+   * @param scrollId  scroll id of the previous batch
+   * @param keepAlive time for which the scroll context is kept between fetches
+   * @return the next batch, with no rows once all hits are fetched
+   * @throws ESClientException if the fetch fails
+   */
+  ScrollBatch continueScroll(ESQuery esQuery, String scrollId, String keepAlive) throws ESClientException;
+
+  /**
+   * Release the scroll context on elastic search.
+   *
+   * @param scrollId scroll id of the last batch
+   * @throws ESClientException if the scroll can't be cleared
+   */
+  void clearScroll(String scrollId) throws ESClientException;
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.driver.es.client;
+
+import org.apache.lens.driver.es.ESQuery;
+import org.apache.lens.driver.es.exceptions.ESClientException;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Implemented by {@link ESClient}s which can run a search and return the response as is, which rows of queries are
+ * estimated with.
+ */
+public interface ESSearchCapability {
+
+  /**
+   * Run a search and return the response as is.
+   *
+   * @param esQuery the query
+   * @return the json response of elastic search
+   * @throws ESClientException if the search fails
+   */
+  JsonObject search(ESQuery esQuery) throws ESClientException;
+}
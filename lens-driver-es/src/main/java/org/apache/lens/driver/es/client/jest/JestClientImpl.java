@@ -18,33 +18,52 @@
  */
 package org.apache.lens.driver.es.client.jest;
 
+import java.util.Map;
+
 import org.apache.lens.driver.es.ESDriverConfig;
 import org.apache.lens.driver.es.ESQuery;
+import org.apache.lens.driver.es.client.ESCancelCapability;
 import org.apache.lens.driver.es.client.ESClient;
 import org.apache.lens.driver.es.client.ESResultSet;
+import org.apache.lens.driver.es.client.ESScrollCapability;
+import org.apache.lens.driver.es.client.ESSearchCapability;
 import org.apache.lens.driver.es.exceptions.ESClientException;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.hadoop.conf.Configuration;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import io.searchbox.client.JestClient;
 import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.JestResult;
 import io.searchbox.client.config.HttpClientConfig;
 import io.searchbox.core.Explain;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
+import io.searchbox.core.SearchScroll;
+import io.searchbox.params.Parameters;
 import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * The ESRestClient for firing queries on elastic search
  */
-public class JestClientImpl extends ESClient {
+@Slf4j
+public class JestClientImpl extends ESClient implements ESSearchCapability, ESScrollCapability, ESCancelCapability {
 
   private static final int DEFAULT_MAX_CONN = 10;
   private static final boolean DEFAULT_MULTI_THREADED = true;
   private static final String IS_MULTITHREADED = "lens.driver.es.jest.is.multi.threaded";
   private static final String MAX_TOTAL_CONN = "lens.driver.es.jest.max.conn";
   private static final String ES_SERVERS = "lens.driver.es.jest.servers";
+  private static final String SCROLL_ID = "_scroll_id";
+  private static final String NODES = "nodes";
+  private static final String TASKS = "tasks";
+  private static final String DESCRIPTION = "description";
+  private static final String HEADERS = "headers";
+  /** Header which elastic search keeps in the tasks of a request, scroll fetches are tagged with it. */
+  private static final String OPAQUE_ID = "X-Opaque-Id";
 
   @NonNull
   private final JestClient client;
@@ -63,6 +82,16 @@ public class JestClientImpl extends ESClient {
 
   @Override
   public ESResultSet executeImpl(ESQuery esQuery) throws ESClientException {
+    final JsonObject result = search(esQuery);
+    try {
+      return JestResultSetTransformer.transformFrom(result, esQuery.getSchema(), esQuery.getColumns());
+    } catch (Exception e) {
+      throw new ESClientException("Execution failed, ", e);
+    }
+  }
+
+  @Override
+  public JsonObject search(ESQuery esQuery) throws ESClientException {
     try {
       final Search search = new Search.Builder(esQuery.getQuery())
         .addIndex(esQuery.getIndex())
@@ -72,13 +101,124 @@ public class JestClientImpl extends ESClient {
       if (result == null) {
         throw new NullPointerException("Got null result from client for " + esQuery);
       }
-      return JestResultSetTransformer.transformFrom(
-        result.getJsonObject(), esQuery.getSchema(), esQuery.getColumns());
+      return result.getJsonObject();
     } catch (Exception e) {
       throw new ESClientException("Execution failed, ", e);
     }
   }
 
+  @Override
+  public ScrollBatch startScroll(ESQuery esQuery, String keepAlive) throws ESClientException {
+    try {
+      final Search search = new Search.Builder(esQuery.getQuery())
+        .addIndex(esQuery.getIndex())
+        .addType(esQuery.getType())
+        .setParameter(Parameters.SCROLL, keepAlive)
+        .build();
+      return toScrollBatch(client.execute(search), esQuery);
+    } catch (ESClientException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ESClientException("Execution failed, ", e);
+    }
+  }
+
+  @Override
+  public ScrollBatch continueScroll(ESQuery esQuery, String scrollId, String keepAlive)
+    throws ESClientException {
+    try {
+      final SearchScroll.Builder scroll = new SearchScroll.Builder(scrollId, keepAlive);
+      // a scroll fetch has no body to carry the stats group of the search, so it is tagged with a header
+      final String tag = getTag(esQuery);
+      if (tag != null) {
+        scroll.setHeader(OPAQUE_ID, tag);
+      }
+      return toScrollBatch(client.execute(scroll.build()), esQuery);
+    } catch (ESClientException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ESClientException("Scroll failed, ", e);
+    }
+  }
+
+  @Override
+  public void clearScroll(String scrollId) throws ESClientException {
+    try {
+      final JestResult result = client.execute(new ClearScroll(scrollId));
+      if (result != null && !result.isSucceeded()) {
+        throw new ESClientException("Clearing scroll failed, " + result.getErrorMessage());
+      }
+    } catch (ESClientException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ESClientException("Clearing scroll failed, ", e);
+    }
+  }
+
+  @Override
+  public int cancelTagged(String tag) throws ESClientException {
+    try {
+      final JestResult tasks = client.execute(new ListSearchTasks());
+      if (tasks == null || !tasks.isSucceeded()) {
+        throw new ESClientException("Listing searches failed, " + (tasks == null ? null : tasks.getErrorMessage()));
+      }
+      final JsonObject nodes = tasks.getJsonObject().getAsJsonObject(NODES);
+      if (nodes == null) {
+        return 0;
+      }
+      // the tag is a stats group of a search, which is in the source part of the description, or the opaque id
+      // header of a scroll fetch
+      final String quotedTag = '"' + tag + '"';
+      int cancelled = 0;
+      for (Map.Entry<String, JsonElement> node : nodes.entrySet()) {
+        final JsonObject nodeTasks = node.getValue().getAsJsonObject().getAsJsonObject(TASKS);
+        if (nodeTasks == null) {
+          continue;
+        }
+        for (Map.Entry<String, JsonElement> task : nodeTasks.entrySet()) {
+          if (!isTagged(task.getValue().getAsJsonObject(), tag, quotedTag)) {
+            continue;
+          }
+          final JestResult result = client.execute(new CancelTask(task.getKey()));
+          if (result != null && result.isSucceeded()) {
+            cancelled++;
+          } else {
+            log.warn("Could not cancel search task {} of {}: {}", task.getKey(), tag,
+              result == null ? null : result.getErrorMessage());
+          }
+        }
+      }
+      return cancelled;
+    } catch (ESClientException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ESClientException("Cancelling searches failed, ", e);
+    }
+  }
+
+  private static boolean isTagged(JsonObject task, String tag, String quotedTag) {
+    final JsonObject headers = task.getAsJsonObject(HEADERS);
+    if (headers != null && headers.has(OPAQUE_ID) && tag.equals(headers.get(OPAQUE_ID).getAsString())) {
+      return true;
+    }
+    final JsonElement description = task.get(DESCRIPTION);
+    return description != null && description.getAsString().contains(quotedTag);
+  }
+
+  private ScrollBatch toScrollBatch(JestResult result, ESQuery esQuery) throws ESClientException {
+    if (result == null) {
+      throw new NullPointerException("Got null result from client for " + esQuery);
+    }
+    if (!result.isSucceeded()) {
+      throw new ESClientException("Execution failed, " + result.getErrorMessage());
+    }
+    final JsonObject json = result.getJsonObject();
+    final JsonElement scrollId = json.get(SCROLL_ID);
+    return new ScrollBatch(
+      JestResultSetTransformer.transformFrom(json, esQuery.getSchema(), esQuery.getColumns()),
+      scrollId == null || scrollId.isJsonNull() ? null : scrollId.getAsString());
+  }
+
   public String explain(ESQuery esQuery) throws ESClientException {
     try {
       return client
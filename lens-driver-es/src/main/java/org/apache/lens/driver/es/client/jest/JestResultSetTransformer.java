@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.lens.api.query.ResultRow;
+import org.apache.lens.driver.es.ESDriverConfig;
 import org.apache.lens.driver.es.client.ESResultSet;
 import org.apache.lens.server.api.driver.LensResultSetMetadata;
 
@@ -126,6 +127,56 @@ public abstract class JestResultSetTransformer {
     }
   }
 
+  /**
+   * The class CompositeAggregateTransformer, takes care of transforming a page of buckets of a composite aggregation.
+   * Each bucket is a row, with the group by values in its key. The key after which the next page starts is set on
+   * the result set, it is null once there are no more buckets.
+   */
+  static class CompositeAggregateTransformer extends JestResultSetTransformer {
+
+    CompositeAggregateTransformer(JsonObject result, List<String> schema, List<String> selectedColumns) {
+      super(result, schema, selectedColumns);
+    }
+
+    @Override
+    public ESResultSet transform() {
+      final JsonObject groups = result.getAsJsonObject(ResultSetConstants.AGGREGATIONS_KEY)
+        .getAsJsonObject(ResultSetConstants.FILTER_WRAPPER_KEY)
+        .getAsJsonObject(ResultSetConstants.COMPOSITE_GROUPS_KEY);
+      final JsonArray buckets = groups.getAsJsonArray(ResultSetConstants.BUCKETS_KEY);
+      final List<ResultRow> rows = Lists.newArrayList();
+      JsonObject lastKey = null;
+      for (JsonElement bucketElement : buckets) {
+        final JsonObject bucket = bucketElement.getAsJsonObject();
+        final List<Object> row = getEmptyRow();
+        lastKey = bucket.getAsJsonObject(ResultSetConstants.KEY_STRING);
+        for (Map.Entry<String, JsonElement> entry : lastKey.entrySet()) {
+          setValue(row, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, JsonElement> entry : bucket.entrySet()) {
+          final JsonElement element = entry.getValue();
+          if (element instanceof JsonObject && ((JsonObject) element).get(ResultSetConstants.VALUE_KEY) != null) {
+            setValue(row, entry.getKey(), ((JsonObject) element).get(ResultSetConstants.VALUE_KEY));
+          }
+        }
+        rows.add(new ResultRow(row));
+      }
+      final ESResultSet resultSet = new ESResultSet(rows.size(), rows, getMetaData(columnAliases));
+      if (rows.size() > 0) {
+        // after_key is returned from elasticsearch 6.3, the key of the last bucket is the same before that
+        final JsonObject afterKey = groups.getAsJsonObject(ResultSetConstants.AFTER_KEY);
+        resultSet.setAfterKey(afterKey != null ? afterKey : lastKey);
+      }
+      return resultSet;
+    }
+
+    private void setValue(List<Object> row, String alias, JsonElement value) {
+      final int index = columnAliases.indexOf(alias);
+      Validate.isTrue(index != -1, "Unknown column " + alias);
+      row.set(index, value.isJsonNull() ? null : getTypedValue(index, value));
+    }
+  }
+
   /**
    * The class TermTransformer, takes care of transforming results of simple select queries
    */
@@ -181,7 +232,11 @@ public abstract class JestResultSetTransformer {
   }
 
   public static ESResultSet transformFrom(JsonObject jsonResult, List<String> schema, List<String> selectedColumns) {
-    if (jsonResult.getAsJsonObject(ResultSetConstants.AGGREGATIONS_KEY) != null) {
+    final JsonObject aggregations = jsonResult.getAsJsonObject(ResultSetConstants.AGGREGATIONS_KEY);
+    if (aggregations != null && aggregations.getAsJsonObject(ResultSetConstants.FILTER_WRAPPER_KEY)
+      .getAsJsonObject(ResultSetConstants.COMPOSITE_GROUPS_KEY) != null) {
+      return new CompositeAggregateTransformer(jsonResult, schema, selectedColumns).transform();
+    } else if (aggregations != null) {
       return new AggregateTransformer(jsonResult, schema, selectedColumns).transform();
     } else {
       return new TermTransformer(jsonResult, schema, selectedColumns).transform();
@@ -260,5 +315,7 @@ public abstract class JestResultSetTransformer {
     public static final String FILTER_WRAPPER_KEY = "filter_wrapper";
     public static final String HITS_KEY = "hits";
     public static final String FIELDS_KEY = "fields";
+    public static final String COMPOSITE_GROUPS_KEY = ESDriverConfig.COMPOSITE_GROUPS;
+    public static final String AFTER_KEY = "after_key";
   }
 }
@@ -28,18 +28,23 @@ import org.apache.lens.driver.es.translator.ESVisitor;
 
 import org.apache.commons.lang3.Validate;
 
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Maps;
 
 /**
  * Visitor for traversing aggregate elastic search queries
  * that involve group by or simple aggregations
+ * <p></p>
+ * Group bys are nested terms aggregations, or the sources of a composite aggregation when
+ * {@link ESDriverConfig#AGGR_COMPOSITE_ENABLED_KEY} is set, which the client pages through.
  */
 public class ESAggregateVisitor extends ESVisitor {
 
   private final ObjectNode groupByNode = JSON_NODE_FACTORY.objectNode();
   private final ObjectNode aggNode = JSON_NODE_FACTORY.objectNode();
   private ObjectNode currentGroupByNode = groupByNode;
+  private final ArrayNode compositeSources = JSON_NODE_FACTORY.arrayNode();
   private Map<String, String> groupByKeys = Maps.newHashMap();
 
   public ESAggregateVisitor(ESDriverConfig config) {
@@ -70,12 +75,21 @@ public class ESAggregateVisitor extends ESVisitor {
   @Override
   public void visitGroupBy(String groupBy) {
     groupBy = visitColumn(groupBy);
+    final String groupByAlias = Validate.notNull(groupByKeys.get(groupBy), "Group by column has to be used in select");
+    if (config.isCompositeAggregationEnabled()) {
+      final ObjectNode sourceNode = JSON_NODE_FACTORY.objectNode();
+      compositeSources.add(sourceNode);
+      final ObjectNode valuesSourceNode = JSON_NODE_FACTORY.objectNode();
+      sourceNode.put(groupByAlias, valuesSourceNode);
+      final ObjectNode termsNode = JSON_NODE_FACTORY.objectNode();
+      valuesSourceNode.put(ESDriverConfig.TERMS, termsNode);
+      termsNode.put(ESDriverConfig.FIELD, groupBy);
+      return;
+    }
     final ObjectNode aggNode = JSON_NODE_FACTORY.objectNode();
     currentGroupByNode.put(ESDriverConfig.AGGS, aggNode);
     final ObjectNode groupByNode = JSON_NODE_FACTORY.objectNode();
-    aggNode.put(
-      Validate.notNull(groupByKeys.get(groupBy), "Group by column has to be used in select")
-      , groupByNode);
+    aggNode.put(groupByAlias, groupByNode);
     final ObjectNode termsNode = JSON_NODE_FACTORY.objectNode();
     groupByNode.put(ESDriverConfig.TERMS, termsNode);
     termsNode.put(ESDriverConfig.FIELD, groupBy);
@@ -100,6 +114,18 @@ public class ESAggregateVisitor extends ESVisitor {
     queryNode.put(ESDriverConfig.AGGS, outerAggsNode);
     outerAggsNode.put(ESDriverConfig.FILTER_WRAPPER, groupByNode);
     groupByNode.put(ESDriverConfig.FILTER, criteriaNode);
-    currentGroupByNode.put(ESDriverConfig.AGGS, aggNode);
+    if (compositeSources.size() > 0) {
+      final ObjectNode compositeNode = JSON_NODE_FACTORY.objectNode();
+      compositeNode.put(ESDriverConfig.SIZE, config.getAggrBucketSize());
+      compositeNode.put(ESDriverConfig.SOURCES, compositeSources);
+      final ObjectNode groupsNode = JSON_NODE_FACTORY.objectNode();
+      groupsNode.put(ESDriverConfig.COMPOSITE, compositeNode);
+      groupsNode.put(ESDriverConfig.AGGS, aggNode);
+      final ObjectNode groupsAggsNode = JSON_NODE_FACTORY.objectNode();
+      groupsAggsNode.put(ESDriverConfig.COMPOSITE_GROUPS, groupsNode);
+      groupByNode.put(ESDriverConfig.AGGS, groupsAggsNode);
+    } else {
+      currentGroupByNode.put(ESDriverConfig.AGGS, aggNode);
+    }
   }
 }
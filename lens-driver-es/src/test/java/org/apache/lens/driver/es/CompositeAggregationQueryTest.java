@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.driver.es;
+
+import static org.testng.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.lens.api.query.ResultRow;
+import org.apache.lens.driver.es.client.ESResultSet;
+import org.apache.lens.driver.es.client.jest.JestClientImpl;
+import org.apache.lens.driver.es.exceptions.ESClientException;
+import org.apache.lens.driver.es.translator.ESVisitor;
+import org.apache.lens.server.api.error.LensException;
+
+import org.apache.hadoop.conf.Configuration;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Runs group by queries as composite aggregations through {@link JestClientImpl} against a stub elastic search, which
+ * serves groups in pages of two, and estimates rows of queries against it.
+ */
+public class CompositeAggregationQueryTest {
+
+  private static final List<String> PAGES = Arrays.asList(
+    "{\"col1\":{\"value\":1},\"key\":{\"col2\":\"g1\"}},{\"col1\":{\"value\":2},\"key\":{\"col2\":\"g2\"}}",
+    "{\"col1\":{\"value\":3},\"key\":{\"col2\":\"g3\"}}",
+    "");
+
+  private StubESServer server;
+  private ESDriverConfig esDriverConfig;
+  private JestClientImpl client;
+
+  private final List<JsonObject> requests = new CopyOnWriteArrayList<>();
+
+  @BeforeClass
+  public void startServer() throws IOException {
+    server = new StubESServer(new StubESServer.Responder() {
+      @Override
+      public String respond(String method, String path, String body) {
+        final JsonObject request = (JsonObject) new JsonParser().parse(body);
+        requests.add(request);
+        return CompositeAggregationQueryTest.respond(request);
+      }
+    });
+
+    final Configuration conf = new Configuration();
+    conf.setBoolean(ESDriverConfig.AGGR_COMPOSITE_ENABLED_KEY, true);
+    conf.setInt(ESDriverConfig.AGGR_BUCKET_SIZE_LENS_KEY, 2);
+    conf.set("lens.driver.es.jest.servers", server.getUrl());
+    esDriverConfig = new ESDriverConfig(conf);
+    client = new JestClientImpl(esDriverConfig, conf);
+  }
+
+  @AfterClass
+  public void stopServer() {
+    server.stop();
+  }
+
+  @BeforeMethod
+  public void reset() {
+    requests.clear();
+  }
+
+  private static String respond(JsonObject request) {
+    if (request.get(ESDriverConfig.QUERY_TIME_OUT_STRING).getAsInt() < 10) {
+      return "{\"timed_out\":true,\"hits\":{\"total\":1,\"hits\":[]}}";
+    }
+    final JsonObject aggs = request.getAsJsonObject(ESDriverConfig.AGGS);
+    if (aggs == null) {
+      return "{\"hits\":{\"total\":100,\"hits\":[]}}";
+    }
+    final JsonObject filterWrapperAggs = aggs.getAsJsonObject(ESDriverConfig.FILTER_WRAPPER)
+      .getAsJsonObject(ESDriverConfig.AGGS);
+    if (filterWrapperAggs.has(ESDriverConfig.CARDINALITY + 0)) {
+      return "{\"aggregations\":{\"filter_wrapper\":{\"doc_count\":100,\"cardinality0\":{\"value\":7}}}}";
+    }
+    final JsonObject composite = filterWrapperAggs.getAsJsonObject(ESDriverConfig.COMPOSITE_GROUPS)
+      .getAsJsonObject(ESDriverConfig.COMPOSITE);
+    int page = 0;
+    if (composite.has(ESDriverConfig.AFTER)) {
+      page = "g2".equals(composite.getAsJsonObject(ESDriverConfig.AFTER).get("col2").getAsString()) ? 1 : 2;
+    }
+    final String afterKey = page < 2 ? ",\"after_key\":{\"col2\":\"g" + (page + 2) + "\"}" : "";
+    return "{\"aggregations\":{\"filter_wrapper\":{\"doc_count\":100,\"composite_groups\":{\"buckets\":["
+      + PAGES.get(page) + "]" + afterKey + "}}}}";
+  }
+
+  private static List<List<Object>> readAll(ESResultSet resultSet) {
+    final List<List<Object>> rows = Lists.newArrayList();
+    while (resultSet.hasNext()) {
+      final ResultRow row = resultSet.next();
+      rows.add(row.getValues());
+    }
+    return rows;
+  }
+
+  @Test
+  public void testTranslation() throws LensException {
+    final ESQuery esQuery =
+      ESVisitor.rewrite(esDriverConfig, "select col2, count(col1) from index.type group by col2");
+    assertEquals(new JsonParser().parse(esQuery.getQuery()), new JsonParser().parse(
+      "{\"size\":0,\"timeout\":10000,\"aggs\":{\"filter_wrapper\":{\"filter\":{\"match_all\":{}},"
+        + "\"aggs\":{\"composite_groups\":{\"composite\":{\"size\":2,\"sources\":[{\"col2\":{\"terms\":"
+        + "{\"field\":\"col2\"}}}]},\"aggs\":{\"col1\":{\"value_count\":{\"field\":\"col1\"}}}}}}}}"));
+  }
+
+  @Test
+  public void testPageThroughGroups() throws LensException {
+    final ESResultSet resultSet = client.execute(
+      ESVisitor.rewrite(esDriverConfig, "select col2, count(col1) from index.type group by col2"));
+    assertEquals(requests.size(), 1, "pages are fetched lazily");
+    assertEquals(readAll(resultSet), Arrays.asList(
+      Arrays.<Object>asList("g1", 1.0), Arrays.<Object>asList("g2", 2.0), Arrays.<Object>asList("g3", 3.0)));
+    assertEquals(requests.size(), 3);
+  }
+
+  @Test
+  public void testPageTillLimit() throws LensException {
+    final ESResultSet resultSet = client.execute(
+      ESVisitor.rewrite(esDriverConfig, "select col2, count(col1) from index.type group by col2 limit 2"));
+    assertEquals(readAll(resultSet).size(), 2);
+    assertEquals(requests.size(), 1);
+  }
+
+  @Test
+  public void testEstimateRows() throws LensException {
+    assertEquals(client.estimateRows(
+      ESVisitor.rewrite(esDriverConfig, "select col2, count(col1) from index.type group by col2")), 7);
+    assertEquals(requests.get(0).get(ESDriverConfig.SIZE).getAsInt(), 0);
+    assertEquals(requests.get(0).get(ESDriverConfig.QUERY_TIME_OUT_STRING).getAsInt(), 1000);
+
+    assertEquals(client.estimateRows(ESVisitor.rewrite(esDriverConfig, "select col1 from index.type")), 100);
+    assertEquals(client.estimateRows(ESVisitor.rewrite(esDriverConfig, "select col1 from index.type limit 5")), 5);
+    assertEquals(client.estimateRows(ESVisitor.rewrite(esDriverConfig, "select count(col1) from index.type")), 1);
+    assertEquals(requests.size(), 3, "aggregations without group by are not estimated with a search");
+  }
+
+  @Test
+  public void testEstimateTimeOut() throws LensException {
+    final Configuration conf = new Configuration();
+    conf.setInt(ESDriverConfig.ESTIMATE_TIME_OUT_LENS_KEY, 5);
+    conf.set("lens.driver.es.jest.servers", server.getUrl());
+    final ESDriverConfig timingOutConfig = new ESDriverConfig(conf);
+    final JestClientImpl timingOutClient = new JestClientImpl(timingOutConfig, conf);
+    try {
+      timingOutClient.estimateRows(ESVisitor.rewrite(timingOutConfig, "select col1 from index.type"));
+      fail("Expected the estimate to time out");
+    } catch (ESClientException e) {
+      assertTrue(e.getMessage().contains("timed out"), e.getMessage());
+    }
+    assertEquals(requests.get(0).get(ESDriverConfig.QUERY_TIME_OUT_STRING).getAsInt(), 5);
+  }
+}
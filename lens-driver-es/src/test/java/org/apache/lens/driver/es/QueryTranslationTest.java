@@ -103,6 +103,8 @@ public class QueryTranslationTest extends ESDriverTest {
     config.setInt(ESDriverConfig.QUERY_TIME_OUT_LENS_KEY, 10000);
     config.setInt(ESDriverConfig.MAX_ROW_SIZE_KEY, -1);
     config.setInt(ESDriverConfig.AGGR_BUCKET_SIZE_LENS_KEY, 100);
+    // expected translations of group by queries are nested terms aggregations
+    config.setBoolean(ESDriverConfig.AGGR_COMPOSITE_ENABLED_KEY, false);
     config.setStrings(ESDriverConfig.CLIENT_CLASS_KEY, MockClientES.class.getCanonicalName());
     config.setBoolean(CubeQueryConfUtil.FAIL_QUERY_ON_PARTIAL_DATA, false);
     config.setStrings(CubeQueryConfUtil.DRIVER_SUPPORTED_STORAGES, "es_storage");
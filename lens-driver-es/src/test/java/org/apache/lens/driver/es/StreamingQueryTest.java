@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.driver.es;
+
+import static org.testng.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lens.api.query.ResultRow;
+import org.apache.lens.driver.es.client.ESResultSet;
+import org.apache.lens.driver.es.client.jest.JestClientImpl;
+import org.apache.lens.driver.es.translator.ESVisitor;
+import org.apache.lens.server.api.error.LensException;
+
+import org.apache.hadoop.conf.Configuration;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Runs document look up queries through {@link JestClientImpl} against a stub elastic search, which serves hits in
+ * batches of two through the scroll API.
+ */
+public class StreamingQueryTest {
+
+  private static final List<List<String>> BATCHES = Arrays.asList(
+    Arrays.asList("v1", "v2"), Arrays.asList("v3", "v4"), Arrays.asList("v5"));
+
+  private StubESServer server;
+  private ESDriverConfig esDriverConfig;
+  private JestClientImpl client;
+
+  private final AtomicInteger searches = new AtomicInteger();
+  private final AtomicInteger scrolls = new AtomicInteger();
+  private final List<String> clearedScrolls = new CopyOnWriteArrayList<>();
+  private final List<String> cancelledTasks = new CopyOnWriteArrayList<>();
+  private final List<String> searchBodies = new CopyOnWriteArrayList<>();
+
+  @BeforeClass
+  public void startServer() throws IOException {
+    server = new StubESServer(new StubESServer.Responder() {
+      @Override
+      public String respond(String method, String path, String body) {
+        if (path.equals("/_tasks")) {
+          return "{\"nodes\":{\"n1\":{\"tasks\":{"
+            + "\"n1:7\":{\"description\":\"source[{\\\"stats\\\":[\\\"lens-q1\\\"]}]\"},"
+            + "\"n1:8\":{\"description\":\"source[{\\\"stats\\\":[\\\"lens-q2\\\"]}]\"},"
+            + "\"n1:9\":{\"description\":\"scrollId[scroll-0]\",\"headers\":{\"X-Opaque-Id\":\"lens-q1\"}}}}}}";
+        } else if (path.startsWith("/_tasks/")) {
+          cancelledTasks.add(path.substring("/_tasks/".length(), path.lastIndexOf('/')));
+          return "{\"nodes\":{}}";
+        } else if ("DELETE".equals(method)) {
+          clearedScrolls.add(path.substring(path.lastIndexOf('/') + 1));
+          return "{\"succeeded\":true}";
+        } else if (path.startsWith("/_search/scroll")) {
+          return batch(scrolls.incrementAndGet());
+        }
+        searches.incrementAndGet();
+        searchBodies.add(body);
+        return batch(0);
+      }
+    });
+
+    final Configuration conf = new Configuration();
+    conf.setInt(ESDriverConfig.TERM_FETCH_SIZE_KEY, 2);
+    conf.set("lens.driver.es.jest.servers", server.getUrl());
+    esDriverConfig = new ESDriverConfig(conf);
+    client = new JestClientImpl(esDriverConfig, conf);
+  }
+
+  @AfterClass
+  public void stopServer() {
+    server.stop();
+  }
+
+  @BeforeMethod
+  public void reset() {
+    searches.set(0);
+    scrolls.set(0);
+    clearedScrolls.clear();
+    cancelledTasks.clear();
+    searchBodies.clear();
+    server.getOpaqueIds().clear();
+  }
+
+  private static String batch(int index) {
+    final StringBuilder hits = new StringBuilder();
+    if (index < BATCHES.size()) {
+      for (String value : BATCHES.get(index)) {
+        if (hits.length() > 0) {
+          hits.append(',');
+        }
+        hits.append("{\"fields\":{\"col1\":[\"").append(value).append("\"]}}");
+      }
+    }
+    return "{\"_scroll_id\":\"scroll-" + index + "\",\"hits\":{\"total\":5,\"hits\":[" + hits + "]}}";
+  }
+
+  private static List<Object> readAll(ESResultSet resultSet) {
+    final List<Object> values = Lists.newArrayList();
+    while (resultSet.hasNext()) {
+      final ResultRow row = resultSet.next();
+      values.add(row.getValues().get(0));
+    }
+    return values;
+  }
+
+  @Test
+  public void testStreamAllHits() throws LensException {
+    final ESResultSet resultSet = client.execute(ESVisitor.rewrite(esDriverConfig, "select col1 from index.type"));
+    assertEquals(readAll(resultSet), Arrays.<Object>asList("v1", "v2", "v3", "v4", "v5"));
+    assertEquals(searches.get(), 1);
+    assertEquals(scrolls.get(), 3);
+    assertEquals(clearedScrolls, Arrays.asList("scroll-3"));
+
+    resultSet.close();
+    assertEquals(clearedScrolls.size(), 1, "scroll cleared twice");
+  }
+
+  @Test
+  public void testStreamTillLimit() throws LensException {
+    final ESResultSet resultSet =
+      client.execute(ESVisitor.rewrite(esDriverConfig, "select col1 from index.type limit 3"));
+    assertEquals(readAll(resultSet), Arrays.<Object>asList("v1", "v2", "v3"));
+    assertEquals(scrolls.get(), 1);
+    assertEquals(clearedScrolls, Arrays.asList("scroll-1"));
+  }
+
+  @Test
+  public void testCloseClearsScroll() throws LensException {
+    final ESResultSet resultSet = client.execute(ESVisitor.rewrite(esDriverConfig, "select col1 from index.type"));
+    assertTrue(resultSet.hasNext());
+    assertEquals(resultSet.next().getValues().get(0), "v1");
+    resultSet.close();
+    assertEquals(clearedScrolls, Arrays.asList("scroll-0"));
+    assertFalse(resultSet.hasNext());
+    assertEquals(scrolls.get(), 0);
+  }
+
+  @Test
+  public void testCancelTaggedSearches() throws LensException {
+    final ESResultSet resultSet =
+      client.execute(ESVisitor.rewrite(esDriverConfig, "select col1 from index.type"), "lens-q1");
+    assertEquals(readAll(resultSet).size(), 5);
+    assertTrue(searchBodies.get(0).contains("\"stats\":[\"lens-q1\"]"), searchBodies.get(0));
+    // scroll fetches have no body, they are tagged with a header
+    assertEquals(server.getOpaqueIds(), Arrays.asList("lens-q1", "lens-q1", "lens-q1"));
+
+    assertTrue(client.cancel("lens-q1"));
+    assertEquals(cancelledTasks, Arrays.asList("n1:7", "n1:9"));
+    assertFalse(client.cancel("lens-q3"));
+  }
+}
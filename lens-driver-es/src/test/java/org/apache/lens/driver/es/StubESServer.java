@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.driver.es;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.lens.driver.es.client.jest.JestClientImpl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stub elastic search on a local port, which answers each request with a json response, to run queries through
+ * {@link JestClientImpl} in tests.
+ */
+class StubESServer {
+
+  /**
+   * Builds the json response of a request.
+   */
+  interface Responder {
+    String respond(String method, String path, String body);
+  }
+
+  private final HttpServer server;
+  private final List<String> opaqueIds = new CopyOnWriteArrayList<>();
+
+  StubESServer(final Responder responder) throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+          int b;
+          while ((b = in.read()) != -1) {
+            body.write(b);
+          }
+        }
+        final String opaqueId = exchange.getRequestHeaders().getFirst("X-Opaque-Id");
+        if (opaqueId != null) {
+          opaqueIds.add(opaqueId);
+        }
+        final String response = responder.respond(exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+          new String(body.toByteArray(), StandardCharsets.UTF_8));
+        final byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(bytes);
+        }
+      }
+    });
+    server.start();
+  }
+
+  /**
+   * @return the url to set as lens.driver.es.jest.servers
+   */
+  String getUrl() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  /**
+   * @return X-Opaque-Id headers of the requests, in the order they were received
+   */
+  List<String> getOpaqueIds() {
+    return opaqueIds;
+  }
+
+  void stop() {
+    server.stop(0);
+  }
+}
@@ -41,6 +41,7 @@ import org.apache.lens.server.api.driver.*;
 import org.apache.lens.server.api.driver.DriverQueryStatus.DriverQueryState;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.events.LensEventListener;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.query.AbstractQueryContext;
 import org.apache.lens.server.api.query.PreparedQueryContext;
 import org.apache.lens.server.api.query.QueryContext;
@@ -50,6 +51,7 @@ import org.apache.lens.server.api.query.priority.CostToPriorityRangeConf;
 import org.apache.lens.server.api.query.priority.QueryPriorityDecider;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
@@ -64,6 +66,9 @@ import org.apache.hive.service.rpc.thrift.TOperationHandle;
 import org.apache.hive.service.rpc.thrift.TProtocolVersion;
 import org.apache.hive.service.rpc.thrift.TSessionHandle;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -90,9 +95,37 @@ public class HiveDriver extends AbstractLensDriver {
    */
   public static final String HS2_PRIORITY_RANGES = "lens.driver.hive.priority.ranges";
 
+  /**
+   * Config param for the number of threads polling HiveServer2 for the completion notifications of all the queries.
+   */
+  public static final String HS2_COMPLETION_NOTIFIER_THREADS = "lens.driver.hive.completion.notifier.threads";
+
+  /**
+   * Config param for the minimum interval (in milliseconds) between two status polls of a query registered for
+   * completion notification.
+   */
+  public static final String HS2_COMPLETION_MIN_POLL_INTERVAL = "lens.driver.hive.completion.min.poll.interval";
+
+  /** Timer for a status poll of a query registered for completion notification. */
+  public static final String COMPLETION_STATUS_POLL_TIMER = "completion-status-poll";
+
+  /** Gauge for the number of queries waiting for completion notification. */
+  public static final String PENDING_COMPLETION_NOTIFICATIONS = "pending-completion-notifications";
+
+  /** Counter for the completion notifications sent for finished queries. */
+  public static final String COMPLETION_NOTIFICATIONS = "completion-notifications";
+
+  /** Counter for the queries which did not finish before their completion notification timeout. */
+  public static final String COMPLETION_NOTIFICATION_TIMEOUTS = "completion-notification-timeouts";
+
+  /** Counter for the completion notifications failed because of errors in polling. */
+  public static final String COMPLETION_NOTIFICATION_ERRORS = "completion-notification-errors";
+
   // Default values of conf params
   public static final long DEFAULT_EXPIRY_DELAY = 600 * 1000;
   public static final String HS2_PRIORITY_DEFAULT_RANGES = "VERY_HIGH,7.0,HIGH,30.0,NORMAL,90,LOW";
+  public static final int DEFAULT_COMPLETION_NOTIFIER_THREADS = 2;
+  public static final long DEFAULT_COMPLETION_MIN_POLL_INTERVAL = 5000;
   public static final String SESSION_KEY_DELIMITER = ".";
 
   /** The HiveConf - used for connecting to hive server and metastore */
@@ -134,6 +167,17 @@ public class HiveDriver extends AbstractLensDriver {
   /** The driver listeners. */
   private List<LensEventListener<DriverEvent>> driverListeners;
 
+  /** Scheduler shared by the completion notifications of all the queries. */
+  private ScheduledExecutorService completionNotifierService;
+
+  /** The queries waiting for completion notification. */
+  private final Map<QueryHandle, QueryCompletionNotifier> completionNotifiers = new ConcurrentHashMap<>();
+
+  /** The minimum poll interval of completion notification. */
+  private long minCompletionPollInterval;
+
+  private final MetricRegistry metricRegistry = LensMetricsRegistry.getStaticRegistry();
+
   QueryCostCalculator queryCostCalculator;
   QueryPriorityDecider queryPriorityDecider;
   // package-local. Test case can change.
@@ -362,6 +406,22 @@ public class HiveDriver extends AbstractLensDriver {
       new CostToPriorityRangeConf(getConf().get(HS2_PRIORITY_RANGES, HS2_PRIORITY_DEFAULT_RANGES))
     );
 
+    minCompletionPollInterval = getConf().getLong(HS2_COMPLETION_MIN_POLL_INTERVAL,
+      DEFAULT_COMPLETION_MIN_POLL_INTERVAL);
+    int notifierThreads = getConf().getInt(HS2_COMPLETION_NOTIFIER_THREADS, DEFAULT_COMPLETION_NOTIFIER_THREADS);
+    completionNotifierService = Executors.newScheduledThreadPool(notifierThreads, new BasicThreadFactory.Builder()
+      .namingPattern(getFullyQualifiedName() + "-CompletionNotifier-%d")
+      .daemon(true)
+      .build());
+    // replaces the gauge of an earlier driver of the same name
+    metricRegistry.remove(metricName(PENDING_COMPLETION_NOTIFICATIONS));
+    metricRegistry.register(metricName(PENDING_COMPLETION_NOTIFICATIONS), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return completionNotifiers.size();
+      }
+    });
+
     log.info("Hive driver {} configured successfully", getFullyQualifiedName());
   }
 
@@ -413,7 +473,8 @@ public class HiveDriver extends AbstractLensDriver {
       return (HiveQueryPlan) explainCtx.getDriverContext().getDriverQueryPlan(this);
     }
     log.info("{} Explain: {}", getFullyQualifiedName(), explainCtx.getDriverQuery(this));
-    Configuration explainConf = new Configuration(explainCtx.getDriverConf(this));
+    // a copy of the driver conf, without building the conf of the explained query for a driver which may not be picked
+    Configuration explainConf = explainCtx.getDriverConfLayers(this).toConfiguration();
     explainConf.setClassLoader(explainCtx.getConf().getClassLoader());
     explainConf.setBoolean(LensConfConstants.QUERY_PERSISTENT_RESULT_INDRIVER, false);
     final String explainQuery = "EXPLAIN EXTENDED " + explainCtx.getDriverQuery(this);
@@ -769,6 +830,15 @@ public class HiveDriver extends AbstractLensDriver {
     lensToHiveSession.clear();
     orphanedHiveSessions.clear();
     sessionLock.unlock();
+    if (completionNotifierService != null) {
+      completionNotifierService.shutdownNow();
+      completionNotifiers.clear();
+      metricRegistry.remove(metricName(PENDING_COMPLETION_NOTIFICATIONS));
+    }
+  }
+
+  private String metricName(String name) {
+    return MetricRegistry.name(HiveDriver.class, getFullyQualifiedName(), name);
   }
 
   /**
@@ -994,24 +1064,26 @@ public class HiveDriver extends AbstractLensDriver {
   }
 
   /**
-   * The Class QueryCompletionNotifier.
+   * Polls the status of a query registered for completion notification. Notifiers of all the queries are run on the
+   * shared {@link #completionNotifierService}, each run does a single status call and schedules the next run if the
+   * query is not finished yet.
    */
   private class QueryCompletionNotifier implements Runnable {
 
     /** The poll interval. */
-    long pollInterval;
-
-    /** The hive handle. */
-    OperationHandle hiveHandle;
+    final long pollInterval;
 
     /** The timeout millis. */
-    long timeoutMillis;
+    final long timeoutMillis;
 
     /** The listener. */
-    QueryCompletionListener listener;
+    final QueryCompletionListener listener;
 
     /** The handle. */
-    QueryHandle handle;
+    final QueryHandle handle;
+
+    /** Time spent in waiting for completion. */
+    long timeSpent = 0;
 
     /**
      * Instantiates a new query completion notifier.
@@ -1019,15 +1091,26 @@ public class HiveDriver extends AbstractLensDriver {
      * @param handle        the handle
      * @param timeoutMillis the timeout millis
      * @param listener      the listener
-     * @throws LensException the lens exception
      */
     QueryCompletionNotifier(QueryHandle handle, long timeoutMillis, QueryCompletionListener listener) {
       this.handle = handle;
       this.timeoutMillis = timeoutMillis;
       this.listener = listener;
-      this.pollInterval = timeoutMillis / 10;
-      if (pollInterval < 5000) {
-        pollInterval = 5000; //minimum poll interval is 5 secs
+      this.pollInterval = Math.max(timeoutMillis / 10, minCompletionPollInterval);
+    }
+
+    /**
+     * Schedule the next status poll.
+     *
+     * @param delay delay in milliseconds
+     */
+    void schedule(long delay) {
+      try {
+        completionNotifierService.schedule(this, delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        log.warn("Could not schedule completion notification of {}, driver {} is closed", handle,
+          getFullyQualifiedName());
+        notifyError("driver closed");
       }
     }
 
@@ -1038,50 +1121,53 @@ public class HiveDriver extends AbstractLensDriver {
      */
     @Override
     public void run() {
+      if (completionNotifiers.get(handle) != this) {
+        // replaced by a later registration
+        return;
+      }
       // till query is complete or timeout has reached
-      long timeSpent = 0;
-      String error;
+      if (timeSpent > timeoutMillis) {
+        metricRegistry.counter(metricName(COMPLETION_NOTIFICATION_TIMEOUTS)).inc();
+        notifyError("timedout");
+        return;
+      }
+      DriverQueryStatus status = null;
+      Timer.Context pollTimer = metricRegistry.timer(metricName(COMPLETION_STATUS_POLL_TIMER)).time();
       try {
-        while (timeSpent <= timeoutMillis) {
+        status = updateDriverStateFromOperationStatus(getHiveHandle(handle), null);
+      } catch (LensException | HiveSQLException e) {
+        log.debug("query handle: {} Not yet launched on driver {}", handle, getFullyQualifiedName());
+      } catch (Exception e) {
+        log.warn("Error while polling for status", e);
+        metricRegistry.counter(metricName(COMPLETION_NOTIFICATION_ERRORS)).inc();
+        notifyError("error polling");
+        return;
+      } finally {
+        pollTimer.stop();
+      }
+      if (status != null && status.isFinished()) {
+        if (completionNotifiers.remove(handle, this)) {
+          metricRegistry.counter(metricName(COMPLETION_NOTIFICATIONS)).inc();
           try {
-            hiveHandle = getHiveHandle(handle);
-            if (isFinished(hiveHandle)) {
-              listener.onDriverStatusUpdated(handle, updateDriverStateFromOperationStatus(hiveHandle, null));
-              return;
-            }
-          } catch (LensException e) {
-            log.debug("query handle: {} Not yet launched on driver {}", handle, getFullyQualifiedName());
+            listener.onDriverStatusUpdated(handle, status);
+          } catch (Exception e) {
+            log.warn("Completion listener of {} failed", handle, e);
           }
-          Thread.sleep(pollInterval);
-          timeSpent += pollInterval;
         }
-        error = "timedout";
-      } catch (Exception e) {
-        log.warn("Error while polling for status", e);
-        error = "error polling";
+        return;
       }
-      listener.onError(handle, error);
+      timeSpent += pollInterval;
+      schedule(pollInterval);
     }
 
-    /**
-     * Checks if is finished.
-     *
-     * @param hiveHandle the hive handle
-     * @return true, if is finished
-     * @throws LensException the lens exception
-     */
-    private boolean isFinished(OperationHandle hiveHandle) throws LensException {
-      OperationState state;
-      try {
-        state = getClient().getOperationStatus(hiveHandle).getState();
-      } catch (HiveSQLException e) {
-        throw new LensException("Could not get Status", e);
-      }
-      if (state.equals(OperationState.FINISHED) || state.equals(OperationState.CANCELED)
-        || state.equals(OperationState.ERROR) || state.equals(OperationState.CLOSED)) {
-        return true;
+    private void notifyError(String error) {
+      if (completionNotifiers.remove(handle, this)) {
+        try {
+          listener.onError(handle, error);
+        } catch (Exception e) {
+          log.warn("Completion listener of {} failed", handle, e);
+        }
       }
-      return false;
     }
   }
 
@@ -1095,8 +1181,9 @@ public class HiveDriver extends AbstractLensDriver {
   @Override
   public void registerForCompletionNotification(
     QueryContext context, long timeoutMillis, QueryCompletionListener listener) {
-    Thread th = new Thread(new QueryCompletionNotifier(context.getQueryHandle(), timeoutMillis, listener));
-    th.start();
+    QueryCompletionNotifier notifier = new QueryCompletionNotifier(context.getQueryHandle(), timeoutMillis, listener);
+    completionNotifiers.put(context.getQueryHandle(), notifier);
+    notifier.schedule(0);
   }
 
   /*
@@ -23,6 +23,9 @@ import static org.testng.Assert.*;
 import java.io.*;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.lens.api.LensConf;
 import org.apache.lens.api.Priority;
@@ -34,6 +37,7 @@ import org.apache.lens.server.api.driver.*;
 import org.apache.lens.server.api.driver.DriverQueryStatus.DriverQueryState;
 import org.apache.lens.server.api.driver.hooks.DriverQueryHook;
 import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.query.ExplainQueryContext;
 import org.apache.lens.server.api.query.PreparedQueryContext;
 import org.apache.lens.server.api.query.QueryContext;
@@ -57,6 +61,8 @@ import org.apache.hive.service.cli.ColumnDescriptor;
 import org.testng.annotations.*;
 
 import com.beust.jcommander.internal.Maps;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
 
 
@@ -121,6 +127,7 @@ public class TestHiveDriver {
     driverConf.setClass(LensConfConstants.DRIVER_HOOK_CLASSES_SFX, MockDriverQueryHook.class, DriverQueryHook.class);
     driverConf.set("hive.lock.manager", "org.apache.hadoop.hive.ql.lockmgr.EmbeddedLockManager");
     driverConf.setBoolean(HiveDriver.HS2_CALCULATE_PRIORITY, true);
+    driverConf.setLong(HiveDriver.HS2_COMPLETION_MIN_POLL_INTERVAL, 500);
     driver = new HiveDriver();
     driver.configure(driverConf, "hive", "hive1");
     drivers = Lists.<LensDriver>newArrayList(driver);
@@ -522,6 +529,47 @@ public class TestHiveDriver {
     }
   }
 
+  /**
+   * Test completion notification of async queries.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testCompletionNotification() throws Exception {
+    createTestTable("test_completion_notify");
+    queryConf.setBoolean(LensConfConstants.QUERY_PERSISTENT_RESULT_INDRIVER, false);
+    QueryContext context = createContext("SELECT ID FROM test_completion_notify", queryConf);
+    driver.executeAsync(context);
+    final CountDownLatch notified = new CountDownLatch(2);
+    final Map<QueryHandle, String> results = new ConcurrentHashMap<>();
+    QueryCompletionListener listener = new QueryCompletionListener() {
+      @Override
+      public void onCompletion(QueryHandle handle) {
+        results.put(handle, "completed");
+        notified.countDown();
+      }
+
+      @Override
+      public void onError(QueryHandle handle, String error) {
+        results.put(handle, error);
+        notified.countDown();
+      }
+    };
+    driver.registerForCompletionNotification(context, 60000, listener);
+    // never launched on the driver, times out
+    QueryContext notLaunched = createContext("SELECT ID FROM test_completion_notify", queryConf);
+    driver.registerForCompletionNotification(notLaunched, 0, listener);
+
+    assertTrue(notified.await(60, TimeUnit.SECONDS));
+    assertEquals(results.get(context.getQueryHandle()), "completed");
+    assertEquals(results.get(notLaunched.getQueryHandle()), "timedout");
+    String pendingGauge = MetricRegistry.name(HiveDriver.class, driver.getFullyQualifiedName(),
+      HiveDriver.PENDING_COMPLETION_NOTIFICATIONS);
+    Gauge pending = LensMetricsRegistry.getStaticRegistry().getGauges().get(pendingGauge);
+    assertEquals(pending.getValue(), 0);
+    driver.closeQuery(context.getQueryHandle());
+  }
+
   /**
    * Validate persistent result.
    *
@@ -29,7 +29,6 @@ import org.apache.lens.cube.parse.CubeSemanticAnalyzer;
 import org.apache.lens.cube.parse.HQLParser;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.error.LensException;
-import org.apache.lens.server.api.query.rewrite.QueryRewriter;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.mutable.MutableInt;
@@ -52,7 +51,7 @@ import lombok.extern.slf4j.Slf4j;
  * The Class ColumnarSQLRewriter.
  */
 @Slf4j
-public class ColumnarSQLRewriter implements QueryRewriter {
+public class ColumnarSQLRewriter implements ParsedQueryRewriter {
 
   /** The clause name. */
   protected String clauseName = null;
@@ -882,16 +881,25 @@ public class ColumnarSQLRewriter implements QueryRewriter {
   }
 
   /*
-   * Reset the instance variables if input query is union of multiple select queries
+   * Reset the instance variables if input query is union of multiple select queries, or before a new query is
+   * rewritten by a pooled rewriter
    */
 
   /**
    * Reset.
    */
   public void reset() {
+    clauseName = null;
+    qb = null;
+    ast = null;
+    factFilters.setLength(0);
     factInLineQuery.setLength(0);
     factKeys.clear();
+    allkeys.clear();
     aggColumn.clear();
+    leftFilter = null;
+    mapAggTabAlias.clear();
+    aliasToNativeTableInfo.clear();
     allSubQueries.setLength(0);
     factFilterPush.setLength(0);
     rightFilter.clear();
@@ -1200,6 +1208,22 @@ public class ColumnarSQLRewriter implements QueryRewriter {
    */
   @Override
   public String rewrite(String query, Configuration conf, HiveConf metastoreConf) throws LensException {
+    return rewrite(null, query, conf, metastoreConf);
+  }
+
+  /**
+   * Rewrite the query, using the given tree unless the query is a union, whose parts are parsed separately.
+   *
+   * @param parsed        the parsed query, null to parse it here
+   * @param query         the query
+   * @param conf          the query configuration
+   * @param metastoreConf the metastore configuration
+   * @return the rewritten query
+   * @throws LensException the lens exception
+   */
+  @Override
+  public String rewrite(ASTNode parsed, String query, Configuration conf, HiveConf metastoreConf)
+    throws LensException {
     this.query = query;
     StringBuilder mergedQuery;
     rewrittenQuery.setLength(0);
@@ -1220,7 +1244,7 @@ public class ColumnarSQLRewriter implements QueryRewriter {
           reset();
         }
       } else {
-        ast = HQLParser.parseHQL(query, metastoreConf);
+        ast = parsed != null ? parsed : HQLParser.parseHQL(query, metastoreConf);
         buildQuery(conf, metastoreConf);
         finalRewrittenQuery = rewrittenQuery.toString();
       }
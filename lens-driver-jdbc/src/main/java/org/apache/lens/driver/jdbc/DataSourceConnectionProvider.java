@@ -23,35 +23,125 @@ import static org.apache.lens.driver.jdbc.JDBCDriverConfConstants.ConnectionPool
 
 import java.beans.PropertyVetoException;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.sql.SQLTimeoutException;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.lens.api.util.CommonUtils;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.hadoop.conf.Configuration;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.mchange.v2.c3p0.ComboPooledDataSource;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * The Class DataSourceConnectionProvider.
+ * <p></p>
+ * Connections are checked out of c3p0 pools without any lock in the provider. When fair queueing is enabled, callers
+ * waiting for a connection of an exhausted pool are served in arrival order, and give up after the configured
+ * connection timeout. Once the provider is named through {@link #setPoolName(String)}, it publishes the time spent
+ * waiting for connections, the number of active and idle connections and the number of timeouts as metrics.
  */
 @Slf4j
 public class DataSourceConnectionProvider implements ConnectionProvider {
 
+  /** Timer for the time spent waiting for a connection. */
+  public static final String CONNECTION_WAIT_TIME = "connection-wait-time";
+
+  /** Counter for the connection requests which timed out. */
+  public static final String CONNECTION_TIMEOUTS = "connection-timeouts";
+
+  /** Gauge for the connections checked out of the pool. */
+  public static final String ACTIVE_CONNECTIONS = "active-connections";
+
+  /** Gauge for the idle connections in the pool. */
+  public static final String IDLE_CONNECTIONS = "idle-connections";
+
   /** The data source map. */
-  private Map<DriverConfig, ComboPooledDataSource> dataSourceMap;
+  private final ConcurrentMap<DriverConfig, PooledDataSource> dataSourceMap;
+
+  private final MetricRegistry metricRegistry = LensMetricsRegistry.getStaticRegistry();
+
+  /** Name of the pool in metrics, null if metrics are not published. */
+  @Getter
+  private volatile String poolName;
+
+  private volatile Timer waitTimer;
+
+  private volatile Counter timeoutCounter;
 
   /**
    * Instantiates a new data source connection provider.
    */
   public DataSourceConnectionProvider() {
-    dataSourceMap = new HashMap<>();
+    dataSourceMap = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Name the pools of this provider and publish their metrics under the name.
+   *
+   * @param poolName name of the pool, for example the driver name and the kind of traffic the pool serves
+   */
+  public void setPoolName(String poolName) {
+    removeMetrics();
+    this.poolName = poolName;
+    waitTimer = metricRegistry.timer(metricName(CONNECTION_WAIT_TIME));
+    timeoutCounter = metricRegistry.counter(metricName(CONNECTION_TIMEOUTS));
+    metricRegistry.register(metricName(ACTIVE_CONNECTIONS), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        int active = 0;
+        for (PooledDataSource pool : dataSourceMap.values()) {
+          active += pool.getActiveConnections();
+        }
+        return active;
+      }
+    });
+    metricRegistry.register(metricName(IDLE_CONNECTIONS), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        int idle = 0;
+        for (PooledDataSource pool : dataSourceMap.values()) {
+          idle += pool.getIdleConnections();
+        }
+        return idle;
+      }
+    });
+  }
+
+  private String metricName(String name) {
+    return MetricRegistry.name(DataSourceConnectionProvider.class, poolName, name);
+  }
+
+  private void removeMetrics() {
+    if (poolName != null) {
+      for (String name : new String[]{CONNECTION_WAIT_TIME, CONNECTION_TIMEOUTS, ACTIVE_CONNECTIONS,
+        IDLE_CONNECTIONS}) {
+        metricRegistry.remove(metricName(name));
+      }
+      poolName = null;
+      waitTimer = null;
+      timeoutCounter = null;
+    }
   }
 
   /**
@@ -83,6 +173,9 @@ public class DataSourceConnectionProvider implements ConnectionProvider {
 
     final Properties properties;
 
+    /** Whether callers waiting for a connection are served in arrival order. */
+    final boolean fairQueueing;
+
     /** The has hash code. */
     boolean hasHashCode = false;
 
@@ -107,6 +200,7 @@ public class DataSourceConnectionProvider implements ConnectionProvider {
       }
       this.user = properties.getProperty("user");
       this.password = properties.getProperty("password");
+      this.fairQueueing = conf.getBoolean(JDBC_POOL_FAIR_QUEUEING, DEFAULT_JDBC_POOL_FAIR_QUEUEING);
       // Maximum number of connections allowed in the pool
       setConnectionPoolProperties(properties, conf);
     }
@@ -172,35 +266,150 @@ public class DataSourceConnectionProvider implements ConnectionProvider {
     }
   }
 
-  /*
-   * (non-Javadoc)
-   *
-   * @see org.apache.lens.driver.jdbc.ConnectionProvider#getConnection(org.apache.hadoop.conf.Configuration)
+  /**
+   * A c3p0 pool, with the queue of callers waiting for its connections when fair queueing is enabled.
    */
-  @Override
-  public synchronized Connection getConnection(Configuration conf) throws SQLException {
-    DriverConfig config = getDriverConfigfromConf(conf);
-    if (!dataSourceMap.containsKey(config)) {
-      ComboPooledDataSource cpds = new ComboPooledDataSource();
+  private static class PooledDataSource {
+
+    private final ComboPooledDataSource dataSource;
+
+    /** Permits for checking out connections, null if fair queueing is disabled. */
+    private final Semaphore permits;
+
+    /** Milliseconds to wait for a connection, zero to wait indefinitely. */
+    private final int timeoutMillis;
+
+    PooledDataSource(DriverConfig config) {
+      dataSource = new ComboPooledDataSource();
       try {
-        cpds.setDriverClass(config.driverClass);
+        dataSource.setDriverClass(config.driverClass);
       } catch (PropertyVetoException e) {
         throw new IllegalArgumentException("Unable to set driver class:" + config.driverClass, e);
       }
-      cpds.setJdbcUrl(config.jdbcURI);
-      cpds.setProperties(config.properties);
+      dataSource.setJdbcUrl(config.jdbcURI);
+      dataSource.setProperties(config.properties);
 
-      cpds.setMaxPoolSize(Integer.parseInt(config.getProperty(JDBC_POOL_MAX_SIZE.getPoolProperty())));
-      cpds.setMaxIdleTime(Integer.parseInt(config.getProperty(JDBC_POOL_IDLE_TIME.getPoolProperty())));
-      cpds.setMaxIdleTimeExcessConnections(Integer.parseInt(config.getProperty(JDBC_MAX_IDLE_TIME_EXCESS_CONNECTIONS
+      int maxPoolSize = Integer.parseInt(config.getProperty(JDBC_POOL_MAX_SIZE.getPoolProperty()));
+      timeoutMillis = Integer.parseInt(config.getProperty(JDBC_GET_CONNECTION_TIMEOUT.getPoolProperty()));
+      dataSource.setMaxPoolSize(maxPoolSize);
+      dataSource.setMaxIdleTime(Integer.parseInt(config.getProperty(JDBC_POOL_IDLE_TIME.getPoolProperty())));
+      dataSource.setMaxIdleTimeExcessConnections(Integer.parseInt(config.getProperty(
+        JDBC_MAX_IDLE_TIME_EXCESS_CONNECTIONS.getPoolProperty())));
+      dataSource.setMaxStatementsPerConnection(Integer.parseInt(config.getProperty(JDBC_MAX_STATEMENTS_PER_CONNECTION
         .getPoolProperty())));
-      cpds.setMaxStatementsPerConnection(Integer.parseInt(config.getProperty(JDBC_MAX_STATEMENTS_PER_CONNECTION
-        .getPoolProperty())));
-      cpds.setCheckoutTimeout(Integer.parseInt(config.getProperty(JDBC_GET_CONNECTION_TIMEOUT.getPoolProperty())));
-      dataSourceMap.put(config, cpds);
-      log.info("Created new datasource for config: {}", config);
+      dataSource.setCheckoutTimeout(timeoutMillis);
+      permits = config.fairQueueing ? new Semaphore(maxPoolSize, true) : null;
+    }
+
+    /**
+     * Check out a connection. With fair queueing, a permit is taken in arrival order before the checkout and is
+     * returned when the connection is closed, so that c3p0 always has a connection for the permit holders.
+     */
+    Connection getConnection() throws SQLException {
+      if (permits == null) {
+        return dataSource.getConnection();
+      }
+      acquirePermit();
+      try {
+        return permitReleasingConnection(dataSource.getConnection(), permits);
+      } catch (SQLException | RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+    }
+
+    private void acquirePermit() throws SQLException {
+      try {
+        if (timeoutMillis <= 0) {
+          permits.acquire();
+        } else if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+          throw new SQLTimeoutException("Timed out after " + timeoutMillis + " ms waiting for a connection to "
+            + dataSource.getJdbcUrl());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for a connection to " + dataSource.getJdbcUrl(), e);
+      }
+    }
+
+    int getActiveConnections() {
+      try {
+        return dataSource.getNumBusyConnectionsDefaultUser();
+      } catch (SQLException e) {
+        return 0;
+      }
+    }
+
+    int getIdleConnections() {
+      try {
+        return dataSource.getNumIdleConnectionsDefaultUser();
+      } catch (SQLException e) {
+        return 0;
+      }
+    }
+
+    /** Whether a failed checkout was because no connection was available within the timeout. */
+    boolean isTimeout(SQLException e, long waitedMillis) {
+      return e instanceof SQLTimeoutException || (timeoutMillis > 0 && waitedMillis >= timeoutMillis);
+    }
+  }
+
+  /**
+   * Wrap the connection so that closing it returns the permit, once.
+   */
+  private static Connection permitReleasingConnection(final Connection connection, final Semaphore permits) {
+    final AtomicBoolean released = new AtomicBoolean(false);
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+      new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          try {
+            return method.invoke(connection, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          } finally {
+            if ("close".equals(method.getName()) && released.compareAndSet(false, true)) {
+              permits.release();
+            }
+          }
+        }
+      });
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lens.driver.jdbc.ConnectionProvider#getConnection(org.apache.hadoop.conf.Configuration)
+   */
+  @Override
+  public Connection getConnection(Configuration conf) throws SQLException {
+    final DriverConfig config = getDriverConfigfromConf(conf);
+    PooledDataSource pool = dataSourceMap.get(config);
+    if (pool == null) {
+      PooledDataSource created = new PooledDataSource(config);
+      pool = dataSourceMap.putIfAbsent(config, created);
+      if (pool == null) {
+        pool = created;
+        log.info("Created new datasource for config: {}", config);
+      } else {
+        created.dataSource.close();
+      }
+    }
+    Timer timer = waitTimer;
+    long start = System.nanoTime();
+    try {
+      return pool.getConnection();
+    } catch (SQLException e) {
+      Counter timeouts = timeoutCounter;
+      if (timeouts != null && pool.isTimeout(e, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))) {
+        timeouts.inc();
+      }
+      throw e;
+    } finally {
+      if (timer != null) {
+        timer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
     }
-    return dataSourceMap.get(config).getConnection();
   }
 
   /*
@@ -210,8 +419,9 @@ public class DataSourceConnectionProvider implements ConnectionProvider {
    */
   @Override
   public void close() throws IOException {
-    for (Map.Entry<DriverConfig, ComboPooledDataSource> entry : dataSourceMap.entrySet()) {
-      entry.getValue().close();
+    removeMetrics();
+    for (Map.Entry<DriverConfig, PooledDataSource> entry : dataSourceMap.entrySet()) {
+      entry.getValue().dataSource.close();
       log.info("Closed datasource: {}", entry.getKey());
     }
     dataSourceMap.clear();
@@ -219,7 +429,8 @@ public class DataSourceConnectionProvider implements ConnectionProvider {
   }
 
   protected final ComboPooledDataSource getDataSource(Configuration conf) {
-    return dataSourceMap.get(getDriverConfigfromConf(conf));
+    PooledDataSource pool = dataSourceMap.get(getDriverConfigfromConf(conf));
+    return pool == null ? null : pool.dataSource;
   }
 
 }
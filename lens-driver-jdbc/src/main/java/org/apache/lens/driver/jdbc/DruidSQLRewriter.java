@@ -223,12 +223,15 @@ public class DruidSQLRewriter extends ColumnarSQLRewriter {
   /*
    * (non-Javadoc)
    *
-   * @see org.apache.lens.server.api.query.QueryRewriter#rewrite(java.lang.String, org.apache.hadoop.conf.Configuration)
+   * @see org.apache.lens.driver.jdbc.ParsedQueryRewriter#rewrite(org.apache.hadoop.hive.ql.parse.ASTNode,
+   * java.lang.String, org.apache.hadoop.conf.Configuration, org.apache.hadoop.hive.conf.HiveConf)
    */
   @Override
-  public String rewrite(String query, Configuration conf, HiveConf metastoreConf) throws LensException {
+  public String rewrite(ASTNode parsed, String query, Configuration conf, HiveConf metastoreConf)
+    throws LensException {
     this.query = query;
-    String reWritten = rewrite(HQLParser.parseHQL(query, metastoreConf), conf, metastoreConf, true);
+    String reWritten = rewrite(parsed != null ? parsed : HQLParser.parseHQL(query, metastoreConf), conf,
+      metastoreConf, true);
 
     log.info("Rewritten : {}", reWritten);
     String queryReplacedUdf = replaceUDFForDB(reWritten);
@@ -54,6 +54,7 @@ import org.apache.lens.server.api.query.QueryContext;
 import org.apache.lens.server.api.query.constraint.MaxConcurrentDriverQueriesConstraintFactory;
 import org.apache.lens.server.api.query.cost.*;
 import org.apache.lens.server.api.query.rewrite.QueryRewriter;
+import org.apache.lens.server.api.util.LayeredConf;
 import org.apache.lens.server.api.util.LensUtil;
 import org.apache.lens.server.model.LogSegregationContext;
 import org.apache.lens.server.model.MappedDiagnosticLogSegregationContext;
@@ -64,6 +65,10 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.parse.ASTNode;
 import org.apache.hadoop.hive.ql.parse.HiveParser;
+import org.apache.hadoop.hive.ql.session.SessionState;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
@@ -95,12 +100,26 @@ public class JDBCDriver extends AbstractLensDriver {
   /** Estimate connection provider */
   private ConnectionProvider estimateConnectionProvider;
 
+  /** Configuration for validate connection pool */
+  private Configuration validateConf;
+  /** Validate connection provider, same as the estimate connection provider if validation has no separate pool */
+  private ConnectionProvider validateConnectionProvider;
+
   private LogSegregationContext logSegregationContext;
 
   private boolean isStatementCancelSupported;
 
   QueryCostCalculator queryCostCalculator;
 
+  /** Idle query rewriters, reused since creating and initializing a rewriter is costly. Null if not pooled. */
+  private BlockingQueue<QueryRewriter> rewriterPool;
+
+  /** Rewritten queries by normalized query, current database and the conf they depend on. Null if not cached. */
+  private Cache<String, String> rewriteCache;
+
+  /** Query conf keys which are part of the rewrite cache key. */
+  private String[] rewriteCacheConfKeys;
+
   /**
    * Data related to a query submitted to JDBCDriver.
    */
@@ -426,10 +445,25 @@ public class JDBCDriver extends AbstractLensDriver {
     try {
       connectionProvider = cpClass.newInstance();
       estimateConnectionProvider = cpClass.newInstance();
+      validateConnectionProvider = getConf().getBoolean(JDBC_VALIDATE_SEPARATE_POOL,
+        DEFAULT_JDBC_VALIDATE_SEPARATE_POOL) ? cpClass.newInstance() : estimateConnectionProvider;
     } catch (Exception e) {
       log.error("Error initializing connection provider: ", e);
       throw new LensException(e);
     }
+    nameConnectionPool(connectionProvider, "execute");
+    nameConnectionPool(estimateConnectionProvider, "estimate");
+    if (validateConnectionProvider != estimateConnectionProvider) {
+      nameConnectionPool(validateConnectionProvider, "validate");
+    }
+    int rewriterPoolSize = getConf().getInt(JDBC_REWRITER_POOL_SIZE, DEFAULT_JDBC_REWRITER_POOL_SIZE);
+    rewriterPool = rewriterPoolSize > 0 ? new ArrayBlockingQueue<QueryRewriter>(rewriterPoolSize) : null;
+    int rewriteCacheSize = getConf().getInt(JDBC_REWRITE_CACHE_MAX_SIZE, DEFAULT_JDBC_REWRITE_CACHE_MAX_SIZE);
+    rewriteCache = rewriteCacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(rewriteCacheSize)
+      .expireAfterWrite(getConf().getInt(JDBC_REWRITE_CACHE_EXPIRY_SECS, DEFAULT_JDBC_REWRITE_CACHE_EXPIRY_SECS),
+        TimeUnit.SECONDS).<String, String>build() : null;
+    rewriteCacheConfKeys = getConf().getTrimmedStrings(JDBC_REWRITE_CACHE_CONF_KEYS,
+      DEFAULT_JDBC_REWRITE_CACHE_CONF_KEYS.split(","));
     this.logSegregationContext = new MappedDiagnosticLogSegregationContext();
     this.isStatementCancelSupported = getConf().getBoolean(STATEMENT_CANCEL_SUPPORTED,
       DEFAULT_STATEMENT_CANCEL_SUPPORTED);
@@ -449,7 +483,16 @@ public class JDBCDriver extends AbstractLensDriver {
     }
   }
 
-  protected synchronized Connection getConnection() throws LensException {
+  /**
+   * Name the pools of the connection provider, so that their metrics are published per driver and traffic type.
+   */
+  private void nameConnectionPool(ConnectionProvider provider, String traffic) {
+    if (provider instanceof DataSourceConnectionProvider) {
+      ((DataSourceConnectionProvider) provider).setPoolName(getFullyQualifiedName() + "." + traffic);
+    }
+  }
+
+  protected Connection getConnection() throws LensException {
     try {
       // Add here to cover the path when the queries are executed it does not
       // use the driver conf
@@ -480,6 +523,28 @@ public class JDBCDriver extends AbstractLensDriver {
     return rewriter;
   }
 
+  /**
+   * Take an idle query rewriter from the pool, or create one if there is none.
+   *
+   * @return the query rewriter, to be released after use
+   * @throws LensException the lens exception
+   */
+  private QueryRewriter borrowQueryRewriter() throws LensException {
+    QueryRewriter rewriter = rewriterPool == null ? null : rewriterPool.poll();
+    return rewriter != null ? rewriter : getQueryRewriter();
+  }
+
+  /**
+   * Return the query rewriter to the pool, it is dropped if the pool is full.
+   *
+   * @param rewriter the query rewriter
+   */
+  private void releaseQueryRewriter(QueryRewriter rewriter) {
+    if (rewriterPool != null) {
+      rewriterPool.offer(rewriter);
+    }
+  }
+
   /**
    * Gets the query context.
    *
@@ -506,8 +571,18 @@ public class JDBCDriver extends AbstractLensDriver {
       return ctx.getFinalDriverQuery(this);
     }
     String query = ctx.getDriverQuery(this);
-    Configuration driverQueryConf = ctx.getDriverConf(this);
-    MethodMetricsContext checkForAllowedQuery = MethodMetricsFactory.createMethodGauge(driverQueryConf, true,
+    LayeredConf driverQueryLayers = ctx.getDriverConfLayers(this);
+    String cacheKey = null;
+    if (rewriteCache != null) {
+      cacheKey = getRewriteCacheKey(query, driverQueryLayers);
+      String cached = rewriteCache.getIfPresent(cacheKey);
+      if (cached != null) {
+        // Same query was checked and rewritten earlier
+        ctx.setFinalDriverQuery(this, cached);
+        return cached;
+      }
+    }
+    MethodMetricsContext checkForAllowedQuery = MethodMetricsFactory.createMethodGauge(driverQueryLayers, true,
       CHECK_ALLOWED_QUERY);
     // check if it is select query
 
@@ -524,12 +599,73 @@ public class JDBCDriver extends AbstractLensDriver {
     }
     checkForAllowedQuery.markSuccess();
 
-    QueryRewriter rewriter = getQueryRewriter();
-    String rewrittenQuery = rewriter.rewrite(query, driverQueryConf, ctx.getHiveConf());
+    // rewriters take the full conf, which is built only when the rewrite is not cached. It is built once for the
+    // query, and is already built if the cube rewrite of the query was done for this driver
+    Configuration driverQueryConf = ctx.getDriverConf(this);
+    QueryRewriter rewriter = borrowQueryRewriter();
+    String rewrittenQuery;
+    try {
+      if (rewriter instanceof ParsedQueryRewriter) {
+        rewrittenQuery = ((ParsedQueryRewriter) rewriter).rewrite(ast, query, driverQueryConf, ctx.getHiveConf());
+      } else {
+        rewrittenQuery = rewriter.rewrite(query, driverQueryConf, ctx.getHiveConf());
+      }
+    } finally {
+      releaseQueryRewriter(rewriter);
+    }
+    if (cacheKey != null) {
+      rewriteCache.put(cacheKey, rewrittenQuery);
+    }
     ctx.setFinalDriverQuery(this, rewrittenQuery);
     return rewrittenQuery;
   }
 
+  /**
+   * Key of the rewritten query in the cache. The rewritten query depends on the query, the current database which
+   * qualifies the table names, and the configured query conf values.
+   */
+  private String getRewriteCacheKey(String query, LayeredConf driverQueryConf) {
+    StringBuilder key = new StringBuilder(query.length() + 64);
+    key.append(SessionState.get() == null ? "" : SessionState.get().getCurrentDatabase()).append('\0');
+    for (String confKey : rewriteCacheConfKeys) {
+      key.append(driverQueryConf.get(confKey)).append('\0');
+    }
+    appendNormalizedQuery(key, query);
+    return key.toString();
+  }
+
+  /**
+   * Append the query with whitespace outside quoted strings trimmed and collapsed to a single space, so that queries
+   * differing only in formatting share a cache entry.
+   */
+  static void appendNormalizedQuery(StringBuilder out, String query) {
+    char quote = 0;
+    boolean pendingSpace = false;
+    int start = out.length();
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (quote == 0 && Character.isWhitespace(c)) {
+        pendingSpace = true;
+        continue;
+      }
+      if (pendingSpace && out.length() > start) {
+        out.append(' ');
+      }
+      pendingSpace = false;
+      out.append(c);
+      if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+        quote = c;
+      } else if (quote != 0 && c == '\\') {
+        // escaped character inside a quoted string
+        if (++i < query.length()) {
+          out.append(query.charAt(i));
+        }
+      } else if (c == quote) {
+        quote = 0;
+      }
+    }
+  }
+
   /**
    * Dummy JDBC query Plan class to get min cost selector working.
    */
@@ -554,9 +690,9 @@ public class JDBCDriver extends AbstractLensDriver {
 
   @Override
   public QueryCost estimate(AbstractQueryContext qctx) throws LensException {
-    MethodMetricsContext validateGauge = MethodMetricsFactory.createMethodGauge(qctx.getDriverConf(this), true,
+    MethodMetricsContext validateGauge = MethodMetricsFactory.createMethodGauge(qctx.getDriverConfLayers(this), true,
       VALIDATE_GAUGE);
-    validate(qctx);
+    validate(qctx, PoolType.ESTIMATE);
     validateGauge.markSuccess();
     return calculateQueryCost(qctx);
   }
@@ -580,10 +716,10 @@ public class JDBCDriver extends AbstractLensDriver {
     checkConfigured();
     String explainQuery;
     String rewrittenQuery = rewriteQuery(explainCtx);
-    Configuration explainConf = explainCtx.getDriverConf(this);
-    String explainKeyword = explainConf.get(JDBC_EXPLAIN_KEYWORD_PARAM,
+    LayeredConf explainLayers = explainCtx.getDriverConfLayers(this);
+    String explainKeyword = explainLayers.get(JDBC_EXPLAIN_KEYWORD_PARAM,
       DEFAULT_JDBC_EXPLAIN_KEYWORD);
-    boolean explainBeforeSelect = explainConf.getBoolean(JDBC_EXPLAIN_KEYWORD_BEFORE_SELECT,
+    boolean explainBeforeSelect = explainLayers.getBoolean(JDBC_EXPLAIN_KEYWORD_BEFORE_SELECT,
       DEFAULT_JDBC_EXPLAIN_KEYWORD_BEFORE_SELECT);
 
     if (explainBeforeSelect) {
@@ -594,11 +730,11 @@ public class JDBCDriver extends AbstractLensDriver {
     }
     log.info("{} Explain Query : {}", getFullyQualifiedName(), explainQuery);
 
-    boolean validateThroughPrepare = explainCtx.getDriverConf(this).getBoolean(JDBC_VALIDATE_THROUGH_PREPARE_OR_EXPLAIN,
+    boolean validateThroughPrepare = explainLayers.getBoolean(JDBC_VALIDATE_THROUGH_PREPARE_OR_EXPLAIN,
         DEFAULT_JDBC_VALIDATE_THROUGH_PREPARE_OR_EXPLAIN);
     if (validateThroughPrepare) {
       QueryContext explainQueryCtx = QueryContext.createContextWithSingleDriver(explainQuery, null, new LensConf(),
-          explainConf, this, explainCtx.getLensSessionIdentifier(), false);
+          explainCtx.getDriverConf(this), this, explainCtx.getLensSessionIdentifier(), false);
       QueryResult result = null;
       try {
         result = executeInternal(explainQueryCtx, explainQuery);
@@ -624,16 +760,20 @@ public class JDBCDriver extends AbstractLensDriver {
    * @throws LensException
    */
   public void validate(AbstractQueryContext pContext) throws LensException {
+    validate(pContext, PoolType.VALIDATE);
+  }
+
+  private void validate(AbstractQueryContext pContext, PoolType poolType) throws LensException {
     if (pContext.getDriverQuery(this) == null) {
       throw new NullPointerException("Null driver query for " + pContext.getUserQuery());
     }
-    boolean validateThroughPrepare = pContext.getDriverConf(this).getBoolean(JDBC_VALIDATE_THROUGH_PREPARE_OR_EXPLAIN,
-      DEFAULT_JDBC_VALIDATE_THROUGH_PREPARE_OR_EXPLAIN);
+    boolean validateThroughPrepare = pContext.getDriverConfLayers(this).getBoolean(
+      JDBC_VALIDATE_THROUGH_PREPARE_OR_EXPLAIN, DEFAULT_JDBC_VALIDATE_THROUGH_PREPARE_OR_EXPLAIN);
     if (validateThroughPrepare) {
       PreparedStatement stmt;
-      // Estimate queries need to get connection from estimate pool to make sure
+      // Estimate and validate queries need to get connection from their own pool to make sure
       // we are not blocked by data queries.
-      stmt = prepareInternal(pContext, true, true, "validate-");
+      stmt = prepareInternal(pContext, poolType, true, "validate-");
       if (stmt != null) {
         try {
           stmt.close();
@@ -644,9 +784,21 @@ public class JDBCDriver extends AbstractLensDriver {
     }
   }
 
+  /**
+   * Connection pools of the driver, by the traffic they serve.
+   */
+  private enum PoolType {
+    EXECUTE, ESTIMATE, VALIDATE
+  }
+
   // Get key used for estimate key config
   protected String getEstimateKey(String jdbcKey) {
-    return JDBC_DRIVER_PFX + "estimate." + jdbcKey.substring(JDBC_DRIVER_PFX.length());
+    return getPoolKey("estimate", jdbcKey);
+  }
+
+  // Get key used for the config of the given pool
+  private static String getPoolKey(String pool, String jdbcKey) {
+    return JDBC_DRIVER_PFX + pool + "." + jdbcKey.substring(JDBC_DRIVER_PFX.length());
   }
 
   // If any 'key' in 'keys' is set in conf, return its value.
@@ -663,31 +815,51 @@ public class JDBCDriver extends AbstractLensDriver {
   // Get connection config used by estimate pool.
   protected final Configuration getEstimateConnectionConf() {
     if (estimateConf == null) {
-      Configuration tmpConf = new Configuration(getConf());
-      // Override JDBC settings in estimate conf, if set by user explicitly. Otherwise fall back to default JDBC pool
-      // config
-      for (String key : asList(JDBC_CONNECTION_PROPERTIES, JDBC_DB_URI, JDBC_DRIVER_CLASS, JDBC_USER, JDBC_PASSWORD,
-        JDBC_POOL_MAX_SIZE.getConfigKey(), JDBC_POOL_IDLE_TIME.getConfigKey(),
-        JDBC_MAX_IDLE_TIME_EXCESS_CONNECTIONS.getConfigKey(),
-        JDBC_MAX_STATEMENTS_PER_CONNECTION.getConfigKey(), JDBC_GET_CONNECTION_TIMEOUT.getConfigKey())) {
-        String val = getKeyOrFallBack(tmpConf, getEstimateKey(key), key);
-        if (val != null) {
-          tmpConf.set(key, val);
-        }
-      }
-      /* We need to set password as empty string if it is not provided. Setting null on conf is not allowed */
-      if (tmpConf.get(JDBC_PASSWORD) == null) {
-        tmpConf.set(JDBC_PASSWORD, "");
-      }
-      estimateConf = tmpConf;
+      estimateConf = createPoolConf("estimate");
     }
     return estimateConf;
   }
 
+  // Get connection config used by validate pool.
+  protected final Configuration getValidateConnectionConf() {
+    if (validateConnectionProvider == estimateConnectionProvider) {
+      return getEstimateConnectionConf();
+    }
+    if (validateConf == null) {
+      validateConf = createPoolConf("validate");
+    }
+    return validateConf;
+  }
+
+  private Configuration createPoolConf(String pool) {
+    Configuration tmpConf = new Configuration(getConf());
+    // Override JDBC settings in pool conf, if set by user explicitly. Otherwise fall back to default JDBC pool
+    // config
+    for (String key : asList(JDBC_CONNECTION_PROPERTIES, JDBC_DB_URI, JDBC_DRIVER_CLASS, JDBC_USER, JDBC_PASSWORD,
+      JDBC_POOL_MAX_SIZE.getConfigKey(), JDBC_POOL_IDLE_TIME.getConfigKey(),
+      JDBC_MAX_IDLE_TIME_EXCESS_CONNECTIONS.getConfigKey(),
+      JDBC_MAX_STATEMENTS_PER_CONNECTION.getConfigKey(), JDBC_GET_CONNECTION_TIMEOUT.getConfigKey(),
+      JDBC_POOL_FAIR_QUEUEING)) {
+      String val = getKeyOrFallBack(tmpConf, getPoolKey(pool, key), key);
+      if (val != null) {
+        tmpConf.set(key, val);
+      }
+    }
+    /* We need to set password as empty string if it is not provided. Setting null on conf is not allowed */
+    if (tmpConf.get(JDBC_PASSWORD) == null) {
+      tmpConf.set(JDBC_PASSWORD, "");
+    }
+    return tmpConf;
+  }
+
   protected final Connection getEstimateConnection() throws SQLException {
     return estimateConnectionProvider.getConnection(getEstimateConnectionConf());
   }
 
+  protected final Connection getValidateConnection() throws SQLException {
+    return validateConnectionProvider.getConnection(getValidateConnectionConf());
+  }
+
   // For tests
   protected final ConnectionProvider getEstimateConnectionProvider() {
     return estimateConnectionProvider;
@@ -698,6 +870,11 @@ public class JDBCDriver extends AbstractLensDriver {
     return connectionProvider;
   }
 
+  // For tests
+  protected final ConnectionProvider getValidateConnectionProvider() {
+    return validateConnectionProvider;
+  }
+
   private final Map<QueryPrepareHandle, PreparedStatement> preparedQueries = new HashMap<>();
 
   /**
@@ -712,21 +889,21 @@ public class JDBCDriver extends AbstractLensDriver {
       throw new NullPointerException("Null driver query for " + pContext.getUserQuery());
     }
     checkConfigured();
-    return prepareInternal(pContext, false, false, "prepare-");
+    return prepareInternal(pContext, PoolType.EXECUTE, false, "prepare-");
   }
 
 
   /**
    * Prepare statment on the database server
    * @param pContext query context
-   * @param calledForEstimate set this to true if this call will use the estimate connection pool
+   * @param poolType pool to get the connection from
    * @param checkConfigured set this to true if this call needs to check whether JDBC driver is configured
    * @param metricCallStack stack for metrics API
    * @return prepared statement
    * @throws LensException
    */
   private PreparedStatement prepareInternal(AbstractQueryContext pContext,
-    boolean calledForEstimate,
+    PoolType poolType,
     boolean checkConfigured,
     String metricCallStack) throws LensException {
     // Caller might have already verified configured status and driver query, so we don't have
@@ -739,20 +916,30 @@ public class JDBCDriver extends AbstractLensDriver {
     }
 
     // Only create a prepared statement and then close it
-    MethodMetricsContext sqlRewriteGauge = MethodMetricsFactory.createMethodGauge(pContext.getDriverConf(this), true,
+    LayeredConf driverQueryLayers = pContext.getDriverConfLayers(this);
+    MethodMetricsContext sqlRewriteGauge = MethodMetricsFactory.createMethodGauge(driverQueryLayers, true,
       metricCallStack + COLUMNAR_SQL_REWRITE_GAUGE);
     String rewrittenQuery = rewriteQuery(pContext);
     sqlRewriteGauge.markSuccess();
-    MethodMetricsContext jdbcPrepareGauge = MethodMetricsFactory.createMethodGauge(pContext.getDriverConf(this), true,
+    MethodMetricsContext jdbcPrepareGauge = MethodMetricsFactory.createMethodGauge(driverQueryLayers, true,
       metricCallStack + JDBC_PREPARE_GAUGE);
 
     PreparedStatement stmt = null;
     Connection conn = null;
     try {
-      conn = calledForEstimate ? getEstimateConnection() : getConnection();
+      switch (poolType) {
+      case ESTIMATE:
+        conn = getEstimateConnection();
+        break;
+      case VALIDATE:
+        conn = getValidateConnection();
+        break;
+      default:
+        conn = getConnection();
+      }
       stmt = conn.prepareStatement(rewrittenQuery);
-      if (!pContext.getDriverConf(this).getBoolean(JDBC_VALIDATE_SKIP_WARNINGS,
-        DEFAULT_JDBC_VALIDATE_SKIP_WARNINGS) && stmt.getWarnings() != null) {
+      if (!driverQueryLayers.getBoolean(JDBC_VALIDATE_SKIP_WARNINGS, DEFAULT_JDBC_VALIDATE_SKIP_WARNINGS)
+        && stmt.getWarnings() != null) {
         throw new LensException(stmt.getWarnings());
       }
     } catch (SQLException sql) {
@@ -1040,6 +1227,19 @@ public class JDBCDriver extends AbstractLensDriver {
       }
     } finally {
       queryContextMap.clear();
+      closeConnectionProvider(connectionProvider);
+      closeConnectionProvider(estimateConnectionProvider);
+      if (validateConnectionProvider != estimateConnectionProvider) {
+        closeConnectionProvider(validateConnectionProvider);
+      }
+    }
+  }
+
+  private void closeConnectionProvider(ConnectionProvider provider) {
+    try {
+      provider.close();
+    } catch (IOException e) {
+      log.warn("{} Error closing connection provider", getFullyQualifiedName(), e);
     }
   }
 
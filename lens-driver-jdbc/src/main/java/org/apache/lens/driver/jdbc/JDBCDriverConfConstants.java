@@ -82,6 +82,43 @@ public final class JDBCDriverConfConstants {
     }
   }
 
+  /** Whether callers waiting for a pooled connection are served in arrival order. */
+  public static final String JDBC_POOL_FAIR_QUEUEING = JDBC_DRIVER_PFX + "pool.fair.queueing";
+
+  /** The Constant DEFAULT_JDBC_POOL_FAIR_QUEUEING. */
+  public static final boolean DEFAULT_JDBC_POOL_FAIR_QUEUEING = true;
+
+  /** Whether validation gets connections from its own pool, instead of the estimate pool. */
+  public static final String JDBC_VALIDATE_SEPARATE_POOL = JDBC_DRIVER_PFX + "validate.separate.pool";
+
+  /** The Constant DEFAULT_JDBC_VALIDATE_SEPARATE_POOL. */
+  public static final boolean DEFAULT_JDBC_VALIDATE_SEPARATE_POOL = false;
+
+  /** Number of idle query rewriters kept for reuse, zero to create a rewriter for every query. */
+  public static final String JDBC_REWRITER_POOL_SIZE = JDBC_DRIVER_PFX + "rewriter.pool.size";
+
+  /** The Constant DEFAULT_JDBC_REWRITER_POOL_SIZE. */
+  public static final int DEFAULT_JDBC_REWRITER_POOL_SIZE = 16;
+
+  /** Maximum number of rewritten queries cached, zero to disable the cache. */
+  public static final String JDBC_REWRITE_CACHE_MAX_SIZE = JDBC_DRIVER_PFX + "rewrite.cache.max.size";
+
+  /** The Constant DEFAULT_JDBC_REWRITE_CACHE_MAX_SIZE. */
+  public static final int DEFAULT_JDBC_REWRITE_CACHE_MAX_SIZE = 0;
+
+  /** Seconds after which a cached rewritten query expires. */
+  public static final String JDBC_REWRITE_CACHE_EXPIRY_SECS = JDBC_DRIVER_PFX + "rewrite.cache.expiry.secs";
+
+  /** The Constant DEFAULT_JDBC_REWRITE_CACHE_EXPIRY_SECS. */
+  public static final int DEFAULT_JDBC_REWRITE_CACHE_EXPIRY_SECS = 300;
+
+  /** Query configuration keys the rewritten query depends on, which are part of the rewrite cache key. */
+  public static final String JDBC_REWRITE_CACHE_CONF_KEYS = JDBC_DRIVER_PFX + "rewrite.cache.conf.keys";
+
+  /** The Constant DEFAULT_JDBC_REWRITE_CACHE_CONF_KEYS. */
+  public static final String DEFAULT_JDBC_REWRITE_CACHE_CONF_KEYS = JDBC_DRIVER_PFX + "is.having.supported,"
+    + JDBC_DRIVER_PFX + "is.orderby.supported";
+
   /** The Constant JDBC_EXPLAIN_KEYWORD_PARAM. */
   public static final String JDBC_EXPLAIN_KEYWORD_PARAM = JDBC_DRIVER_PFX + "explain.keyword";
 
@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.driver.jdbc;
+
+import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.query.rewrite.QueryRewriter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.parse.ASTNode;
+
+/**
+ * A query rewriter which can rewrite a query that is already parsed.
+ * <p></p>
+ * The JDBC driver parses every query to check that it is a select query, and hands the parsed tree to rewriters
+ * implementing this interface, so that the query is not parsed again.
+ */
+public interface ParsedQueryRewriter extends QueryRewriter {
+
+  /**
+   * Rewrite the parsed query. The rewriter can modify the tree.
+   *
+   * @param ast           the parsed query
+   * @param query         the query
+   * @param queryConf     the query configuration
+   * @param metastoreConf the metastore configuration
+   * @return the rewritten query
+   * @throws LensException the lens exception
+   */
+  String rewrite(ASTNode ast, String query, Configuration queryConf, HiveConf metastoreConf) throws LensException;
+}
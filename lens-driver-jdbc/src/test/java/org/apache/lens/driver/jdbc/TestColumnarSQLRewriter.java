@@ -1237,6 +1237,53 @@ public class TestColumnarSQLRewriter {
     }
   }
 
+  /**
+   * Test a rewriter reused for different queries, as pooled by the driver, rewrites each of them as a new one would.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testReuseRewriter() throws Exception {
+    String testDB = "testreuse";
+    Database database = new Database();
+    database.setName(testDB);
+    try {
+      Hive.get(hconf).createDatabase(database);
+    } catch (AlreadyExistsException ignored) {
+      //ignore
+    }
+    try {
+      Map<String, String> columnMap = new HashMap<>();
+      columnMap.put("id", "id1");
+      columnMap.put("name", "name1");
+      createTable(hconf, testDB, "mapped", "testDB", "testTable_1", false, columnMap);
+      createTable(hconf, testDB, "unmapped", null, null, false, null);
+
+      String[] queries = {
+        "select fact.time_key, time_dim.day, sum(fact.dollars_sold) from sales_fact fact "
+          + "inner join time_dim time_dim on fact.time_key = time_dim.time_key "
+          + "where time_dim.time_key between '2013-01-01' and '2013-01-31' group by fact.time_key, time_dim.day",
+        "select max(fact.units_sold) from sales_fact fact "
+          + "inner join location_dim location_dim on fact.location_key = location_dim.location_key "
+          + "where location_dim.location_name = 'test123' group by fact.location_key",
+        "select t1.id, t1.name from " + testDB + ".mapped t1 where t1.id = 100",
+        "select t1.id, t1.name from " + testDB + ".unmapped t1 where t1.id = 100"
+      };
+      ColumnarSQLRewriter reused = new ColumnarSQLRewriter();
+      reused.init(conf);
+      for (String query : queries) {
+        ColumnarSQLRewriter fresh = new ColumnarSQLRewriter();
+        fresh.init(conf);
+        compareQueries(reused.rewrite(query, conf, hconf), fresh.rewrite(query, conf, hconf));
+      }
+      String unmapped = reused.rewrite(queries[3], conf, hconf);
+      assertFalse(unmapped.contains("id1"), unmapped);
+      assertFalse(unmapped.contains("testtable_1"), unmapped);
+    } finally {
+      Hive.get().dropDatabase(testDB, true, true, true);
+    }
+  }
+
   void createTable(HiveConf conf, String db, String table, String udb, String utable) throws Exception {
     createTable(conf, db, table, udb, utable, true, null);
   }
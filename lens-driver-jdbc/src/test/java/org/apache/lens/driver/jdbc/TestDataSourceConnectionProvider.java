@@ -22,19 +22,26 @@ import static org.apache.lens.driver.jdbc.JDBCDriverConfConstants.ConnectionPool
 import static org.apache.lens.driver.jdbc.JDBCDriverConfConstants.ConnectionPoolProperties.JDBC_POOL_MAX_SIZE;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
+
 import org.apache.hadoop.conf.Configuration;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -148,4 +155,59 @@ public class TestDataSourceConnectionProvider {
       }
     }
   }
+
+  /**
+   * Test fair queueing releases the connection on close and publishes pool metrics.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testFairQueueingMetrics() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.set(JDBCDriverConfConstants.JDBC_DRIVER_CLASS, "org.hsqldb.jdbc.JDBCDriver");
+    conf.set(JDBCDriverConfConstants.JDBC_DB_URI, "jdbc:hsqldb:mem:mymemdb3");
+    conf.set(JDBCDriverConfConstants.JDBC_USER, "SA");
+    conf.set(JDBCDriverConfConstants.JDBC_PASSWORD, "");
+    conf.setBoolean(JDBCDriverConfConstants.JDBC_POOL_FAIR_QUEUEING, true);
+    conf.setInt(JDBC_GET_CONNECTION_TIMEOUT.getConfigKey(), 500);
+    conf.setInt(JDBC_POOL_MAX_SIZE.getConfigKey(), 2);
+
+    final DataSourceConnectionProvider cp = new DataSourceConnectionProvider();
+    cp.setPoolName("test-pool");
+    MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+    String prefix = MetricRegistry.name(DataSourceConnectionProvider.class, "test-pool");
+    Gauge active = registry.getGauges().get(MetricRegistry.name(prefix,
+      DataSourceConnectionProvider.ACTIVE_CONNECTIONS));
+
+    Connection first = cp.getConnection(conf);
+    Connection second = cp.getConnection(conf);
+    assertEquals(active.getValue(), 2);
+    try {
+      cp.getConnection(conf);
+      fail("Expected get connection to time out");
+    } catch (SQLTimeoutException e) {
+      log.info("Timed out as expected", e);
+    }
+    assertEquals(registry.counter(MetricRegistry.name(prefix, DataSourceConnectionProvider.CONNECTION_TIMEOUTS))
+      .getCount(), 1);
+
+    // Closing twice returns only one connection to the pool
+    first.close();
+    first.close();
+    Connection third = cp.getConnection(conf);
+    try {
+      cp.getConnection(conf);
+      fail("Expected get connection to time out");
+    } catch (SQLTimeoutException e) {
+      log.info("Timed out as expected", e);
+    }
+    second.close();
+    third.close();
+    assertTrue(registry.timer(MetricRegistry.name(prefix, DataSourceConnectionProvider.CONNECTION_WAIT_TIME))
+      .getCount() >= 5);
+
+    cp.close();
+    assertFalse(registry.getGauges().containsKey(MetricRegistry.name(prefix,
+      DataSourceConnectionProvider.ACTIVE_CONNECTIONS)));
+  }
 }
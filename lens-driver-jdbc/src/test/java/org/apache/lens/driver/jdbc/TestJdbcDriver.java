@@ -257,6 +257,42 @@ public class TestJdbcDriver {
     Assert.assertNotNull(th);
   }
 
+  /**
+   * Test queries differing only in whitespace share the cached rewritten query.
+   */
+  @Test
+  public void testRewriteCache() throws Exception {
+    StringBuilder normalized = new StringBuilder();
+    JDBCDriver.appendNormalizedQuery(normalized, "  SELECT  a,\n\tb FROM t WHERE c = 'x  y\\'  z' ");
+    assertEquals(normalized.toString(), "SELECT a, b FROM t WHERE c = 'x  y\\'  z'");
+
+    // The cache is disabled by default
+    Configuration cacheConf = new Configuration(baseConf);
+    cacheConf.setInt(JDBC_REWRITE_CACHE_MAX_SIZE, 10);
+    JDBCDriver cachingDriver = new JDBCDriver();
+    cachingDriver.configure(cacheConf, "jdbc", "jdbc-rewrite-cache");
+    List<LensDriver> cachingDrivers = Lists.<LensDriver>newArrayList(cachingDriver);
+    try {
+      String rewritten = cachingDriver.rewriteQuery(new QueryContext("SELECT * FROM   rewrite_cache_test", "SA",
+        new LensConf(), cacheConf, cachingDrivers));
+      QueryContext ctx = new QueryContext("SELECT *\nFROM rewrite_cache_test", "SA", new LensConf(), cacheConf,
+        cachingDrivers);
+      assertEquals(cachingDriver.rewriteQuery(ctx), rewritten);
+      assertEquals(ctx.getFinalDriverQuery(cachingDriver), rewritten);
+
+      // Statements other than select are still rejected
+      try {
+        cachingDriver.rewriteQuery(new QueryContext("DROP TABLE rewrite_cache_test", "SA", new LensConf(), cacheConf,
+          cachingDrivers));
+        fail("Expected drop table to be rejected");
+      } catch (LensException e) {
+        log.info("Drop table rejected", e);
+      }
+    } finally {
+      cachingDriver.close();
+    }
+  }
+
   /**
    * Test estimate.
    *
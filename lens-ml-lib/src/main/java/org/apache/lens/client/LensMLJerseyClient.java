@@ -83,7 +83,7 @@ public class LensMLJerseyClient {
   }
 
   protected WebTarget getMLWebTarget() {
-    Client client = connection.buildClient();
+    Client client = connection.getClient();
     LensConnectionParams connParams = connection.getLensConnectionParams();
     String baseURI = connParams.getBaseConnectionUrl();
     String mlURI = connParams.getConf().get(LENS_ML_RESOURCE_PATH, DEFAULT_ML_RESOURCE_PATH);
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.lib.query;
+
+import org.apache.hadoop.io.Text;
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+/**
+ * Reusable encoder of CSV rows, which quotes and escapes fields like {@link CSVWriter}.
+ * <p></p>
+ * A row is built in a reused character buffer and encoded as UTF-8 into a reused {@link Text}, so encoding a row does
+ * not allocate once the buffers have grown to the size of the largest row. An encoder is not thread safe.
+ */
+public class CSVRowEncoder {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * The separator char.
+   */
+  private final char separator;
+
+  /**
+   * The quote char, {@link CSVWriter#NO_QUOTE_CHARACTER} if fields are not quoted.
+   */
+  private final char quote;
+
+  /**
+   * The escape char, {@link CSVWriter#NO_ESCAPE_CHARACTER} if quote and escape chars are not escaped.
+   */
+  private final char escape;
+
+  /**
+   * The row being built.
+   */
+  private final StringBuilder row = new StringBuilder(INITIAL_CAPACITY);
+
+  /**
+   * Buffer in which a field value can be built.
+   */
+  private final StringBuilder field = new StringBuilder(INITIAL_CAPACITY);
+
+  /**
+   * UTF-8 bytes of the row.
+   */
+  private byte[] bytes = new byte[INITIAL_CAPACITY];
+
+  /**
+   * The encoded row.
+   */
+  private final Text text = new Text();
+
+  /**
+   * Whether no field has been added to the row.
+   */
+  private boolean firstField = true;
+
+  /**
+   * Instantiates a new encoder.
+   *
+   * @param separator the separator char
+   * @param quote     the quote char
+   * @param escape    the escape char
+   */
+  public CSVRowEncoder(char separator, char quote, char escape) {
+    this.separator = separator;
+    this.quote = quote;
+    this.escape = escape;
+  }
+
+  /**
+   * Start a new row.
+   */
+  public void reset() {
+    row.setLength(0);
+    firstField = true;
+  }
+
+  /**
+   * Get the cleared buffer for building the value of the next field, which is then added with {@link #addField()}.
+   *
+   * @return the field buffer
+   */
+  public StringBuilder fieldBuffer() {
+    field.setLength(0);
+    return field;
+  }
+
+  /**
+   * Add the value built in the {@link #fieldBuffer()} to the row.
+   */
+  public void addField() {
+    addField(field);
+  }
+
+  /**
+   * Add a field to the row. A null value adds an empty, unquoted field.
+   *
+   * @param value the value
+   */
+  public void addField(CharSequence value) {
+    if (!firstField) {
+      row.append(separator);
+    }
+    firstField = false;
+    if (value == null) {
+      return;
+    }
+    if (quote != CSVWriter.NO_QUOTE_CHARACTER) {
+      row.append(quote);
+    }
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (escape != CSVWriter.NO_ESCAPE_CHARACTER && (c == quote || c == escape)) {
+        row.append(escape);
+      }
+      row.append(c);
+    }
+    if (quote != CSVWriter.NO_QUOTE_CHARACTER) {
+      row.append(quote);
+    }
+  }
+
+  /**
+   * Get the row as characters, valid till the row is reset.
+   *
+   * @return the row
+   */
+  public CharSequence getRow() {
+    return row;
+  }
+
+  /**
+   * Get the row encoded as UTF-8. The same instance is returned for all rows, so it is valid till the next call.
+   *
+   * @return the row
+   */
+  public Text getText() {
+    text.set(bytes, 0, encode());
+    return text;
+  }
+
+  /**
+   * Encode the row as UTF-8 in {@link #bytes}. Unpaired surrogates are replaced with '?', like
+   * {@link Text#set(String)} does.
+   *
+   * @return number of bytes
+   */
+  private int encode() {
+    int length = row.length();
+    // at most 3 bytes per char, as a 4 byte sequence takes two chars
+    if (bytes.length < length * 3) {
+      bytes = new byte[Math.max(length * 3, bytes.length * 2)];
+    }
+    int pos = 0;
+    for (int i = 0; i < length; i++) {
+      char c = row.charAt(i);
+      if (c < 0x80) {
+        bytes[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[pos++] = (byte) (0xC0 | (c >> 6));
+        bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(row.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, row.charAt(++i));
+          bytes[pos++] = (byte) (0xF0 | (codePoint >> 18));
+          bytes[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          bytes[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          bytes[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+          bytes[pos++] = (byte) '?';
+        }
+      } else {
+        bytes[pos++] = (byte) (0xE0 | (c >> 12));
+        bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return pos;
+  }
+}
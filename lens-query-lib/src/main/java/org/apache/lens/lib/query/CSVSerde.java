@@ -24,14 +24,12 @@ import static org.apache.hadoop.hive.serde.serdeConstants.LIST_COLUMN_TYPES;
 import java.io.*;
 import java.util.*;
 
-import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde2.AbstractSerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeStats;
-import org.apache.hadoop.hive.serde2.lazy.LazyInteger;
 import org.apache.hadoop.hive.serde2.objectinspector.*;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
@@ -78,9 +76,9 @@ public final class CSVSerde extends AbstractSerDe {
   private ObjectInspector inspector;
 
   /**
-   * The output fields.
+   * The encoder of serialized rows.
    */
-  private String[] outputFields;
+  private CSVRowEncoder encoder;
 
   /**
    * The num cols.
@@ -162,7 +160,6 @@ public final class CSVSerde extends AbstractSerDe {
     columnTypes = TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty);
     numCols = columnNames.size();
 
-    this.outputFields = new String[numCols];
     row = new ArrayList<Object>(numCols);
 
     for (int i = 0; i < numCols; i++) {
@@ -185,6 +182,7 @@ public final class CSVSerde extends AbstractSerDe {
     structFieldSeperator = getProperty(tbl, "structFieldSeperator", DEFAULT_STRUCT_FIELD_SEPERATOR);
     unionTagFieldSeperator = getProperty(tbl, "unionTagFieldSeperator", DEFAULT_UNION_TAG_FIELD_SEPERATOR);
     mapKeyValueSeperator = getProperty(tbl, "mapKeyValueSeperator", DEFAULT_MAP_KEY_VALUE_SEPERATOR);
+    encoder = new CSVRowEncoder(separatorChar, quoteChar, escapeChar);
   }
 
   /**
@@ -221,41 +219,32 @@ public final class CSVSerde extends AbstractSerDe {
         + " fields but the table has " + numCols + " columns.");
     }
 
-    try {
-      // Get all data out.
-      for (int c = 0; c < numCols; c++) {
-        final Object field = outputRowOI.getStructFieldData(obj, outputFieldRefs.get(c));
-        // Get the field objectInspector and the field object.
-        ObjectInspector fieldOI = outputFieldRefs.get(c).getFieldObjectInspector();
-
-        outputFields[c] = serializeField(field, fieldOI);
-      }
-
-      final StringWriter writer = new StringWriter();
-      final CSVWriter csv = newWriter(writer, separatorChar, quoteChar, escapeChar);
+    // Get all data out.
+    encoder.reset();
+    for (int c = 0; c < numCols; c++) {
+      final Object field = outputRowOI.getStructFieldData(obj, outputFieldRefs.get(c));
+      // Get the field objectInspector and the field object.
+      ObjectInspector fieldOI = outputFieldRefs.get(c).getFieldObjectInspector();
 
-      csv.writeNext(outputFields);
-      csv.close();
-
-      return new Text(writer.toString());
-    } catch (final IOException ioe) {
-      throw new SerDeException(ioe);
+      serializeField(field, fieldOI, encoder.fieldBuffer());
+      encoder.addField();
     }
+    // the same Text is returned for all the rows
+    return encoder.getText();
   }
 
   /**
-   * Serialize field.
+   * Serialize field, by appending its string form to the buffer.
    *
    * @param field   the field
    * @param fieldOI the field oi
-   * @return the string
-   * @throws IOException    Signals that an I/O exception has occurred.
-   * @throws SerDeException the ser de exception
+   * @param out     buffer to append to
    */
-  private String serializeField(Object field, ObjectInspector fieldOI) throws IOException, SerDeException {
+  private void serializeField(Object field, ObjectInspector fieldOI, StringBuilder out) {
 
     if (field == null) {
-      return nullString;
+      out.append(nullString);
+      return;
     }
 
     List<?> list;
@@ -263,78 +252,81 @@ public final class CSVSerde extends AbstractSerDe {
     case PRIMITIVE:
       if (fieldOI instanceof StringObjectInspector) {
         final StringObjectInspector fieldStringOI = (StringObjectInspector) fieldOI;
-        return fieldStringOI.getPrimitiveJavaObject(field);
+        out.append(fieldStringOI.getPrimitiveJavaObject(field));
+      } else if (field instanceof Integer) {
+        out.append(((Integer) field).intValue());
+      } else if (field instanceof Long) {
+        out.append(((Long) field).longValue());
+      } else if (field instanceof Double) {
+        out.append(((Double) field).doubleValue());
+      } else if (field instanceof CharSequence) {
+        out.append((CharSequence) field);
       } else {
-        return field.toString();
+        out.append(field.toString());
       }
+      return;
     case LIST:
       ListObjectInspector loi = (ListObjectInspector) fieldOI;
       list = loi.getList(field);
       ObjectInspector eoi = loi.getListElementObjectInspector();
       if (list == null) {
-        return nullString;
+        out.append(nullString);
       } else {
-        StringBuilder listString = new StringBuilder();
         for (int i = 0; i < list.size(); i++) {
           if (i > 0) {
-            listString.append(collectionSeperator);
+            out.append(collectionSeperator);
           }
-          listString.append(serializeField(list.get(i), eoi));
+          serializeField(list.get(i), eoi, out);
         }
-        return listString.toString();
       }
+      return;
     case MAP:
       MapObjectInspector moi = (MapObjectInspector) fieldOI;
       ObjectInspector koi = moi.getMapKeyObjectInspector();
       ObjectInspector voi = moi.getMapValueObjectInspector();
       Map<?, ?> map = moi.getMap(field);
       if (map == null) {
-        return nullString;
+        out.append(nullString);
       } else {
-        StringBuilder mapString = new StringBuilder();
         boolean first = true;
         for (Map.Entry<?, ?> entry : map.entrySet()) {
           if (first) {
             first = false;
           } else {
-            mapString.append(collectionSeperator);
+            out.append(collectionSeperator);
           }
-          mapString.append(serializeField(entry.getKey(), koi));
-          mapString.append(mapKeyValueSeperator);
-          mapString.append(serializeField(entry.getValue(), voi));
+          serializeField(entry.getKey(), koi, out);
+          out.append(mapKeyValueSeperator);
+          serializeField(entry.getValue(), voi, out);
         }
-        return mapString.toString();
       }
+      return;
     case STRUCT:
       StructObjectInspector soi = (StructObjectInspector) fieldOI;
       List<? extends StructField> fields = soi.getAllStructFieldRefs();
       list = soi.getStructFieldsDataAsList(field);
       if (list == null) {
-        return nullString;
+        out.append(nullString);
       } else {
-        StringBuilder structString = new StringBuilder();
         for (int i = 0; i < list.size(); i++) {
           if (i > 0) {
-            structString.append(structFieldSeperator);
+            out.append(structFieldSeperator);
           }
-          structString.append(serializeField(list.get(i), fields.get(i).getFieldObjectInspector()));
+          serializeField(list.get(i), fields.get(i).getFieldObjectInspector(), out);
         }
-        return structString.toString();
       }
+      return;
     case UNION:
       UnionObjectInspector uoi = (UnionObjectInspector) fieldOI;
       List<? extends ObjectInspector> ois = uoi.getObjectInspectors();
       if (ois == null) {
-        return nullString;
+        out.append(nullString);
       } else {
-        StringBuilder unionString = new StringBuilder();
-        ByteArrayOutputStream tagStream = new ByteArrayOutputStream();
-        LazyInteger.writeUTF8(tagStream, uoi.getTag(field));
-        unionString.append(new String(tagStream.toByteArray(), "UTF-8"));
-        unionString.append(unionTagFieldSeperator);
-        unionString.append(serializeField(uoi.getField(field), ois.get(uoi.getTag(field))));
-        return unionString.toString();
+        out.append(uoi.getTag(field));
+        out.append(unionTagFieldSeperator);
+        serializeField(uoi.getField(field), ois.get(uoi.getTag(field)), out);
       }
+      return;
     default:
       break;
     }
@@ -448,23 +440,6 @@ public final class CSVSerde extends AbstractSerDe {
     }
   }
 
-  /**
-   * New writer.
-   *
-   * @param writer    the writer
-   * @param separator the separator
-   * @param quote     the quote
-   * @param escape    the escape
-   * @return the CSV writer
-   */
-  private CSVWriter newWriter(final Writer writer, char separator, char quote, char escape) {
-    if (CSVWriter.DEFAULT_ESCAPE_CHARACTER == escape) {
-      return new CSVWriter(writer, separator, quote, "");
-    } else {
-      return new CSVWriter(writer, separator, quote, escape, "");
-    }
-  }
-
   @Override
   public ObjectInspector getObjectInspector() throws SerDeException {
     return inspector;
@@ -21,6 +21,7 @@ package org.apache.lens.lib.query;
 import java.io.IOException;
 
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
 
 /**
  * File formatter interface which is wrapped in {@link WrappedFileFormatter}.
@@ -58,6 +59,14 @@ public interface FileFormatter {
    */
   void writeRow(String row) throws IOException;
 
+  /**
+   * Write the row passed, encoded as UTF-8. The row can be reused by the caller once this returns.
+   *
+   * @param row the row
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  void writeRow(Text row) throws IOException;
+
   /**
    * Get the temporary path of the result, if any
    *
@@ -18,9 +18,7 @@
  */
 package org.apache.lens.lib.query;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.text.ParseException;
 import java.util.Map;
 import java.util.TreeMap;
@@ -33,6 +31,8 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -115,16 +115,15 @@ public class FilePersistentFormatter extends WrappedFileFormatter implements Per
         partFileMap.put(new PartFile(file.getPath().getName()), file);
       }
 
+      // default encoding in hadoop filesystem is utf-8, so the rows are copied as is without decoding
+      Text row = new Text();
       for (Map.Entry<PartFile, FileStatus> entry : partFileMap.entrySet()) {
         log.info("Processing file:{}", entry.getValue().getPath());
-        BufferedReader in = null;
+        LineReader in = null;
         try {
-          // default encoding in hadoop filesystem is utf-8
-          in = new BufferedReader(new InputStreamReader(persistFs.open(entry.getValue().getPath()), "UTF-8"));
-          String row = in.readLine();
-          while (row != null) {
+          in = new LineReader(persistFs.open(entry.getValue().getPath()), ctx.getConf());
+          while (in.readLine(row) > 0) {
             writeRow(row);
-            row = in.readLine();
           }
         } finally {
           if (in != null) {
@@ -34,6 +34,7 @@ import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.util.ReflectionUtils;
 
@@ -109,7 +110,11 @@ public class FileSerdeFormatter extends WrappedFileFormatter implements InMemory
   public void writeRow(ResultRow row) throws IOException {
     try {
       Writable rowWritable = outputSerde.serialize(row.getValues(), inputOI);
-      writeRow(rowWritable.toString());
+      if (rowWritable instanceof Text) {
+        writeRow((Text) rowWritable);
+      } else {
+        writeRow(rowWritable.toString());
+      }
     } catch (SerDeException e) {
       throw new IOException(e);
     }
@@ -107,6 +107,16 @@ public class HadoopFileFormatter extends AbstractFileFormatter {
     numRows++;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lens.lib.query.FileFormatter#writeRow(org.apache.hadoop.io.Text)
+   */
+  public void writeRow(Text row) throws IOException {
+    rowWriter.write(null, row);
+    numRows++;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -18,10 +18,9 @@
  */
 package org.apache.lens.lib.query;
 
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -76,6 +75,11 @@ public class LensFileOutputFormat extends FileOutputFormat<NullWritable, Text> {
      */
     protected OutputStreamWriter out;
 
+    /**
+     * Stream under {@link #out}, to which UTF-8 rows are written as is when the encoding is UTF-8.
+     */
+    private OutputStream utf8Out;
+
     /**
      * The tmp path.
      */
@@ -98,8 +102,14 @@ public class LensFileOutputFormat extends FileOutputFormat<NullWritable, Text> {
       this.tmpPath = tmpPath;
       this.extn = extn;
       try {
-        this.out = new OutputStreamWriter(out, encoding);
-      } catch (UnsupportedEncodingException uee) {
+        if (Charset.forName(encoding).equals(StandardCharsets.UTF_8)) {
+          // Text values are already UTF-8, their bytes are copied without decoding
+          utf8Out = new BufferedOutputStream(out, 64 * 1024);
+          this.out = new OutputStreamWriter(utf8Out, encoding);
+        } else {
+          this.out = new OutputStreamWriter(out, encoding);
+        }
+      } catch (UnsupportedEncodingException | IllegalArgumentException e) {
         throw new IllegalArgumentException("can't find " + encoding + " encoding");
       }
     }
@@ -120,6 +130,13 @@ public class LensFileOutputFormat extends FileOutputFormat<NullWritable, Text> {
      */
     public synchronized void write(NullWritable key, Text value) throws IOException {
       boolean nullValue = value == null;
+      if (utf8Out != null) {
+        if (!nullValue) {
+          utf8Out.write(value.getBytes(), 0, value.getLength());
+        }
+        utf8Out.write('\n');
+        return;
+      }
       if (!nullValue) {
         out.write(value.toString());
       }
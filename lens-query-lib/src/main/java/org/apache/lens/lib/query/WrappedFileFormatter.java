@@ -27,6 +27,7 @@ import org.apache.lens.server.api.query.QueryContext;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
 
 /**
  * Wraps the formatter {@link FileFormatter}, which can have implementations like {@link HadoopFileFormatter} or
@@ -95,6 +96,16 @@ public abstract class WrappedFileFormatter extends AbstractOutputFormatter {
     formatter.writeRow(row);
   }
 
+  /**
+   * Write row encoded as UTF-8.
+   *
+   * @param row the row
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  protected void writeRow(Text row) throws IOException {
+    formatter.writeRow(row);
+  }
+
   @Override
   public Integer getNumRows() {
     return formatter.getNumRows();
@@ -28,6 +28,7 @@ import org.apache.lens.server.api.LensConfConstants;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
 
 import com.google.common.base.Strings;
 
@@ -220,6 +221,16 @@ public class ZipFileFormatter extends AbstractFileFormatter {
     numRows++;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lens.lib.query.FileFormatter#writeRow(org.apache.hadoop.io.Text)
+   */
+  public void writeRow(Text row) throws IOException {
+    // rows are written in the result encoding through the writer, as a part can start after any row
+    writeRow(row.toString());
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.lib.query;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.apache.hadoop.io.Text;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+public class TestCSVRowEncoder {
+
+  private static final String[][] ROWS = {
+    {"hello", "yes, okay", "1"},
+    {"with \"quotes\"", "back\\slash", "single 'quote'"},
+    {"", null, "NULL"},
+    {"unicode \u00e9\u4e2d\ud83d\ude00", "new\nline", "tab\there"},
+  };
+
+  @DataProvider(name = "csvChars")
+  public Object[][] csvChars() {
+    return new Object[][]{
+      {',', '"', '"'},
+      {'\t', '\'', '\\'},
+      {',', CSVWriter.NO_QUOTE_CHARACTER, CSVWriter.NO_ESCAPE_CHARACTER},
+      {'|', '"', CSVWriter.NO_ESCAPE_CHARACTER},
+    };
+  }
+
+  private static String writeWithOpenCsv(String[] row, char separator, char quote, char escape) throws IOException {
+    StringWriter writer = new StringWriter();
+    CSVWriter csv = new CSVWriter(writer, separator, quote, escape, "");
+    csv.writeNext(row);
+    csv.close();
+    return writer.toString();
+  }
+
+  @Test(dataProvider = "csvChars")
+  public void testSameAsOpenCsv(char separator, char quote, char escape) throws IOException {
+    CSVRowEncoder encoder = new CSVRowEncoder(separator, quote, escape);
+    for (String[] row : ROWS) {
+      encoder.reset();
+      for (String field : row) {
+        encoder.addField(field);
+      }
+      String expected = writeWithOpenCsv(row, separator, quote, escape);
+      assertEquals(encoder.getRow().toString(), expected);
+      assertEquals(encoder.getText().toString(), expected);
+    }
+  }
+
+  @Test
+  public void testFieldBufferAndReuse() {
+    CSVRowEncoder encoder = new CSVRowEncoder(',', '"', '"');
+    encoder.reset();
+    encoder.fieldBuffer().append(1).append(':').append("a\"b");
+    encoder.addField();
+    encoder.fieldBuffer().append("c");
+    encoder.addField();
+    Text first = encoder.getText();
+    assertEquals(first.toString(), "\"1:a\"\"b\",\"c\"");
+
+    encoder.reset();
+    encoder.addField("d");
+    Text second = encoder.getText();
+    assertSame(second, first);
+    assertEquals(second.toString(), "\"d\"");
+  }
+
+  @Test
+  public void testUnpairedSurrogate() {
+    CSVRowEncoder encoder = new CSVRowEncoder(',', CSVWriter.NO_QUOTE_CHARACTER, CSVWriter.NO_ESCAPE_CHARACTER);
+    encoder.reset();
+    encoder.addField("a\ud800b");
+    assertEquals(encoder.getText(), new Text("a\ud800b"));
+  }
+}
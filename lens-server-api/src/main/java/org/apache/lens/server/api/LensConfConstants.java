@@ -108,6 +108,63 @@ public final class LensConfConstants {
 
   public static final String QUERY_COMPARATOR_CLASSES = SERVER_PFX + "query.comparator.classes";
 
+  /**
+   * Scheduler deciding which queued query is taken next by the query submitter.
+   */
+  public static final String QUERY_SCHEDULER_CLASS = SERVER_PFX + "query.scheduler.class";
+
+  /**
+   * Weights of users in the fair share query scheduler, as comma separated user=weight pairs.
+   */
+  public static final String QUERY_SCHEDULER_USER_WEIGHTS = SERVER_PFX + "query.scheduler.user.weights";
+
+  /**
+   * Weight of users not in {@link #QUERY_SCHEDULER_USER_WEIGHTS}.
+   */
+  public static final String QUERY_SCHEDULER_DEFAULT_USER_WEIGHT = SERVER_PFX + "query.scheduler.default.user.weight";
+
+  public static final int DEFAULT_QUERY_SCHEDULER_DEFAULT_USER_WEIGHT = 1;
+
+  /**
+   * Number of query submitter threads taking queued queries and checking their launching constraints.
+   */
+  public static final String QUERY_SUBMITTER_THREADS = SERVER_PFX + "query.submitter.threads";
+
+  public static final int DEFAULT_QUERY_SUBMITTER_THREADS = 1;
+
+  /**
+   * Databases whose cubes, dimensions, fact tables and partition timelines are loaded when the server starts.
+   */
+  public static final String METASTORE_WARMUP_DATABASES = SERVER_PFX + "metastore.warmup.databases";
+
+  /**
+   * Number of threads loading metadata when the server starts.
+   */
+  public static final String METASTORE_WARMUP_THREADS = SERVER_PFX + "metastore.warmup.threads";
+
+  public static final int DEFAULT_METASTORE_WARMUP_THREADS = 4;
+
+  /**
+   * Time after which the server reports ready even if the metadata is still being loaded.
+   */
+  public static final String METASTORE_WARMUP_TIMEOUT_SECS = SERVER_PFX + "metastore.warmup.timeout.secs";
+
+  public static final long DEFAULT_METASTORE_WARMUP_TIMEOUT_SECS = 300;
+
+  /**
+   * Local file to which the metastore tables cached by the server are written on shutdown, and from which they are
+   * loaded on start. Snapshot is not used if not set.
+   */
+  public static final String METASTORE_WARMUP_SNAPSHOT_PATH = SERVER_PFX + "metastore.warmup.snapshot.path";
+
+  /**
+   * Age after which tables in the metastore snapshot are not used, only its databases are loaded.
+   */
+  public static final String METASTORE_WARMUP_SNAPSHOT_MAX_AGE_SECS = SERVER_PFX
+    + "metastore.warmup.snapshot.max.age.secs";
+
+  public static final long DEFAULT_METASTORE_WARMUP_SNAPSHOT_MAX_AGE_SECS = 86400;
+
   public static final Integer DEFAULT_MAX_SESSIONS_PER_USER = 10;
 
   /**
@@ -208,6 +265,26 @@ public final class LensConfConstants {
    */
   public static final long DEFAULT_SERVER_STATE_PERSISTENCE_INTERVAL_MILLIS = 5 * 60 * 1000;
 
+  /**
+   * Whether state changes of queries and sessions are journaled between the periodic snapshots of server state.
+   */
+  public static final String SERVER_STATE_JOURNAL_ENABLED = SERVER_PFX + "state.journal.enabled";
+
+  /**
+   * The Constant DEFAULT_SERVER_STATE_JOURNAL_ENABLED.
+   */
+  public static final boolean DEFAULT_SERVER_STATE_JOURNAL_ENABLED = true;
+
+  /**
+   * Size of the state journal in bytes, beyond which a snapshot of server state is taken before the next periodic one.
+   */
+  public static final String SERVER_STATE_JOURNAL_MAX_BYTES = SERVER_PFX + "state.journal.max.bytes";
+
+  /**
+   * The Constant DEFAULT_SERVER_STATE_JOURNAL_MAX_BYTES.
+   */
+  public static final long DEFAULT_SERVER_STATE_JOURNAL_MAX_BYTES = 64 * 1024 * 1024;
+
   // Email related configurations
   /**
    * The Constant QUERY_MAIL_NOTIFY.
@@ -849,6 +926,26 @@ public final class LensConfConstants {
    */
   public static final int DEFAULT_PURGE_INTERVAL = 10000;
 
+  /**
+   * Maximum number of finished queries persisted in one transaction by the purger.
+   */
+  public static final String PURGE_BATCH_SIZE = SERVER_PFX + "querypurger.batch.size";
+
+  /**
+   * The Constant DEFAULT_PURGE_BATCH_SIZE.
+   */
+  public static final int DEFAULT_PURGE_BATCH_SIZE = 100;
+
+  /**
+   * How long the purger waits for a full batch of purgeable queries.
+   */
+  public static final String PURGE_BATCH_LINGER_MILLIS = SERVER_PFX + "querypurger.batch.linger.millis";
+
+  /**
+   * The Constant DEFAULT_PURGE_BATCH_LINGER_MILLIS.
+   */
+  public static final long DEFAULT_PURGE_BATCH_LINGER_MILLIS = 0;
+
   // Server DB configuration
   /**
    * The Constant SERVER_DB_DRIVER_NAME.
@@ -944,6 +1041,27 @@ public final class LensConfConstants {
    */
   public static final String QUERY_METRIC_DRIVER_STACK_NAME = QUERY_PFX + "metric.driver.stack.name";
 
+  /**
+   * Whether eligible drivers whose configuration leads to the same rewrite of cube queries share one rewrite.
+   */
+  public static final String REWRITE_SHARE_ACROSS_DRIVERS = SERVER_PFX + "rewrite.share.across.drivers";
+
+  /**
+   * Default value of {@link #REWRITE_SHARE_ACROSS_DRIVERS}.
+   */
+  public static final boolean DEFAULT_REWRITE_SHARE_ACROSS_DRIVERS = true;
+
+  /**
+   * Prefixes of driver configuration keys which don't affect the rewrite of cube queries, and are ignored when
+   * comparing driver configurations for sharing the rewrite.
+   */
+  public static final String REWRITE_DRIVER_LOCAL_CONF_PREFIXES = SERVER_PFX + "rewrite.driver.local.conf.prefixes";
+
+  /**
+   * Default value of {@link #REWRITE_DRIVER_LOCAL_CONF_PREFIXES}.
+   */
+  public static final String DEFAULT_REWRITE_DRIVER_LOCAL_CONF_PREFIXES = "lens.driver.,hive.server2.";
+
   /**
    * Timeout for parallel query estimate calls. A driver needs to comeback with a query estimate within this timeout.
    */
@@ -1149,6 +1267,29 @@ public final class LensConfConstants {
    */
   public static final int DEFAULT_INMEMORY_RESULT_SET_TTL_SECS = 300;
 
+  /**
+   * Maximum number of recently fetched rows kept by the server side cursor of an in-memory result set. A client can
+   * re-fetch rows only from within this window.
+   */
+  public static final String INMEMORY_RESULT_CURSOR_BUFFER_ROWS = SERVER_PFX + "inmemory.result.cursor.buffer.rows";
+
+  /**
+   * Default value of INMEMORY_RESULT_CURSOR_BUFFER_ROWS is 1000
+   */
+  public static final int DEFAULT_INMEMORY_RESULT_CURSOR_BUFFER_ROWS = 1000;
+
+  /**
+   * Time in millis after which an idle server side cursor of an in-memory result set expires. Expired cursors release
+   * their buffered rows and can not be fetched from.
+   */
+  public static final String INMEMORY_RESULT_CURSOR_EXPIRY_MILLIS = SERVER_PFX
+    + "inmemory.result.cursor.expiry.millis";
+
+  /**
+   * Default value of INMEMORY_RESULT_CURSOR_EXPIRY_MILLIS is 600000 millis (10 minutes)
+   */
+  public static final long DEFAULT_INMEMORY_RESULT_CURSOR_EXPIRY_MILLIS = 600000;
+
   /**
    * Number of retries status update will be retried, in case of transient failures
    */
@@ -1180,6 +1321,38 @@ public final class LensConfConstants {
    */
   public static final long DEFAULT_STATUS_UPDATE_EXPONENTIAL_WAIT_FACTOR = 30000;
 
+  /**
+   * Minimum interval in millis between two status polls of a launched query. This is also the interval at which
+   * launched queries are checked for being due for a poll.
+   */
+  public static final String STATUS_POLL_MIN_INTERVAL_MILLIS = SERVER_PFX + "status.poll.min.interval.millis";
+
+  /**
+   * Default value of STATUS_POLL_MIN_INTERVAL_MILLIS is 1000 millis
+   */
+  public static final long DEFAULT_STATUS_POLL_MIN_INTERVAL_MILLIS = 1000;
+
+  /**
+   * Maximum interval in millis between two status polls of a launched query. Queries on drivers which push status
+   * updates are polled at this interval.
+   */
+  public static final String STATUS_POLL_MAX_INTERVAL_MILLIS = SERVER_PFX + "status.poll.max.interval.millis";
+
+  /**
+   * Default value of STATUS_POLL_MAX_INTERVAL_MILLIS is 10000 millis
+   */
+  public static final long DEFAULT_STATUS_POLL_MAX_INTERVAL_MILLIS = 10000;
+
+  /**
+   * Fraction of the running time of a query used as its poll interval, bounded by the minimum and maximum intervals.
+   */
+  public static final String STATUS_POLL_INTERVAL_FACTOR = SERVER_PFX + "status.poll.interval.factor";
+
+  /**
+   * Default value of STATUS_POLL_INTERVAL_FACTOR is 0.05
+   */
+  public static final float DEFAULT_STATUS_POLL_INTERVAL_FACTOR = 0.05f;
+
   /**
    * Specifies whether to attempt cancellation of a query whose execution takes longer than the timeout value
    * specified while submitting the query for execution.
@@ -1292,6 +1465,15 @@ public final class LensConfConstants {
    * Thread interval for checking the waiting instances
    */
   public static final String SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS =
+    SERVER_PFX + "scheduler.instance.waiting.thread.interval.millis";
+
+  /**
+   * Former name of {@link #SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS}, read when that is left to its default.
+   *
+   * @deprecated use {@link #SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS}
+   */
+  @Deprecated
+  public static final String SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_DEPRECATED =
     SERVER_PFX + "scheduler.instance.waiting.thread.interval";
 
   /**
@@ -1299,6 +1481,17 @@ public final class LensConfConstants {
    */
   public static final long DEFAULT_SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS = 60 * 5 * 1000;
 
+  /**
+   * Minimum interval between two checks of the waiting instances, when they are checked because a query ended
+   */
+  public static final String SCHEDULED_INSTANCE_WAITING_THREAD_MIN_INTERVAL_MILLIS =
+    SERVER_PFX + "scheduler.instance.waiting.thread.min.interval.millis";
+
+  /**
+   * Default minimum waiting thread interval in milliseconds
+   */
+  public static final long DEFAULT_SCHEDULED_INSTANCE_WAITING_THREAD_MIN_INTERVAL_MILLIS = 10 * 1000;
+
   /**
    * Default value is less than zero, that means an user can scheduler unlimited number of jobs.
    */
@@ -1326,6 +1519,16 @@ public final class LensConfConstants {
   public static final Class<? extends DownloadResultUrlProvider> DEFAULT_RESULT_DOWNLOAD_URL_PROVIDER =
     DefaultDownloadResultUrlProvider.class.asSubclass(DownloadResultUrlProvider.class);
 
+  /**
+   * Whether results downloaded from the http end point are gzip encoded, when the client accepts it.
+   */
+  public static final String RESULT_DOWNLOAD_COMPRESSION_ENABLED = SERVER_PFX + "result.download.compression.enabled";
+
+  /**
+   * The Constant DEFAULT_RESULT_DOWNLOAD_COMPRESSION_ENABLED.
+   */
+  public static final boolean DEFAULT_RESULT_DOWNLOAD_COMPRESSION_ENABLED = true;
+
   /**
    * The download url content config
    */
@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.lens.server.api.LensConfConstants;
+import org.apache.lens.server.api.util.LayeredConf;
 import org.apache.lens.server.model.LensContainerRequest;
 import org.apache.lens.server.model.LensResourceMethod;
 
@@ -167,13 +168,31 @@ public class MethodMetricsFactory {
    */
   public static MethodMetricsContext createMethodGauge(@NonNull Configuration conf, boolean appendToStackName,
     String gaugeSuffix) {
-    String uid = conf.get(LensConfConstants.QUERY_METRIC_UNIQUE_ID_CONF_KEY);
+    return createMethodGauge(conf.get(LensConfConstants.QUERY_METRIC_UNIQUE_ID_CONF_KEY),
+      conf.get(LensConfConstants.QUERY_METRIC_DRIVER_STACK_NAME), appendToStackName, gaugeSuffix);
+  }
+
+  /**
+   * Get query metric gauge name, looking up a layered conf.
+   *
+   * @param conf
+   * @param appendToStackName
+   * @param gaugeSuffix
+   * @return
+   */
+  public static MethodMetricsContext createMethodGauge(@NonNull LayeredConf conf, boolean appendToStackName,
+    String gaugeSuffix) {
+    return createMethodGauge(conf.get(LensConfConstants.QUERY_METRIC_UNIQUE_ID_CONF_KEY),
+      conf.get(LensConfConstants.QUERY_METRIC_DRIVER_STACK_NAME), appendToStackName, gaugeSuffix);
+  }
+
+  private static MethodMetricsContext createMethodGauge(String uid, String stackName, boolean appendToStackName,
+    String gaugeSuffix) {
     if (StringUtils.isBlank(uid)) {
       return DisabledMethodMetricsContext.getInstance();
     }
     StringBuilder metricName = new StringBuilder();
     if (appendToStackName) {
-      String stackName = conf.get(LensConfConstants.QUERY_METRIC_DRIVER_STACK_NAME);
       metricName.append(stackName);
       metricName.append("-");
     } else {
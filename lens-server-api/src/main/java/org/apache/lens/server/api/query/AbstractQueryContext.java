@@ -33,6 +33,7 @@ import org.apache.lens.server.api.metrics.MethodMetricsContext;
 import org.apache.lens.server.api.metrics.MethodMetricsFactory;
 import org.apache.lens.server.api.query.DriverSelectorQueryContext.DriverQueryContext;
 import org.apache.lens.server.api.query.cost.QueryCost;
+import org.apache.lens.server.api.util.LayeredConf;
 import org.apache.lens.server.api.util.LensUtil;
 
 import org.apache.hadoop.conf.Configuration;
@@ -168,6 +169,27 @@ public abstract class AbstractQueryContext implements Serializable {
     }
   }
 
+  /**
+   * Restores a context from its persisted fields. The driver context is set by the caller, once the drivers are known.
+   *
+   * @param query                    the user query
+   * @param user                     the submitted user
+   * @param database                 the database of the query
+   * @param qconf                    the query lens conf
+   * @param selectedDriverQuery      the query of the selected driver
+   * @param driverQueryExplicitlySet whether the driver queries were explicitly set
+   */
+  protected AbstractQueryContext(final String query, final String user, final String database, final LensConf qconf,
+    final String selectedDriverQuery, final boolean driverQueryExplicitlySet) {
+    this.userQuery = query;
+    this.phase1RewrittenQuery = query;
+    this.submittedUser = user;
+    this.database = database;
+    this.lensConf = qconf;
+    this.selectedDriverQuery = selectedDriverQuery;
+    this.isDriverQueryExplicitlySet = driverQueryExplicitlySet;
+  }
+
   // called after the object is constructed from serialized object
   public void initTransientState() {
     hiveConfLock = new ReentrantLock();
@@ -249,7 +271,7 @@ public abstract class AbstractQueryContext implements Serializable {
     @Override
     public void run() {
       MethodMetricsContext estimateGauge =
-        MethodMetricsFactory.createMethodGauge(queryContext.getDriverConf(driver), true, "driverEstimate");
+        MethodMetricsFactory.createMethodGauge(queryContext.getDriverConfLayers(driver), true, "driverEstimate");
       DriverQueryContext driverQueryContext = queryContext.getDriverContext().getDriverQueryContextMap().get(driver);
       if (driverQueryContext.getDriverQueryRewriteError() != null) {
         // skip estimate
@@ -321,6 +343,17 @@ public abstract class AbstractQueryContext implements Serializable {
     return driverContext.getDriverConf(driver);
   }
 
+  /**
+   * Get driver conf for lookups, without building the full conf
+   *
+   * @param driver
+   *
+   * @return LayeredConf
+   */
+  public LayeredConf getDriverConfLayers(LensDriver driver) {
+    return driverContext.getDriverConfLayers(driver);
+  }
+
   /**
    * Get query cost for the driver
    *
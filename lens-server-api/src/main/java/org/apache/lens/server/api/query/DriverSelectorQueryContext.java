@@ -25,6 +25,7 @@ import org.apache.lens.server.api.driver.DriverQueryPlan;
 import org.apache.lens.server.api.driver.LensDriver;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.query.cost.QueryCost;
+import org.apache.lens.server.api.util.LayeredConf;
 import org.apache.lens.server.api.util.LensUtil;
 
 import org.apache.commons.lang3.StringUtils;
@@ -63,14 +64,20 @@ public class DriverSelectorQueryContext {
     for (LensDriver driver : drivers) {
       DriverQueryContext ctx = new DriverQueryContext(driver);
       if (mergeConf) {
-        ctx.setDriverSpecificConf(mergeConf(driver, queryConf));
+        LayeredConf layers = mergeConf(driver, queryConf);
+        String metricId = layers.get(LensConfConstants.QUERY_METRIC_UNIQUE_ID_CONF_KEY);
+        if (!StringUtils.isBlank(metricId)) {
+          layers = layers.overlay(LensConfConstants.QUERY_METRIC_DRIVER_STACK_NAME,
+            metricId + "-" + driver.getFullyQualifiedName());
+        }
+        ctx.setDriverSpecificLayers(layers);
       } else {
         ctx.setDriverSpecificConf(queryConf);
-      }
-      String metricId = ctx.driverSpecificConf.get(LensConfConstants.QUERY_METRIC_UNIQUE_ID_CONF_KEY);
-      if (!StringUtils.isBlank(metricId)) {
-        ctx.driverSpecificConf.set(LensConfConstants.QUERY_METRIC_DRIVER_STACK_NAME,
-          metricId + "-" + driver.getFullyQualifiedName());
+        String metricId = queryConf.get(LensConfConstants.QUERY_METRIC_UNIQUE_ID_CONF_KEY);
+        if (!StringUtils.isBlank(metricId)) {
+          queryConf.set(LensConfConstants.QUERY_METRIC_DRIVER_STACK_NAME,
+            metricId + "-" + driver.getFullyQualifiedName());
+        }
       }
       ctx.setQuery(userQuery);
       driverQueryContextMap.put(driver, ctx);
@@ -105,12 +112,43 @@ public class DriverSelectorQueryContext {
     protected DriverQueryPlan driverQueryPlan;
 
     /**
-     * Driver specific query conf
+     * Driver specific query conf, built from driverSpecificLayers when first asked for
      */
-    @Getter
-    @Setter
     protected Configuration driverSpecificConf;
 
+    /**
+     * Driver conf with the query conf layered over it
+     */
+    private LayeredConf driverSpecificLayers;
+
+    public synchronized Configuration getDriverSpecificConf() {
+      if (driverSpecificConf == null && driverSpecificLayers != null) {
+        driverSpecificConf = driverSpecificLayers.toConfiguration();
+      }
+      return driverSpecificConf;
+    }
+
+    public synchronized void setDriverSpecificConf(Configuration conf) {
+      driverSpecificConf = conf;
+      driverSpecificLayers = null;
+    }
+
+    /**
+     * Driver specific query conf for lookups, without building the full conf. Once the full conf is built, lookups
+     * go to it, so that changes made to it are seen.
+     */
+    public synchronized LayeredConf getDriverSpecificLayers() {
+      if (driverSpecificConf != null) {
+        return LayeredConf.of(driverSpecificConf);
+      }
+      return driverSpecificLayers;
+    }
+
+    synchronized void setDriverSpecificLayers(LayeredConf layers) {
+      driverSpecificLayers = layers;
+      driverSpecificConf = null;
+    }
+
     @Getter
     @Setter
     /** exceptions occurred while rewriting query for driver */
@@ -146,21 +184,15 @@ public class DriverSelectorQueryContext {
   }
 
   /**
-   * Gets the driver query conf.
+   * Gets the driver query conf, as the query conf layered over the driver conf.
    *
    * @param driver    the driver
    * @param queryConf the query conf
    * @return the final query conf
    */
-  private Configuration mergeConf(LensDriver driver, Configuration queryConf) {
-    Configuration conf = new Configuration(driver.getConf());
-    for (Map.Entry<String, String> entry : queryConf) {
-      if (!conf.getFinalParameters().contains(entry.getKey())) {
-        conf.set(entry.getKey(), entry.getValue());
-      }
-    }
-    conf.setClassLoader(queryConf.getClassLoader());
-    return conf;
+  private LayeredConf mergeConf(LensDriver driver, Configuration queryConf) {
+    // driver confs are not changed once the driver is configured
+    return LayeredConf.ofStable(driver.getConf()).overlay(queryConf);
   }
 
   /**
@@ -254,7 +286,7 @@ public class DriverSelectorQueryContext {
   }
 
   public void setDriverConf(LensDriver driver, Configuration conf) {
-    driverQueryContextMap.get(driver).setDriverSpecificConf(mergeConf(driver, conf));
+    driverQueryContextMap.get(driver).setDriverSpecificLayers(mergeConf(driver, conf));
   }
 
   public void setDriverCost(LensDriver driver, QueryCost cost) {
@@ -317,6 +349,18 @@ public class DriverSelectorQueryContext {
       ? driverQueryContextMap.get(driver).getDriverSpecificConf() : null;
   }
 
+  /**
+   * Driver specific query conf for lookups, which does not build the full conf like {@link #getDriverConf(LensDriver)}
+   * does.
+   *
+   * @param driver the driver
+   * @return the conf, null for an unknown driver
+   */
+  public LayeredConf getDriverConfLayers(LensDriver driver) {
+    return driverQueryContextMap.get(driver) != null
+      ? driverQueryContextMap.get(driver).getDriverSpecificLayers() : null;
+  }
+
   public String getDriverQuery(LensDriver driver) {
     return driverQueryContextMap.get(driver) != null
       ? driverQueryContextMap.get(driver).getQuery() : null;
@@ -345,6 +389,7 @@ public class DriverSelectorQueryContext {
   void clearTransientStateAfterCompleted() {
     for (DriverQueryContext driverCtx : driverQueryContextMap.values()) {
       driverCtx.driverSpecificConf = null;
+      driverCtx.driverSpecificLayers = null;
       driverCtx.rewriterPlan = null;
     }
   }
@@ -283,6 +283,33 @@ public class QueryContext extends AbstractQueryContext implements FailureContext
     this.driverStatus = new DriverQueryStatus();
   }
 
+  /**
+   * Restores a persisted query. Fields which are not arguments are set through their setters, and transient state is
+   * set up by {@link #initTransientState()}.
+   *
+   * @param queryHandle              the query handle
+   * @param userQuery                the user query
+   * @param user                     the submitted user
+   * @param database                 the database of the query
+   * @param qconf                    the query lens conf
+   * @param selectedDriverQuery      the query of the selected driver
+   * @param driverQueryExplicitlySet whether the driver queries were explicitly set
+   * @param submissionTime           the submission time
+   * @param isPersistent             whether the result set is persisted by the server
+   * @param isDriverPersistent       whether the result set is persisted by the driver
+   * @param driverStatus             the driver status
+   */
+  public QueryContext(QueryHandle queryHandle, String userQuery, String user, String database, LensConf qconf,
+    String selectedDriverQuery, boolean driverQueryExplicitlySet, long submissionTime, boolean isPersistent,
+    boolean isDriverPersistent, DriverQueryStatus driverStatus) {
+    super(userQuery, user, database, qconf, selectedDriverQuery, driverQueryExplicitlySet);
+    this.queryHandle = queryHandle;
+    this.submissionTime = submissionTime;
+    this.isPersistent = isPersistent;
+    this.isDriverPersistent = isDriverPersistent;
+    this.driverStatus = driverStatus;
+  }
+
   /**
    * Utility create method to create context with single driver.
    *
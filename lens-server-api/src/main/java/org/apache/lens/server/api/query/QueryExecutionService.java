@@ -20,6 +20,7 @@ package org.apache.lens.server.api.query;
 
 import java.util.List;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
 import org.apache.lens.api.LensConf;
@@ -220,6 +221,33 @@ public interface QueryExecutionService extends LensService, SessionValidator {
     String userPrincipalName)
     throws LensException;
 
+  /**
+   * Get the http end point for the result set, honouring the conditional, range and content encoding headers of the
+   * request.
+   *
+   * @param sessionHandle The lens session handle
+   * @param queryHandle   The query handle
+   * @param headers       The request headers, can be null
+   * @return returns javax.ws.rs.core.Response object
+   * @throws LensException the lens exception
+   */
+  Response getHttpResultSet(LensSessionHandle sessionHandle, QueryHandle queryHandle, HttpHeaders headers)
+    throws LensException;
+
+  /**
+   * Get the secure http end point for the result set, honouring the conditional, range and content encoding headers
+   * of the request.
+   *
+   * @param sessionHandle     The lens session handle
+   * @param queryHandle       The query handle
+   * @param userPrincipalName the principal name
+   * @param headers           The request headers, can be null
+   * @return returns javax.ws.rs.core.Response object
+   * @throws LensException the lens exception
+   */
+  Response getAuthorizedHttpResultSet(LensSessionHandle sessionHandle, QueryHandle queryHandle,
+    String userPrincipalName, HttpHeaders headers) throws LensException;
+
 
   /**
    * Closes result set by releasing any resources used in serving the resultset.
@@ -258,6 +286,27 @@ public interface QueryExecutionService extends LensService, SessionValidator {
   List<QueryHandle> getAllQueries(LensSessionHandle sessionHandle, String states, String user, String driver,
     String queryName, String fromDate, String toDate) throws LensException;
 
+  /**
+   * Returns a page of the queries in the specified state, for the given user and matching query name, latest submitted
+   * query first.
+   *
+   * @param sessionHandle the session handle
+   * @param states        return queries in these state. if null, all queries will be returned. Multiple states can
+   *                      be supplied separated by comma
+   * @param user          Get queries submitted by a specific user.
+   *                      If this set to "all", queries of all users are returned
+   * @param driver        Get queries submitted on a specific driver.
+   * @param queryName     return queries containing the query name. If null, all queries will be returned
+   * @param fromDate      start date of time range interval
+   * @param toDate        end date of the time range interval
+   * @param after         handle of the last query of the previous page. If null, the first page is returned
+   * @param limit         maximum number of queries to return. If not positive, all queries are returned
+   * @return List of query handles
+   * @throws LensException the lens exception
+   */
+  List<QueryHandle> getAllQueries(LensSessionHandle sessionHandle, String states, String user, String driver,
+    String queryName, String fromDate, String toDate, String after, int limit) throws LensException;
+
 
   /**
    * Returns all the queries in the specified state, for the given user and matching query name.
@@ -277,6 +326,28 @@ public interface QueryExecutionService extends LensService, SessionValidator {
   List<LensQuery> getAllQueryDetails(LensSessionHandle sessionHandle, String states, String user, String driver,
     String queryName, String fromDate, String toDate) throws LensException;
 
+  /**
+   * Returns a page of the queries in the specified state, for the given user and matching query name, latest submitted
+   * query first.
+   *
+   * @param sessionHandle the session handle
+   * @param states        return queries in these state. if null, all queries will be returned. Multiple states can
+   *                      be supplied separated by comma
+   * @param user          Get queries submitted by a specific user.
+   *                      If this set to "all", queries of all users are returned
+   * @param driver        Get queries submitted on a specific driver.
+   * @param queryName     return queries containing the query name. If null, all queries will be returned
+   * @param fromDate      start date of time range interval
+   * @param toDate        end date of the time range interval
+   * @param after         handle of the last query of the previous page. If null, the first page is returned
+   * @param limit         maximum number of queries to return. If not positive, all queries are returned
+   * @param summary       whether driver query and conf of finished queries can be left out
+   * @return List of Lens Query object
+   * @throws LensException the lens exception
+   */
+  List<LensQuery> getAllQueryDetails(LensSessionHandle sessionHandle, String states, String user, String driver,
+    String queryName, String fromDate, String toDate, String after, int limit, boolean summary) throws LensException;
+
   /**
    * Returns all the prepared queries for the specified user. If no user is passed, queries of all users will be
    * returned.
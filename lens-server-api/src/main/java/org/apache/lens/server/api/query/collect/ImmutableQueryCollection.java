@@ -31,9 +31,10 @@ public interface ImmutableQueryCollection {
 
   /**
    *
-   * @return A new set copied from this collection of queries. Elements in the set are not cloned or copied.
-   * Multiple iterations over returned set are guaranteed to be in same order. If there are no queries, then an empty
-   * set is returned. null is never returned.
+   * @return An unmodifiable snapshot of this collection of queries, which later modifications of this collection
+   * do not change. The same snapshot may be returned to all callers till this collection is modified. Elements in the
+   * set are not cloned or copied. Multiple iterations over returned set are guaranteed to be in same order. If there
+   * are no queries, then an empty set is returned. null is never returned.
    */
   Set<QueryContext> getQueries();
 
@@ -0,0 +1,343 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.api.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import org.apache.hadoop.conf.Configuration;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * An immutable view of a base {@link Configuration}, like a server or driver conf, with overlays of session and query
+ * properties on top. Overlays are kept apart from the base, so layering a query over a driver conf copies only the
+ * query properties, and the full {@link Configuration} is built only by {@link #toConfiguration()}, when an API needs
+ * one.
+ * <p></p>
+ * The base conf is shared and read, never written. It should not be modified while layers over it are in use.
+ * Properties marked final in the base conf can not be overridden by overlays, as when merging confs by hand.
+ * <p></p>
+ * Typed lookups are memoized. Values of the overlays are parsed once for each layered conf. Values of the base are
+ * parsed once for all the layers over it, and for base confs which are never modified, like driver confs, once for all
+ * the layered confs made by {@link #ofStable(Configuration)}.
+ */
+public final class LayeredConf {
+
+  /**
+   * The base conf.
+   */
+  @Getter
+  private final Configuration base;
+
+  /**
+   * Final parameters and parsed values of the base conf.
+   */
+  private final BaseValues baseValues;
+
+  /**
+   * The properties of all overlays, later overlays overriding earlier ones.
+   */
+  private final Map<String, String> overlay;
+
+  /**
+   * The class loader to set on the materialized conf.
+   */
+  private final ClassLoader classLoader;
+
+  /**
+   * Parsed values of the overlays.
+   */
+  private final ParsedValues overlayValues = new ParsedValues();
+
+  /**
+   * Conf used only to resolve variables in overlay values, built when first needed.
+   */
+  private volatile Configuration resolver;
+
+  /**
+   * Base values of the confs passed to {@link #ofStable(Configuration)}, by conf.
+   */
+  private static final Map<Configuration, BaseValues> STABLE_BASE_VALUES = new WeakHashMap<>();
+
+  private LayeredConf(Configuration base, BaseValues baseValues, Map<String, String> overlay,
+    ClassLoader classLoader) {
+    this.base = base;
+    this.baseValues = baseValues;
+    this.overlay = overlay;
+    this.classLoader = classLoader;
+  }
+
+  /**
+   * Layered conf with no overlays.
+   *
+   * @param base the base conf
+   * @return the layered conf
+   */
+  public static LayeredConf of(@NonNull Configuration base) {
+    return new LayeredConf(base, new BaseValues(base), Collections.<String, String>emptyMap(),
+      base.getClassLoader());
+  }
+
+  /**
+   * Layered conf with no overlays, over a base conf which is never modified, like a driver conf. The final parameters
+   * and the parsed values of the base are kept for all the layered confs over the same base conf.
+   *
+   * @param base the base conf
+   * @return the layered conf
+   */
+  public static LayeredConf ofStable(@NonNull Configuration base) {
+    BaseValues baseValues;
+    synchronized (STABLE_BASE_VALUES) {
+      baseValues = STABLE_BASE_VALUES.get(base);
+      if (baseValues == null) {
+        baseValues = new BaseValues(base);
+        STABLE_BASE_VALUES.put(base, baseValues);
+      }
+    }
+    return new LayeredConf(base, baseValues, Collections.<String, String>emptyMap(), base.getClassLoader());
+  }
+
+  /**
+   * Layer the properties of a conf over this one. The class loader of the given conf is used for the materialized
+   * conf.
+   *
+   * @param conf the conf to layer
+   * @return the new layered conf
+   */
+  public LayeredConf overlay(@NonNull Configuration conf) {
+    Map<String, String> merged = new HashMap<>(overlay);
+    for (Map.Entry<String, String> entry : conf) {
+      putIfNotFinal(merged, entry.getKey(), entry.getValue());
+    }
+    return new LayeredConf(base, baseValues, merged, conf.getClassLoader());
+  }
+
+  /**
+   * Layer the given properties over this one.
+   *
+   * @param properties the properties to layer
+   * @return the new layered conf
+   */
+  public LayeredConf overlay(@NonNull Map<String, String> properties) {
+    Map<String, String> merged = new HashMap<>(overlay);
+    for (Map.Entry<String, String> entry : properties.entrySet()) {
+      putIfNotFinal(merged, entry.getKey(), entry.getValue());
+    }
+    return new LayeredConf(base, baseValues, merged, classLoader);
+  }
+
+  /**
+   * Layer a single property over this one.
+   *
+   * @param key   the property name
+   * @param value the property value
+   * @return the new layered conf
+   */
+  public LayeredConf overlay(@NonNull String key, @NonNull String value) {
+    return overlay(Collections.singletonMap(key, value));
+  }
+
+  /**
+   * Get the properties of all overlays, without the base properties.
+   *
+   * @return the overlay properties, as an unmodifiable map
+   */
+  public Map<String, String> getOverlay() {
+    return Collections.unmodifiableMap(overlay);
+  }
+
+  private void putIfNotFinal(Map<String, String> properties, String key, String value) {
+    if (!baseValues.finalParameters.contains(key)) {
+      properties.put(key, value);
+    }
+  }
+
+  /**
+   * Get the value of a property, with variables expanded as {@link Configuration#get(String)} does.
+   *
+   * @param key the property name
+   * @return the value, null if the property is not set
+   */
+  public String get(String key) {
+    String value = overlay.get(key);
+    if (value == null) {
+      return base.get(key);
+    }
+    if (value.contains("${")) {
+      return getResolver().get(key);
+    }
+    return value;
+  }
+
+  /**
+   * Get the value of a property.
+   *
+   * @param key          the property name
+   * @param defaultValue the value when the property is not set
+   * @return the value
+   */
+  public String get(String key, String defaultValue) {
+    String value = get(key);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * Get the value of a property as a boolean, parsed as {@link Configuration#getBoolean(String, boolean)} does.
+   *
+   * @param key          the property name
+   * @param defaultValue the value when the property is not set or is not a boolean
+   * @return the value
+   */
+  public boolean getBoolean(String key, boolean defaultValue) {
+    Object value = getParsed(key, ParsedValues::getBooleans, LayeredConf::parseBoolean);
+    return value == ParsedValues.NONE ? defaultValue : (Boolean) value;
+  }
+
+  /**
+   * Get the value of a property as an int, parsed as {@link Configuration#getInt(String, int)} does.
+   *
+   * @param key          the property name
+   * @param defaultValue the value when the property is not set
+   * @return the value
+   * @throws NumberFormatException if the value is not an int
+   */
+  public int getInt(String key, int defaultValue) {
+    Object value = getParsed(key, ParsedValues::getInts, v -> parseLong(v, Integer.MIN_VALUE, Integer.MAX_VALUE));
+    return value == ParsedValues.NONE ? defaultValue : ((Long) value).intValue();
+  }
+
+  /**
+   * Get the value of a property as a long, parsed as {@link Configuration#getLong(String, long)} does.
+   *
+   * @param key          the property name
+   * @param defaultValue the value when the property is not set
+   * @return the value
+   * @throws NumberFormatException if the value is not a long
+   */
+  public long getLong(String key, long defaultValue) {
+    Object value = getParsed(key, ParsedValues::getLongs, v -> parseLong(v, Long.MIN_VALUE, Long.MAX_VALUE));
+    return value == ParsedValues.NONE ? defaultValue : (Long) value;
+  }
+
+  /**
+   * Get the parsed value of a property, parsing it only the first time.
+   *
+   * @param key    the property name
+   * @param values the memoized values of the type
+   * @param parser the parser of the type, returning {@link ParsedValues#NONE} for values to be defaulted
+   * @return the parsed value, {@link ParsedValues#NONE} if the property is not set
+   */
+  private Object getParsed(String key, Function<ParsedValues, ConcurrentMap<String, Object>> values,
+    Function<String, Object> parser) {
+    ParsedValues parsed = overlay.containsKey(key) ? overlayValues : baseValues.parsed;
+    Object value = values.apply(parsed).get(key);
+    if (value == null) {
+      String raw = get(key);
+      // invalid numbers throw every time, like Configuration does
+      value = raw == null ? ParsedValues.NONE : parser.apply(raw.trim());
+      values.apply(parsed).putIfAbsent(key, value);
+    }
+    return value;
+  }
+
+  private static Object parseBoolean(String value) {
+    if ("true".equalsIgnoreCase(value)) {
+      return Boolean.TRUE;
+    } else if ("false".equalsIgnoreCase(value)) {
+      return Boolean.FALSE;
+    }
+    return ParsedValues.NONE;
+  }
+
+  /**
+   * Parse a decimal or a 0x prefixed hexadecimal number, as {@link Configuration} does.
+   */
+  private static long parseLong(String value, long min, long max) {
+    boolean negative = value.startsWith("-");
+    String digits = negative ? value.substring(1) : value;
+    long parsed;
+    if (digits.startsWith("0x") || digits.startsWith("0X")) {
+      parsed = Long.parseLong((negative ? "-" : "") + digits.substring(2), 16);
+    } else {
+      parsed = Long.parseLong(value);
+    }
+    if (parsed < min || parsed > max) {
+      throw new NumberFormatException("Value out of range: " + value);
+    }
+    return parsed;
+  }
+
+  /**
+   * Build a {@link Configuration} with the base properties and the overlays. Each call builds a new conf, which the
+   * caller owns and can modify.
+   *
+   * @return the materialized conf
+   */
+  public Configuration toConfiguration() {
+    Configuration conf = new Configuration(base);
+    for (Map.Entry<String, String> entry : overlay.entrySet()) {
+      conf.set(entry.getKey(), entry.getValue());
+    }
+    conf.setClassLoader(classLoader);
+    return conf;
+  }
+
+  /**
+   * Memoized typed values, by property name. Values not set, or to be defaulted, are kept as {@link #NONE}.
+   */
+  @Getter
+  private static final class ParsedValues {
+    static final Object NONE = new Object();
+
+    private final ConcurrentMap<String, Object> booleans = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> ints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> longs = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Final parameters and parsed values of a base conf.
+   */
+  private static final class BaseValues {
+    private final Set<String> finalParameters;
+    private final ParsedValues parsed = new ParsedValues();
+
+    BaseValues(Configuration base) {
+      // final parameters are known only once the resources are loaded
+      base.size();
+      finalParameters = base.getFinalParameters();
+    }
+  }
+
+  private Configuration getResolver() {
+    Configuration conf = resolver;
+    if (conf == null) {
+      conf = toConfiguration();
+      resolver = conf;
+    }
+    return conf;
+  }
+}
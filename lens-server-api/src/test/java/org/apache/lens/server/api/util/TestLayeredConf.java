@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.api.util;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.conf.Configuration;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for layered conf
+ */
+public class TestLayeredConf {
+
+  private static Configuration driverConf() {
+    Configuration conf = new Configuration(false);
+    conf.set("driver.only", "d");
+    conf.set("shared", "driver");
+    conf.addResource(new ByteArrayInputStream(("<configuration><property><name>locked</name><value>driver</value>"
+      + "<final>true</final></property></configuration>").getBytes(StandardCharsets.UTF_8)));
+    return conf;
+  }
+
+  @Test
+  public void testOverlays() {
+    Configuration driverConf = driverConf();
+    Configuration queryConf = new Configuration(false);
+    queryConf.set("shared", "query");
+    queryConf.set("locked", "query");
+    queryConf.set("expanded", "${driver.only}-${shared}");
+
+    LayeredConf driverLayer = LayeredConf.of(driverConf);
+    LayeredConf queryLayer = driverLayer.overlay(queryConf);
+    Assert.assertEquals(queryLayer.get("driver.only"), "d");
+    Assert.assertEquals(queryLayer.get("shared"), "query");
+    Assert.assertEquals(queryLayer.get("locked"), "driver");
+    Assert.assertEquals(queryLayer.get("expanded"), "d-query");
+    Assert.assertNull(queryLayer.get("missing"));
+    Assert.assertEquals(queryLayer.get("missing", "default"), "default");
+
+    // lower layers and the base are not changed
+    Assert.assertEquals(driverLayer.get("shared"), "driver");
+    Assert.assertEquals(queryLayer.overlay("shared", "top").get("shared"), "top");
+    Assert.assertEquals(queryLayer.get("shared"), "query");
+
+    Configuration materialized = queryLayer.toConfiguration();
+    Assert.assertEquals(materialized.get("shared"), "query");
+    Assert.assertEquals(materialized.get("locked"), "driver");
+    Assert.assertEquals(materialized.get("expanded"), "d-query");
+    materialized.set("shared", "changed");
+    Assert.assertEquals(queryLayer.get("shared"), "query");
+    Assert.assertEquals(driverConf.get("shared"), "driver");
+    Assert.assertNotSame(queryLayer.toConfiguration(), materialized);
+  }
+
+  @Test
+  public void testBooleanLookups() {
+    Configuration conf = new Configuration(false);
+    conf.set("bool", " TRUE ");
+    conf.set("not.bool", "yes");
+    LayeredConf layers = LayeredConf.of(conf);
+
+    Assert.assertTrue(layers.getBoolean("bool", false));
+    Assert.assertTrue(layers.getBoolean("not.bool", true));
+    Assert.assertFalse(layers.getBoolean("missing", false));
+    Assert.assertFalse(layers.overlay("bool", "false").getBoolean("bool", true));
+    Assert.assertTrue(layers.getBoolean("bool", false));
+  }
+
+  @Test
+  public void testNumberLookups() {
+    Configuration conf = new Configuration(false);
+    conf.set("int", " 42 ");
+    conf.set("hex", "0x10");
+    conf.set("negative.hex", "-0x10");
+    conf.set("long", "12345678901");
+    conf.set("not.number", "many");
+    LayeredConf layers = LayeredConf.of(conf);
+
+    Assert.assertEquals(layers.getInt("int", 0), 42);
+    Assert.assertEquals(layers.getInt("hex", 0), 16);
+    Assert.assertEquals(layers.getInt("negative.hex", 0), -16);
+    Assert.assertEquals(layers.getInt("missing", 7), 7);
+    Assert.assertEquals(layers.getLong("long", 0), 12345678901L);
+    Assert.assertEquals(layers.getLong("missing", 7), 7L);
+    Assert.assertEquals(layers.overlay("int", "43").getInt("int", 0), 43);
+    Assert.assertEquals(layers.getInt("int", 0), 42);
+    for (String key : new String[]{"long", "not.number"}) {
+      try {
+        layers.getInt(key, 0);
+        Assert.fail("Parsed " + key + " as an int");
+      } catch (NumberFormatException e) {
+        // expected, as for Configuration
+      }
+    }
+  }
+
+  @Test
+  public void testMemoizedLookups() {
+    Configuration conf = new Configuration(false);
+    conf.set("int", "1");
+    conf.set("bool", "true");
+    LayeredConf stable = LayeredConf.ofStable(conf);
+    Assert.assertEquals(stable.getInt("int", 0), 1);
+    Assert.assertTrue(stable.getBoolean("bool", false));
+    Assert.assertEquals(stable.getInt("missing", 2), 2);
+
+    // stable base confs are not expected to change, values parsed once are kept for all layers over them
+    conf.set("int", "3");
+    conf.set("bool", "false");
+    LayeredConf queryLayer = LayeredConf.ofStable(conf).overlay("other", "x");
+    Assert.assertEquals(queryLayer.getInt("int", 0), 1);
+    Assert.assertTrue(queryLayer.getBoolean("bool", false));
+    Assert.assertEquals(queryLayer.getInt("missing", 4), 4);
+    Assert.assertEquals(queryLayer.overlay("int", "5").getInt("int", 0), 5);
+
+    // layers made by of() parse the base values again
+    Assert.assertEquals(LayeredConf.of(conf).getInt("int", 0), 3);
+    Assert.assertFalse(LayeredConf.of(conf).getBoolean("bool", true));
+  }
+}
@@ -118,6 +118,9 @@ public abstract class BaseLensService extends CompositeService implements Extern
 
   private final int maxNumSessionsPerUser;
 
+  /** Journal of state changes, null if server state persistence is disabled. */
+  private StateJournal stateJournal;
+
   /**
    * Instantiates a new lens service.
    *
@@ -534,6 +537,56 @@ public abstract class BaseLensService extends CompositeService implements Extern
   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
   }
 
+  void setStateJournal(StateJournal stateJournal) {
+    this.stateJournal = stateJournal;
+  }
+
+  protected boolean isStateJournalEnabled() {
+    return stateJournal != null;
+  }
+
+  /**
+   * Journal the complete state of an entity of this service. Failures are only logged, the change is persisted with
+   * the next checkpoint.
+   *
+   * @param key   entity identifier
+   * @param state entity state
+   */
+  protected void journalUpdate(String key, byte[] state) {
+    journal(StateJournal.RecordType.UPDATE, key, state);
+  }
+
+  /**
+   * Journal removal of an entity of this service.
+   *
+   * @param key entity identifier
+   */
+  protected void journalRemove(String key) {
+    journal(StateJournal.RecordType.REMOVE, key, null);
+  }
+
+  private void journal(StateJournal.RecordType type, String key, byte[] state) {
+    if (stateJournal == null) {
+      return;
+    }
+    try {
+      stateJournal.append(getName(), type, key, state);
+    } catch (IOException e) {
+      log.warn("Could not journal {} of {} in service {}", type, key, getName(), e);
+    }
+  }
+
+  /**
+   * Apply a journaled change over the state restored by {@link #readExternal(ObjectInput)}. Records are replayed in
+   * the order they were journaled, services which journal their state changes should override this.
+   *
+   * @param record the journal record
+   * @throws IOException            Signals that an I/O exception has occurred.
+   * @throws ClassNotFoundException the class not found exception
+   */
+  public void replayJournal(StateJournal.Record record) throws IOException, ClassNotFoundException {
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -34,6 +34,7 @@ import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.ServiceProvider;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.events.LensEventService;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.metrics.MetricsService;
 import org.apache.lens.server.api.util.LensUtil;
 import org.apache.lens.server.metrics.MetricsServiceImpl;
@@ -55,6 +56,8 @@ import org.apache.hive.service.Service;
 import org.apache.hive.service.auth.HiveAuthFactory;
 import org.apache.hive.service.cli.CLIService;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
@@ -95,6 +98,9 @@ public class LensServices extends CompositeService implements ServiceProvider {
   /** The persistence file system. */
   private FileSystem persistenceFS;
 
+  /** Journal of state changes between snapshots, null if journaling is disabled. */
+  private StateJournal stateJournal;
+
   /** The stopping. */
   private boolean stopping = false;
 
@@ -113,13 +119,18 @@ public class LensServices extends CompositeService implements ServiceProvider {
    */
   public static final String KDC_LOGIN_ERRORS = "total-kdc-login-errors";
 
+  /**
+   * Timer for recovering server state from the last snapshot and the state journal.
+   */
+  public static final String SERVER_STATE_RECOVERY_TIME = "server-state-recovery-time";
+
   /** The service mode. */
   @Getter
   @Setter
   private ServiceMode serviceMode;
 
   /** Scheduled Executor which persists the server state periodically*/
-  private ScheduledExecutorService serverSnapshotScheduler;
+  private volatile ScheduledExecutorService serverSnapshotScheduler;
 
   /** Scheduled Executor to refresh kerberos tgt*/
   private ScheduledExecutorService kerberosTgtScheduler;
@@ -279,6 +290,11 @@ public class LensServices extends CompositeService implements ServiceProvider {
           configuration.setInt(FS_IO_FILE_BUFFER_SIZE, outStreamBufferSize);
           log.info("STATE_PERSIST_OUT_STREAM_BUFF_SIZE IN BYTES:{}", outStreamBufferSize);
           persistenceFS = FileSystem.newInstance(persistDir.toUri(), configuration);
+          if (conf.getBoolean(SERVER_STATE_JOURNAL_ENABLED, DEFAULT_SERVER_STATE_JOURNAL_ENABLED)) {
+            stateJournal = new StateJournal(persistenceFS, persistDir,
+              conf.getLong(SERVER_STATE_JOURNAL_MAX_BYTES, DEFAULT_SERVER_STATE_JOURNAL_MAX_BYTES),
+              this::requestSnapshot);
+          }
           setupPersistedState();
         } catch (Exception e) {
           log.error("Could not recover from persisted state", e);
@@ -359,15 +375,7 @@ public class LensServices extends CompositeService implements ServiceProvider {
       serverSnapshotScheduler.scheduleWithFixedDelay(new Runnable() {
         @Override
         public void run() {
-          try {
-            final String runId = UUID.randomUUID().toString();
-            logSegregationContext.setLogSegregationId(runId);
-            persistLensServiceState();
-            log.info("SnapShot of Lens Services created");
-          } catch (Exception e) {
-            incrCounter(SERVER_STATE_PERSISTENCE_ERRORS);
-            log.error("Unable to persist lens server state", e);
-          }
+          snapshotLensServiceState();
         }
       }, serverStatePersistenceInterval, serverStatePersistenceInterval, TimeUnit.MILLISECONDS);
 
@@ -385,6 +393,8 @@ public class LensServices extends CompositeService implements ServiceProvider {
    * @throws ClassNotFoundException the class not found exception
    */
   private void setupPersistedState() throws IOException, ClassNotFoundException {
+    Timer.Context recoveryTimer = LensMetricsRegistry.getStaticRegistry()
+      .timer(MetricRegistry.name(LensServices.class, SERVER_STATE_RECOVERY_TIME)).time();
     for (BaseLensService service : lensServices) {
       ObjectInputStream in = null;
       Path path = getServicePersistPath(service);
@@ -403,6 +413,47 @@ public class LensServices extends CompositeService implements ServiceProvider {
         }
       }
     }
+    if (stateJournal != null) {
+      stateJournal.recover(record -> {
+        Service service = services.get(record.getService());
+        if (service instanceof BaseLensService) {
+          ((BaseLensService) service).replayJournal(record);
+        } else {
+          log.warn("Ignoring journal record of unknown service {}", record.getService());
+        }
+      });
+      for (BaseLensService service : lensServices) {
+        service.setStateJournal(stateJournal);
+      }
+    }
+    log.info("Recovered server state in {} millis", TimeUnit.NANOSECONDS.toMillis(recoveryTimer.stop()));
+  }
+
+  private void snapshotLensServiceState() {
+    try {
+      final String runId = UUID.randomUUID().toString();
+      logSegregationContext.setLogSegregationId(runId);
+      persistLensServiceState();
+      log.info("SnapShot of Lens Services created");
+    } catch (Exception e) {
+      incrCounter(SERVER_STATE_PERSISTENCE_ERRORS);
+      log.error("Unable to persist lens server state", e);
+    }
+  }
+
+  /**
+   * Take a snapshot ahead of the periodic one, called when the state journal has grown beyond its limit.
+   */
+  private void requestSnapshot() {
+    ScheduledExecutorService scheduler = serverSnapshotScheduler;
+    if (scheduler == null) {
+      return;
+    }
+    try {
+      scheduler.execute(this::snapshotLensServiceState);
+    } catch (RejectedExecutionException e) {
+      log.info("Not taking snapshot as lens server is stopping");
+    }
   }
 
   /**
@@ -411,15 +462,35 @@ public class LensServices extends CompositeService implements ServiceProvider {
   private void persistLensServiceState() {
     synchronized (statePersistenceLock) {
       log.info("Persisting server state in {}", persistDir);
+      // Changes from now on go to a new journal segment, older segments are covered by this snapshot
+      long firstJournalSegment = -1;
+      if (stateJournal != null) {
+        try {
+          firstJournalSegment = stateJournal.roll();
+        } catch (IOException e) {
+          incrCounter(SERVER_STATE_PERSISTENCE_ERRORS);
+          log.error("Error while rolling state journal", e);
+        }
+      }
       String now = "" + System.currentTimeMillis();
+      boolean persisted = true;
       for (BaseLensService service : lensServices) {
         try {
           persistState(service, now);
         } catch (Exception e) {
+          persisted = false;
           incrCounter(SERVER_STATE_PERSISTENCE_ERRORS);
           log.error("Error while persisting state for service {}", service.getName(), e);
         }
       }
+      if (persisted && firstJournalSegment >= 0) {
+        try {
+          stateJournal.deleteSegmentsBefore(firstJournalSegment);
+        } catch (IOException e) {
+          incrCounter(SERVER_STATE_PERSISTENCE_ERRORS);
+          log.error("Error while deleting state journal before segment {}", firstJournalSegment, e);
+        }
+      }
     }
   }
 
@@ -490,6 +561,13 @@ public class LensServices extends CompositeService implements ServiceProvider {
           //2. persist the latest state of all the services
           persistLensServiceState();
         } finally {
+          if (stateJournal != null) {
+            try {
+              stateJournal.close();
+            } catch (IOException e) {
+              log.error("Error while closing state journal", e);
+            }
+          }
           try {
             persistenceFS.close();
             log.info("Persistence File system object close complete");
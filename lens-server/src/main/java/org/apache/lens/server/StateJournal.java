@@ -0,0 +1,316 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
+
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append only journal of the state changes of lens services.
+ * <p></p>
+ * Between two snapshots of the server state (checkpoints), services append a record for every change of an entity
+ * they persist, like a query or a session. A record carries the complete state of the entity, so replaying the records
+ * in order over the last checkpoint gives the latest state, even if the checkpoint already has some of the changes.
+ * <p></p>
+ * The journal is written in segments. A checkpoint rolls the journal to a new segment before the services are
+ * persisted, and the older segments are deleted once the checkpoint is complete. A record which was not completely
+ * written, for example because of a crash, ends the replay of its segment.
+ */
+@Slf4j
+public class StateJournal implements Closeable {
+
+  /** Timer for appending a record to the journal. */
+  public static final String JOURNAL_WRITE_LATENCY = "state-journal-write-latency";
+
+  /** Counter for failed journal writes. */
+  public static final String JOURNAL_WRITE_ERRORS = "state-journal-write-errors";
+
+  /** Prefix of the journal segment file names. */
+  static final String SEGMENT_PREFIX = "journal.";
+
+  /**
+   * Type of a journal record.
+   */
+  public enum RecordType {
+    /** Entity is added or updated, payload has its complete state. */
+    UPDATE,
+    /** Entity is removed. */
+    REMOVE
+  }
+
+  /**
+   * A journal record.
+   */
+  @Data
+  public static class Record {
+    /** Name of the service the entity belongs to. */
+    private final String service;
+    private final RecordType type;
+    /** Identifier of the entity in the service. */
+    private final String key;
+    /** State of the entity, empty for removals. */
+    private final byte[] payload;
+  }
+
+  /**
+   * Applies replayed records.
+   */
+  public interface Replayer {
+    void replay(Record record) throws IOException, ClassNotFoundException;
+  }
+
+  private final FileSystem fs;
+
+  private final Path dir;
+
+  /** Size of the current segment beyond which a checkpoint is requested. */
+  private final long maxSegmentBytes;
+
+  /** Requests a checkpoint of the server state, can be null. */
+  private final Runnable checkpointTrigger;
+
+  private final MetricRegistry metricRegistry = LensMetricsRegistry.getStaticRegistry();
+
+  /** The segment being written. */
+  @Getter
+  private long currentSegment;
+
+  private FSDataOutputStream out;
+
+  private boolean checkpointTriggered = false;
+
+  public StateJournal(@NonNull FileSystem fs, @NonNull Path dir, long maxSegmentBytes, Runnable checkpointTrigger) {
+    this.fs = fs;
+    this.dir = dir;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.checkpointTrigger = checkpointTrigger;
+  }
+
+  /**
+   * Replay all the segments in order and open a new segment for appending.
+   *
+   * @param replayer applies the records
+   * @return number of replayed records
+   * @throws IOException            if a segment can't be read, or a new segment can't be created
+   * @throws ClassNotFoundException if the replayer can't read a payload
+   */
+  public synchronized long recover(Replayer replayer) throws IOException, ClassNotFoundException {
+    List<Long> segments = listSegments();
+    long replayed = 0;
+    for (long segment : segments) {
+      replayed += replaySegment(segment, replayer);
+    }
+    currentSegment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+    openSegment();
+    log.info("Replayed {} journal records from {} segments", replayed, segments.size());
+    return replayed;
+  }
+
+  /**
+   * Append a record and flush it to the file system.
+   *
+   * @param service service name
+   * @param type    record type
+   * @param key     entity identifier
+   * @param payload entity state, can be null for removals
+   * @throws IOException if the record can't be written
+   */
+  public void append(@NonNull String service, @NonNull RecordType type, @NonNull String key, byte[] payload)
+    throws IOException {
+    Timer.Context writeTimer = metricRegistry.timer(metricName(JOURNAL_WRITE_LATENCY)).time();
+    try {
+      byte[] body = encode(service, type, key, payload == null ? new byte[0] : payload);
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      synchronized (this) {
+        if (out == null) {
+          throw new IOException("State journal is not open");
+        }
+        out.writeInt(body.length);
+        out.writeLong(crc.getValue());
+        out.write(body);
+        out.hflush();
+        if (!checkpointTriggered && checkpointTrigger != null && out.getPos() > maxSegmentBytes) {
+          log.info("Journal segment {} has grown beyond {} bytes, requesting checkpoint", currentSegment,
+            maxSegmentBytes);
+          checkpointTriggered = true;
+          checkpointTrigger.run();
+        }
+      }
+    } catch (IOException e) {
+      metricRegistry.counter(metricName(JOURNAL_WRITE_ERRORS)).inc();
+      throw e;
+    } finally {
+      writeTimer.stop();
+    }
+  }
+
+  /**
+   * Start a new segment. Called before checkpointing, records appended from now on are in the new segment.
+   *
+   * @return the new segment
+   * @throws IOException if the new segment can't be created
+   */
+  public synchronized long roll() throws IOException {
+    closeSegment();
+    currentSegment++;
+    openSegment();
+    checkpointTriggered = false;
+    return currentSegment;
+  }
+
+  /**
+   * Delete the segments before the given one. Called after a checkpoint is complete.
+   *
+   * @param segment first segment to keep
+   * @throws IOException if a segment can't be deleted
+   */
+  public synchronized void deleteSegmentsBefore(long segment) throws IOException {
+    for (long existing : listSegments()) {
+      if (existing < segment && !fs.delete(segmentPath(existing), false)) {
+        throw new IOException("Failed to delete " + segmentPath(existing));
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closeSegment();
+  }
+
+  private void openSegment() throws IOException {
+    out = fs.create(segmentPath(currentSegment), false);
+    log.info("Opened journal segment {}", segmentPath(currentSegment));
+  }
+
+  private void closeSegment() throws IOException {
+    if (out != null) {
+      try {
+        out.close();
+      } finally {
+        out = null;
+      }
+    }
+  }
+
+  private long replaySegment(long segment, Replayer replayer) throws IOException, ClassNotFoundException {
+    long replayed = 0;
+    try (FSDataInputStream in = fs.open(segmentPath(segment))) {
+      Record record;
+      while ((record = readRecord(in, segment)) != null) {
+        replayer.replay(record);
+        replayed++;
+      }
+    }
+    return replayed;
+  }
+
+  private Record readRecord(DataInputStream in, long segment) throws IOException {
+    byte[] body;
+    long checksum;
+    try {
+      int length = in.readInt();
+      if (length <= 0) {
+        log.warn("Invalid record length {} in journal segment {}, ignoring rest of the segment", length, segment);
+        return null;
+      }
+      checksum = in.readLong();
+      body = new byte[length];
+      in.readFully(body);
+    } catch (EOFException | ChecksumException e) {
+      // end of segment, or a partially written record
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    if (crc.getValue() != checksum) {
+      log.warn("Checksum mismatch in journal segment {}, ignoring rest of the segment", segment);
+      return null;
+    }
+    return decode(body);
+  }
+
+  private static byte[] encode(String service, RecordType type, String key, byte[] payload) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + service.length() + key.length() + 16);
+    DataOutputStream body = new DataOutputStream(bytes);
+    body.writeByte(type.ordinal());
+    body.writeUTF(service);
+    body.writeUTF(key);
+    body.writeInt(payload.length);
+    body.write(payload);
+    body.flush();
+    return bytes.toByteArray();
+  }
+
+  private static Record decode(byte[] bytes) throws IOException {
+    DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes));
+    RecordType type = RecordType.values()[body.readByte()];
+    String service = body.readUTF();
+    String key = body.readUTF();
+    byte[] payload = new byte[body.readInt()];
+    body.readFully(payload);
+    return new Record(service, type, key, payload);
+  }
+
+  private List<Long> listSegments() throws IOException {
+    List<Long> segments = new ArrayList<>();
+    if (!fs.exists(dir)) {
+      return segments;
+    }
+    for (FileStatus status : fs.listStatus(dir)) {
+      String name = status.getPath().getName();
+      if (name.startsWith(SEGMENT_PREFIX)) {
+        try {
+          segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length())));
+        } catch (NumberFormatException e) {
+          log.warn("Ignoring unknown file {} in journal directory", status.getPath());
+        }
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private Path segmentPath(long segment) {
+    return new Path(dir, SEGMENT_PREFIX + segment);
+  }
+
+  private static String metricName(String name) {
+    return MetricRegistry.name(StateJournal.class, name);
+  }
+}
@@ -39,6 +39,7 @@ import org.apache.lens.server.api.metastore.CubeMetastoreService;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.IMetaStoreClient;
 import org.apache.hadoop.hive.metastore.api.*;
 import org.apache.hadoop.hive.ql.metadata.Hive;
@@ -52,10 +53,49 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class CubeMetastoreServiceImpl extends BaseLensService implements CubeMetastoreService {
 
+  /** Loads metadata of configured databases on start */
+  private MetastoreWarmup warmup;
+
   public CubeMetastoreServiceImpl(CLIService cliService) {
     super(NAME, cliService);
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hive.service.AbstractService#init(org.apache.hadoop.hive.conf.HiveConf)
+   */
+  @Override
+  public synchronized void init(HiveConf hiveConf) {
+    super.init(hiveConf);
+    warmup = new MetastoreWarmup(hiveConf);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hive.service.AbstractService#start()
+   */
+  @Override
+  public synchronized void start() {
+    warmup.start();
+    super.start();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.hive.service.AbstractService#stop()
+   */
+  @Override
+  public synchronized void stop() {
+    if (warmup != null) {
+      warmup.stop();
+    }
+    CubeMetastoreClient.shutdownInstances();
+    super.stop();
+  }
+
   synchronized CubeMetastoreClient getClient(LensSessionHandle sessionid) throws LensException {
     return getSession(sessionid).getCubeMetastoreClient();
   }
@@ -1238,6 +1278,12 @@ public class CubeMetastoreServiceImpl extends BaseLensService implements CubeMet
       log.error("Cube metastore service is down");
     }
 
+    /** Check if metadata is loaded **/
+    if (warmup != null && !warmup.isReady()) {
+      isHealthy = false;
+      details.append("Metadata of databases is being loaded.");
+    }
+
     return isHealthy
       ? new HealthStatus(true, "Cube metastore service is healthy.")
       : new HealthStatus(false, details.toString());
@@ -0,0 +1,373 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.metastore;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.lens.cube.metadata.CubeMetastoreClient;
+import org.apache.lens.cube.metadata.FactTable;
+import org.apache.lens.cube.metadata.MetastoreChange;
+import org.apache.lens.cube.metadata.MetastoreConstants;
+import org.apache.lens.server.api.LensConfConstants;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.metadata.Hive;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.apache.hadoop.hive.ql.session.SessionState;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Loads cubes, dimensions, dimension tables, fact tables and partition timelines of some databases into the caches of
+ * {@link CubeMetastoreClient} when the server starts, so that first queries after a restart don't pay for loading
+ * them. The databases are the configured ones and, if a snapshot is configured, the ones used before the last
+ * shutdown. Databases, and timelines of each fact-storage pair, are loaded in parallel on a bounded pool.
+ * <p></p>
+ * If a snapshot path is configured, the hive tables cached by the server are written to it on shutdown, and on start
+ * they are put into the caches instead of being fetched from the metastore. The snapshot tables are checked against
+ * the metastore while the rest is loaded, and the changed ones are dropped from the caches. Snapshot tables of a
+ * database whose check isn't done when the warm-up turns ready are all dropped, so stale tables are never served.
+ * <p></p>
+ * The warm-up is ready when all metadata is loaded, when loading takes longer than the configured timeout, or right
+ * away when there is nothing to load.
+ */
+@Slf4j
+class MetastoreWarmup {
+
+  private static final int SNAPSHOT_VERSION = 1;
+
+  private final HiveConf conf;
+  private final Set<String> databases = new LinkedHashSet<>();
+  private final int threads;
+  private final long timeoutMillis;
+  private final File snapshotFile;
+  private final long snapshotMaxAgeMillis;
+
+  private volatile boolean ready;
+  private ExecutorService pool;
+  private Thread warmer;
+
+  MetastoreWarmup(HiveConf conf) {
+    this.conf = conf;
+    for (String db : conf.getTrimmedStringCollection(LensConfConstants.METASTORE_WARMUP_DATABASES)) {
+      databases.add(db);
+    }
+    threads = Math.max(1, conf.getInt(LensConfConstants.METASTORE_WARMUP_THREADS,
+      LensConfConstants.DEFAULT_METASTORE_WARMUP_THREADS));
+    timeoutMillis = TimeUnit.SECONDS.toMillis(conf.getLong(LensConfConstants.METASTORE_WARMUP_TIMEOUT_SECS,
+      LensConfConstants.DEFAULT_METASTORE_WARMUP_TIMEOUT_SECS));
+    String snapshotPath = conf.getTrimmed(LensConfConstants.METASTORE_WARMUP_SNAPSHOT_PATH);
+    snapshotFile = StringUtils.isBlank(snapshotPath) ? null : new File(snapshotPath);
+    snapshotMaxAgeMillis = TimeUnit.SECONDS.toMillis(conf.getLong(
+      LensConfConstants.METASTORE_WARMUP_SNAPSHOT_MAX_AGE_SECS,
+      LensConfConstants.DEFAULT_METASTORE_WARMUP_SNAPSHOT_MAX_AGE_SECS));
+  }
+
+  /**
+   * @return whether the warm-up is done, or has run longer than the timeout
+   */
+  boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Start loading metadata in the background.
+   */
+  void start() {
+    if (!conf.getBoolean(MetastoreConstants.METASTORE_ENABLE_CACHING, true)) {
+      log.info("Metastore caching is disabled, not loading metadata on start");
+      ready = true;
+      return;
+    }
+    if (databases.isEmpty() && snapshotFile == null) {
+      ready = true;
+      return;
+    }
+    pool = Executors.newFixedThreadPool(threads, new BasicThreadFactory.Builder()
+      .namingPattern("metastore-warmup-%d").daemon(true).build());
+    warmer = new Thread(this::warmUp, "metastore-warmup");
+    warmer.setDaemon(true);
+    warmer.start();
+  }
+
+  /**
+   * Stop loading metadata, and write the snapshot if configured.
+   */
+  void stop() {
+    if (warmer != null) {
+      warmer.interrupt();
+    }
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+    if (snapshotFile != null) {
+      saveSnapshot();
+    }
+  }
+
+  private void warmUp() {
+    long start = System.currentTimeMillis();
+    Map<String, List<Table>> snapshotTables = loadSnapshot(start);
+    Set<String> toLoad = new LinkedHashSet<>(databases);
+    toLoad.addAll(snapshotTables.keySet());
+    log.info("Loading metadata of databases {}", toLoad);
+
+    List<Future<?>> databaseLoads = new ArrayList<>();
+    Queue<Future<?>> checks = new ConcurrentLinkedQueue<>();
+    Queue<Future<?>> timelineLoads = new ConcurrentLinkedQueue<>();
+    Set<String> checkedDatabases = ConcurrentHashMap.newKeySet();
+    for (String db : toLoad) {
+      SessionState state = new SessionState(conf);
+      state.setCurrentDatabase(db);
+      List<Table> tables = snapshotTables.getOrDefault(db, Collections.<Table>emptyList());
+      databaseLoads.add(submit(state, "metadata of " + db, () -> {
+        CubeMetastoreClient.getInstance(conf).preloadHiveTables(tables);
+        if (!tables.isEmpty()) {
+          checks.add(submit(state, "snapshot tables of " + db, () -> {
+            checkSnapshotTables(db, tables);
+            checkedDatabases.add(db);
+          }));
+        }
+        loadDatabase(state, timelineLoads);
+      }));
+    }
+    long deadline = start + timeoutMillis;
+    try {
+      // checks and timeline loads are all queued once the database loads are done
+      for (Future<?> load : databaseLoads) {
+        load.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+      }
+      for (Future<?> check : checks) {
+        check.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+      }
+      for (Future<?> load : timelineLoads) {
+        load.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+      }
+      log.info("Loaded metadata of {} databases and timelines of {} fact storages in {} millis", toLoad.size(),
+        timelineLoads.size(), System.currentTimeMillis() - start);
+    } catch (TimeoutException e) {
+      log.warn("Metadata not loaded in {} millis, reporting ready while loading goes on", timeoutMillis);
+    } catch (InterruptedException e) {
+      log.info("Stopped loading metadata");
+    } catch (ExecutionException e) {
+      // failures of loads are logged by the loads, only errors get here
+      log.error("Stopped loading metadata", e);
+    } finally {
+      // snapshot tables not known to be current must not be served once ready
+      for (Map.Entry<String, List<Table>> entry : snapshotTables.entrySet()) {
+        if (!entry.getValue().isEmpty() && !checkedDatabases.contains(entry.getKey())) {
+          evictSnapshotTables(entry.getKey(), entry.getValue());
+        }
+      }
+      ready = true;
+    }
+    pool.shutdown();
+  }
+
+  private interface Load {
+    void run() throws Exception;
+  }
+
+  /**
+   * Run a load on the pool, in the session of its database. Failures are logged and don't fail the warm-up.
+   */
+  private Future<?> submit(SessionState state, String what, Load load) {
+    return pool.submit(() -> {
+      SessionState.setCurrentSessionState(state);
+      try {
+        load.run();
+      } catch (Exception e) {
+        log.warn("Couldn't load {}", what, e);
+      } finally {
+        SessionState.detachSession();
+        Hive.closeCurrent();
+      }
+    });
+  }
+
+  private void loadDatabase(SessionState state, Queue<Future<?>> timelineLoads) throws Exception {
+    CubeMetastoreClient client = CubeMetastoreClient.getInstance(conf);
+    client.getAllStorages();
+    client.getAllCubes();
+    client.getAllDimensions();
+    client.getAllDimensionTables();
+    client.getAllSegmentations();
+    for (FactTable fact : client.getAllFacts(false)) {
+      for (String storage : fact.getStorages()) {
+        timelineLoads.add(submit(state, "timelines of " + fact.getName() + " on " + storage,
+          () -> client.getTimelines(fact.getName(), storage, null, null)));
+      }
+    }
+  }
+
+  /**
+   * Drop the snapshot tables which have changed in the metastore from the caches.
+   */
+  private void checkSnapshotTables(String db, List<Table> snapshotTables) throws Exception {
+    CubeMetastoreClient client = CubeMetastoreClient.getInstance(conf);
+    Hive hive = Hive.get(conf);
+    List<MetastoreChange> changes = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    for (Table table : snapshotTables) {
+      Table current = hive.getTable(db, table.getTableName(), false);
+      if (current == null) {
+        changes.add(new MetastoreChange(MetastoreChange.Type.DROP_TABLE, db, table.getTableName(), now));
+      } else if (!current.getTTable().equals(table.getTTable())) {
+        changes.add(new MetastoreChange(MetastoreChange.Type.ALTER_TABLE, db, table.getTableName(), now));
+      }
+    }
+    client.applyChanges(changes);
+    log.info("{} of {} snapshot tables of {} have changed", changes.size(), snapshotTables.size(), db);
+  }
+
+  /**
+   * Drop all snapshot tables of a database from the caches, when they couldn't be checked before the warm-up is ready.
+   */
+  private void evictSnapshotTables(String db, List<Table> snapshotTables) {
+    CubeMetastoreClient client = CubeMetastoreClient.getInstances().get(db);
+    if (client == null) {
+      return;
+    }
+    List<MetastoreChange> changes = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    for (Table table : snapshotTables) {
+      changes.add(new MetastoreChange(MetastoreChange.Type.DROP_TABLE, db, table.getTableName(), now));
+    }
+    client.applyChanges(changes);
+    log.info("Dropped {} unchecked snapshot tables of {} from the caches", snapshotTables.size(), db);
+  }
+
+  /**
+   * @return snapshot tables by database, with no tables if the snapshot is older than the max age
+   */
+  private Map<String, List<Table>> loadSnapshot(long now) {
+    if (snapshotFile == null || !snapshotFile.exists()) {
+      return Collections.emptyMap();
+    }
+    try {
+      Snapshot snapshot = readSnapshot(snapshotFile);
+      if (now - snapshot.getTime() <= snapshotMaxAgeMillis) {
+        return snapshot.getTables();
+      }
+      log.info("Metastore snapshot {} is older than {} millis, loading its databases from the metastore",
+        snapshotFile, snapshotMaxAgeMillis);
+      Map<String, List<Table>> databasesOnly = new LinkedHashMap<>();
+      for (String db : snapshot.getTables().keySet()) {
+        databasesOnly.put(db, Collections.<Table>emptyList());
+      }
+      return databasesOnly;
+    } catch (IOException e) {
+      log.warn("Couldn't read metastore snapshot {}, loading from the metastore", snapshotFile, e);
+      return Collections.emptyMap();
+    }
+  }
+
+  private void saveSnapshot() {
+    Map<String, List<Table>> tables = new TreeMap<>();
+    for (Map.Entry<String, CubeMetastoreClient> entry : CubeMetastoreClient.getInstances().entrySet()) {
+      tables.put(entry.getKey(), new ArrayList<>(entry.getValue().getCachedHiveTables()));
+    }
+    try {
+      writeSnapshot(snapshotFile, new Snapshot(System.currentTimeMillis(), tables));
+      log.info("Wrote metastore snapshot of databases {} to {}", tables.keySet(), snapshotFile);
+    } catch (IOException e) {
+      log.warn("Couldn't write metastore snapshot {}", snapshotFile, e);
+    }
+  }
+
+  /**
+   * Hive tables cached by the server, by database.
+   */
+  @Data
+  static class Snapshot {
+    /** time the snapshot was taken, in milliseconds */
+    private final long time;
+    private final Map<String, List<Table>> tables;
+  }
+
+  /**
+   * Write a snapshot, replacing the file only once it is fully written.
+   *
+   * @param file     snapshot file
+   * @param snapshot snapshot
+   * @throws IOException if the snapshot can't be written
+   */
+  static void writeSnapshot(File file, Snapshot snapshot) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Couldn't create directory " + parent);
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    try (ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(new FileOutputStream(tmp),
+      new Deflater(Deflater.BEST_SPEED)))) {
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeLong(snapshot.getTime());
+      out.writeInt(snapshot.getTables().size());
+      for (Map.Entry<String, List<Table>> entry : snapshot.getTables().entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (Table table : entry.getValue()) {
+          out.writeObject(table.getTTable());
+        }
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read a snapshot written by {@link #writeSnapshot(File, Snapshot)}.
+   *
+   * @param file snapshot file
+   * @return snapshot
+   * @throws IOException if the snapshot can't be read
+   */
+  static Snapshot readSnapshot(File file) throws IOException {
+    try (ObjectInputStream in = new ObjectInputStream(new InflaterInputStream(new FileInputStream(file)))) {
+      int version = in.readInt();
+      if (version != SNAPSHOT_VERSION) {
+        throw new IOException("Unknown metastore snapshot version " + version);
+      }
+      long time = in.readLong();
+      int databaseCount = in.readInt();
+      Map<String, List<Table>> tables = new LinkedHashMap<>();
+      for (int i = 0; i < databaseCount; i++) {
+        String db = in.readUTF();
+        int tableCount = in.readInt();
+        List<Table> dbTables = new ArrayList<>(tableCount);
+        for (int j = 0; j < tableCount; j++) {
+          dbTables.add(new Table((org.apache.hadoop.hive.metastore.api.Table) in.readObject()));
+        }
+        tables.put(db, dbTables);
+      }
+      return new Snapshot(time, tables);
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+}
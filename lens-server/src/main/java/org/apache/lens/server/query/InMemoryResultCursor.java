@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.NotFoundException;
+
+import org.apache.lens.api.query.InMemoryQueryResult;
+import org.apache.lens.api.query.ResultRow;
+import org.apache.lens.server.api.driver.InMemoryResultSet;
+import org.apache.lens.server.api.error.LensException;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Server side cursor over an {@link InMemoryResultSet}.
+ * <p></p>
+ * Driver in-memory result sets can only be iterated forward. The cursor reads only as many rows from the driver as
+ * are needed to serve a page, and keeps the most recently read rows in a bounded buffer, so that a client can re-fetch
+ * its last page (e.g. on a retry) without the whole result being held in memory. Rows before the buffer can't be
+ * fetched again.
+ */
+public class InMemoryResultCursor {
+
+  private final InMemoryResultSet resultSet;
+
+  /**
+   * Ring buffer of the last read rows. Row at index i is at buffer[i % buffer.length] when i is in
+   * [bufferStart, position).
+   */
+  private ResultRow[] buffer;
+
+  /**
+   * Index of the oldest buffered row.
+   */
+  private long bufferStart = 0;
+
+  /**
+   * Index of the next row to be read from the result set.
+   */
+  @Getter
+  private long position = 0;
+
+  @Getter
+  private volatile long lastAccessTime = System.currentTimeMillis();
+
+  private volatile boolean expired = false;
+
+  public InMemoryResultCursor(@NonNull InMemoryResultSet resultSet, int maxBufferedRows) {
+    this.resultSet = resultSet;
+    this.buffer = new ResultRow[Math.max(1, maxBufferedRows)];
+  }
+
+  /**
+   * Fetch a page of rows.
+   *
+   * @param startIndex 0 based index of first row of the page
+   * @param fetchSize  maximum rows in the page, all the remaining rows if fetchSize is not positive
+   * @return rows of the page
+   * @throws LensException if the driver result set can't be read
+   */
+  public synchronized InMemoryQueryResult fetch(long startIndex, int fetchSize) throws LensException {
+    if (expired) {
+      throw new NotFoundException("Result cursor has expired");
+    }
+    lastAccessTime = System.currentTimeMillis();
+    if (startIndex < bufferStart) {
+      throw new BadRequestException("Rows before index " + bufferStart + " are no longer available, requested from "
+        + startIndex);
+    }
+    // Skip the rows client is not interested in
+    while (position < startIndex && resultSet.hasNext()) {
+      bufferRow(resultSet.next());
+    }
+    List<ResultRow> rows = new ArrayList<>(fetchSize > 0 ? Math.min(fetchSize, buffer.length) : buffer.length);
+    for (long i = startIndex; i < position && !isPageFull(rows, fetchSize); i++) {
+      rows.add(buffer[(int) (i % buffer.length)]);
+    }
+    while (!isPageFull(rows, fetchSize) && resultSet.hasNext()) {
+      ResultRow row = resultSet.next();
+      bufferRow(row);
+      rows.add(row);
+    }
+    if (!resultSet.hasNext()) {
+      resultSet.setFullyAccessed(true);
+    }
+    return new InMemoryQueryResult(rows);
+  }
+
+  private static boolean isPageFull(List<ResultRow> rows, int fetchSize) {
+    return fetchSize > 0 && rows.size() >= fetchSize;
+  }
+
+  private void bufferRow(ResultRow row) {
+    buffer[(int) (position % buffer.length)] = row;
+    position++;
+    if (position - bufferStart > buffer.length) {
+      bufferStart++;
+    }
+  }
+
+  /**
+   * Expire the cursor, releasing the buffered rows. The underlying result set is marked fully accessed, so that it
+   * can be purged.
+   */
+  public synchronized void expire() {
+    expired = true;
+    buffer = new ResultRow[1];
+    resultSet.setFullyAccessed(true);
+  }
+
+  public boolean isExpired() {
+    return expired;
+  }
+}
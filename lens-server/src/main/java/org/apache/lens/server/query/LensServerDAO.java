@@ -18,13 +18,18 @@
  */
 package org.apache.lens.server.query;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -38,15 +43,16 @@ import org.apache.lens.server.api.query.FinishedLensQuery;
 import org.apache.lens.server.api.query.PreparedQueryContext;
 import org.apache.lens.server.api.query.QueryContext;
 import org.apache.lens.server.session.LensSessionImpl;
+import org.apache.lens.server.util.StateCodec;
 import org.apache.lens.server.util.UtilityMethods;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.dbutils.*;
 import org.apache.commons.dbutils.handlers.BeanHandler;
-import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 
 import lombok.extern.slf4j.Slf4j;
@@ -57,6 +63,51 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class LensServerDAO {
 
+  /**
+   * Indexes on finished queries table, by name.
+   */
+  private static final Map<String, String> FINISHED_QUERIES_INDEXES = ImmutableMap.of(
+    "finished_queries_submitter_time", "submitter, submissiontime",
+    "finished_queries_status_time", "status, submissiontime",
+    "finished_queries_drivername", "drivername");
+
+  private static final String INSERT_FINISHED_QUERY_SQL = "insert into finished_queries (handle, userquery, "
+    + "submitter, priority, starttime,endtime,result,status,metadata,rows,filesize,"
+    + "errormessage,driverstarttime,driverendtime, drivername, queryname, submissiontime, driverquery, conf, "
+    + "numfailedattempts)"
+    + " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+  private static final String INSERT_FAILED_ATTEMPT_SQL = "insert into failed_attempts(handle, attempt_number, "
+    + "drivername, progress, progressmessage, errormessage, driverstarttime, driverendtime) "
+    + "values (?, ?, ?, ?, ?, ?, ?, ?)";
+
+  private static final String DELETE_ACTIVE_QUERY_SQL = "DELETE FROM active_queries where queryid=?";
+
+  /**
+   * Columns of finished queries table that are read when finding finished queries.
+   */
+  public enum Projection {
+    /**
+     * Handle and submission time.
+     */
+    HANDLE("handle, submissiontime"),
+    /**
+     * All columns except driver query, conf and result set metadata, which can be large.
+     */
+    SUMMARY("handle, userquery, submitter, priority, starttime, endtime, result, status, errormessage, "
+      + "driverstarttime, driverendtime, drivername, queryname, submissiontime"),
+    /**
+     * All columns.
+     */
+    FULL("*");
+
+    private final String columns;
+
+    Projection(String columns) {
+      this.columns = columns;
+    }
+  }
+
   /** The ds. */
   private DataSource ds;
 
@@ -108,6 +159,46 @@ public class LensServerDAO {
     }
   }
 
+  /**
+   * Create the indexes on finished queries table that listing finished queries of a user, in some states or of a
+   * driver needs, if they do not exist. Production servers, where tables are created upfront, should create them too.
+   */
+  public void createFinishedQueriesIndexes() {
+    Set<String> existing = new HashSet<>();
+    Connection conn = null;
+    try {
+      conn = getConnection();
+      DatabaseMetaData metaData = conn.getMetaData();
+      for (String table : new String[]{"finished_queries", "FINISHED_QUERIES"}) {
+        ResultSet rs = metaData.getIndexInfo(null, null, table, false, true);
+        try {
+          while (rs.next()) {
+            if (rs.getString("INDEX_NAME") != null) {
+              existing.add(rs.getString("INDEX_NAME").toLowerCase());
+            }
+          }
+        } finally {
+          DbUtils.closeQuietly(rs);
+        }
+      }
+      QueryRunner runner = new QueryRunner();
+      for (Map.Entry<String, String> index : FINISHED_QUERIES_INDEXES.entrySet()) {
+        if (!existing.contains(index.getKey())) {
+          try {
+            runner.update(conn, "CREATE INDEX " + index.getKey() + " ON finished_queries (" + index.getValue() + ")");
+            log.info("Created index {} on finished queries table", index.getKey());
+          } catch (SQLException e) {
+            log.warn("Unable to create index {} on finished queries table", index.getKey(), e);
+          }
+        }
+      }
+    } catch (SQLException e) {
+      log.warn("Unable to create indexes on finished queries table", e);
+    } finally {
+      DbUtils.closeQuietly(conn);
+    }
+  }
+
   public void createPreparedQueriesTable() throws Exception {
     String sql = "CREATE TABLE if not exists prepared_queries (handle varchar(255) NOT NULL unique,  userquery "
       + "varchar(20000),  submitter varchar(255) NOT NULL,  timetaken bigint,  queryname varchar(255) DEFAULT NULL, "
@@ -144,22 +235,12 @@ public class LensServerDAO {
     FinishedLensQuery alreadyExisting = getQuery(query.getHandle());
     if (alreadyExisting == null) {
       // The expected case
-      String sql = "insert into finished_queries (handle, userquery, submitter, priority, "
-        + "starttime,endtime,result,status,metadata,rows,filesize,"
-        + "errormessage,driverstarttime,driverendtime, drivername, queryname, submissiontime, driverquery, conf, "
-        + "numfailedattempts)"
-        + " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
       Connection conn = null;
       try {
         conn = getConnection();
         conn.setAutoCommit(false);
         QueryRunner runner = new QueryRunner();
-        runner.update(conn, sql, query.getHandle(), query.getUserQuery(), query.getSubmitter(), query.getPriority(),
-            query.getStartTime(), query.getEndTime(), query.getResult(), query.getStatus(), query.getMetadata(),
-            query.getRows(), query.getFileSize(), query.getErrorMessage(), query.getDriverStartTime(),
-            query.getDriverEndTime(), query.getDriverName(), query.getQueryName(), query.getSubmissionTime(),
-            query.getDriverQuery(), serializeConf(query.getConf()),
-            query.getFailedAttempts() == null ? 0 : query.getFailedAttempts().size());
+        runner.update(conn, INSERT_FINISHED_QUERY_SQL, finishedQueryParams(query));
         if (query.getFailedAttempts() != null) {
           for (int i = 0; i < query.getFailedAttempts().size(); i++) {
             insertFailedAttempt(runner, conn, query.getHandle(), query.getFailedAttempts().get(i), i);
@@ -181,6 +262,70 @@ public class LensServerDAO {
       }
     }
   }
+  /**
+   * Insert finished queries with their failed attempts and delete them from active queries, in one transaction with
+   * a JDBC batch per statement. Nothing is inserted or deleted if any row fails, e.g. because a query is already
+   * inserted, in which case the queries can be inserted one at a time with {@link #insertFinishedQuery}.
+   *
+   * @param queries to be inserted
+   * @throws SQLException the exception
+   */
+  public void insertFinishedQueries(List<FinishedLensQuery> queries) throws SQLException {
+    if (queries.isEmpty()) {
+      return;
+    }
+    Object[][] finishedParams = new Object[queries.size()][];
+    Object[][] deleteParams = new Object[queries.size()][];
+    List<Object[]> attemptParams = new ArrayList<>();
+    for (int i = 0; i < queries.size(); i++) {
+      FinishedLensQuery query = queries.get(i);
+      finishedParams[i] = finishedQueryParams(query);
+      deleteParams[i] = new Object[]{query.getHandle()};
+      if (query.getFailedAttempts() != null) {
+        for (int j = 0; j < query.getFailedAttempts().size(); j++) {
+          attemptParams.add(failedAttemptParams(query.getHandle(), query.getFailedAttempts().get(j), j));
+        }
+      }
+    }
+    Connection conn = null;
+    try {
+      conn = getConnection();
+      conn.setAutoCommit(false);
+      QueryRunner runner = new QueryRunner();
+      runner.batch(conn, INSERT_FINISHED_QUERY_SQL, finishedParams);
+      if (!attemptParams.isEmpty()) {
+        runner.batch(conn, INSERT_FAILED_ATTEMPT_SQL, attemptParams.toArray(new Object[attemptParams.size()][]));
+      }
+      runner.batch(conn, DELETE_ACTIVE_QUERY_SQL, deleteParams);
+      conn.commit();
+    } catch (SQLException e) {
+      if (conn != null) {
+        try {
+          conn.rollback();
+        } catch (SQLException rollbackException) {
+          log.warn("Unable to rollback insert of finished queries", rollbackException);
+        }
+      }
+      throw e;
+    } finally {
+      DbUtils.closeQuietly(conn);
+    }
+  }
+
+  private Object[] finishedQueryParams(FinishedLensQuery query) throws SQLException {
+    return new Object[]{query.getHandle(), query.getUserQuery(), query.getSubmitter(), query.getPriority(),
+      query.getStartTime(), query.getEndTime(), query.getResult(), query.getStatus(), query.getMetadata(),
+      query.getRows(), query.getFileSize(), query.getErrorMessage(), query.getDriverStartTime(),
+      query.getDriverEndTime(), query.getDriverName(), query.getQueryName(), query.getSubmissionTime(),
+      query.getDriverQuery(), serializeConf(query.getConf()),
+      query.getFailedAttempts() == null ? 0 : query.getFailedAttempts().size()};
+  }
+
+  private static Object[] failedAttemptParams(String handle, FailedAttempt attempt, int index) {
+    return new Object[]{handle, index, attempt.getDriverName(), attempt.getProgress(), attempt.getProgressMessage(),
+      attempt.getErrorMessage(), attempt.getDriverStartTime(), attempt.getDriverFinishTime()};
+  }
+
   /**
    * DAO method to insert a new Finished query into Table.
    *
@@ -192,11 +337,7 @@ public class LensServerDAO {
    */
   public void insertFailedAttempt(QueryRunner runner, Connection conn, String handle, FailedAttempt attempt, int index)
     throws SQLException {
-    String sql = "insert into failed_attempts(handle, attempt_number, drivername, progress, progressmessage, "
-      + "errormessage, driverstarttime, driverendtime) values (?, ?, ?, ?, ?, ?, ?, ?)";
-    runner.update(conn, sql, handle, index, attempt.getDriverName(),
-      attempt.getProgress(), attempt.getProgressMessage(), attempt.getErrorMessage(),
-      attempt.getDriverStartTime(), attempt.getDriverFinishTime());
+    runner.update(conn, INSERT_FAILED_ATTEMPT_SQL, failedAttemptParams(handle, attempt, index));
   }
 
   public void getFailedAttempts(final FinishedLensQuery query) {
@@ -226,13 +367,25 @@ public class LensServerDAO {
 
 
 
-  private String serializeConf(LensConf conf) {
-    return Base64.encodeBase64String(conf.toXMLString().getBytes(Charset.defaultCharset()));
+  private String serializeConf(LensConf conf) throws SQLException {
+    try {
+      return Base64.encodeBase64String(StateCodec.get().encodeConf(conf));
+    } catch (IOException e) {
+      throw new SQLException("Could not encode conf", e);
+    }
   }
 
-  private LensConf deserializeConf(String serializedConf) {
-    return LensConf.fromXMLString(new String(Base64.decodeBase64(serializedConf),
-        Charset.defaultCharset()), LensConf.class);
+  private LensConf deserializeConf(String serializedConf) throws SQLException {
+    byte[] bytes = Base64.decodeBase64(serializedConf);
+    if (!StateCodec.isEncoded(bytes)) {
+      // Stored as XML
+      return LensConf.fromXMLString(new String(bytes, Charset.defaultCharset()), LensConf.class);
+    }
+    try {
+      return StateCodec.get().decodeConf(bytes);
+    } catch (IOException e) {
+      throw new SQLException("Could not decode conf", e);
+    }
   }
 
   /**
@@ -311,9 +464,33 @@ public class LensServerDAO {
    */
   public List<FinishedLensQuery> findFinishedQueryDetails(List<QueryStatus.Status> states, String user,
     String driverName, String queryName, long fromDate, long toDate) throws LensException {
+    return findFinishedQueryDetails(states, user, driverName, queryName, fromDate, toDate, null, 0, Projection.FULL);
+  }
+
+  /**
+   * Find a page of finished queries, latest submitted first. The next page is the one after the last query of this
+   * page.
+   *
+   * @param states     the state
+   * @param user       the user
+   * @param driverName the driver's fully qualified Name
+   * @param queryName  the query name
+   * @param fromDate   the from date
+   * @param toDate     the to date
+   * @param after      find queries submitted before this query, or at the same time with a smaller handle. Only its
+   *                   handle and submission time are used. Null to find from the latest submitted query.
+   * @param limit      maximum number of queries to find, all queries if not positive
+   * @param projection columns to read
+   * @return the list
+   * @throws LensException the lens exception
+   */
+  public List<FinishedLensQuery> findFinishedQueryDetails(List<QueryStatus.Status> states, String user,
+    String driverName, String queryName, long fromDate, long toDate, FinishedLensQuery after, int limit,
+    Projection projection) throws LensException {
     ResultSetHandler<FinishedLensQuery> handler = new NestedResultHandler<>(FinishedLensQuery.class,
         new BasicRowProcessor(new FinishedLensQueryBeanProcessor()));
-    return findInternal(states, user, driverName, queryName, fromDate, toDate, handler, "*");
+    return findInternal(states, user, driverName, queryName, fromDate, toDate, after, limit, handler,
+      projection.columns);
   }
 
   /**
@@ -332,11 +509,12 @@ public class LensServerDAO {
     String queryName, long fromDate, long toDate) throws LensException {
 
     ResultSetHandler<QueryHandle> handler = new QueryHandleNestedHandler();
-    return findInternal(states, user, driverName, queryName, fromDate, toDate, handler, "handle");
+    return findInternal(states, user, driverName, queryName, fromDate, toDate, null, 0, handler, "handle");
   }
 
   private <T> List<T> findInternal(List<QueryStatus.Status> states, String user, String driverName, String queryName,
-    long fromDate, long toDate, final ResultSetHandler<T> handler, String projection) throws LensException {
+    long fromDate, long toDate, FinishedLensQuery after, final int limit, final ResultSetHandler<T> handler,
+    String projection) throws LensException {
     StringBuilder builder = new StringBuilder("SELECT " + projection + " FROM finished_queries");
     List<Object> params = new ArrayList<>(3);
     builder.append(" WHERE ");
@@ -364,14 +542,23 @@ public class LensServerDAO {
     }
 
     if (StringUtils.isNotBlank(driverName)) {
-      filters.add("lower(drivername)=?");
-      params.add(driverName.toLowerCase());
+      // compared as is, so that the index on drivername can be used
+      filters.add("drivername=?");
+      params.add(driverName);
     }
 
     filters.add("submissiontime BETWEEN ? AND ?");
     params.add(fromDate);
     params.add(toDate);
+
+    if (after != null) {
+      filters.add("(submissiontime < ? OR (submissiontime = ? AND handle < ?))");
+      params.add(after.getSubmissionTime());
+      params.add(after.getSubmissionTime());
+      params.add(after.getHandle());
+    }
     builder.append(StringUtils.join(filters, " AND "));
+    builder.append(" ORDER BY submissiontime DESC, handle DESC");
 
     ResultSetHandler<List<T>> resultSetHandler = new ResultSetHandler<List<T>>() {
       @Override
@@ -388,7 +575,16 @@ public class LensServerDAO {
       }
     };
 
-    QueryRunner runner = new QueryRunner(ds);
+    QueryRunner runner = new QueryRunner(ds) {
+      @Override
+      protected PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        PreparedStatement statement = super.prepareStatement(conn, sql);
+        if (limit > 0) {
+          statement.setMaxRows(limit);
+        }
+        return statement;
+      }
+    };
     String query = builder.toString();
     try {
       return runner.query(query, resultSetHandler, params.toArray());
@@ -494,11 +690,11 @@ public class LensServerDAO {
 
       // set input parameters
       pstmt.setString(1, ctx.getQueryHandleString());
-      pstmt.setObject(2, SerializationUtils.serialize(ctx));
+      pstmt.setObject(2, StateCodec.get().encodeQuery(ctx));
       pstmt.execute();
 
       log.info("Inserted query with query " + ctx.getQueryHandleString() + " in database.");
-    } catch (SQLException e) {
+    } catch (SQLException | IOException e) {
       log.error("Failed to insert query " + ctx.getQueryHandleString() + " in database with error, " + e);
       throw new LensException(e);
     } finally {
@@ -526,11 +722,11 @@ public class LensServerDAO {
 
       // set input parameters
       pstmt.setString(1, session.getSessionHandle().getPublicId().toString());
-      pstmt.setObject(2, SerializationUtils.serialize(session));
+      pstmt.setObject(2, StateCodec.get().encodeSession(session));
       pstmt.execute();
 
       log.info("Inserted seesion " + session.getSessionHandle().getPublicId() + " in database.");
-    } catch (SQLException e) {
+    } catch (SQLException | IOException e) {
       log.error("Failed to insert session " + session.getSessionHandle().getPublicId()
               + " in database with error, " + e);
       throw new LensException(e);
@@ -549,6 +745,25 @@ public class LensServerDAO {
    *
    */
   public void updateActiveQuery(QueryContext ctx) throws LensException {
+    try {
+      updateActiveQuery(ctx, StateCodec.get().encodeQuery(ctx));
+    } catch (IOException e) {
+      log.error("Failed to update query " + ctx.getQueryHandleString()
+              + " in database with error, " + e);
+      throw new LensException(e);
+    }
+  }
+
+  /**
+   * Method to update a active query into Table, with the query already encoded.
+   *
+   * @param ctx          query context
+   * @param encodedQuery the query encoded by {@link StateCodec#encodeQuery(QueryContext)}
+   *
+   * @throws LensException the exception
+   *
+   */
+  public void updateActiveQuery(QueryContext ctx, byte[] encodedQuery) throws LensException {
 
     String sql = "UPDATE active_queries SET querycontext=? where queryid=?";
     Connection conn = null;
@@ -557,7 +772,7 @@ public class LensServerDAO {
       conn = getConnection();
       pstmt = conn.prepareStatement(sql);
 
-      pstmt.setObject(1, SerializationUtils.serialize(ctx));
+      pstmt.setObject(1, encodedQuery);
       pstmt.setString(2, ctx.getQueryHandleString());
       pstmt.execute();
 
@@ -590,12 +805,12 @@ public class LensServerDAO {
       pstmt = conn.prepareStatement(sql);
 
       // set input parameters
-      pstmt.setObject(1, SerializationUtils.serialize(session));
+      pstmt.setObject(1, StateCodec.get().encodeSession(session));
       pstmt.setString(2, session.getSessionHandle().getPublicId().toString());
       pstmt.execute();
 
       log.info("Updated session " + session.getSessionHandle().getPublicId() + " in database.");
-    } catch (SQLException e) {
+    } catch (SQLException | IOException e) {
       log.error("Failed to update session " + session.getSessionHandle().getPublicId()
               + " in database with error, " + e);
       throw new LensException(e);
@@ -633,9 +848,9 @@ public class LensServerDAO {
 
       if (rs != null) {
         rs.next();
-        ctx = (QueryContext) SerializationUtils.deserialize(rs.getBytes(1));
+        ctx = StateCodec.get().decodeQuery(rs.getBytes(1));
       }
-    } catch (SQLException e) {
+    } catch (SQLException | IOException e) {
       log.error("Failed to find active query " + queryHandle.getHandleIdString()
               + " in database with error, " + e);
       throw new LensException(e);
@@ -669,9 +884,9 @@ public class LensServerDAO {
       rs = pstmt.executeQuery();
 
       while (rs.next()) {
-        ctxs.add((QueryContext) SerializationUtils.deserialize(rs.getBytes(1)));
+        ctxs.add(StateCodec.get().decodeQuery(rs.getBytes(1)));
       }
-    } catch (SQLException e) {
+    } catch (SQLException | IOException e) {
       log.error("Unable to find all active queries in database, Failed with error, " + e);
       throw new LensException(e);
     } finally {
@@ -709,10 +924,9 @@ public class LensServerDAO {
 
       if (rs != null) {
         rs.next();
-        session =
-                (LensSessionImpl.LensSessionPersistInfo) SerializationUtils.deserialize(rs.getBytes(1));
+        session = StateCodec.get().decodeSession(rs.getBytes(1));
       }
-    } catch (SQLException e) {
+    } catch (SQLException | IOException e) {
       log.error("Failed to find active session " + sessionId.getPublicId()
               + " in database with error, " + e);
       throw new LensException(e);
@@ -747,9 +961,9 @@ public class LensServerDAO {
       rs = pstmt.executeQuery();
 
       while (rs.next()) {
-        ctxs.add((LensSessionImpl.LensSessionPersistInfo) SerializationUtils.deserialize(rs.getBytes(1)));
+        ctxs.add(StateCodec.get().decodeSession(rs.getBytes(1)));
       }
-    } catch (SQLException e) {
+    } catch (SQLException | IOException e) {
       log.error("Unable to find all active queries in database, Failed with error, " + e);
       throw new LensException(e);
     } finally {
@@ -772,7 +986,7 @@ public class LensServerDAO {
    */
   public boolean deleteActiveQuery(QueryContext ctx) throws LensException {
 
-    String sql = "DELETE FROM active_queries where queryid=?";
+    String sql = DELETE_ACTIVE_QUERY_SQL;
     Connection conn = null;
     PreparedStatement pstmt = null;
     boolean result = false;
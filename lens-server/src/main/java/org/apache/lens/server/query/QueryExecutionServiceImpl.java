@@ -35,9 +35,9 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.lens.api.LensConf;
 import org.apache.lens.api.LensSessionHandle;
@@ -51,12 +51,14 @@ import org.apache.lens.driver.jdbc.JDBCDriver;
 import org.apache.lens.server.BaseLensService;
 import org.apache.lens.server.LensServerConf;
 import org.apache.lens.server.LensServices;
+import org.apache.lens.server.StateJournal;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.driver.*;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.error.LensMultiCauseException;
 import org.apache.lens.server.api.events.LensEventListener;
 import org.apache.lens.server.api.health.HealthStatus;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.metrics.MethodMetricsContext;
 import org.apache.lens.server.api.metrics.MethodMetricsFactory;
 import org.apache.lens.server.api.metrics.MetricsService;
@@ -81,14 +83,13 @@ import org.apache.lens.server.rewrite.RewriteUtil;
 import org.apache.lens.server.rewrite.UserQueryToCubeQueryRewriter;
 import org.apache.lens.server.session.LensSessionImpl;
 import org.apache.lens.server.stats.StatisticsService;
-import org.apache.lens.server.util.FairPriorityBlockingQueue;
+import org.apache.lens.server.util.StateCodec;
 import org.apache.lens.server.util.UtilityMethods;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
@@ -97,6 +98,9 @@ import org.apache.hive.service.cli.CLIService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -131,6 +135,26 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
    */
   public static final String QUERY_PURGER_COUNTER = "query-purger-errors";
 
+  /**
+   * Number of finished queries that can be purged but are not purged yet, which grows when the purger falls behind.
+   */
+  public static final String PURGEABLE_QUERIES_GAUGE = "purgeable-queries";
+
+  /**
+   * Time taken to persist a batch of finished queries.
+   */
+  public static final String PURGE_BATCH_PERSIST_TIMER = "query-purger-batch-persist";
+
+  /**
+   * Number of finished queries in the batches persisted by the purger.
+   */
+  public static final String PURGE_BATCH_SIZE_HISTOGRAM = "query-purger-batch-size";
+
+  /**
+   * Number of batches that failed and were persisted one query at a time.
+   */
+  public static final String PURGE_BATCH_FAILURE_COUNTER = "query-purger-batch-failures";
+
   public static final String QUERY_EXPIRY_FAILURE_COUNTER = "query-expiry-errors";
 
   public static final String TOTAL_QUERIES_EXPIRED = "total-expired-queries";
@@ -164,7 +188,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
   /**
    * The accepted queries.
    */
-  private FairPriorityBlockingQueue<QueryContext> queuedQueries;
+  private QueuedQueryScheduler queuedQueries;
 
   /**
    * The launched queries.
@@ -214,15 +238,15 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
   private QuerySubmitter querySubmitterRunnable;
 
   /**
-   * The query submitter.
+   * The query submitters.
    */
-  protected Thread querySubmitter;
+  protected List<Thread> querySubmitters;
 
   private final AsyncStatusUpdater asyncStatusUpdater = new AsyncStatusUpdater();
   /**
-   * The status poller.
+   * The status tracker, which polls drivers for status of launched queries.
    */
-  private final Thread statusPoller = new Thread(new StatusPoller(), "StatusPoller");
+  private QueryStatusTracker statusTracker;
 
   /**
    * The query purger.
@@ -268,6 +292,11 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
    */
   private Map<QueryHandle, LensResultSet> resultSets = new HashMap<QueryHandle, LensResultSet>();
 
+  /**
+   * Server side cursors over in-memory result sets, used for paged fetches.
+   */
+  private final ConcurrentMap<QueryHandle, InMemoryResultCursor> resultCursors = new ConcurrentHashMap<>();
+
   /**
    * The metrics service.
    */
@@ -283,6 +312,21 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
    */
   int purgeInterval;
 
+  /**
+   * Maximum number of finished queries persisted in one batch.
+   */
+  private int purgeBatchSize;
+
+  /**
+   * How long the purger waits for a full batch of purgeable queries.
+   */
+  private long purgeBatchLingerMillis;
+
+  /**
+   * Number of purgeable queries not yet purged, as of the last run of the purger.
+   */
+  private volatile int purgeableQueries;
+
   /**
    * The lens server dao.
    */
@@ -319,6 +363,8 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
    * This sort of delay in waiting query execution can be avoided if removal of a query from launched
    * queries is locked using removalFromLaunchedQueriesLock, until the decision to add to waiting queries
    * and actual addition to waiting query is complete.
+   * Submitter threads also hold the lock from the launch constraint check till the query is added to launched
+   * queries, so that queries launched by concurrent submitters are counted by each other's checks.
    * */
   private final ReentrantLock removalFromLaunchedQueriesLock = new ReentrantLock();
 
@@ -332,6 +378,16 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
   @Setter
   private long inMemoryResultsetTTLMillis;
 
+  /**
+   * Maximum rows buffered by a server side cursor of an in-memory result set
+   */
+  private int resultCursorBufferRows;
+
+  /**
+   * Time after which an idle server side cursor of an in-memory result set expires
+   */
+  private long resultCursorExpiryMillis;
+
   /**
    * The driver event listener.
    */
@@ -683,7 +739,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     /**
      * The paused for test.
      */
-    private boolean pausedForTest = false;
+    private volatile boolean pausedForTest = false;
 
     private final EstimatedQueryCollection waitingQueries;
 
@@ -704,7 +760,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     @Override
     public void run() {
       log.info("Starting QuerySubmitter thread");
-      while (!stopped && !querySubmitter.isInterrupted()) {
+      while (!stopped && !Thread.currentThread().isInterrupted()) {
         try {
           if (pausedForTest) {
             Thread.sleep(100);
@@ -728,15 +784,21 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
             try {
               if (this.constraintsChecker.canLaunch(query, launchedQueries)) {
 
-                /* Query is not going to be added to waiting queries. No need to keep the lock.
-                 First release lock, then launch query */
-                removalFromLaunchedQueriesLock.unlock();
-                // add it to launched queries data structure immediately sothat other constraint checks can start seeing
-                // this query
+                /* Query is not going to be added to waiting queries. Add it to launched queries before releasing the
+                 lock, so that constraint checks of other submitter threads see this query. Then launch query */
                 query.setLaunching(true);
                 launchedQueries.add(query);
-                Future launcherFuture = queryLauncherPool.submit(new QueryLauncher(query));
-                query.setQueryLauncher(launcherFuture);
+                removalFromLaunchedQueriesLock.unlock();
+                try {
+                  Future launcherFuture = queryLauncherPool.submit(new QueryLauncher(query));
+                  query.setQueryLauncher(launcherFuture);
+                } catch (RejectedExecutionException e) {
+                  // not launched, free its slot and queue it again
+                  query.setLaunching(false);
+                  removeFromLaunchedQueries(query);
+                  queuedQueries.add(query);
+                  throw e;
+                }
               } else {
                 /* Query is going to be added to waiting queries. Keep holding the lock to avoid any removal from
                 launched queries. First add to waiting queries, then release lock */
@@ -869,57 +931,6 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       }
     }
   }
-  /**
-   * The Class StatusPoller.
-   */
-  private class StatusPoller implements Runnable {
-
-    /**
-     * The poll interval.
-     */
-    long pollInterval = 1000;
-
-    /*
-     * (non-Javadoc)
-     *
-     * @see java.lang.Runnable#run()
-     */
-    @Override
-    public void run() {
-      log.info("Starting Status poller thread");
-      while (!stopped && !statusPoller.isInterrupted()) {
-        try {
-          Set<QueryContext> launched = launchedQueries.getQueries();
-
-          for (QueryContext ctx : launched) {
-            if (stopped || statusPoller.isInterrupted()) {
-              return;
-            }
-            if (ctx.isLaunching()) {
-              continue;
-            }
-            logSegregationContext.setLogSegragationAndQueryId(ctx.getQueryHandleString());
-            log.debug("Polling status for {}", ctx.getQueryHandle());
-            try {
-              // session is not required to update status of the query
-              // don't need to wrap this with acquire/release
-              updateStatus(ctx.getQueryHandle());
-            } catch (LensException e) {
-              log.error("Error updating status ", e);
-            }
-          }
-          Thread.sleep(pollInterval);
-        } catch (InterruptedException e) {
-          log.info("Status poller has been interrupted, exiting");
-          return;
-        } catch (Exception e) {
-          incrCounter(STATUS_UPDATE_COUNTER);
-          log.error("Error in status poller", e);
-        }
-      }
-      log.info("StatusPoller exited");
-    }
-  }
   private boolean handleRetries(QueryContext ctx) throws LensException {
     // TODO: handle retries for post-processing, e.g. result formatting failure doesn't need query rerun
     if (ctx.getStatus().failing()) {
@@ -1078,6 +1089,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
               return;
             }
           }
+          statusTracker.markUpdated(ctx);
           ctx.setStatus(ctx.getDriverStatus().toQueryStatus());
           // query is successfully executed by driver and
           // if query result need not be persisted or there is no result available in driver, move the query to
@@ -1172,13 +1184,23 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     }
 
     StatusChange event = newStatusChangeEvent(ctx, prevState, currentStatus);
+    byte[] encodedQuery = null;
     try {
       ctx.setStatus(current);
-      lensServerDao.updateActiveQuery(ctx);
+      // encoded once, for both the database and the state journal
+      synchronized (ctx) {
+        encodedQuery = StateCodec.get().encodeQuery(ctx);
+      }
+      lensServerDao.updateActiveQuery(ctx, encodedQuery);
     } catch (Exception e) {
       log.warn("Failed to update status of query " + ctx.getQueryHandleString() + " in database.");
       incrCounter(ACTIVE_QUERY_UPDATE_ERROR_COUNTER);
     }
+    if (encodedQuery != null) {
+      journalQuery(ctx, encodedQuery);
+    } else {
+      journalQuery(ctx);
+    }
     if (event != null) {
       try {
         getEventService().notifyEvent(event);
@@ -1193,6 +1215,11 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
    */
   private class QueryPurger implements Runnable {
 
+    /**
+     * Time till which the purger waits for a full batch, zero when not waiting.
+     */
+    private long lingerDeadline = 0;
+
     /*
      * (non-Javadoc)
      *
@@ -1203,49 +1230,28 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       log.info("Starting Query purger thread");
       while (!stopped && !queryPurger.isInterrupted()) {
         try {
-          Iterator<FinishedQuery> iter = finishedQueries.iterator();
-          FinishedQuery finished;
-          while (iter.hasNext()) {
-            finished = iter.next();
+          List<FinishedQuery> purgeable = new ArrayList<>();
+          for (FinishedQuery finished : finishedQueries) {
             if (finished.canBePurged()) {
-              try {
-                persistQuery(finished);
-                iter.remove();
-              } catch (Exception e) {
-                log.warn("Exception while purging query {}", finished.getQueryHandle(), e);
-                continue;
-              } finally {
-                if (!finished.getCtx().isQueryClosedOnDriver()) {
-                  try {
-                    if (finished.getCtx().getSelectedDriver() != null) {
-                      finished.getCtx().getSelectedDriver().closeQuery(finished.getQueryHandle());
-                    }
-                    finished.getCtx().setQueryClosedOnDriver(true);
-                  } catch (Exception e) {
-                    log.warn("Exception while closing query with selected driver.", e);
-                  }
-                  processWaitingQueriesAsync(finished.ctx);
-                }
-              }
-              synchronized (finished.ctx) {
-                finished.ctx.setFinishedQueryPersisted(true);
-                log.info("Purging: {}", finished.getQueryHandle());
-                allQueries.remove(finished.getQueryHandle());
-                resultSets.remove(finished.getQueryHandle());
-              }
-              fireStatusChangeEvent(finished.getCtx(),
-                new QueryStatus(1f, null, CLOSED, "Query purged", false, null, null, null), finished.getCtx()
-                  .getStatus());
-
-              try {
-                lensServerDao.deleteActiveQuery(finished.getCtx());
-              } catch (LensException e) {
-                incrCounter(ACTIVE_QUERY_DELETE_ERROR_COUNTER);
-              }
-
-              log.info("Query purged: {}", finished.getQueryHandle());
+              purgeable.add(finished);
+            }
+          }
+          purgeableQueries = purgeable.size();
+          long now = System.currentTimeMillis();
+          if (!purgeable.isEmpty() && purgeable.size() < purgeBatchSize) {
+            if (lingerDeadline == 0) {
+              lingerDeadline = now + purgeBatchLingerMillis;
+            }
+            if (now < lingerDeadline) {
+              Thread.sleep(Math.min(purgeInterval, lingerDeadline - now));
+              continue;
             }
           }
+          lingerDeadline = 0;
+          for (List<FinishedQuery> batch : Lists.partition(purgeable, purgeBatchSize)) {
+            purge(batch);
+            purgeableQueries -= batch.size();
+          }
           Thread.sleep(purgeInterval);
         } catch (InterruptedException e) {
           log.error("purger interrupted", e);
@@ -1257,7 +1263,96 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       log.info("QueryPurger exited");
     }
 
-    private void persistQuery(FinishedQuery finished) throws SQLException {
+    /**
+     * Persist a batch of finished queries and purge the persisted ones from memory. Queries that could not be
+     * persisted stay in finished queries, to be purged again.
+     */
+    private void purge(List<FinishedQuery> batch) {
+      List<FinishedQuery> persisted = new ArrayList<>(batch.size());
+      boolean batchPersisted = persistQueries(batch, persisted);
+      for (FinishedQuery finished : batch) {
+        if (!finished.getCtx().isQueryClosedOnDriver()) {
+          try {
+            if (finished.getCtx().getSelectedDriver() != null) {
+              finished.getCtx().getSelectedDriver().closeQuery(finished.getQueryHandle());
+            }
+            finished.getCtx().setQueryClosedOnDriver(true);
+          } catch (Exception e) {
+            log.warn("Exception while closing query with selected driver.", e);
+          }
+          processWaitingQueriesAsync(finished.ctx);
+        }
+      }
+      for (FinishedQuery finished : persisted) {
+        synchronized (finished.ctx) {
+          finished.ctx.setFinishedQueryPersisted(true);
+          log.info("Purging: {}", finished.getQueryHandle());
+          allQueries.remove(finished.getQueryHandle());
+          resultSets.remove(finished.getQueryHandle());
+          resultCursors.remove(finished.getQueryHandle());
+        }
+        fireStatusChangeEvent(finished.getCtx(),
+          new QueryStatus(1f, null, CLOSED, "Query purged", false, null, null, null), finished.getCtx()
+            .getStatus());
+
+        if (!batchPersisted) {
+          // active query is deleted along with the batch insert
+          try {
+            lensServerDao.deleteActiveQuery(finished.getCtx());
+          } catch (LensException e) {
+            incrCounter(ACTIVE_QUERY_DELETE_ERROR_COUNTER);
+          }
+        }
+        journalRemove(finished.getCtx().getQueryHandleString());
+
+        log.info("Query purged: {}", finished.getQueryHandle());
+      }
+      finishedQueries.removeAll(new HashSet<>(persisted));
+    }
+
+    /**
+     * Persist finished queries in one batch, or one at a time if the batch fails.
+     *
+     * @param batch     queries to persist
+     * @param persisted the persisted queries are added to it
+     * @return whether the queries were persisted in one batch, along with deleting them from active queries
+     */
+    private boolean persistQueries(List<FinishedQuery> batch, List<FinishedQuery> persisted) {
+      MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+      registry.histogram(MetricRegistry.name(QueryExecutionService.class, PURGE_BATCH_SIZE_HISTOGRAM))
+        .update(batch.size());
+      List<FinishedLensQuery> finishedQueries = new ArrayList<>(batch.size());
+      for (FinishedQuery finished : batch) {
+        finishedQueries.add(toFinishedLensQuery(finished));
+      }
+      Timer.Context persistTimer = registry.timer(MetricRegistry.name(QueryExecutionService.class,
+        PURGE_BATCH_PERSIST_TIMER)).time();
+      try {
+        lensServerDao.insertFinishedQueries(finishedQueries);
+        persisted.addAll(batch);
+        log.info("Saved {} queries to DB", batch.size());
+        return true;
+      } catch (SQLException e) {
+        log.warn("Exception while persisting {} finished queries in a batch, persisting them one at a time",
+          batch.size(), e);
+        incrCounter(PURGE_BATCH_FAILURE_COUNTER);
+      } finally {
+        persistTimer.stop();
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        try {
+          lensServerDao.insertFinishedQuery(finishedQueries.get(i));
+          persisted.add(batch.get(i));
+          log.info("Saved query {} to DB", finishedQueries.get(i).getHandle());
+        } catch (Exception e) {
+          log.warn("Exception while purging query {}", batch.get(i).getQueryHandle(), e);
+          incrCounter(QUERY_PURGER_COUNTER);
+        }
+      }
+      return false;
+    }
+
+    private FinishedLensQuery toFinishedLensQuery(FinishedQuery finished) {
       FinishedLensQuery finishedQuery = new FinishedLensQuery(finished.getCtx());
       if (finished.ctx.getStatus().getStatus() == SUCCESSFUL) {
         if (finished.ctx.getStatus().isResultSetAvailable()) {
@@ -1279,8 +1374,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
           }
         }
       }
-      lensServerDao.insertFinishedQuery(finishedQuery);
-      log.info("Saved query {} to DB", finishedQuery.getHandle());
+      return finishedQuery;
     }
   }
 
@@ -1337,8 +1431,16 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
 
     this.launchedQueries
       = new ThreadSafeEstimatedQueryCollection(new DefaultEstimatedQueryCollection(new DefaultQueryCollection()));
-    this.queuedQueries
-      = new FairPriorityBlockingQueue<QueryContext>(queryComparator);
+    try {
+      Class<? extends QueuedQueryScheduler> schedulerClass = conf.getClass(QUERY_SCHEDULER_CLASS,
+        PriorityQueuedQueryScheduler.class, QueuedQueryScheduler.class);
+      log.info("Using query scheduler class: {}", schedulerClass.getCanonicalName());
+      this.queuedQueries = schedulerClass.newInstance();
+    } catch (Exception e) {
+      throw new IllegalStateException("Couldn't instantiate query scheduler class. Class name: "
+        + conf.get(QUERY_SCHEDULER_CLASS) + ". Please supply a valid value for " + QUERY_SCHEDULER_CLASS, e);
+    }
+    this.queuedQueries.init(conf, queryComparator);
 
     this.waitingQueries = new ThreadSafeEstimatedQueryCollection(new DefaultEstimatedQueryCollection(
       new DefaultQueryCollection(new TreeSet<QueryContext>(queryComparator))));
@@ -1349,13 +1451,26 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     this.queryConstraintsChecker = new DefaultQueryLaunchingConstraintsChecker(queryConstraints);
 
     this.querySubmitterRunnable = new QuerySubmitter(this.waitingQueries, this.queryConstraintsChecker);
-    this.querySubmitter = new Thread(querySubmitterRunnable, "QuerySubmitter");
+    int submitterThreads = Math.max(1, conf.getInt(QUERY_SUBMITTER_THREADS, DEFAULT_QUERY_SUBMITTER_THREADS));
+    this.querySubmitters = new ArrayList<>(submitterThreads);
+    for (int i = 0; i < submitterThreads; i++) {
+      this.querySubmitters.add(new Thread(querySubmitterRunnable,
+        submitterThreads == 1 ? "QuerySubmitter" : "QuerySubmitter-" + i));
+    }
 
     ImmutableSet<WaitingQueriesSelectionPolicy> selectionPolicies = getImplementations(
       WAITING_QUERIES_SELECTION_POLICY_FACTORIES_KEY, hiveConf);
 
     this.waitingQueriesSelector = new UnioningWaitingQueriesSelector(selectionPolicies);
 
+    this.statusTracker = new QueryStatusTracker(this.launchedQueries, new QueryStatusTracker.StatusUpdater() {
+      @Override
+      public void updateStatus(QueryContext ctx) throws LensException {
+        QueryExecutionServiceImpl.this.updateStatus(ctx.getQueryHandle());
+      }
+    }, this.logSegregationContext);
+    this.statusTracker.init(hiveConf);
+
     try {
       this.userQueryToCubeQueryRewriter = new UserQueryToCubeQueryRewriter(conf);
     } catch (LensException e) {
@@ -1382,10 +1497,26 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       throw new IllegalStateException("Could not load drivers", e);
     }
     purgeInterval = conf.getInt(PURGE_INTERVAL, DEFAULT_PURGE_INTERVAL);
+    purgeBatchSize = Math.max(1, conf.getInt(PURGE_BATCH_SIZE, DEFAULT_PURGE_BATCH_SIZE));
+    purgeBatchLingerMillis = conf.getLong(PURGE_BATCH_LINGER_MILLIS, DEFAULT_PURGE_BATCH_LINGER_MILLIS);
+    MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+    String purgeableQueriesGauge = MetricRegistry.name(QueryExecutionService.class, PURGEABLE_QUERIES_GAUGE);
+    if (!registry.getGauges().containsKey(purgeableQueriesGauge)) {
+      registry.register(purgeableQueriesGauge, new Gauge<Integer>() {
+        @Override
+        public Integer getValue() {
+          return purgeableQueries;
+        }
+      });
+    }
     initalizeFinishedQueryStore(conf);
 
     inMemoryResultsetTTLMillis = conf.getInt(
         LensConfConstants.INMEMORY_RESULT_SET_TTL_SECS, LensConfConstants.DEFAULT_INMEMORY_RESULT_SET_TTL_SECS) * 1000;
+    resultCursorBufferRows = conf.getInt(INMEMORY_RESULT_CURSOR_BUFFER_ROWS,
+      DEFAULT_INMEMORY_RESULT_CURSOR_BUFFER_ROWS);
+    resultCursorExpiryMillis = conf.getLong(INMEMORY_RESULT_CURSOR_EXPIRY_MILLIS,
+      DEFAULT_INMEMORY_RESULT_CURSOR_EXPIRY_MILLIS);
 
     int statusUpdateRetries = conf.getInt(LensConfConstants.STATUS_UPDATE_EXPONENTIAL_RETRIES,
       LensConfConstants.DEFAULT_STATUS_UPDATE_EXPONENTIAL_RETRIES);
@@ -1414,6 +1545,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     this.lensServerDao.init(conf);
     try {
       this.lensServerDao.createFinishedQueriesTable();
+      this.lensServerDao.createFinishedQueriesIndexes();
       this.lensServerDao.createFailedAttemptsTable();
       this.lensServerDao.createActiveSessionsTable();
       this.lensServerDao.createActiveQueriesTable();
@@ -1431,6 +1563,14 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     }
   }
 
+  private void awaitTermination(QueryStatusTracker tracker) {
+    try {
+      tracker.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      log.info("Couldn't finish status tracker within 1 minute: {}", tracker);
+    }
+  }
+
   private void awaitTermination(QueryResultPurger service) {
     if (service == null) {
       return;
@@ -1449,7 +1589,9 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
    */
   public void prepareStopping() {
     super.prepareStopping();
-    Thread[] threadsToStop = new Thread[]{querySubmitter, statusPoller, queryPurger, prepareQueryPurger};
+    List<Thread> threadsToStop = Lists.newArrayList(querySubmitters);
+    threadsToStop.add(queryPurger);
+    threadsToStop.add(prepareQueryPurger);
     // Nudge the threads to stop
     for (Thread th : threadsToStop) {
       th.interrupt();
@@ -1457,6 +1599,8 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
 
     // Nudge executor pools to stop
 
+    // Stop status polls, status of launched queries will be polled again after restart
+    statusTracker.shutdown();
     // Hard shutdown, since it doesn't matter whether waiting queries were selected, all will be
     // selected in the next restart
     waitingQueriesSelectionSvc.shutdownNow();
@@ -1487,6 +1631,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     // executor services can be done after persistence, hence they are done in #stop
     awaitTermination(queryLauncherPool);
     awaitTermination(queryCancellationPool);
+    awaitTermination(statusTracker);
   }
 
   /*
@@ -1582,8 +1727,10 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     startLauncherPool();
     startQueryCancellationPool();
 
-    querySubmitter.start();
-    statusPoller.start();
+    for (Thread submitter : querySubmitters) {
+      submitter.start();
+    }
+    statusTracker.start();
     queryPurger.start();
     prepareQueryPurger.start();
     startQueryExpirer();
@@ -1682,6 +1829,28 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       }
     }, expiryRunInterval, expiryRunInterval, TimeUnit.MILLISECONDS);
     log.info("Enabled periodic exipry of queries at {} millis interval", expiryRunInterval);
+    queryExpirer.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          expireResultCursors();
+        } catch (Exception e) {
+          log.error("Unable to expire result cursors", e);
+        }
+      }
+    }, expiryRunInterval, expiryRunInterval, TimeUnit.MILLISECONDS);
+  }
+
+  private void expireResultCursors() {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<QueryHandle, InMemoryResultCursor> entry : resultCursors.entrySet()) {
+      InMemoryResultCursor cursor = entry.getValue();
+      if (!cursor.isExpired() && now - cursor.getLastAccessTime() > resultCursorExpiryMillis) {
+        log.info("Result cursor of query {} is idle for more than {} millis, expiring it at row {}", entry.getKey(),
+          resultCursorExpiryMillis, cursor.getPosition());
+        cursor.expire();
+      }
+    }
   }
 
 
@@ -1890,8 +2059,8 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
         // With following set - explain estimate calls are setting queryLogId as requestid in logSegregationContext
         logSegregationContext.setLogSegragationAndQueryId(ctx.getLogHandle());
         acquire(ctx.getLensSessionIdentifier());
-        MethodMetricsContext rewriteGauge = MethodMetricsFactory.createMethodGauge(ctx.getDriverConf(driver), true,
-          REWRITE_GAUGE);
+        MethodMetricsContext rewriteGauge = MethodMetricsFactory.createMethodGauge(ctx.getDriverConfLayers(driver),
+          true, REWRITE_GAUGE);
         log.info("Calling preRewrite hook for driver {}", driver.getFullyQualifiedName());
         driver.getQueryHook().preRewrite(ctx);
         // 1. Rewrite for driver
@@ -1909,8 +2078,8 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
 
         // 2. Estimate for driver only if rewrite succeeded.
         if (succeeded) {
-          MethodMetricsContext estimateGauge = MethodMetricsFactory.createMethodGauge(ctx.getDriverConf(driver), true,
-            DRIVER_ESTIMATE_GAUGE);
+          MethodMetricsContext estimateGauge = MethodMetricsFactory.createMethodGauge(ctx.getDriverConfLayers(driver),
+            true, DRIVER_ESTIMATE_GAUGE);
 
           log.info("Calling preEstimate hook for driver {}", driver.getFullyQualifiedName());
           driver.getQueryHook().preEstimate(ctx);
@@ -2718,14 +2887,35 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
   public QueryResult fetchResultSet(LensSessionHandle sessionHandle, QueryHandle queryHandle, long startIndex,
     int fetchSize) throws LensException {
     try {
-      log.info("FetchResultSet: session:{} query:{}", sessionHandle, queryHandle);
+      log.info("FetchResultSet: session:{} query:{} from:{} size:{}", sessionHandle, queryHandle, startIndex,
+        fetchSize);
       acquire(sessionHandle);
-      return getResultset(queryHandle).toQueryResult();
+      LensResultSet resultSet = getResultset(queryHandle);
+      if (resultSet instanceof InMemoryResultSet && (fetchSize > 0 || startIndex > 0
+        || resultCursors.containsKey(queryHandle))) {
+        // Read only the requested page from driver, instead of draining the whole result
+        return getResultCursor(queryHandle, (InMemoryResultSet) resultSet).fetch(Math.max(0, startIndex), fetchSize);
+      }
+      // Persistent results are served as a reference to the persisted output, hence there are no rows to page.
+      // Unpaged fetches of in-memory results, without fromindex and fetchsize, get all the remaining rows as before.
+      return resultSet.toQueryResult();
     } finally {
       release(sessionHandle);
     }
   }
 
+  private InMemoryResultCursor getResultCursor(QueryHandle queryHandle, InMemoryResultSet resultSet) {
+    InMemoryResultCursor cursor = resultCursors.get(queryHandle);
+    if (cursor == null) {
+      InMemoryResultCursor newCursor = new InMemoryResultCursor(resultSet, resultCursorBufferRows);
+      cursor = resultCursors.putIfAbsent(queryHandle, newCursor);
+      if (cursor == null) {
+        cursor = newCursor;
+      }
+    }
+    return cursor;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -2738,6 +2928,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       log.info("CloseResultSet:session:{} query:{}", sessionHandle, queryHandle);
       acquire(sessionHandle);
       resultSets.remove(queryHandle);
+      resultCursors.remove(queryHandle);
       // Ask driver to close result set
       QueryContext ctx=getQueryContext(queryHandle);
       if (null != ctx) {
@@ -2811,6 +3002,20 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
   @Override
   public List<LensQuery> getAllQueryDetails(LensSessionHandle sessionHandle, String states, String userName,
     String driver, String queryName, String fromDate, String toDate) throws LensException {
+    return getAllQueryDetails(sessionHandle, states, userName, driver, queryName, fromDate, toDate, null, 0, false);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lens.server.api.query.QueryExecutionService#getAllQueryDetails(
+   * org.apache.lens.api.LensSessionHandle, java.lang.String, java.lang.String,
+   * java.lang.String, java.lang.String, long, long, java.lang.String, int, boolean)
+   */
+  @Override
+  public List<LensQuery> getAllQueryDetails(LensSessionHandle sessionHandle, String states, String userName,
+    String driver, String queryName, String fromDate, String toDate, String after, int limit, boolean summary)
+    throws LensException {
     long fromTime = -1;
     long toTime = Long.MAX_VALUE;
     Date now = new Date();
@@ -2828,22 +3033,28 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
         userName = getSession(sessionHandle).getLoggedInUser();
       }
       Set<Status> statuses = getStatuses(states);
+      FinishedLensQuery pageStart = getPageStart(after);
       List<QueryHandle> inMemoryHandles = getQueriesInMemory(statuses, userName, driver, queryName,
         fromTime, toTime);
       Set<LensQuery> result = new HashSet<>();
       for (QueryHandle handle : inMemoryHandles) {
         QueryContext ctx = allQueries.get(handle);
-        if (ctx == null) {
+        if (ctx == null || !isInPage(pageStart, ctx.getSubmissionTime(), handle.getHandleIdString())) {
           continue;
         }
         result.add(ctx.toLensQuery());
       }
 
+      // enough persisted queries to fill the page, even if all queries in memory are persisted too
       List<LensQuery> persistedQueries = getPersistedQueries(userName, driver, queryName,
-        fromTime, toTime, statuses);
+        fromTime, toTime, statuses, pageStart, limit > 0 ? limit + result.size() : 0, summary);
       result.addAll(persistedQueries);
 
-      return new ArrayList<>(result);
+      List<LensQuery> queries = new ArrayList<>(result);
+      queries.sort((query1, query2) -> compareNewestFirst(query1.getSubmissionTime(),
+        query1.getQueryHandle().getHandleIdString(), query2.getSubmissionTime(),
+        query2.getQueryHandle().getHandleIdString()));
+      return limit > 0 && queries.size() > limit ? new ArrayList<>(queries.subList(0, limit)) : queries;
     } finally {
       release(sessionHandle);
     }
@@ -2858,6 +3069,18 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
   @Override
   public List<QueryHandle> getAllQueries(LensSessionHandle sessionHandle, String states, String userName, String driver,
     String queryName, String fromDate, String toDate) throws LensException {
+    return getAllQueries(sessionHandle, states, userName, driver, queryName, fromDate, toDate, null, 0);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lens.server.api.query.QueryExecutionService#getAllQueries(org.apache.lens.api.LensSessionHandle,
+   * java.lang.String, java.lang.String, java.lang.String, java.lang.String, long, long, java.lang.String, int)
+   */
+  @Override
+  public List<QueryHandle> getAllQueries(LensSessionHandle sessionHandle, String states, String userName, String driver,
+    String queryName, String fromDate, String toDate, String after, int limit) throws LensException {
     long fromTime = -1;
     long toTime = Long.MAX_VALUE;
     Date now = new Date();
@@ -2876,21 +3099,91 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
         userName = getSession(sessionHandle).getLoggedInUser();
       }
       Set<Status> statuses = getStatuses(states);
-      List<QueryHandle> result = getQueriesInMemory(statuses, userName, driver, queryName,
-        fromTime, toTime);
-      List<QueryHandle> persistedQueries = getPersistedQueryHandles(userName, driver, queryName,
-        fromTime, toTime, statuses);
+      FinishedLensQuery pageStart = getPageStart(after);
+      // submission time and handle of the queries found, which are sorted on
+      Map<QueryHandle, FinishedLensQuery> result = new HashMap<>();
+      for (QueryHandle handle : getQueriesInMemory(statuses, userName, driver, queryName, fromTime, toTime)) {
+        QueryContext ctx = allQueries.get(handle);
+        if (ctx != null && isInPage(pageStart, ctx.getSubmissionTime(), handle.getHandleIdString())) {
+          FinishedLensQuery query = new FinishedLensQuery();
+          query.setHandle(handle.getHandleIdString());
+          query.setSubmissionTime(ctx.getSubmissionTime());
+          result.put(handle, query);
+        }
+      }
+      List<FinishedLensQuery> persistedQueries = getPersistedQueryHandles(userName, driver, queryName,
+        fromTime, toTime, statuses, pageStart, limit > 0 ? limit + result.size() : 0);
+      for (FinishedLensQuery query : persistedQueries) {
+        QueryHandle handle = QueryHandle.fromString(query.getHandle());
+        if (!result.containsKey(handle)) {
+          result.put(handle, query);
+        }
+      }
 
-      HashSet<QueryHandle> deduplicatedResults = new HashSet<>(result);
-      deduplicatedResults.addAll(persistedQueries);
-      return new ArrayList<>(deduplicatedResults);
+      List<Map.Entry<QueryHandle, FinishedLensQuery>> queries = new ArrayList<>(result.entrySet());
+      queries.sort((query1, query2) -> compareNewestFirst(query1.getValue().getSubmissionTime(),
+        query1.getValue().getHandle(), query2.getValue().getSubmissionTime(), query2.getValue().getHandle()));
+      List<QueryHandle> handles = new ArrayList<>();
+      for (Map.Entry<QueryHandle, FinishedLensQuery> query : queries) {
+        if (limit > 0 && handles.size() == limit) {
+          break;
+        }
+        handles.add(query.getKey());
+      }
+      return handles;
     } finally {
       release(sessionHandle);
     }
   }
 
+  /**
+   * Find the query after which a page of queries starts.
+   *
+   * @param after handle of the query, can be blank
+   * @return the query with its handle and submission time, null if after is blank
+   * @throws LensException the lens exception
+   */
+  private FinishedLensQuery getPageStart(String after) throws LensException {
+    if (StringUtils.isBlank(after)) {
+      return null;
+    }
+    QueryHandle handle;
+    try {
+      handle = QueryHandle.fromString(after);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Invalid query handle to list queries after: " + after, e);
+    }
+    QueryContext ctx = allQueries.get(handle);
+    if (ctx != null) {
+      FinishedLensQuery start = new FinishedLensQuery();
+      start.setHandle(handle.getHandleIdString());
+      start.setSubmissionTime(ctx.getSubmissionTime());
+      return start;
+    }
+    FinishedLensQuery start = lensServerDao.getQuery(handle.getHandleIdString());
+    if (start == null) {
+      throw new NotFoundException("Query to list queries after not found: " + after);
+    }
+    return start;
+  }
+
+  /**
+   * Compare queries so that the latest submitted query comes first. Queries submitted at the same time are ordered by
+   * handle, larger handle first, like the finished queries found in the store.
+   */
+  private static int compareNewestFirst(long submissionTime1, String handle1, long submissionTime2, String handle2) {
+    int cmp = Long.compare(submissionTime2, submissionTime1);
+    return cmp != 0 ? cmp : handle2.compareTo(handle1);
+  }
+
+  private static boolean isInPage(FinishedLensQuery pageStart, long submissionTime, String handle) {
+    return pageStart == null
+      || compareNewestFirst(pageStart.getSubmissionTime(), pageStart.getHandle(), submissionTime, handle) < 0;
+  }
+
   private List<LensQuery> getPersistedQueries(String userName, String driver, String queryName,
-    long fromTime, long toTime, Set<Status> statuses) throws LensException {
+    long fromTime, long toTime, Set<Status> statuses, FinishedLensQuery pageStart, int limit, boolean summary)
+    throws LensException {
     // Unless user wants to get queries in 'non finished' state, get finished queries from DB as well
     List<Status> finishedStatusesQueried = finishedStatuses(statuses);
     if (finishedStatusesQueried == null || !finishedStatusesQueried.isEmpty()) {
@@ -2898,7 +3191,8 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
         userName = null;
       }
       List<FinishedLensQuery> results = lensServerDao.findFinishedQueryDetails(finishedStatusesQueried,
-        userName, driver, queryName, fromTime, toTime);
+        userName, getPersistedDriverName(driver), queryName, fromTime, toTime, pageStart, limit,
+        summary ? LensServerDAO.Projection.SUMMARY : LensServerDAO.Projection.FULL);
       List<LensQuery> persistedQueries = new ArrayList<>();
       for (FinishedLensQuery finishedLensQuery : results) {
         persistedQueries.add(finishedLensQuery.toQueryContext(conf, drivers.values()).toLensQuery());
@@ -2911,6 +3205,21 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     return Collections.emptyList();
   }
 
+  /**
+   * Persisted queries are looked up by the exact driver name, so use the name of the driver with the given name,
+   * ignoring case.
+   */
+  private String getPersistedDriverName(String driver) {
+    if (StringUtils.isNotBlank(driver)) {
+      for (LensDriver lensDriver : drivers.values()) {
+        if (lensDriver.getFullyQualifiedName().equalsIgnoreCase(driver)) {
+          return lensDriver.getFullyQualifiedName();
+        }
+      }
+    }
+    return driver;
+  }
+
   private List<Status> finishedStatuses(Set<Status> statuses) {
     List<Status> finishedStatusesQueried = null;
     if (statuses.size() != Status.values().length) {
@@ -2930,16 +3239,17 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     return finishedStatusesQueried;
   }
 
-  private List<QueryHandle> getPersistedQueryHandles(String userName, String driver, String queryName,
-    long fromTime, long toTime, Set<Status> statuses) throws LensException {
+  private List<FinishedLensQuery> getPersistedQueryHandles(String userName, String driver, String queryName,
+    long fromTime, long toTime, Set<Status> statuses, FinishedLensQuery pageStart, int limit) throws LensException {
     // Unless user wants to get queries in 'non finished' state, get finished queries from DB as well
     List<Status> finishedStatusesQueried = finishedStatuses(statuses);
     if (finishedStatusesQueried == null || !finishedStatusesQueried.isEmpty()) {
       if ("all".equalsIgnoreCase(userName)) {
         userName = null;
       }
-      List<QueryHandle> persistedQueries = lensServerDao.findFinishedQueries(finishedStatusesQueried, userName,
-        driver, queryName, fromTime, toTime);
+      List<FinishedLensQuery> persistedQueries = lensServerDao.findFinishedQueryDetails(finishedStatusesQueried,
+        userName, getPersistedDriverName(driver), queryName, fromTime, toTime, pageStart, limit,
+        LensServerDAO.Projection.HANDLE);
       if (persistedQueries != null && !persistedQueries.isEmpty()) {
         log.info("Adding persisted queries {}", persistedQueries.size());
         return persistedQueries;
@@ -3223,28 +3533,116 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       int numQueries = in.readInt();
 
       for (int i = 0; i < numQueries; i++) {
-        QueryContext ctx = (QueryContext) in.readObject();
-        ctx.initTransientState();
-
-        //Create DriverSelectorQueryContext by passing all the drivers and the user query
-        //Driver conf gets reset in start
-        DriverSelectorQueryContext driverCtx = new DriverSelectorQueryContext(ctx.getUserQuery(), new Configuration(),
-          drivers.values());
-        ctx.setDriverContext(driverCtx);
-        boolean driverAvailable = in.readBoolean();
-        // set the selected driver if available, if not available for the cases of queued queries,
-        // query service will do the selection from existing drivers and update
-        if (driverAvailable) {
-          String selectedDriverQualifiedName = in.readUTF();
-          if (drivers.get(selectedDriverQualifiedName) != null) {
-            ctx.getDriverContext().setSelectedDriver(drivers.get(selectedDriverQualifiedName));
-            ctx.setDriverQuery(ctx.getSelectedDriver(), ctx.getSelectedDriverQuery());
-          } else {
-            log.info("Ignoring {} as the driver is not loaded", ctx.getQueryHandle());
-            continue;
-          }
+        QueryContext ctx = readQueryState(in);
+        if (ctx != null) {
+          allQueries.put(ctx.getQueryHandle(), ctx);
+        }
+      }
+    }
+  }
+
+  /**
+   * Read a query written by {@link #writeQueryState(ObjectOutput, QueryContext)}.
+   *
+   * @return the query, null if its selected driver is not loaded
+   */
+  private QueryContext readQueryState(ObjectInput in) throws IOException, ClassNotFoundException {
+    Object state = in.readObject();
+    // Queries are written as encoded bytes, older snapshots have the query context object
+    QueryContext ctx = state instanceof byte[] ? StateCodec.get().decodeQuery((byte[]) state) : (QueryContext) state;
+    ctx.initTransientState();
+
+    //Create DriverSelectorQueryContext by passing all the drivers and the user query
+    //Driver conf gets reset in start
+    DriverSelectorQueryContext driverCtx = new DriverSelectorQueryContext(ctx.getUserQuery(), new Configuration(),
+      drivers.values());
+    ctx.setDriverContext(driverCtx);
+    boolean driverAvailable = in.readBoolean();
+    // set the selected driver if available, if not available for the cases of queued queries,
+    // query service will do the selection from existing drivers and update
+    if (driverAvailable) {
+      String selectedDriverQualifiedName = in.readUTF();
+      if (drivers.get(selectedDriverQualifiedName) != null) {
+        ctx.getDriverContext().setSelectedDriver(drivers.get(selectedDriverQualifiedName));
+        ctx.setDriverQuery(ctx.getSelectedDriver(), ctx.getSelectedDriverQuery());
+      } else {
+        log.info("Ignoring {} as the driver is not loaded", ctx.getQueryHandle());
+        return null;
+      }
+    }
+    return ctx;
+  }
+
+  private void writeQueryState(ObjectOutput out, QueryContext ctx) throws IOException {
+    // snapshots are written off the query path, so they are compressed
+    writeQueryState(out, ctx, StateCodec.get().encodeQuery(ctx, true));
+  }
+
+  private void writeQueryState(ObjectOutput out, QueryContext ctx, byte[] encodedQuery) throws IOException {
+    out.writeObject(encodedQuery);
+    boolean isDriverAvailable = (ctx.getSelectedDriver() != null);
+    out.writeBoolean(isDriverAvailable);
+    if (isDriverAvailable) {
+      out.writeUTF(ctx.getSelectedDriver().getFullyQualifiedName());
+    }
+  }
+
+  /**
+   * Journal the current state of the query.
+   */
+  private void journalQuery(QueryContext ctx) {
+    if (!isStateJournalEnabled()) {
+      return;
+    }
+    byte[] encodedQuery;
+    try {
+      synchronized (ctx) {
+        encodedQuery = StateCodec.get().encodeQuery(ctx);
+      }
+    } catch (IOException e) {
+      log.warn("Could not serialize query {} for state journal", ctx.getQueryHandleString(), e);
+      return;
+    }
+    journalQuery(ctx, encodedQuery);
+  }
+
+  /**
+   * Journal the state of the query, already encoded by {@link StateCodec#encodeQuery(QueryContext)}.
+   */
+  private void journalQuery(QueryContext ctx, byte[] encodedQuery) {
+    if (!isStateJournalEnabled()) {
+      return;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      writeQueryState(out, ctx, encodedQuery);
+    } catch (IOException e) {
+      log.warn("Could not serialize query {} for state journal", ctx.getQueryHandleString(), e);
+      return;
+    }
+    journalUpdate(ctx.getQueryHandleString(), bytes.toByteArray());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lens.server.BaseLensService#replayJournal(org.apache.lens.server.StateJournal.Record)
+   */
+  @Override
+  public void replayJournal(StateJournal.Record record) throws IOException, ClassNotFoundException {
+    QueryHandle handle = QueryHandle.fromString(record.getKey());
+    synchronized (allQueries) {
+      if (record.getType() == StateJournal.RecordType.REMOVE) {
+        allQueries.remove(handle);
+        return;
+      }
+      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record.getPayload()))) {
+        QueryContext ctx = readQueryState(in);
+        if (ctx != null) {
+          allQueries.put(handle, ctx);
+        } else {
+          allQueries.remove(handle);
         }
-        allQueries.put(ctx.getQueryHandle(), ctx);
       }
     }
   }
@@ -3275,12 +3673,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       out.writeInt(allQueries.size());
       for (QueryContext ctx : allQueries.values()) {
         synchronized (ctx) {
-          out.writeObject(ctx);
-          boolean isDriverAvailable = (ctx.getSelectedDriver() != null);
-          out.writeBoolean(isDriverAvailable);
-          if (isDriverAvailable) {
-            out.writeUTF(ctx.getSelectedDriver().getFullyQualifiedName());
-          }
+          writeQueryState(out, ctx);
         }
       }
       log.info("Persisted {} queries", allQueries.size());
@@ -3300,9 +3693,9 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       details.append("Query execution service is down.");
     }
 
-    if (!this.statusPoller.isAlive()) {
+    if (!this.statusTracker.isHealthy()) {
       isHealthy = false;
-      details.append("Status poller thread is dead.");
+      details.append("Status tracker is down.");
     }
 
     if (!this.prepareQueryPurger.isAlive()) {
@@ -3315,9 +3708,11 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
       details.append("Query purger thread is dead.");
     }
 
-    if (!this.querySubmitter.isAlive()) {
-      isHealthy = false;
-      details.append("Query submitter thread is dead.");
+    for (Thread submitter : this.querySubmitters) {
+      if (!submitter.isAlive()) {
+        isHealthy = false;
+        details.append("Query submitter thread ").append(submitter.getName()).append(" is dead.");
+      }
     }
 
     if (this.queryLauncherPool.isShutdown() || this.queryLauncherPool.isTerminated()) {
@@ -3368,6 +3763,12 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
   @Override
   public Response getAuthorizedHttpResultSet(LensSessionHandle sessionHandle, QueryHandle queryHandle,
     String userPrincipalName) throws LensException {
+    return getAuthorizedHttpResultSet(sessionHandle, queryHandle, userPrincipalName, null);
+  }
+
+  @Override
+  public Response getAuthorizedHttpResultSet(LensSessionHandle sessionHandle, QueryHandle queryHandle,
+    String userPrincipalName, HttpHeaders headers) throws LensException {
 
     String loggedInUser;
     if (sessionHandle != null) {
@@ -3381,7 +3782,7 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
     if (!loggedInUser.equals(ctx.getSubmittedUser())) {
       throw new PrivilegeException("Query", queryHandle.toString(), "download");
     }
-    return getResponse(sessionHandle, queryHandle, ctx);
+    return getResponse(sessionHandle, queryHandle, ctx, headers);
   }
   /*
    * (non-Javadoc)
@@ -3392,12 +3793,18 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
 
   @Override
   public Response getHttpResultSet(LensSessionHandle sessionHandle, QueryHandle queryHandle) throws LensException {
-    final QueryContext ctx = getUpdatedQueryContext(sessionHandle, queryHandle);
-    return getResponse(sessionHandle, queryHandle, ctx);
+    return getHttpResultSet(sessionHandle, queryHandle, null);
   }
 
-  private Response getResponse(LensSessionHandle sessionHandle, final QueryHandle queryHandle, final QueryContext ctx)
+  @Override
+  public Response getHttpResultSet(LensSessionHandle sessionHandle, QueryHandle queryHandle, HttpHeaders headers)
     throws LensException {
+    final QueryContext ctx = getUpdatedQueryContext(sessionHandle, queryHandle);
+    return getResponse(sessionHandle, queryHandle, ctx, headers);
+  }
+
+  private Response getResponse(LensSessionHandle sessionHandle, final QueryHandle queryHandle, final QueryContext ctx,
+    HttpHeaders headers) throws LensException {
 
     LensResultSet resultSet = getResultset(queryHandle);
     if (!resultSet.isHttpResultAvailable()) {
@@ -3425,24 +3832,12 @@ public class QueryExecutionServiceImpl extends BaseLensService implements QueryE
         throw new LensException(e);
       }
     } else {
-      StreamingOutput stream = new StreamingOutput() {
-        @Override
-        public void write(OutputStream os) throws IOException {
-          FSDataInputStream fin = null;
-          try {
-            FileSystem fs = resultPath.getFileSystem(ctx.getConf());
-            fin = fs.open(resultPath);
-            UtilityMethods.pipe(fin, os);
-          } finally {
-            if (fin != null) {
-              fin.close();
-            }
-
-          }
-        }
-      };
-      return Response.ok(stream).header("content-disposition", "attachment; filename = " + resultPath.getName())
-        .type(MediaType.APPLICATION_OCTET_STREAM).build();
+      try {
+        return ResultDownload.build(resultPath.getFileSystem(ctx.getConf()), resultPath, headers,
+          conf.getBoolean(RESULT_DOWNLOAD_COMPRESSION_ENABLED, DEFAULT_RESULT_DOWNLOAD_COMPRESSION_ENABLED));
+      } catch (IOException e) {
+        throw new LensException(e);
+      }
     }
   }
 
@@ -29,6 +29,7 @@ import java.util.Optional;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
@@ -132,6 +133,9 @@ public class QueryServiceResource {
    *                  time_range_in function. Notably: yyyy[-MM[-dd[-HH-[mm...]]]], or now based relative format
    * @param toDate    to date to search queries in a time range, the range is inclusive(toDate &gt; submitTime)
    *                  possible formats it can take is same as fromDate
+   * @param after     handle of the last query of the previous page. Queries are returned latest submitted first, so
+   *                  the next page has the queries submitted before it. By default, the first page is returned
+   * @param limit     maximum number of queries in a page. By default, all the queries are returned
    * @return List of {@link QueryHandle} objects
    */
   @GET
@@ -139,10 +143,10 @@ public class QueryServiceResource {
   @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN})
   public List<QueryHandle> getAllQueries(@QueryParam("sessionid") LensSessionHandle sessionid,
     @QueryParam("state") String states, @QueryParam("queryName") String queryName, @QueryParam("user") String user,
-    @QueryParam("driver") String driver, @QueryParam("fromDate") String fromDate, @QueryParam("toDate") String toDate)
-    throws LensException {
+    @QueryParam("driver") String driver, @QueryParam("fromDate") String fromDate, @QueryParam("toDate") String toDate,
+    @QueryParam("after") String after, @DefaultValue("0") @QueryParam("limit") int limit) throws LensException {
     validateSessionId(sessionid);
-    return queryServer.getAllQueries(sessionid, states, user, driver, queryName, fromDate, toDate);
+    return queryServer.getAllQueries(sessionid, states, user, driver, queryName, fromDate, toDate, after, limit);
   }
 
   /**
@@ -164,6 +168,11 @@ public class QueryServiceResource {
    *                  time_range_in function. Notably: yyyy[-MM[-dd[-HH-[mm...]]]], or now based relative format
    * @param toDate    to date to search queries in a time range, the range is inclusive(toDate &gt; submitTime)
    *                  possible formats it can take is same as fromDate
+   * @param after     handle of the last query of the previous page. Queries are returned latest submitted first, so
+   *                  the next page has the queries submitted before it. By default, the first page is returned
+   * @param limit     maximum number of queries in a page. By default, all the queries are returned
+   * @param summary   if true, driver query and conf of finished queries are not read from the finished queries store,
+   *                  which makes listing them faster. By default, they are returned
    * @return List of {@link LensQuery} objects
    */
   @GET
@@ -171,10 +180,12 @@ public class QueryServiceResource {
   @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN})
   public List<LensQuery> getAllQueryDetails(@QueryParam("sessionid") LensSessionHandle sessionid,
     @QueryParam("state") String states, @QueryParam("queryName") String queryName, @QueryParam("user") String user,
-    @QueryParam("driver") String driver, @QueryParam("fromDate") String fromDate, @QueryParam("toDate") String toDate)
-    throws LensException {
+    @QueryParam("driver") String driver, @QueryParam("fromDate") String fromDate, @QueryParam("toDate") String toDate,
+    @QueryParam("after") String after, @DefaultValue("0") @QueryParam("limit") int limit,
+    @DefaultValue("false") @QueryParam("summary") boolean summary) throws LensException {
     validateSessionId(sessionid);
-    return queryServer.getAllQueryDetails(sessionid, states, user, driver, queryName, fromDate, toDate);
+    return queryServer.getAllQueryDetails(sessionid, states, user, driver, queryName, fromDate, toDate, after, limit,
+      summary);
   }
 
   /**
@@ -273,7 +284,7 @@ public class QueryServiceResource {
     List<QueryHandle> handles = null;
     boolean failed = false;
     try {
-      handles = getAllQueries(sessionid, state, queryName, user, driver, fromDate, toDate);
+      handles = getAllQueries(sessionid, state, queryName, user, driver, fromDate, toDate, null, 0);
       for (QueryHandle handle : handles) {
         if (queryServer.cancelQuery(sessionid, handle)) {
           numCancelled++;
@@ -640,27 +651,31 @@ public class QueryServiceResource {
   }
 
   /**
-   * Get the http endpoint for result set.
+   * Get the http endpoint for result set. A download can be resumed by requesting the remaining bytes with the
+   * <code>Range</code> header, along with the ETag of the earlier response in the <code>If-Range</code> header. The
+   * result is gzip encoded if the client accepts it and the whole result is requested.
    *
    * @param sessionid   The user session handle
    * @param queryHandle The query handle
+   * @param headers     The request headers
    * @return Response with result as octet stream
    */
   @GET
   @Path("queries/{queryHandle}/httpresultset")
   @Produces({MediaType.APPLICATION_OCTET_STREAM})
   public Response getHttpResultSet(@QueryParam("sessionid") LensSessionHandle sessionid,
-    @PathParam("queryHandle") String queryHandle) throws LensException {
+    @PathParam("queryHandle") String queryHandle, @Context HttpHeaders headers) throws LensException {
 
     if (AUTH_SCHEME.isPresent()) {
       Principal userPrincipal = securityContext.getUserPrincipal();
       String userPrincipalName = userPrincipal.getName();
       if (CONF.getBoolean(ENABLE_RESULT_DOWNLOAD_AUTHORIZATION_CHECK,
         LensConfConstants.DEFAULT_ENABLE_RESULT_DOWNLOAD_AUTHORIZATION_CHECK)) {
-        return queryServer.getAuthorizedHttpResultSet(sessionid, getQueryHandle(queryHandle), userPrincipalName);
+        return queryServer.getAuthorizedHttpResultSet(sessionid, getQueryHandle(queryHandle), userPrincipalName,
+          headers);
       }
     }
-    return queryServer.getHttpResultSet(sessionid, getQueryHandle(queryHandle));
+    return queryServer.getHttpResultSet(sessionid, getQueryHandle(queryHandle), headers);
 
   }
 
@@ -0,0 +1,375 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query;
+
+import static org.apache.lens.server.api.LensConfConstants.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.lens.api.query.QueryHandle;
+import org.apache.lens.server.api.driver.LensDriver;
+import org.apache.lens.server.api.driver.StatusUpdateMethod;
+import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
+import org.apache.lens.server.api.query.QueryContext;
+import org.apache.lens.server.api.query.QueryExecutionService;
+import org.apache.lens.server.api.query.collect.ImmutableQueryCollection;
+import org.apache.lens.server.model.LogSegregationContext;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.hadoop.conf.Configuration;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tracks the status of launched queries.
+ * <p></p>
+ * Launched queries are checked every minimum poll interval. The queries which are due for a poll are grouped by their
+ * selected driver and each group is polled as one batch on a poller thread of its driver, so a slow driver doesn't
+ * delay status updates of queries on other drivers. At most one batch per driver is in flight at any time.
+ * <p></p>
+ * The poll interval of a query grows with the time it has been running, bounded by the configured minimum and maximum
+ * intervals. Queries on drivers with {@link StatusUpdateMethod#PUSH} get their updates through notifications, and are
+ * polled only at the maximum interval to cover for missed notifications.
+ */
+@Slf4j
+public class QueryStatusTracker {
+
+  public static final String STATUS_SWEEP_LATENCY = "status-sweep-latency";
+
+  public static final String STATUS_STALENESS = "status-staleness";
+
+  public static final String MAX_STATUS_STALENESS = "max-status-staleness";
+
+  public static final String STATUS_TRACKER_ERROR_COUNTER = "status-tracker-errors";
+
+  /**
+   * Updates the status of a query. Implementations are expected to call {@link #markUpdated(QueryContext)} once the
+   * status is refreshed from the driver.
+   */
+  public interface StatusUpdater {
+    void updateStatus(QueryContext ctx) throws LensException;
+  }
+
+  /**
+   * Poll book keeping of a launched query.
+   */
+  private static class TrackedQuery {
+    private volatile long lastUpdated;
+    private volatile long nextPollTime;
+
+    TrackedQuery(long now) {
+      this.lastUpdated = now;
+      this.nextPollTime = now;
+    }
+  }
+
+  private final ImmutableQueryCollection launchedQueries;
+
+  private final StatusUpdater statusUpdater;
+
+  private final LogSegregationContext logSegregationContext;
+
+  private final ConcurrentMap<QueryHandle, TrackedQuery> trackedQueries = new ConcurrentHashMap<>();
+
+  private final Set<String> driversBeingPolled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final MetricRegistry metricRegistry = LensMetricsRegistry.getStaticRegistry();
+
+  @Getter
+  private long minPollInterval;
+
+  @Getter
+  private long maxPollInterval;
+
+  private float pollIntervalFactor;
+
+  private ScheduledExecutorService sweeper;
+
+  /**
+   * Single threaded poller of each driver, by driver name, created when the driver first has queries due for a poll
+   */
+  private final ConcurrentMap<String, ExecutorService> driverPollers = new ConcurrentHashMap<>();
+
+  private volatile boolean stopped;
+
+  public QueryStatusTracker(@NonNull ImmutableQueryCollection launchedQueries, @NonNull StatusUpdater statusUpdater,
+    @NonNull LogSegregationContext logSegregationContext) {
+    this.launchedQueries = launchedQueries;
+    this.statusUpdater = statusUpdater;
+    this.logSegregationContext = logSegregationContext;
+  }
+
+  /**
+   * Reads poll intervals from the conf and creates the pools. Polling starts with {@link #start()}.
+   *
+   * @param conf the conf
+   */
+  public void init(Configuration conf) {
+    this.minPollInterval = conf.getLong(STATUS_POLL_MIN_INTERVAL_MILLIS, DEFAULT_STATUS_POLL_MIN_INTERVAL_MILLIS);
+    this.maxPollInterval = Math.max(minPollInterval,
+      conf.getLong(STATUS_POLL_MAX_INTERVAL_MILLIS, DEFAULT_STATUS_POLL_MAX_INTERVAL_MILLIS));
+    this.pollIntervalFactor = conf.getFloat(STATUS_POLL_INTERVAL_FACTOR, DEFAULT_STATUS_POLL_INTERVAL_FACTOR);
+
+    sweeper = Executors.newSingleThreadScheduledExecutor(new BasicThreadFactory.Builder()
+      .namingPattern("StatusTracker-%d")
+      .daemon(true)
+      .build());
+
+    metricRegistry.remove(metricName(MAX_STATUS_STALENESS));
+    metricRegistry.register(metricName(MAX_STATUS_STALENESS), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return getMaxStaleness();
+      }
+    });
+    log.info("Initialized status tracker with poll interval in [{}, {}] millis and interval factor {}",
+      minPollInterval, maxPollInterval, pollIntervalFactor);
+  }
+
+  /**
+   * Starts the periodic sweep over launched queries.
+   */
+  public void start() {
+    sweeper.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          sweep();
+        } catch (Exception e) {
+          metricRegistry.counter(metricName(STATUS_TRACKER_ERROR_COUNTER)).inc();
+          log.error("Error in status tracker", e);
+        }
+      }
+    }, minPollInterval, minPollInterval, TimeUnit.MILLISECONDS);
+    log.info("Started status tracker");
+  }
+
+  /**
+   * Finds launched queries which are due for a poll and submits one batch per driver.
+   */
+  @VisibleForTesting
+  void sweep() {
+    long now = System.currentTimeMillis();
+    Map<LensDriver, List<QueryContext>> dueQueries = new HashMap<>();
+    Set<QueryHandle> launched = new HashSet<>();
+    for (QueryContext ctx : launchedQueries.getQueries()) {
+      if (ctx.isLaunching()) {
+        continue;
+      }
+      launched.add(ctx.getQueryHandle());
+      TrackedQuery tracked = getTrackedQuery(ctx.getQueryHandle(), now);
+      if (tracked.nextPollTime <= now) {
+        List<QueryContext> driverQueries = dueQueries.get(ctx.getSelectedDriver());
+        if (driverQueries == null) {
+          driverQueries = new ArrayList<>();
+          dueQueries.put(ctx.getSelectedDriver(), driverQueries);
+        }
+        driverQueries.add(ctx);
+      }
+    }
+    // Forget the queries which are no longer launched
+    trackedQueries.keySet().retainAll(launched);
+
+    for (Map.Entry<LensDriver, List<QueryContext>> entry : dueQueries.entrySet()) {
+      String driverName = entry.getKey().getFullyQualifiedName();
+      if (driversBeingPolled.add(driverName)) {
+        try {
+          getDriverPoller(driverName).execute(new BatchPoller(driverName, entry.getValue()));
+        } catch (RejectedExecutionException e) {
+          driversBeingPolled.remove(driverName);
+          log.warn("Status poll for driver {} rejected", driverName, e);
+        }
+      } else {
+        log.debug("Previous status poll of driver {} is still in progress", driverName);
+      }
+    }
+  }
+
+  private ExecutorService getDriverPoller(final String driverName) {
+    ExecutorService poller = driverPollers.get(driverName);
+    if (poller == null) {
+      // Only one batch per driver is in flight at any time, so the queue holds at most one batch.
+      ExecutorService newPoller = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder()
+        .namingPattern("status-poller-" + driverName.replace('%', '_') + "-%d")
+        .daemon(true)
+        .build());
+      poller = driverPollers.putIfAbsent(driverName, newPoller);
+      if (poller == null) {
+        poller = newPoller;
+      } else {
+        newPoller.shutdown();
+      }
+      if (stopped) {
+        // the tracker was shut down while the poller was created
+        poller.shutdown();
+      }
+    }
+    return poller;
+  }
+
+  private TrackedQuery getTrackedQuery(QueryHandle handle, long now) {
+    TrackedQuery tracked = trackedQueries.get(handle);
+    if (tracked == null) {
+      TrackedQuery newTracked = new TrackedQuery(now);
+      tracked = trackedQueries.putIfAbsent(handle, newTracked);
+      if (tracked == null) {
+        tracked = newTracked;
+      }
+    }
+    return tracked;
+  }
+
+  /**
+   * Records that the status of given query has been refreshed from the driver, either by a poll or by a push
+   * notification, and schedules the next poll of the query.
+   *
+   * @param ctx the query context
+   */
+  public void markUpdated(QueryContext ctx) {
+    long now = System.currentTimeMillis();
+    TrackedQuery tracked = getTrackedQuery(ctx.getQueryHandle(), now);
+    metricRegistry.histogram(metricName(STATUS_STALENESS)).update(now - tracked.lastUpdated);
+    tracked.lastUpdated = now;
+    tracked.nextPollTime = now + getPollInterval(ctx, now);
+  }
+
+  /**
+   * Time in millis since the status of given query was last refreshed from its driver.
+   *
+   * @param handle the query handle
+   * @return staleness in millis, 0 if the query is not being tracked
+   */
+  public long getStaleness(QueryHandle handle) {
+    TrackedQuery tracked = trackedQueries.get(handle);
+    return tracked == null ? 0 : System.currentTimeMillis() - tracked.lastUpdated;
+  }
+
+  private long getMaxStaleness() {
+    long oldest = Long.MAX_VALUE;
+    for (TrackedQuery tracked : trackedQueries.values()) {
+      oldest = Math.min(oldest, tracked.lastUpdated);
+    }
+    return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+  }
+
+  /**
+   * Poll interval for a query, which is a fraction of its running time bounded by the minimum and maximum intervals.
+   * Queries on drivers which push status updates are polled at the maximum interval.
+   *
+   * @param ctx the query context
+   * @param now current time in millis
+   * @return poll interval in millis
+   */
+  @VisibleForTesting
+  long getPollInterval(QueryContext ctx, long now) {
+    if (ctx.getSelectedDriver() != null
+      && ctx.getSelectedDriver().getStatusUpdateMethod() == StatusUpdateMethod.PUSH) {
+      return maxPollInterval;
+    }
+    long runningTime = ctx.getLaunchTime() > 0 ? now - ctx.getLaunchTime() : 0;
+    long interval = (long) (runningTime * pollIntervalFactor);
+    return Math.max(minPollInterval, Math.min(maxPollInterval, interval));
+  }
+
+  /**
+   * Polls status of the due queries of one driver.
+   */
+  private class BatchPoller implements Runnable {
+    private final String driverName;
+    private final List<QueryContext> queries;
+
+    BatchPoller(String driverName, List<QueryContext> queries) {
+      this.driverName = driverName;
+      this.queries = queries;
+    }
+
+    @Override
+    public void run() {
+      Timer.Context sweepTimer = metricRegistry.timer(metricName(driverName, STATUS_SWEEP_LATENCY)).time();
+      try {
+        for (QueryContext ctx : queries) {
+          if (stopped) {
+            return;
+          }
+          logSegregationContext.setLogSegragationAndQueryId(ctx.getQueryHandleString());
+          log.debug("Polling status for {}", ctx.getQueryHandle());
+          try {
+            // session is not required to update status of the query
+            statusUpdater.updateStatus(ctx);
+          } catch (Exception e) {
+            metricRegistry.counter(metricName(STATUS_TRACKER_ERROR_COUNTER)).inc();
+            log.error("Error updating status of {}", ctx.getQueryHandle(), e);
+          }
+          TrackedQuery tracked = trackedQueries.get(ctx.getQueryHandle());
+          if (tracked != null && tracked.nextPollTime <= System.currentTimeMillis()) {
+            // status couldn't be refreshed, try again after the minimum interval
+            tracked.nextPollTime = System.currentTimeMillis() + minPollInterval;
+          }
+        }
+      } finally {
+        driversBeingPolled.remove(driverName);
+        sweepTimer.stop();
+      }
+    }
+  }
+
+  private static String metricName(String... names) {
+    return MetricRegistry.name(QueryExecutionService.class, names);
+  }
+
+  /**
+   * Stops the sweep and the in-flight polls.
+   */
+  public void shutdown() {
+    stopped = true;
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+    for (ExecutorService poller : driverPollers.values()) {
+      poller.shutdown();
+    }
+    metricRegistry.remove(metricName(MAX_STATUS_STALENESS));
+    log.info("Stopped status tracker");
+  }
+
+  public void awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ExecutorService poller : driverPollers.values()) {
+      poller.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Checks the status of executor services
+   *
+   * @return true if the tracker is running
+   */
+  public boolean isHealthy() {
+    return sweeper != null && !sweeper.isShutdown() && !stopped;
+  }
+}
@@ -0,0 +1,315 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.*;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Builds the http response for the download of a persisted result file.
+ * <p></p>
+ * A download can be resumed with a single byte range in the {@code Range} header, guarded by {@code If-Range}. The
+ * ETag of the result is derived from its path, length and modification time, and is also used for
+ * {@code If-None-Match}. The whole file is gzip encoded if the client accepts it. Files on the local file system are
+ * copied with {@link FileChannel#transferTo}.
+ */
+@Slf4j
+final class ResultDownload {
+
+  static final String ACCEPT_RANGES = "Accept-Ranges";
+  static final String CONTENT_RANGE = "Content-Range";
+  static final String RANGE = "Range";
+  static final String IF_RANGE = "If-Range";
+  static final String IF_NONE_MATCH = "If-None-Match";
+  static final String ACCEPT_ENCODING = "Accept-Encoding";
+  static final String GZIP = "gzip";
+  static final String BYTES_UNIT = "bytes";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Range of bytes of a file, both ends inclusive.
+   */
+  @Data
+  static class ByteRange {
+    private final long first;
+    private final long last;
+
+    long getLength() {
+      return last - first + 1;
+    }
+  }
+
+  /** Parsed range which does not overlap the file. */
+  static final ByteRange UNSATISFIABLE = new ByteRange(-1, -2);
+
+  private ResultDownload() {
+  }
+
+  /**
+   * Build the response for the download of a result file.
+   *
+   * @param fs       file system of the result
+   * @param path     the result file
+   * @param headers  request headers, can be null
+   * @param compress whether the result can be gzip encoded
+   * @return the response
+   * @throws IOException if the file status can't be read
+   */
+  static Response build(final FileSystem fs, final Path path, HttpHeaders headers, boolean compress)
+    throws IOException {
+    FileStatus status = fs.getFileStatus(path);
+    final long length = status.getLen();
+    String eTag = eTag(path, status);
+    boolean gzip = compress && acceptsGzip(header(headers, ACCEPT_ENCODING));
+    String responseETag = gzip ? eTag.substring(0, eTag.length() - 1) + "-" + GZIP + "\"" : eTag;
+
+    Response.ResponseBuilder builder;
+    if (matches(header(headers, IF_NONE_MATCH), responseETag)) {
+      builder = Response.notModified();
+    } else {
+      ByteRange range = null;
+      String rangeHeader = header(headers, RANGE);
+      if (rangeHeader != null && ifRangeMatches(header(headers, IF_RANGE), eTag, status.getModificationTime())) {
+        range = parseRange(rangeHeader, length);
+      }
+      if (range == UNSATISFIABLE) {
+        return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+          .header(CONTENT_RANGE, BYTES_UNIT + " */" + length).build();
+      } else if (range != null) {
+        final ByteRange partial = range;
+        builder = Response.status(Response.Status.PARTIAL_CONTENT).entity(new StreamingOutput() {
+          @Override
+          public void write(OutputStream os) throws IOException {
+            copy(fs, path, partial.getFirst(), partial.getLength(), os);
+          }
+        }).header(CONTENT_RANGE, BYTES_UNIT + " " + range.getFirst() + "-" + range.getLast() + "/" + length)
+          .header(HttpHeaders.CONTENT_LENGTH, range.getLength());
+        responseETag = eTag;
+      } else if (gzip) {
+        builder = Response.ok(new StreamingOutput() {
+          @Override
+          public void write(OutputStream os) throws IOException {
+            GZIPOutputStream gzipOut = new GZIPOutputStream(os, BUFFER_SIZE);
+            copy(fs, path, 0, length, gzipOut);
+            gzipOut.finish();
+          }
+        }).header(HttpHeaders.CONTENT_ENCODING, GZIP);
+      } else {
+        builder = Response.ok(new StreamingOutput() {
+          @Override
+          public void write(OutputStream os) throws IOException {
+            copy(fs, path, 0, length, os);
+          }
+        }).header(HttpHeaders.CONTENT_LENGTH, length);
+      }
+    }
+    return builder.header("content-disposition", "attachment; filename = " + path.getName())
+      .header(ACCEPT_RANGES, BYTES_UNIT)
+      .header(HttpHeaders.VARY, ACCEPT_ENCODING)
+      .header(HttpHeaders.ETAG, responseETag)
+      .lastModified(new Date(status.getModificationTime()))
+      .type(MediaType.APPLICATION_OCTET_STREAM).build();
+  }
+
+  /**
+   * Parse the value of a {@code Range} header. Only a single range is supported, the whole file is sent otherwise.
+   *
+   * @param header the header value
+   * @param length length of the file
+   * @return the range, {@link #UNSATISFIABLE} if the range does not overlap the file, or null if the header is not a
+   * single byte range
+   */
+  static ByteRange parseRange(String header, long length) {
+    String prefix = BYTES_UNIT + "=";
+    if (header == null || !header.trim().startsWith(prefix)) {
+      return null;
+    }
+    String spec = header.trim().substring(prefix.length()).trim();
+    int dash = spec.indexOf('-');
+    if (spec.contains(",") || dash < 0) {
+      return null;
+    }
+    String first = spec.substring(0, dash).trim();
+    String last = spec.substring(dash + 1).trim();
+    try {
+      if (first.isEmpty()) {
+        // last n bytes
+        if (last.isEmpty()) {
+          return null;
+        }
+        long suffix = Long.parseLong(last);
+        if (suffix <= 0 || length == 0) {
+          return UNSATISFIABLE;
+        }
+        return new ByteRange(Math.max(0, length - suffix), length - 1);
+      }
+      long start = Long.parseLong(first);
+      long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+      if (start >= length) {
+        return UNSATISFIABLE;
+      }
+      if (start < 0 || end < start) {
+        return null;
+      }
+      return new ByteRange(start, end);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Entity tag of a result file, changes if the file is rewritten.
+   */
+  static String eTag(Path path, FileStatus status) {
+    return "\"" + DigestUtils.md5Hex(path.toUri() + ":" + status.getLen() + ":" + status.getModificationTime()) + "\"";
+  }
+
+  /**
+   * Whether the range can be sent for the given {@code If-Range} header, which can be an entity tag or a date.
+   */
+  static boolean ifRangeMatches(String ifRange, String eTag, long modificationTime) {
+    if (ifRange == null) {
+      return true;
+    }
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      // only strong comparison is allowed for If-Range
+      return ifRange.equals(eTag);
+    }
+    try {
+      ZonedDateTime date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME);
+      return date.toEpochSecond() == modificationTime / 1000;
+    } catch (DateTimeParseException e) {
+      log.debug("Invalid If-Range header {}", ifRange);
+      return false;
+    }
+  }
+
+  /**
+   * Whether an {@code If-None-Match} header matches the entity tag, with weak comparison.
+   */
+  static boolean matches(String ifNoneMatch, String eTag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(eTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase(GZIP)) {
+        for (int i = 1; i < parts.length; i++) {
+          String param = parts[i].replace(" ", "");
+          if (param.startsWith("q=")) {
+            try {
+              return Double.parseDouble(param.substring(2)) > 0;
+            } catch (NumberFormatException e) {
+              return false;
+            }
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String header(HttpHeaders headers, String name) {
+    return headers == null ? null : headers.getHeaderString(name);
+  }
+
+  /**
+   * Copy a part of a file to the stream. Local files are copied with {@link FileChannel#transferTo}, without checksum
+   * verification.
+   */
+  static void copy(FileSystem fs, Path path, long offset, long count, OutputStream os) throws IOException {
+    File localFile = localFile(fs, path);
+    if (localFile != null) {
+      try (FileInputStream in = new FileInputStream(localFile)) {
+        FileChannel channel = in.getChannel();
+        WritableByteChannel target = Channels.newChannel(os);
+        long position = offset;
+        long remaining = count;
+        while (remaining > 0) {
+          long transferred = channel.transferTo(position, remaining, target);
+          if (transferred <= 0) {
+            throw new EOFException("Result file " + path + " is shorter than " + (offset + count) + " bytes");
+          }
+          position += transferred;
+          remaining -= transferred;
+        }
+      }
+    } else {
+      try (FSDataInputStream in = fs.open(path, BUFFER_SIZE)) {
+        if (offset > 0) {
+          in.seek(offset);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = count;
+        while (remaining > 0) {
+          int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+          if (read < 0) {
+            throw new EOFException("Result file " + path + " is shorter than " + (offset + count) + " bytes");
+          }
+          os.write(buffer, 0, read);
+          remaining -= read;
+        }
+      }
+    }
+    os.flush();
+  }
+
+  private static File localFile(FileSystem fs, Path path) {
+    if (fs instanceof LocalFileSystem) {
+      return ((LocalFileSystem) fs).pathToFile(path);
+    } else if (fs instanceof RawLocalFileSystem) {
+      return ((RawLocalFileSystem) fs).pathToFile(path);
+    }
+    return null;
+  }
+}
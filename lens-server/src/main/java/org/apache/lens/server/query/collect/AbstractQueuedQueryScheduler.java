@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query.collect;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
+import org.apache.lens.server.api.query.QueryContext;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Base of {@link QueuedQueryScheduler} implementations, which measures how long queries wait in the queue. The wait
+ * times of each user's queries are reported as the timer {@code QueuedQueryScheduler.queue-wait-time.<user>}.
+ */
+public abstract class AbstractQueuedQueryScheduler implements QueuedQueryScheduler {
+
+  public static final String QUEUE_WAIT_TIME = "queue-wait-time";
+
+  private final MetricRegistry metricRegistry = LensMetricsRegistry.getStaticRegistry();
+
+  /**
+   * Time at which each queued query was queued.
+   */
+  private final ConcurrentMap<QueryContext, Long> queuedSince = new ConcurrentHashMap<>();
+
+  @Override
+  public boolean add(final QueryContext query) {
+    queuedSince.putIfAbsent(query, System.currentTimeMillis());
+    return enqueue(query);
+  }
+
+  @Override
+  public void addAll(final Collection<? extends QueryContext> queries) {
+    long now = System.currentTimeMillis();
+    for (QueryContext query : queries) {
+      queuedSince.putIfAbsent(query, now);
+    }
+    enqueueAll(queries);
+  }
+
+  @Override
+  public boolean remove(final QueryContext query) {
+    if (dequeue(query)) {
+      queuedSince.remove(query);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public QueryContext take() throws InterruptedException {
+    QueryContext query = takeNext();
+    Long since = queuedSince.remove(query);
+    if (since != null) {
+      metricRegistry.timer(metricName(query.getSubmittedUser()))
+        .update(System.currentTimeMillis() - since, TimeUnit.MILLISECONDS);
+    }
+    return query;
+  }
+
+  static String metricName(final String user) {
+    return MetricRegistry.name(QueuedQueryScheduler.class, QUEUE_WAIT_TIME, user);
+  }
+
+  protected abstract boolean enqueue(QueryContext query);
+
+  protected abstract void enqueueAll(Collection<? extends QueryContext> queries);
+
+  protected abstract boolean dequeue(QueryContext query);
+
+  protected abstract QueryContext takeNext() throws InterruptedException;
+}
@@ -22,6 +22,7 @@ package org.apache.lens.server.query.collect;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.lens.server.api.driver.LensDriver;
@@ -54,6 +55,11 @@ public class DefaultEstimatedQueryCollection implements EstimatedQueryCollection
   private final QueryCollection queries;
   private final MultiValueMap queriesByDriver = MultiValueMap.decorate(new HashMap(), LinkedHashSet.class);
 
+  /**
+   * Total cost of the queries of each user, updated as queries are added and removed.
+   */
+  private final Map<String, UserQueriesCost> costByUser = new HashMap<>();
+
   public DefaultEstimatedQueryCollection(@NonNull final QueryCollection queries) {
     this.queries = queries;
   }
@@ -72,7 +78,10 @@ public class DefaultEstimatedQueryCollection implements EstimatedQueryCollection
   @Override
   public QueryCost getTotalQueryCost(final String user) {
 
-    return getTotalQueryCost(this.queries.getQueries(user));
+    UserQueriesCost userCost = costByUser.get(user);
+    Double totalQueryCost = userCost != null ? userCost.cost : 0d;
+    log.debug("Total Query Cost:{}", totalQueryCost);
+    return new StaticQueryCost(totalQueryCost);
   }
 
   /**
@@ -85,7 +94,17 @@ public class DefaultEstimatedQueryCollection implements EstimatedQueryCollection
   public boolean add(QueryContext query) {
     checkState(query);
     this.queriesByDriver.put(query.getSelectedDriver(), query);
-    return this.queries.add(query);
+    if (!this.queries.add(query)) {
+      return false;
+    }
+    UserQueriesCost userCost = costByUser.get(query.getSubmittedUser());
+    if (userCost == null) {
+      userCost = new UserQueriesCost();
+      costByUser.put(query.getSubmittedUser(), userCost);
+    }
+    userCost.count++;
+    userCost.cost += query.getSelectedDriverQueryCost().getEstimatedResourceUsage();
+    return true;
   }
 
   /**
@@ -111,7 +130,19 @@ public class DefaultEstimatedQueryCollection implements EstimatedQueryCollection
   @Override
   public boolean remove(QueryContext query) {
     this.queriesByDriver.remove(query.getSelectedDriver(), query);
-    return this.queries.remove(query);
+    if (!this.queries.remove(query)) {
+      return false;
+    }
+    UserQueriesCost userCost = costByUser.get(query.getSubmittedUser());
+    if (userCost != null) {
+      if (--userCost.count == 0) {
+        // start afresh, rather than from what is left of adding and subtracting costs
+        costByUser.remove(query.getSubmittedUser());
+      } else {
+        userCost.cost -= query.getSelectedDriverQueryCost().getEstimatedResourceUsage();
+      }
+    }
+    return true;
   }
 
   @Override
@@ -156,20 +187,9 @@ public class DefaultEstimatedQueryCollection implements EstimatedQueryCollection
     return driverQueries != null ? driverQueries : CollectionUtils.EMPTY_COLLECTION;
   }
 
-  private QueryCost getTotalQueryCost(final Collection<QueryContext> queries) {
-
-    if (queries.isEmpty()) {
-      return new StaticQueryCost(0);
-    }
-
-    Double totalQueryCost = 0d;
-
-    for (QueryContext query : queries) {
-      Double queryCost = query.getSelectedDriverQueryCost().getEstimatedResourceUsage();
-      totalQueryCost = totalQueryCost + queryCost;
-    }
-    log.debug("Total Query Cost:{}", totalQueryCost);
-    return new StaticQueryCost(totalQueryCost);
+  private static class UserQueriesCost {
+    private int count;
+    private double cost;
   }
 
   @Override
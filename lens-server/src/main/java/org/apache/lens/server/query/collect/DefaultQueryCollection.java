@@ -25,6 +25,7 @@ import org.apache.lens.server.api.query.QueryContext;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.map.MultiValueMap;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import lombok.NonNull;
 import lombok.ToString;
@@ -37,14 +38,38 @@ import lombok.extern.slf4j.Slf4j;
  * @see QueryCollection
  */
 @Slf4j
-@ToString
+@ToString(exclude = {"snapshot", "insertionOrder", "queryOrder"})
 public class DefaultQueryCollection implements QueryCollection {
 
   private final Set<QueryContext> queries;
   private final MultiValueMap queriesByUser = MultiValueMap.decorate(new HashMap(), LinkedHashSet.class);
 
+  /**
+   * Positions of queries in the order of {@link #queries}, for finding the index of a query without walking them.
+   */
+  private final OrderStatisticTree<QueryContext> queryOrder;
+
+  /**
+   * Sequence number of each query in insertion order, when queries are kept in insertion order.
+   */
+  private final Map<QueryContext, Long> insertionOrder;
+  private long nextSequence;
+
+  /**
+   * Immutable copy of the queries, taken on the first read after a modification and shared by all readers till the
+   * next one.
+   */
+  private ImmutableSet<QueryContext> snapshot;
+
   public DefaultQueryCollection() {
     this.queries = Sets.newLinkedHashSet();
+    this.insertionOrder = new HashMap<>();
+    this.queryOrder = new OrderStatisticTree<>(new Comparator<QueryContext>() {
+      @Override
+      public int compare(QueryContext query1, QueryContext query2) {
+        return insertionOrder.get(query1).compareTo(insertionOrder.get(query2));
+      }
+    });
   }
 
   public DefaultQueryCollection(@NonNull final Set<QueryContext> queries) {
@@ -54,16 +79,40 @@ public class DefaultQueryCollection implements QueryCollection {
 
   public DefaultQueryCollection(final TreeSet<QueryContext> treeSet) {
     this.queries = treeSet;
+    this.insertionOrder = null;
+    this.queryOrder = new OrderStatisticTree<>(comparatorOf(treeSet));
     for (QueryContext query : treeSet) {
       queriesByUser.put(query.getSubmittedUser(), query);
+      queryOrder.add(query);
     }
   }
 
+  @SuppressWarnings("unchecked")
+  private static Comparator<? super QueryContext> comparatorOf(final TreeSet<QueryContext> treeSet) {
+    if (treeSet.comparator() != null) {
+      return treeSet.comparator();
+    }
+    return new Comparator<QueryContext>() {
+      @Override
+      public int compare(QueryContext query1, QueryContext query2) {
+        return ((Comparable<QueryContext>) query1).compareTo(query2);
+      }
+    };
+  }
+
   @Override
   public boolean add(final QueryContext query) {
 
     queriesByUser.put(query.getSubmittedUser(), query);
-    return queries.add(query);
+    if (!queries.add(query)) {
+      return false;
+    }
+    if (insertionOrder != null) {
+      insertionOrder.put(query, nextSequence++);
+    }
+    queryOrder.add(query);
+    snapshot = null;
+    return true;
   }
 
   @Override
@@ -79,7 +128,16 @@ public class DefaultQueryCollection implements QueryCollection {
   @Override
   public boolean remove(final QueryContext query) {
     queriesByUser.remove(query.getSubmittedUser(), query);
-    return queries.remove(query);
+    if (!queries.contains(query)) {
+      return false;
+    }
+    queryOrder.remove(query);
+    queries.remove(query);
+    if (insertionOrder != null) {
+      insertionOrder.remove(query);
+    }
+    snapshot = null;
+    return true;
   }
 
   @Override
@@ -94,7 +152,10 @@ public class DefaultQueryCollection implements QueryCollection {
 
   @Override
   public Set<QueryContext> getQueries() {
-    return Sets.newHashSet(queries);
+    if (snapshot == null) {
+      snapshot = ImmutableSet.copyOf(queries);
+    }
+    return snapshot;
   }
 
   @Override
@@ -110,22 +171,17 @@ public class DefaultQueryCollection implements QueryCollection {
 
 
   /**
-   *  Since the collection is a linkedHashSet, the order of queries is always maintained.
+   * The index is looked up in {@link #queryOrder}, which is kept in the same order as the queries.
    * @param query
-   * @return
+   * @return 1 based index of the query, null if the query is not in this collection
    */
   @Override
   public Integer getQueryIndex(QueryContext query) {
-    Iterator iterator = queries.iterator();
-    int index = 1;
-    while (iterator.hasNext()) {
-      QueryContext queuedQuery = (QueryContext) iterator.next();
-      if (queuedQuery.getQueryHandle().equals(query.getQueryHandle())) {
-        return index;
-      }
-      index += 1;
+    if (!queries.contains(query)) {
+      return null;
     }
-    return null;
+    int index = queryOrder.indexOf(query);
+    return index < 0 ? null : index + 1;
   }
 
   private Collection<QueryContext> getQueriesCollectionForUser(final String user) {
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query.collect;
+
+import static org.apache.lens.server.api.LensConfConstants.*;
+
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.lens.api.Priority;
+import org.apache.lens.server.api.query.QueryContext;
+
+import org.apache.hadoop.conf.Configuration;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Shares the queue fairly between users. Queries are kept in a sub-queue per priority and user. Higher priorities
+ * are always taken first. Within a priority, users are served by deficit round robin: each user in turn gets as many
+ * queries taken as its weight, so a user with many queued queries can not hold back users with a few. Each user's
+ * queries are taken in the order of the query comparator chain.
+ *
+ * @see org.apache.lens.server.api.LensConfConstants#QUERY_SCHEDULER_USER_WEIGHTS
+ */
+@Slf4j
+public class FairShareQueuedQueryScheduler extends AbstractQueuedQueryScheduler {
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+
+  private final Map<Priority, PriorityLevel> levels = new EnumMap<>(Priority.class);
+
+  /**
+   * Sub-queue of each queued query, in which it is found even if its priority changes while queued.
+   */
+  private final Map<QueryContext, UserQueue> queuedIn = new HashMap<>();
+
+  private Comparator<QueryContext> comparator;
+  private Map<String, Integer> userWeights;
+  private int defaultUserWeight;
+
+  @Override
+  public void init(final Configuration conf, final Comparator<QueryContext> comparator) {
+    this.comparator = comparator;
+    this.defaultUserWeight = Math.max(1, conf.getInt(QUERY_SCHEDULER_DEFAULT_USER_WEIGHT,
+      DEFAULT_QUERY_SCHEDULER_DEFAULT_USER_WEIGHT));
+    this.userWeights = new HashMap<>();
+    for (String userWeight : conf.getTrimmedStringCollection(QUERY_SCHEDULER_USER_WEIGHTS)) {
+      String[] parts = userWeight.split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid user weight " + userWeight + " in "
+          + QUERY_SCHEDULER_USER_WEIGHTS + ", expected user=weight");
+      }
+      userWeights.put(parts[0].trim(), Math.max(1, Integer.parseInt(parts[1].trim())));
+    }
+    for (Priority priority : Priority.values()) {
+      levels.put(priority, new PriorityLevel());
+    }
+    log.info("Fair share scheduler with user weights {} and default weight {}", userWeights, defaultUserWeight);
+  }
+
+  @Override
+  protected boolean enqueue(final QueryContext query) {
+    lock.lock();
+    try {
+      if (!add(query)) {
+        return false;
+      }
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  protected void enqueueAll(final Collection<? extends QueryContext> queries) {
+    lock.lock();
+    try {
+      for (QueryContext query : queries) {
+        add(query);
+      }
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean add(final QueryContext query) {
+    if (queuedIn.containsKey(query)) {
+      return false;
+    }
+    Priority priority = query.getPriority() != null ? query.getPriority() : Priority.NORMAL;
+    UserQueue userQueue = levels.get(priority).getUserQueue(query.getSubmittedUser());
+    userQueue.queries.add(query);
+    queuedIn.put(query, userQueue);
+    return true;
+  }
+
+  @Override
+  protected boolean dequeue(final QueryContext query) {
+    lock.lock();
+    try {
+      UserQueue userQueue = queuedIn.remove(query);
+      if (userQueue == null) {
+        return false;
+      }
+      userQueue.queries.remove(query);
+      if (userQueue.queries.isEmpty()) {
+        userQueue.level.removeUserQueue(userQueue);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  protected QueryContext takeNext() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (queuedIn.isEmpty()) {
+        notEmpty.await();
+      }
+      for (PriorityLevel level : levels.values()) {
+        if (!level.rotation.isEmpty()) {
+          QueryContext query = level.poll();
+          queuedIn.remove(query);
+          return query;
+        }
+      }
+      throw new IllegalStateException("No sub-queue has the " + queuedIn.size() + " queued queries");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return queuedIn.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int getWeight(final String user) {
+    Integer weight = userWeights.get(user);
+    return weight != null ? weight : defaultUserWeight;
+  }
+
+  /**
+   * Users having queries of a priority, in the order they are served.
+   */
+  private class PriorityLevel {
+    private final Map<String, UserQueue> userQueues = new HashMap<>();
+    private final Deque<UserQueue> rotation = new ArrayDeque<>();
+
+    UserQueue getUserQueue(final String user) {
+      UserQueue userQueue = userQueues.get(user);
+      if (userQueue == null) {
+        userQueue = new UserQueue(this, user);
+        userQueues.put(user, userQueue);
+        rotation.addLast(userQueue);
+      }
+      return userQueue;
+    }
+
+    void removeUserQueue(final UserQueue userQueue) {
+      userQueues.remove(userQueue.user);
+      rotation.remove(userQueue);
+    }
+
+    /**
+     * Take a query of the user at the head of the rotation. The user stays at the head till it has got as many
+     * queries as its weight in this round.
+     */
+    QueryContext poll() {
+      UserQueue userQueue = rotation.peekFirst();
+      if (userQueue.deficit == 0) {
+        userQueue.deficit = getWeight(userQueue.user);
+      }
+      QueryContext query = userQueue.queries.poll();
+      userQueue.deficit--;
+      if (userQueue.queries.isEmpty()) {
+        removeUserQueue(userQueue);
+      } else if (userQueue.deficit == 0) {
+        rotation.addLast(rotation.pollFirst());
+      }
+      return query;
+    }
+  }
+
+  private class UserQueue {
+    private final PriorityLevel level;
+    private final String user;
+    private final PriorityQueue<QueryContext> queries = new PriorityQueue<>(11, comparator);
+    private int deficit;
+
+    UserQueue(final PriorityLevel level, final String user) {
+      this.level = level;
+      this.user = user;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query.collect;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import lombok.NonNull;
+
+/**
+ * A set ordered by a comparator, which finds the index of an element in logarithmic time. It is kept as a treap whose
+ * nodes know the size of their subtree. This implementation is not thread-safe.
+ *
+ * @param <E> type of the elements
+ */
+final class OrderStatisticTree<E> {
+
+  private final Comparator<? super E> comparator;
+  private final Random random = new Random();
+  private Node<E> root;
+
+  OrderStatisticTree(@NonNull final Comparator<? super E> comparator) {
+    this.comparator = comparator;
+  }
+
+  /**
+   * Add an element. No element comparing equal to it should be in the set.
+   */
+  void add(final E element) {
+    root = add(root, new Node<>(element, random.nextInt()));
+  }
+
+  /**
+   * Remove the element comparing equal to the given one, if any.
+   */
+  void remove(final E element) {
+    root = remove(root, element);
+  }
+
+  /**
+   * @return number of elements before the element comparing equal to the given one, -1 if there is none
+   */
+  int indexOf(final E element) {
+    int index = 0;
+    Node<E> node = root;
+    while (node != null) {
+      int cmp = comparator.compare(element, node.element);
+      if (cmp < 0) {
+        node = node.left;
+      } else if (cmp > 0) {
+        index += size(node.left) + 1;
+        node = node.right;
+      } else {
+        return index + size(node.left);
+      }
+    }
+    return -1;
+  }
+
+  int size() {
+    return size(root);
+  }
+
+  private Node<E> add(final Node<E> node, final Node<E> added) {
+    if (node == null) {
+      return added;
+    }
+    if (comparator.compare(added.element, node.element) < 0) {
+      node.left = add(node.left, added);
+      if (node.left.priority > node.priority) {
+        return rotateRight(node);
+      }
+    } else {
+      node.right = add(node.right, added);
+      if (node.right.priority > node.priority) {
+        return rotateLeft(node);
+      }
+    }
+    node.update();
+    return node;
+  }
+
+  private Node<E> remove(final Node<E> node, final E element) {
+    if (node == null) {
+      return null;
+    }
+    int cmp = comparator.compare(element, node.element);
+    if (cmp == 0) {
+      return merge(node.left, node.right);
+    }
+    if (cmp < 0) {
+      node.left = remove(node.left, element);
+    } else {
+      node.right = remove(node.right, element);
+    }
+    node.update();
+    return node;
+  }
+
+  private static <E> Node<E> merge(final Node<E> left, final Node<E> right) {
+    if (left == null) {
+      return right;
+    }
+    if (right == null) {
+      return left;
+    }
+    if (left.priority > right.priority) {
+      left.right = merge(left.right, right);
+      left.update();
+      return left;
+    }
+    right.left = merge(left, right.left);
+    right.update();
+    return right;
+  }
+
+  private static <E> Node<E> rotateRight(final Node<E> node) {
+    Node<E> left = node.left;
+    node.left = left.right;
+    node.update();
+    left.right = node;
+    left.update();
+    return left;
+  }
+
+  private static <E> Node<E> rotateLeft(final Node<E> node) {
+    Node<E> right = node.right;
+    node.right = right.left;
+    node.update();
+    right.left = node;
+    right.update();
+    return right;
+  }
+
+  private static int size(final Node<?> node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private static final class Node<E> {
+    private final E element;
+    private final int priority;
+    private int size = 1;
+    private Node<E> left;
+    private Node<E> right;
+
+    Node(final E element, final int priority) {
+      this.element = element;
+      this.priority = priority;
+    }
+
+    void update() {
+      size = size(left) + size(right) + 1;
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query.collect;
+
+import java.util.Collection;
+import java.util.Comparator;
+
+import org.apache.lens.server.api.query.QueryContext;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Holds queries accepted by lens server till a query submitter takes them to check launching constraints. The
+ * scheduler decides which query is taken next. Implementations are thread-safe, since queries are added by request
+ * threads and taken by one or more submitter threads.
+ *
+ * @see org.apache.lens.server.api.LensConfConstants#QUERY_SCHEDULER_CLASS
+ */
+public interface QueuedQueryScheduler {
+
+  /**
+   * Initialize the scheduler, before any query is added.
+   *
+   * @param conf       server configuration
+   * @param comparator order of queries, as configured in the query comparator chain
+   */
+  void init(Configuration conf, Comparator<QueryContext> comparator);
+
+  /**
+   * @param query query to queue
+   * @return true if the query was queued
+   */
+  boolean add(QueryContext query);
+
+  /**
+   * Queue all the queries together, such that none of them is taken before all are queued.
+   *
+   * @param queries queries to queue
+   */
+  void addAll(Collection<? extends QueryContext> queries);
+
+  /**
+   * @param query query to remove
+   * @return true if the query was queued and is removed
+   */
+  boolean remove(QueryContext query);
+
+  /**
+   * Take the next query, waiting till a query is queued.
+   *
+   * @return the next query
+   * @throws InterruptedException if interrupted while waiting
+   */
+  QueryContext take() throws InterruptedException;
+
+  /**
+   * @return number of queued queries
+   */
+  int size();
+}
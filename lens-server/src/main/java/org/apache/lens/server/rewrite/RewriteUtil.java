@@ -19,28 +19,40 @@
 package org.apache.lens.server.rewrite;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.apache.lens.cube.metadata.CubeMetastoreClient;
+import org.apache.lens.cube.metadata.MetastoreUtil;
 import org.apache.lens.cube.parse.CubeQueryContext;
 import org.apache.lens.cube.parse.CubeQueryRewriter;
 import org.apache.lens.cube.parse.HQLParser;
 import org.apache.lens.driver.cube.RewriterPlan;
+import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.driver.DriverQueryPlan;
 import org.apache.lens.server.api.driver.LensDriver;
 import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.metrics.MethodMetricsContext;
 import org.apache.lens.server.api.metrics.MethodMetricsFactory;
 import org.apache.lens.server.api.query.AbstractQueryContext;
+import org.apache.lens.server.api.util.LayeredConf;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.ASTNode;
 import org.apache.hadoop.hive.ql.parse.HiveParser;
 
+import org.antlr.runtime.CommonToken;
+
+import com.codahale.metrics.MetricRegistry;
+import lombok.Data;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -68,6 +80,24 @@ public final class RewriteUtil {
 
     /** The cube ast. */
     ASTNode cubeAST;
+
+    /** The cube query parsed on its own, set by the first driver to rewrite it. Guarded by this. */
+    private ASTNode parsedAST;
+
+    /**
+     * Parse the cube query once for all the drivers, as parsing doesn't depend on the driver configuration. The
+     * resolvers change the AST and its tokens in place, so each driver rewrites its own copy.
+     *
+     * @param conf the query conf
+     * @return a copy of the parsed cube query
+     * @throws LensException if the cube query can't be parsed
+     */
+    synchronized ASTNode getParsedAST(HiveConf conf) throws LensException {
+      if (parsedAST == null) {
+        parsedAST = HQLParser.parseHQL(query, conf);
+      }
+      return MetastoreUtil.copyAST(parsedAST, node -> Pair.of(new ASTNode(new CommonToken(node.getToken())), true));
+    }
   }
 
   /**
@@ -285,6 +315,138 @@ public final class RewriteUtil {
   private static final String REWRITE_QUERY_GAUGE = RewriteUtil.class.getSimpleName() + "-rewriteQuery";
   private static final String TOHQL_GAUGE = RewriteUtil.class.getSimpleName() + "-rewriteQuery-toHQL";
 
+  /** Meter for drivers which reused the rewrite of another driver. */
+  public static final String SHARED_REWRITES_METER = "shared-cube-rewrites";
+
+  /**
+   * Group the drivers whose configuration leads to the same rewrite of the cube queries. The driver local entries of
+   * the driver configuration, like the connection settings of the driver, don't affect the rewrite and are ignored.
+   *
+   * @param ctx         the query context
+   * @param cubeQueries cube queries in the user query
+   * @param replacedQuery the user query
+   * @return the rewrite for each driver
+   */
+  static Map<LensDriver, SharedCubeRewrite> groupDriversByRewrite(AbstractQueryContext ctx,
+    List<CubeQueryInfo> cubeQueries, String replacedQuery) {
+    Map<LensDriver, SharedCubeRewrite> rewrites = new LinkedHashMap<>();
+    boolean share = !cubeQueries.isEmpty() && ctx.getConf().getBoolean(LensConfConstants.REWRITE_SHARE_ACROSS_DRIVERS,
+      LensConfConstants.DEFAULT_REWRITE_SHARE_ACROSS_DRIVERS);
+    String[] localPrefixes = ctx.getConf().getTrimmedStrings(LensConfConstants.REWRITE_DRIVER_LOCAL_CONF_PREFIXES,
+      LensConfConstants.DEFAULT_REWRITE_DRIVER_LOCAL_CONF_PREFIXES.split(","));
+    Map<RewriteKey, SharedCubeRewrite> groups = new HashMap<>();
+    for (LensDriver driver : ctx.getDriverContext().getEligibleDrivers()) {
+      LayeredConf driverConf = ctx.getDriverContext().getDriverConfLayers(driver);
+      SharedCubeRewrite rewrite = null;
+      RewriteKey rewriteKey = null;
+      if (share) {
+        rewriteKey = getRewriteKey(driverConf, localPrefixes);
+        rewrite = groups.get(rewriteKey);
+      }
+      if (rewrite == null) {
+        rewrite = new SharedCubeRewrite(driver, ctx, cubeQueries, replacedQuery);
+        if (share) {
+          groups.put(rewriteKey, rewrite);
+        }
+      } else {
+        log.debug("Driver {} shares the cube query rewrite with other drivers", driver);
+      }
+      rewrites.put(driver, rewrite);
+    }
+    return rewrites;
+  }
+
+  /**
+   * Rewrite entries of the driver confs, by driver conf. Driver confs are not changed once the driver is configured,
+   * so their entries are collected once, not for every query.
+   */
+  private static final Map<Configuration, BaseRewriteConf> BASE_REWRITE_CONFS = new WeakHashMap<>();
+
+  /**
+   * Key of the rewrite for a driver: the rewrite entries of the driver conf, and the rewrite entries of the query
+   * conf layered over it.
+   */
+  private static RewriteKey getRewriteKey(LayeredConf driverConf, String[] localPrefixes) {
+    BaseRewriteConf base;
+    synchronized (BASE_REWRITE_CONFS) {
+      base = BASE_REWRITE_CONFS.get(driverConf.getBase());
+      if (base == null || !Arrays.equals(base.localPrefixes, localPrefixes)) {
+        base = new BaseRewriteConf(getRewriteConf(driverConf.getBase(), localPrefixes), localPrefixes);
+        BASE_REWRITE_CONFS.put(driverConf.getBase(), base);
+      }
+    }
+    return new RewriteKey(base, getRewriteConf(driverConf.getOverlay().entrySet(), localPrefixes));
+  }
+
+  /**
+   * Entries of a conf the rewrite of cube queries depends on.
+   */
+  private static Map<String, String> getRewriteConf(Iterable<Map.Entry<String, String>> conf,
+    String[] localPrefixes) {
+    Map<String, String> rewriteConf = new HashMap<>();
+    for (Map.Entry<String, String> entry : conf) {
+      if (!isDriverLocal(entry.getKey(), localPrefixes)) {
+        rewriteConf.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return rewriteConf;
+  }
+
+  /**
+   * Rewrite entries of a driver conf, with the hash code computed once.
+   */
+  private static final class BaseRewriteConf {
+    private final Map<String, String> entries;
+    private final String[] localPrefixes;
+    private final int hash;
+
+    BaseRewriteConf(Map<String, String> entries, String[] localPrefixes) {
+      this.entries = entries;
+      this.localPrefixes = localPrefixes;
+      this.hash = entries.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BaseRewriteConf)) {
+        return false;
+      }
+      BaseRewriteConf other = (BaseRewriteConf) o;
+      return hash == other.hash && entries.equals(other.entries);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  @Data
+  private static final class RewriteKey {
+    private final BaseRewriteConf base;
+    private final Map<String, String> overlay;
+  }
+
+  private static boolean isDriverLocal(String key, String[] localPrefixes) {
+    if (key.equals(LensConfConstants.QUERY_METRIC_DRIVER_STACK_NAME)) {
+      // differs for every driver, and is only used to name the metrics
+      return true;
+    }
+    for (String prefix : localPrefixes) {
+      if (!prefix.isEmpty() && key.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String metricName(String name) {
+    return MetricRegistry.name(RewriteUtil.class, name);
+  }
+
   /**
    * Rewrite query.
    *
@@ -299,8 +461,9 @@ public final class RewriteUtil {
       Map<LensDriver, DriverRewriterRunnable> runnables = new LinkedHashMap<>();
       List<RewriteUtil.CubeQueryInfo> cubeQueries = findCubePositions(replacedQuery, ctx.getHiveConf());
 
-      for (LensDriver driver : ctx.getDriverContext().getEligibleDrivers()) {
-        runnables.put(driver, new DriverRewriterRunnable(driver, ctx, cubeQueries, replacedQuery));
+      for (Map.Entry<LensDriver, SharedCubeRewrite> entry : groupDriversByRewrite(ctx, cubeQueries, replacedQuery)
+        .entrySet()) {
+        runnables.put(entry.getKey(), new DriverRewriterRunnable(entry.getKey(), ctx, entry.getValue()));
       }
 
       return runnables;
@@ -321,60 +484,75 @@ public final class RewriteUtil {
     return new RewriterPlan(rewriter.cubeQueryCtx);
   }
 
-  public static class DriverRewriterRunnable implements Runnable {
-    @Getter
+  /**
+   * Rewrite of the cube queries in a user query, shared by the drivers whose configuration leads to the same rewrite.
+   * The first driver to need it rewrites the cube queries, the other drivers wait for it and reuse the rewritten query.
+   * The cube query contexts are only read after the rewrite.
+   * <p></p>
+   * Parsing the cube queries doesn't depend on the driver, and is shared by all the drivers, see
+   * {@link CubeQueryInfo#getParsedAST(HiveConf)}. Semantic analysis, the resolvers and toHQL read the driver
+   * configuration, and run once for each group of drivers.
+   */
+  static class SharedCubeRewrite {
+    /** The first driver of the group, whose conf the cube rewriter takes. */
     private final LensDriver driver;
     private final AbstractQueryContext ctx;
     private final List<CubeQueryInfo> cubeQueries;
     private final String replacedQuery;
-    /** Cube query context - set after rewriting */
-    private List<CubeQueryContext> cubeQueryCtx;
-
-    @Getter
-    /** Indicate if rewrite operation succeeded */
-    private boolean succeeded;
-
-    @Getter
-    /** Get cause of rewrite failure if rewrite operation failed */
-    private String failureCause = null;
 
-    @Getter
-    private LensException cause;
-
-    @Getter
-    /** Get eventual rewritten query */
+    private boolean done = false;
     private String rewrittenQuery;
+    private List<CubeQueryContext> cubeQueryCtx;
+    private Exception failure;
 
-    public DriverRewriterRunnable(LensDriver driver,
-      AbstractQueryContext ctx,
-      List<CubeQueryInfo> cubeQueries,
+    SharedCubeRewrite(LensDriver driver, AbstractQueryContext ctx, List<CubeQueryInfo> cubeQueries,
       String replacedQuery) {
       this.driver = driver;
       this.ctx = ctx;
       this.cubeQueries = cubeQueries;
       this.replacedQuery = replacedQuery;
-      if (cubeQueries != null) {
-        cubeQueryCtx = new ArrayList<>(cubeQueries.size());
-      }
     }
 
-    @Override
-    public void run() {
-      String lowerCaseQuery = replacedQuery.toLowerCase();
-      if (lowerCaseQuery.startsWith("add") || lowerCaseQuery.startsWith("set")) {
-        rewrittenQuery = replacedQuery;
-        return;
+    /**
+     * Rewrite the cube queries, unless it is already done.
+     *
+     * @return the rewritten user query
+     * @throws Exception the failure of the rewrite
+     */
+    synchronized String rewrite() throws Exception {
+      if (!done) {
+        try {
+          rewrittenQuery = rewriteCubeQueries();
+        } catch (Exception e) {
+          failure = e;
+        } finally {
+          done = true;
+        }
+      } else {
+        LensMetricsRegistry.getStaticRegistry().meter(metricName(SHARED_REWRITES_METER)).mark();
+      }
+      if (failure != null) {
+        throw failure;
       }
+      return rewrittenQuery;
+    }
 
-      MethodMetricsContext rewriteGauge = MethodMetricsFactory
-        .createMethodGauge(ctx.getDriverConf(driver), true, REWRITE_QUERY_GAUGE);
+    synchronized List<CubeQueryContext> getCubeQueryContexts() {
+      return cubeQueryCtx;
+    }
+
+    private String rewriteCubeQueries() throws LensException {
       StringBuilder builder = new StringBuilder();
       int start = 0;
       CubeQueryRewriter rewriter = null;
+      Configuration conf = null;
+      List<CubeQueryContext> contexts = new ArrayList<>(cubeQueries.size());
       try {
         if (cubeQueries.size() > 0) {
-          // avoid creating rewriter if there are no cube queries
-          rewriter = getCubeRewriter(ctx.getDriverContext().getDriverConf(driver), ctx.getHiveConf());
+          // avoid creating rewriter if there are no cube queries. The drivers sharing the rewrite differ only in
+          // driver local entries, so the conf of the first driver is built, and kept in its context for the driver
+          conf = ctx.getDriverConf(driver);
+          rewriter = getCubeRewriter(conf, ctx.getHiveConf());
           ctx.setOlapQuery(true);
         }
 
@@ -388,13 +566,13 @@ public final class RewriteUtil {
             builder.append(replacedQuery.substring(start, cqi.startPos));
           }
 
-          // Parse and rewrite individual cube query
-          CubeQueryContext cqc = rewriter.rewrite(cqi.query);
+          // Rewrite individual cube query, parsed once for all drivers
+          CubeQueryContext cqc = rewriter.rewrite(cqi.getParsedAST(ctx.getHiveConf()));
           MethodMetricsContext toHQLGauge = MethodMetricsFactory
-            .createMethodGauge(ctx.getDriverConf(driver), true, qIndex + "-" + TOHQL_GAUGE);
+            .createMethodGauge(conf, true, qIndex + "-" + TOHQL_GAUGE);
           // toHQL actually generates the rewritten query
           String hqlQuery = cqc.toHQL();
-          cubeQueryCtx.add(cqc);
+          contexts.add(cqc);
           toHQLGauge.markSuccess();
           qIndex++;
 
@@ -405,8 +583,59 @@ public final class RewriteUtil {
         }
 
         builder.append(replacedQuery.substring(start));
+        cubeQueryCtx = contexts;
+        return builder.toString();
+      } finally {
+        if (rewriter != null) {
+          rewriter.clear();
+        }
+      }
+    }
+  }
 
-        rewrittenQuery = builder.toString();
+  public static class DriverRewriterRunnable implements Runnable {
+    @Getter
+    private final LensDriver driver;
+    private final AbstractQueryContext ctx;
+    private final SharedCubeRewrite sharedRewrite;
+    /** Cube query context - set after rewriting */
+    private List<CubeQueryContext> cubeQueryCtx;
+
+    @Getter
+    /** Indicate if rewrite operation succeeded */
+    private boolean succeeded;
+
+    @Getter
+    /** Get cause of rewrite failure if rewrite operation failed */
+    private String failureCause = null;
+
+    @Getter
+    private LensException cause;
+
+    @Getter
+    /** Get eventual rewritten query */
+    private String rewrittenQuery;
+
+    DriverRewriterRunnable(LensDriver driver, AbstractQueryContext ctx, SharedCubeRewrite sharedRewrite) {
+      this.driver = driver;
+      this.ctx = ctx;
+      this.sharedRewrite = sharedRewrite;
+    }
+
+    @Override
+    public void run() {
+      String replacedQuery = sharedRewrite.replacedQuery;
+      String lowerCaseQuery = replacedQuery.toLowerCase();
+      if (lowerCaseQuery.startsWith("add") || lowerCaseQuery.startsWith("set")) {
+        rewrittenQuery = replacedQuery;
+        return;
+      }
+
+      MethodMetricsContext rewriteGauge = MethodMetricsFactory
+        .createMethodGauge(ctx.getDriverConfLayers(driver), true, REWRITE_QUERY_GAUGE);
+      try {
+        rewrittenQuery = sharedRewrite.rewrite();
+        cubeQueryCtx = sharedRewrite.getCubeQueryContexts();
         // set rewriter plan
         ctx.getDriverContext().setDriverRewriterPlan(driver, getRewriterPlan(this));
         succeeded = true;
@@ -422,9 +651,6 @@ public final class RewriteUtil {
         // we are catching all exceptions sothat other drivers can be picked in case of driver bugs
         captureExceptionInformation(e);
       } finally {
-        if (rewriter != null) {
-          rewriter.clear();
-        }
         rewriteGauge.markSuccess();
       }
     }
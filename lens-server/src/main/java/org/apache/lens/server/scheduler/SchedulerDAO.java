@@ -22,7 +22,9 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.bind.JAXBElement;
 
@@ -293,6 +295,41 @@ public class SchedulerDAO {
     }
   }
 
+  /**
+   * Get the instances having runs in one of the states, in a single lookup. Each instance holds only its runs which
+   * are in one of the states.
+   *
+   * @param states States to be consider for filter
+   * @return A list of SchedulerJobInstanceInfo
+   */
+  public List<SchedulerJobInstanceInfo> getInstancesWithRuns(SchedulerJobInstanceState... states) {
+    try {
+      return store.getInstancesWithRuns(states);
+    } catch (SQLException e) {
+      log.error("Error while getting instances ", e);
+      return new ArrayList<>();
+    }
+  }
+
+  /**
+   * Updates the status of many instance runs in a single batch.
+   *
+   * @param instanceRuns : instance Run objects
+   * @return number of rows updated for each run, {@link java.sql.Statement#SUCCESS_NO_INFO} for runs updated without
+   * a count, 0 for every run if the batch failed.
+   */
+  public int[] updateJobInstanceRuns(List<SchedulerJobInstanceRun> instanceRuns) {
+    if (instanceRuns.isEmpty()) {
+      return new int[0];
+    }
+    try {
+      return store.updateJobInstanceRuns(instanceRuns);
+    } catch (SQLException e) {
+      log.error("Error while updating the status of {} job instance runs", instanceRuns.size(), e);
+      return new int[instanceRuns.size()];
+    }
+  }
+
   public abstract static class SchedulerDBStore {
     protected static final String JOB_TABLE = "job_table";
     protected static final String JOB_INSTANCE_TABLE = "job_instance_table";
@@ -312,6 +349,10 @@ public class SchedulerDAO {
     protected static final String COLUMN_RESULT_PATH = "resultpath";
     protected static final String COLUMN_QUERY_HANDLE = "queryhandle";
     protected static final String COLUMN_JOB_NAME = "jobname";
+    private static final String UPDATE_INSTANCE_RUN_SQL =
+      "UPDATE " + JOB_INSTANCE_RUN_TABLE + " SET " + COLUMN_END_TIME + "=?, " + COLUMN_RESULT_PATH + "=?, "
+        + COLUMN_QUERY_HANDLE + "=?, " + COLUMN_STATUS + "=?" + " WHERE " + COLUMN_ID + "=? AND " + COLUMN_RUN_ID
+        + "=?";
     protected QueryRunner runner;
     protected ObjectFactory jobFactory = new ObjectFactory();
     // Generic multiple row handler for the fetch query.
@@ -589,14 +630,28 @@ public class SchedulerDAO {
      * @throws SQLException
      */
     public int updateJobInstanceRun(SchedulerJobInstanceRun instanceRun) throws SQLException {
-      String updateSQL =
-        "UPDATE " + JOB_INSTANCE_RUN_TABLE + " SET " + COLUMN_END_TIME + "=?, " + COLUMN_RESULT_PATH + "=?, "
-          + COLUMN_QUERY_HANDLE + "=?, " + COLUMN_STATUS + "=?" + " WHERE " + COLUMN_ID + "=? AND " + COLUMN_RUN_ID
-          + "=?";
+      return runner.update(UPDATE_INSTANCE_RUN_SQL, getUpdateParams(instanceRun));
+    }
 
-      return runner.update(updateSQL, instanceRun.getEndTime(), instanceRun.getResultPath(),
+    /**
+     * Updates the status of job instances in a single batch.
+     *
+     * @param instanceRuns
+     * @return number of rows updated for each run.
+     * @throws SQLException
+     */
+    public int[] updateJobInstanceRuns(List<SchedulerJobInstanceRun> instanceRuns) throws SQLException {
+      Object[][] params = new Object[instanceRuns.size()][];
+      for (int i = 0; i < params.length; i++) {
+        params[i] = getUpdateParams(instanceRuns.get(i));
+      }
+      return runner.batch(UPDATE_INSTANCE_RUN_SQL, params);
+    }
+
+    private static Object[] getUpdateParams(SchedulerJobInstanceRun instanceRun) {
+      return new Object[]{instanceRun.getEndTime(), instanceRun.getResultPath(),
         instanceRun.getQueryHandle() == null ? "" : instanceRun.getQueryHandle().getHandleIdString(),
-        instanceRun.getInstanceState().name(), instanceRun.getHandle().getHandleIdString(), instanceRun.getRunId());
+        instanceRun.getInstanceState().name(), instanceRun.getHandle().getHandleIdString(), instanceRun.getRunId()};
     }
 
     /**
@@ -666,6 +721,39 @@ public class SchedulerDAO {
       List<Object[]> instanceRuns = runner.query(fetchSQL, multipleRowsHandler);
       return processInstanceRun(instanceRuns);
     }
+
+    /**
+     * Gets the instances with their runs in one of the states, joining the run and instance tables.
+     *
+     * @param states
+     * @return List of SchedulerJobInstanceInfo, each with only its runs in one of the states
+     * @throws SQLException
+     */
+    public List<SchedulerJobInstanceInfo> getInstancesWithRuns(SchedulerJobInstanceState[] states)
+      throws SQLException {
+      String whereClause = "";
+      for (SchedulerJobInstanceState state : states) {
+        whereClause += ((whereClause.isEmpty()) ? " WHERE " : " OR ") + "r." + COLUMN_STATUS + " = '" + state + "'";
+      }
+      String fetchSQL = "SELECT r.*, i." + COLUMN_JOB_ID + ", i." + COLUMN_SCHEDULE_TIME + " FROM "
+        + JOB_INSTANCE_RUN_TABLE + " r JOIN " + JOB_INSTANCE_TABLE + " i ON r." + COLUMN_ID + " = i." + COLUMN_ID
+        + whereClause + " ORDER BY r." + COLUMN_ID + ", r." + COLUMN_RUN_ID;
+      List<Object[]> rows = runner.query(fetchSQL, multipleRowsHandler);
+      List<SchedulerJobInstanceRun> runs = processInstanceRun(rows);
+      Map<SchedulerJobInstanceHandle, SchedulerJobInstanceInfo> instances = new LinkedHashMap<>();
+      for (int i = 0; i < rows.size(); i++) {
+        SchedulerJobInstanceRun run = runs.get(i);
+        SchedulerJobInstanceInfo instance = instances.get(run.getHandle());
+        if (instance == null) {
+          Object[] row = rows.get(i);
+          instance = new SchedulerJobInstanceInfo(run.getHandle(), SchedulerJobHandle.fromString((String) row[8]),
+            (Long) row[9], new ArrayList<SchedulerJobInstanceRun>());
+          instances.put(run.getHandle(), instance);
+        }
+        instance.getInstanceRunList().add(run);
+      }
+      return new ArrayList<>(instances.values());
+    }
   }
 
   /**
@@ -20,6 +20,8 @@ package org.apache.lens.server.scheduler;
 
 import static org.apache.lens.api.scheduler.SchedulerJobInstanceEvent.*;
 
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -38,22 +40,31 @@ import org.apache.lens.server.LensServices;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.LensErrorInfo;
 import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.events.LensEvent;
+import org.apache.lens.server.api.events.LensEventListener;
 import org.apache.lens.server.api.events.LensEventService;
 import org.apache.lens.server.api.events.SchedulerAlarmEvent;
 import org.apache.lens.server.api.health.HealthStatus;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
 import org.apache.lens.server.api.query.QueryExecutionService;
 import org.apache.lens.server.api.query.events.QueryEnded;
+import org.apache.lens.server.api.query.events.QueryQueuedForRetry;
 import org.apache.lens.server.api.scheduler.SchedulerService;
 import org.apache.lens.server.error.LensSchedulerErrorCode;
 import org.apache.lens.server.session.LensSessionImpl;
 import org.apache.lens.server.util.UtilityMethods;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hive.service.cli.CLIService;
 
 import org.joda.time.DateTime;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -79,6 +90,8 @@ public class SchedulerServiceImpl extends BaseLensService implements SchedulerSe
   protected SchedulerQueryEventListener schedulerQueryEventListener;
   @Getter
   private AlarmService alarmService;
+  @Getter(AccessLevel.PACKAGE)
+  private WaitingInstanceHandler waitingInstanceHandler;
   private Thread waitingInstanceThread;
   private long waitingThreadInterval = LensConfConstants.DEFAULT_SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS;
 
@@ -100,22 +113,48 @@ public class SchedulerServiceImpl extends BaseLensService implements SchedulerSe
     maxJobsPerUser = hiveConf.getInt(LensConfConstants.MAX_SCHEDULED_JOB_PER_USER, maxJobsPerUser);
     try {
       schedulerDAO = new SchedulerDAO(hiveConf);
-      waitingThreadInterval = hiveConf.getLong(LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS,
-        LensConfConstants.DEFAULT_SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS);
+      waitingThreadInterval = getWaitingThreadInterval(hiveConf);
       alarmService = LensServices.get().getService(AlarmService.NAME);
       queryService = LensServices.get().getService(QueryExecutionService.NAME);
       this.schedulerEventListener = new SchedulerEventListener(schedulerDAO);
       this.schedulerQueryEventListener = new SchedulerQueryEventListener(schedulerDAO);
       getEventService().addListenerForType(schedulerEventListener, SchedulerAlarmEvent.class);
       getEventService().addListenerForType(schedulerQueryEventListener, QueryEnded.class);
-      this.waitingInstanceThread = new Thread(
-        new WaitingInstanceHandler(getEventService(), schedulerDAO, waitingThreadInterval));
+      long waitingThreadMinInterval = hiveConf.getLong(
+        LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_MIN_INTERVAL_MILLIS,
+        LensConfConstants.DEFAULT_SCHEDULED_INSTANCE_WAITING_THREAD_MIN_INTERVAL_MILLIS);
+      this.waitingInstanceHandler = new WaitingInstanceHandler(getEventService(), schedulerDAO, waitingThreadInterval,
+        waitingThreadMinInterval);
+      getEventService().addListenerForType(waitingInstanceHandler, QueryEnded.class);
+      getEventService().addListenerForType(waitingInstanceHandler, QueryQueuedForRetry.class);
+      getEventService().addListenerForType(waitingInstanceHandler, SchedulerAlarmEvent.class);
+      this.waitingInstanceThread = new Thread(waitingInstanceHandler, "lens-scheduler-waiting-instances");
     } catch (LensException e) {
       log.error("Error Initialising Scheduler-service", e);
       healthy = false;
     }
   }
 
+  /**
+   * Interval of the waiting instance handler. The former key is read when the interval is left to its default, as
+   * lensserver-default.xml always sets the interval.
+   *
+   * @param conf the server conf
+   * @return the interval in milliseconds
+   */
+  @SuppressWarnings("deprecation")
+  static long getWaitingThreadInterval(Configuration conf) {
+    long interval = conf.getLong(LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS,
+      LensConfConstants.DEFAULT_SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS);
+    String deprecated = conf.get(LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_DEPRECATED);
+    if (deprecated == null || interval != LensConfConstants.DEFAULT_SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS) {
+      return interval;
+    }
+    log.warn("{} is deprecated, use {}", LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_DEPRECATED,
+      LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS);
+    return conf.getLong(LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_DEPRECATED, interval);
+  }
+
   private void doesSessionBelongToUser(LensSessionHandle sessionHandle, String user) throws LensException {
     LensSessionImpl session = getSession(sessionHandle);
     if (!session.getLoggedInUser().equals(user)) {
@@ -569,43 +608,137 @@ public class SchedulerServiceImpl extends BaseLensService implements SchedulerSe
         SchedulerAlarmEvent.EventType.SCHEDULE, instanceInfo.getId()));
   }
 
-  public static class WaitingInstanceHandler implements Runnable {
-    private LensEventService eventService;
-    private SchedulerDAO schedulerDAO;
-    private long delay;
-
-    WaitingInstanceHandler(LensEventService eventService, SchedulerDAO schedulerDAO, long delay) {
+  /**
+   * Schedules the instances waiting for their conditions, like availability of data, to be met. The waiting instances
+   * are scheduled on start and every interval. They are also scheduled, though not sooner than the minimum interval
+   * after the last time, when launch capacity is freed, that is when a query ends or a launched query is queued again
+   * for a retry, and when the alarm service schedules a new instance, as data of the earlier instances has often landed
+   * by then. Instances are looked up with their waiting runs in a single query, and their runs are updated in a single
+   * batch.
+   */
+  public static class WaitingInstanceHandler implements Runnable, LensEventListener<LensEvent> {
+    static final String LAG = "waiting-instance-lag";
+    static final String PASS_TIME = "waiting-instances-pass-time";
+
+    private final LensEventService eventService;
+    private final SchedulerDAO schedulerDAO;
+    private final long delay;
+    private final long minDelay;
+    private final Histogram lag;
+    private final Timer passTime;
+    /** Whether the waiting instances are to be scheduled as soon as the minimum interval allows, guarded by this. */
+    private boolean signalled;
+
+    WaitingInstanceHandler(LensEventService eventService, SchedulerDAO schedulerDAO, long delay, long minDelay) {
       this.eventService = eventService;
       this.schedulerDAO = schedulerDAO;
       this.delay = delay;
+      this.minDelay = Math.min(minDelay, delay);
+      MetricRegistry registry = LensMetricsRegistry.getStaticRegistry();
+      this.lag = registry.histogram(MetricRegistry.name(WaitingInstanceHandler.class, LAG));
+      this.passTime = registry.timer(MetricRegistry.name(WaitingInstanceHandler.class, PASS_TIME));
+    }
+
+    /**
+     * Schedule the waiting instances soon. Signals received before the instances are scheduled are coalesced.
+     */
+    public synchronized void signal() {
+      signalled = true;
+      notifyAll();
+    }
+
+    @Override
+    public void onEvent(LensEvent event) {
+      // reruns of waiting instances are notified by this handler and don't signal it
+      if (event instanceof SchedulerAlarmEvent && (((SchedulerAlarmEvent) event).getPreviousInstance() != null
+        || ((SchedulerAlarmEvent) event).getType() != SchedulerAlarmEvent.EventType.SCHEDULE)) {
+        return;
+      }
+      signal();
     }
 
     @Override
     public void run() {
       while (!Thread.currentThread().isInterrupted()) {
-        // Get all the instance runs which are waiting.
-        List<SchedulerJobInstanceRun> instanceRuns = schedulerDAO.getInstanceRuns(SchedulerJobInstanceState.WAITING);
-        for (SchedulerJobInstanceRun run : instanceRuns) {
-          SchedulerJobInstanceInfo instanceInfo = schedulerDAO.getSchedulerJobInstanceInfo(run.getHandle());
+        try {
+          scheduleWaitingInstances();
+        } catch (RuntimeException e) {
+          log.error("Error while scheduling waiting instances", e);
+        }
+        try {
+          awaitNextPass();
+        } catch (InterruptedException e) {
+          log.info("Thread WaitingInstanceHandler was interrupted");
+          return;
+        }
+      }
+    }
+
+    private synchronized void awaitNextPass() throws InterruptedException {
+      long passStart = System.currentTimeMillis();
+      long earliest = passStart + minDelay;
+      long latest = passStart + delay;
+      long now = passStart;
+      while (now < latest && !(signalled && now >= earliest)) {
+        wait((signalled ? earliest : latest) - now);
+        now = System.currentTimeMillis();
+      }
+      signalled = false;
+    }
+
+    /**
+     * Move the runs of the waiting instances to launching and notify them to be scheduled.
+     *
+     * @return number of instances notified
+     */
+    int scheduleWaitingInstances() {
+      Timer.Context passTimer = passTime.time();
+      try {
+        List<SchedulerJobInstanceInfo> instances = schedulerDAO.getInstancesWithRuns(SchedulerJobInstanceState.WAITING);
+        if (instances.isEmpty()) {
+          return 0;
+        }
+        long now = System.currentTimeMillis();
+        List<SchedulerJobInstanceInfo> prepared = new ArrayList<>(instances.size());
+        List<SchedulerJobInstanceRun> runs = new ArrayList<>(instances.size());
+        for (SchedulerJobInstanceInfo instanceInfo : instances) {
+          List<SchedulerJobInstanceRun> runList = instanceInfo.getInstanceRunList();
+          SchedulerJobInstanceRun run = runList.get(runList.size() - 1);
           try {
             run.setInstanceState(run.getInstanceState().nextTransition(ON_PREPARE));
-            run.setEndTime(System.currentTimeMillis());
-            schedulerDAO.updateJobInstanceRun(run);
+          } catch (InvalidStateTransitionException e) {
+            log.error("Wrong state transition", e);
+            continue;
+          }
+          // the end time of a waiting run is when it started waiting
+          lag.update(now - run.getEndTime());
+          run.setEndTime(now);
+          prepared.add(instanceInfo);
+          runs.add(run);
+        }
+        int[] updated = schedulerDAO.updateJobInstanceRuns(runs);
+        int notified = 0;
+        for (int i = 0; i < updated.length; i++) {
+          SchedulerJobInstanceInfo instanceInfo = prepared.get(i);
+          // drivers may run the batch without counting the rows it updated
+          if (updated[i] != 1 && updated[i] != Statement.SUCCESS_NO_INFO) {
+            log.error("Not able to update the run of instance {} of job {}", instanceInfo.getId(),
+              instanceInfo.getJobId());
+            continue;
+          }
+          try {
             eventService.notifyEvent(
               new SchedulerAlarmEvent(instanceInfo.getJobId(), new DateTime(instanceInfo.getScheduleTime()),
                 SchedulerAlarmEvent.EventType.SCHEDULE, instanceInfo.getId()));
+            notified++;
           } catch (LensException e) {
             log.error("Not able to notify schedule event for job {} and instanceId {}", instanceInfo.getJobId(),
-              instanceInfo.getId());
-          } catch (InvalidStateTransitionException e) {
-            log.error("Wrong state transition", e);
+              instanceInfo.getId(), e);
           }
         }
-      }
-      try {
-        Thread.sleep(delay);
-      } catch (InterruptedException e) {
-        log.warn("Thread WaitingInstanceHandler was inerrupted", e);
+        return notified;
+      } finally {
+        passTimer.stop();
       }
     }
   }
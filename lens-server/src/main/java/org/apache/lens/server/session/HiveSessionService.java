@@ -18,9 +18,7 @@
  */
 package org.apache.lens.server.session;
 
-import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectOutput;
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -32,6 +30,7 @@ import javax.ws.rs.WebApplicationException;
 import org.apache.lens.api.LensSessionHandle;
 import org.apache.lens.server.BaseLensService;
 import org.apache.lens.server.LensServices;
+import org.apache.lens.server.StateJournal;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.health.HealthStatus;
@@ -61,8 +60,8 @@ import lombok.extern.slf4j.Slf4j;
 public class HiveSessionService extends BaseLensService implements SessionService {
 
 
-  /** The restorable sessions. */
-  private List<LensSessionImpl.LensSessionPersistInfo> restorableSessions;
+  /** The restorable sessions, by public id of the session. */
+  private Map<String, LensSessionImpl.LensSessionPersistInfo> restorableSessions;
 
   /** The session expiry thread. */
   private ScheduledExecutorService sessionExpiryThread;
@@ -145,6 +144,7 @@ public class HiveSessionService extends BaseLensService implements SessionServic
       } catch (LensException e) {
         log.warn("Failed to update active session table with error," + e.toString());
       }
+      journalSession(sessionid);
     } catch (RuntimeException e) {
       log.error("Failed to add resource type:" + type + " path:" + path + " in session", e);
       throw new WebApplicationException(e);
@@ -181,6 +181,7 @@ public class HiveSessionService extends BaseLensService implements SessionServic
       } catch (LensException e) {
         log.warn("Failed to update active session table with error," + e.toString());
       }
+      journalSession(sessionid);
     } catch (HiveSQLException e) {
       throw new WebApplicationException(e);
     } finally {
@@ -272,6 +273,7 @@ public class HiveSessionService extends BaseLensService implements SessionServic
     } catch (LensException e) {
       getMetrics().incrCounter(HiveSessionService.class, SESSION_OPEN_COUNTER);
     }
+    journalSession(sessionid);
 
     return sessionid;
   }
@@ -328,6 +330,7 @@ public class HiveSessionService extends BaseLensService implements SessionServic
     } catch (LensException e) {
       log.warn("Failed to update active session table with error," + e.toString());
     }
+    journalSession(sessionid);
   }
 
   /**
@@ -411,7 +414,7 @@ public class HiveSessionService extends BaseLensService implements SessionServic
       return;
     }
 
-    for (LensSessionImpl.LensSessionPersistInfo persistInfo : restorableSessions) {
+    for (LensSessionImpl.LensSessionPersistInfo persistInfo : restorableSessions.values()) {
       restoreSession(persistInfo);
     }
     log.info("Session service restored " + restorableSessions.size() + " sessions");
@@ -515,17 +518,60 @@ public class HiveSessionService extends BaseLensService implements SessionServic
   @Override
   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
     int numSessions = in.readInt();
-    restorableSessions = new ArrayList<LensSessionImpl.LensSessionPersistInfo>();
+    restorableSessions = new LinkedHashMap<>();
 
     for (int i = 0; i < numSessions; i++) {
       LensSessionImpl.LensSessionPersistInfo persistInfo = new LensSessionImpl.LensSessionPersistInfo();
       persistInfo.readExternal(in);
-      restorableSessions.add(persistInfo);
-      SESSION_MAP.put(persistInfo.getSessionHandle().getPublicId().toString(), persistInfo.getSessionHandle());
+      String publicId = persistInfo.getSessionHandle().getPublicId().toString();
+      restorableSessions.put(publicId, persistInfo);
+      SESSION_MAP.put(publicId, persistInfo.getSessionHandle());
     }
     log.info("Session service recovered " + SESSION_MAP.size() + " sessions");
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lens.server.BaseLensService#replayJournal(org.apache.lens.server.StateJournal.Record)
+   */
+  @Override
+  public void replayJournal(StateJournal.Record record) throws IOException, ClassNotFoundException {
+    if (restorableSessions == null) {
+      restorableSessions = new LinkedHashMap<>();
+    }
+    final String publicId = record.getKey();
+    // removed first, so that the session is restored in the order of its last change
+    restorableSessions.remove(publicId);
+    if (record.getType() == StateJournal.RecordType.REMOVE) {
+      SESSION_MAP.remove(publicId);
+      return;
+    }
+    LensSessionImpl.LensSessionPersistInfo persistInfo = new LensSessionImpl.LensSessionPersistInfo();
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record.getPayload()))) {
+      persistInfo.readExternal(in);
+    }
+    restorableSessions.put(publicId, persistInfo);
+    SESSION_MAP.put(publicId, persistInfo.getSessionHandle());
+  }
+
+  /**
+   * Journal the current state of the session.
+   */
+  private void journalSession(LensSessionHandle sessionid) {
+    if (!isStateJournalEnabled()) {
+      return;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      getSession(sessionid).getLensSessionPersistInfo().writeExternal(out);
+    } catch (IOException | ClientErrorException e) {
+      log.warn("Could not serialize session {} for state journal", sessionid.getPublicId(), e);
+      return;
+    }
+    journalUpdate(sessionid.getPublicId().toString(), bytes.toByteArray());
+  }
+
   private MetricsService getMetrics() {
     if (metricsService == null) {
       metricsService = LensServices.get().getService(MetricsService.NAME);
@@ -548,6 +594,7 @@ public class HiveSessionService extends BaseLensService implements SessionServic
     } catch (LensException e) {
       getMetrics().incrCounter(HiveSessionService.class, SESSION_CLOSE_COUNTER);
     }
+    journalRemove(sessionHandle.getPublicId().toString());
     notifyEvent(new SessionClosed(System.currentTimeMillis(), sessionHandle));
   }
 
@@ -628,6 +675,7 @@ public class HiveSessionService extends BaseLensService implements SessionServic
           } catch (LensException e) {
             getMetrics().incrCounter(HiveSessionService.class, SESSION_CLOSE_COUNTER);
           }
+          journalRemove(sessionHandle.getPublicId().toString());
 
         } catch (ClientErrorException nfe) {
           log.error("Error getting session " + sessionHandle.getPublicId(), nfe);
@@ -34,6 +34,7 @@ import org.apache.lens.server.LensServices;
 import org.apache.lens.server.api.LensConfConstants;
 import org.apache.lens.server.api.error.LensException;
 import org.apache.lens.server.api.session.SessionService;
+import org.apache.lens.server.util.StateCodec;
 import org.apache.lens.server.util.UtilityMethods;
 
 import org.apache.hadoop.conf.Configuration;
@@ -614,6 +615,12 @@ public class LensSessionImpl extends HiveSessionImpl implements AutoCloseable {
   @Data
   public static class LensSessionPersistInfo implements Externalizable {
 
+    /**
+     * Written in place of the session handle, when the rest is encoded with {@link StateCodec}. Session handles are
+     * written as XML, so they can't be the same as the marker.
+     */
+    private static final String ENCODED_MARKER = "#";
+
     /** The resources. */
     private List<ResourceEntry> resources = new ArrayList<>();
 
@@ -652,25 +659,10 @@ public class LensSessionImpl extends HiveSessionImpl implements AutoCloseable {
      */
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
-      out.writeUTF(sessionHandle.toString());
-      out.writeUTF(database == null ? "default" : database);
-      out.writeUTF(username == null ? "" : username);
-      out.writeUTF(password == null ? "" : password);
-
-      out.writeInt(resources.size());
-      for (ResourceEntry resource : resources) {
-        out.writeUTF(resource.getType());
-        out.writeUTF(resource.getUri());
-      }
-
-      out.writeInt(config.size());
-      for (String key : config.keySet()) {
-        out.writeUTF(key);
-        out.writeUTF(config.get(key));
-      }
-      out.writeLong(lastAccessTime);
-      out.writeBoolean(markedForClose);
-      out.writeUTF(proxyUser == null ? "" : proxyUser);
+      byte[] encoded = StateCodec.get().encodeSession(this);
+      out.writeUTF(ENCODED_MARKER);
+      out.writeInt(encoded.length);
+      out.write(encoded);
     }
 
     /*
@@ -680,7 +672,15 @@ public class LensSessionImpl extends HiveSessionImpl implements AutoCloseable {
      */
     @Override
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-      sessionHandle = LensSessionHandle.valueOf(in.readUTF());
+      String first = in.readUTF();
+      if (ENCODED_MARKER.equals(first)) {
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        StateCodec.get().readSession(encoded, this);
+        return;
+      }
+      // written before StateCodec, the first field is the session handle
+      sessionHandle = LensSessionHandle.valueOf(first);
       database = in.readUTF();
       username = in.readUTF();
       password = in.readUTF();
@@ -0,0 +1,1071 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.lens.api.LensConf;
+import org.apache.lens.api.LensSessionHandle;
+import org.apache.lens.api.Priority;
+import org.apache.lens.api.query.FailedAttempt;
+import org.apache.lens.api.query.QueryHandle;
+import org.apache.lens.api.query.QueryStatus;
+import org.apache.lens.api.result.LensErrorTO;
+import org.apache.lens.server.api.driver.DriverQueryStatus;
+import org.apache.lens.server.api.query.QueryContext;
+import org.apache.lens.server.api.query.QueryOutputFormatter;
+import org.apache.lens.server.api.query.cost.QueryCost;
+import org.apache.lens.server.api.retry.BackOffRetryHandler;
+import org.apache.lens.server.session.LensSessionImpl;
+import org.apache.lens.server.session.LensSessionImpl.LensSessionPersistInfo;
+
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.collect.Lists;
+
+import lombok.NonNull;
+
+/**
+ * Compact binary codec for the server state persisted in the database, in server snapshots and in the state journal.
+ * <p></p>
+ * An encoded value starts with a two byte magic, the kind of the value and the format version, followed by tagged
+ * fields. A field is written as its tag, which has the field number and the wire type, and its value. Readers skip
+ * fields they don't know, so fields can be added without a version change, and absent fields keep their defaults.
+ * <p></p>
+ * Configuration entries which have the same value as the default configuration are written as keys only, the value
+ * is taken from the defaults on decoding. Queries are written field by field, only the objects of pluggable types,
+ * like costs, retry policies and output formatters, are java serialized on their own. Values which don't start with
+ * the magic are decoded with the older format of the value, which is java serialization for queries and sessions and
+ * XML for configuration, and queries of version 1 are decoded from the java serialized query context.
+ */
+public class StateCodec {
+
+  private static final byte MAGIC_0 = 'L';
+  private static final byte MAGIC_1 = 'C';
+
+  /** Kinds of encoded values. */
+  private static final int KIND_QUERY = 1;
+  private static final int KIND_SESSION = 2;
+  private static final int KIND_CONF = 3;
+
+  /** Current format version. */
+  static final int VERSION = 2;
+
+  /** Wire types. */
+  private static final int VARINT = 0;
+  private static final int FIXED64 = 1;
+  private static final int BYTES = 2;
+
+  // Query fields
+  private static final int QUERY_HANDLE = 1;
+  // java serialized query context, written by version 1
+  private static final int QUERY_SERIALIZED = 2;
+  private static final int QUERY_SERIALIZED_UNCOMPRESSED = 3;
+  private static final int QUERY_COMPRESSED_FIELDS = 4;
+  private static final int QUERY_USER_QUERY = 5;
+  private static final int QUERY_PHASE1_REWRITTEN_QUERY = 6;
+  private static final int QUERY_CONF_ENTRY = 7;
+  private static final int QUERY_CONF_DEFAULT_KEY = 8;
+  private static final int QUERY_SELECTED_DRIVER_QUERY = 9;
+  private static final int QUERY_SELECTED_DRIVER_QUERY_COST = 10;
+  private static final int QUERY_SUBMITTED_USER = 11;
+  private static final int QUERY_SESSION_IDENTIFIER = 12;
+  private static final int QUERY_DRIVER_QUERY_EXPLICITLY_SET = 13;
+  private static final int QUERY_OLAP_QUERY = 14;
+  private static final int QUERY_DATABASE = 15;
+  private static final int QUERY_PRIORITY = 16;
+  private static final int QUERY_PERSISTENT = 17;
+  private static final int QUERY_DRIVER_PERSISTENT = 18;
+  private static final int QUERY_STATUS = 19;
+  private static final int QUERY_RESULT_SET_PATH = 20;
+  private static final int QUERY_DRIVER_RESULT_PATH = 21;
+  private static final int QUERY_SUBMISSION_TIME = 22;
+  private static final int QUERY_LAUNCH_TIME = 23;
+  private static final int QUERY_END_TIME = 24;
+  private static final int QUERY_CLOSED_TIME = 25;
+  private static final int QUERY_DRIVER_OP_HANDLE = 26;
+  private static final int QUERY_DRIVER_STATUS = 27;
+  private static final int QUERY_OUTPUT_FORMATTER = 28;
+  private static final int QUERY_FINISHED_PERSISTED = 29;
+  private static final int QUERY_CLOSED_ON_DRIVER = 30;
+  private static final int QUERY_NAME = 31;
+  private static final int QUERY_CONF_HASH = 32;
+  private static final int QUERY_FAILED_ATTEMPT = 33;
+  private static final int QUERY_DRIVER_RETRY_POLICY = 34;
+  private static final int QUERY_SERVER_RETRY_POLICY = 35;
+
+  // Query status fields
+  private static final int STATUS_PROGRESS = 1;
+  private static final int STATUS_QUEUE_NUMBER = 2;
+  private static final int STATUS_STATUS = 3;
+  private static final int STATUS_STATUS_MESSAGE = 4;
+  private static final int STATUS_RESULT_SET_AVAILABLE = 5;
+  private static final int STATUS_PROGRESS_MESSAGE = 6;
+  private static final int STATUS_ERROR_MESSAGE = 7;
+  private static final int STATUS_ERROR = 8;
+
+  // Driver status fields
+  private static final int DRIVER_STATUS_PROGRESS = 1;
+  private static final int DRIVER_STATUS_STATE = 2;
+  private static final int DRIVER_STATUS_STATUS_MESSAGE = 3;
+  private static final int DRIVER_STATUS_RESULT_SET_AVAILABLE = 4;
+  private static final int DRIVER_STATUS_PROGRESS_MESSAGE = 5;
+  private static final int DRIVER_STATUS_ERROR_MESSAGE = 6;
+  private static final int DRIVER_STATUS_START_TIME = 7;
+  private static final int DRIVER_STATUS_FINISH_TIME = 8;
+
+  // Failed attempt fields
+  private static final int ATTEMPT_DRIVER_NAME = 1;
+  private static final int ATTEMPT_PROGRESS = 2;
+  private static final int ATTEMPT_PROGRESS_MESSAGE = 3;
+  private static final int ATTEMPT_ERROR_MESSAGE = 4;
+  private static final int ATTEMPT_START_TIME = 5;
+  private static final int ATTEMPT_FINISH_TIME = 6;
+
+  // Session fields
+  private static final int SESSION_PUBLIC_ID = 1;
+  private static final int SESSION_SECRET_ID = 2;
+  private static final int SESSION_DATABASE = 3;
+  private static final int SESSION_USERNAME = 4;
+  private static final int SESSION_PASSWORD = 5;
+  private static final int SESSION_RESOURCE = 6;
+  private static final int SESSION_CONF_ENTRY = 7;
+  private static final int SESSION_CONF_DEFAULT_KEY = 8;
+  private static final int SESSION_LAST_ACCESS_TIME = 9;
+  private static final int SESSION_MARKED_FOR_CLOSE = 10;
+  private static final int SESSION_PROXY_USER = 11;
+
+  // Conf fields
+  private static final int CONF_ENTRY = 1;
+  private static final int CONF_DEFAULT_KEY = 2;
+
+  private static StateCodec instance;
+
+  /** Default configuration, conf entries are written as deltas from this. */
+  private final Configuration defaults;
+
+  public StateCodec(@NonNull Configuration defaults) {
+    this.defaults = defaults;
+  }
+
+  /**
+   * Gets the codec, with the session default configuration as defaults.
+   *
+   * @return the codec
+   */
+  public static synchronized StateCodec get() {
+    if (instance == null) {
+      instance = new StateCodec(LensSessionImpl.createDefaultConf());
+    }
+    return instance;
+  }
+
+  /**
+   * Whether the value is in this format.
+   *
+   * @param bytes the bytes
+   * @return true if bytes are encoded by this codec
+   */
+  public static boolean isEncoded(byte[] bytes) {
+    return bytes != null && bytes.length > 2 && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+  }
+
+  /**
+   * Encode a query, without compression. Used on every status change of a query, where the CPU cost of compressing
+   * is not worth the saved bytes.
+   *
+   * @param ctx the query
+   * @return the bytes
+   * @throws IOException if the query can't be serialized
+   */
+  public byte[] encodeQuery(QueryContext ctx) throws IOException {
+    return encodeQuery(ctx, false);
+  }
+
+  /**
+   * Encode a query. The fields of the query are compressed if asked for, the query handle is always readable without
+   * decompression.
+   *
+   * @param ctx      the query
+   * @param compress whether to compress the fields of the query
+   * @return the bytes
+   * @throws IOException if the query can't be encoded
+   */
+  public byte[] encodeQuery(QueryContext ctx, boolean compress) throws IOException {
+    TaggedOutput out = new TaggedOutput(KIND_QUERY);
+    out.writeString(QUERY_HANDLE, ctx.getQueryHandleString());
+    if (compress) {
+      TaggedOutput fields = new TaggedOutput();
+      writeQueryFields(fields, ctx);
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (OutputStream deflater = new DeflaterOutputStream(compressed, new Deflater(Deflater.BEST_SPEED))) {
+        deflater.write(fields.toByteArray());
+      }
+      out.writeBytes(QUERY_COMPRESSED_FIELDS, compressed.toByteArray());
+    } else {
+      writeQueryFields(out, ctx);
+    }
+    return out.toByteArray();
+  }
+
+  private void writeQueryFields(TaggedOutput out, QueryContext ctx) throws IOException {
+    out.writeString(QUERY_USER_QUERY, ctx.getUserQuery());
+    out.writeString(QUERY_PHASE1_REWRITTEN_QUERY, ctx.getPhase1RewrittenQuery());
+    if (ctx.getLensConf() != null) {
+      writeConf(out, ctx.getLensConf().getProperties(), QUERY_CONF_ENTRY, QUERY_CONF_DEFAULT_KEY);
+    }
+    out.writeString(QUERY_SELECTED_DRIVER_QUERY, ctx.getSelectedDriverQuery());
+    out.writeObject(QUERY_SELECTED_DRIVER_QUERY_COST, ctx.getSelectedDriverQueryCost());
+    out.writeString(QUERY_SUBMITTED_USER, ctx.getSubmittedUser());
+    out.writeString(QUERY_SESSION_IDENTIFIER, ctx.getLensSessionIdentifier());
+    out.writeBoolean(QUERY_DRIVER_QUERY_EXPLICITLY_SET, ctx.isDriverQueryExplicitlySet());
+    out.writeBoolean(QUERY_OLAP_QUERY, ctx.isOlapQuery());
+    out.writeString(QUERY_DATABASE, ctx.getDatabase());
+    out.writeEnum(QUERY_PRIORITY, ctx.getPriority());
+    out.writeBoolean(QUERY_PERSISTENT, ctx.isPersistent());
+    out.writeBoolean(QUERY_DRIVER_PERSISTENT, ctx.isDriverPersistent());
+    if (ctx.getStatus() != null) {
+      out.writeBytes(QUERY_STATUS, encodeStatus(ctx.getStatus()));
+    }
+    out.writeString(QUERY_RESULT_SET_PATH, ctx.getResultSetPath());
+    out.writeString(QUERY_DRIVER_RESULT_PATH, ctx.getDriverResultPath());
+    out.writeLong(QUERY_SUBMISSION_TIME, ctx.getSubmissionTime());
+    out.writeLong(QUERY_LAUNCH_TIME, ctx.getLaunchTime());
+    out.writeLong(QUERY_END_TIME, ctx.getEndTime());
+    out.writeLong(QUERY_CLOSED_TIME, ctx.getClosedTime());
+    out.writeString(QUERY_DRIVER_OP_HANDLE, ctx.getDriverOpHandle());
+    if (ctx.getDriverStatus() != null) {
+      out.writeBytes(QUERY_DRIVER_STATUS, encodeDriverStatus(ctx.getDriverStatus()));
+    }
+    out.writeObject(QUERY_OUTPUT_FORMATTER, ctx.getQueryOutputFormatter());
+    out.writeBoolean(QUERY_FINISHED_PERSISTED, ctx.isFinishedQueryPersisted());
+    out.writeBoolean(QUERY_CLOSED_ON_DRIVER, ctx.isQueryClosedOnDriver());
+    out.writeString(QUERY_NAME, ctx.getQueryName());
+    if (ctx.getQueryConfHash() != null) {
+      out.writeBytes(QUERY_CONF_HASH, ctx.getQueryConfHash());
+    }
+    if (ctx.getFailedAttempts() != null) {
+      for (FailedAttempt attempt : ctx.getFailedAttempts()) {
+        out.writeBytes(QUERY_FAILED_ATTEMPT, encodeFailedAttempt(attempt));
+      }
+    }
+    out.writeObject(QUERY_DRIVER_RETRY_POLICY, ctx.getDriverRetryPolicy());
+    out.writeObject(QUERY_SERVER_RETRY_POLICY, ctx.getServerRetryPolicy());
+  }
+
+  private byte[] encodeStatus(QueryStatus status) throws IOException {
+    TaggedOutput out = new TaggedOutput();
+    out.writeDouble(STATUS_PROGRESS, status.getProgress());
+    if (status.getQueueNumber() != null) {
+      out.writeLong(STATUS_QUEUE_NUMBER, status.getQueueNumber());
+    }
+    out.writeEnum(STATUS_STATUS, status.getStatus());
+    out.writeString(STATUS_STATUS_MESSAGE, status.getStatusMessage());
+    out.writeBoolean(STATUS_RESULT_SET_AVAILABLE, status.isResultSetAvailable());
+    out.writeString(STATUS_PROGRESS_MESSAGE, status.getProgressMessage());
+    out.writeString(STATUS_ERROR_MESSAGE, status.getErrorMessage());
+    out.writeObject(STATUS_ERROR, status.getLensErrorTO());
+    return out.toByteArray();
+  }
+
+  private byte[] encodeDriverStatus(DriverQueryStatus status) throws IOException {
+    TaggedOutput out = new TaggedOutput();
+    out.writeDouble(DRIVER_STATUS_PROGRESS, status.getProgress());
+    out.writeEnum(DRIVER_STATUS_STATE, status.getState());
+    out.writeString(DRIVER_STATUS_STATUS_MESSAGE, status.getStatusMessage());
+    out.writeBoolean(DRIVER_STATUS_RESULT_SET_AVAILABLE, status.isResultSetAvailable());
+    out.writeString(DRIVER_STATUS_PROGRESS_MESSAGE, status.getProgressMessage());
+    out.writeString(DRIVER_STATUS_ERROR_MESSAGE, status.getErrorMessage());
+    if (status.getDriverStartTime() != null) {
+      out.writeLong(DRIVER_STATUS_START_TIME, status.getDriverStartTime());
+    }
+    if (status.getDriverFinishTime() != null) {
+      out.writeLong(DRIVER_STATUS_FINISH_TIME, status.getDriverFinishTime());
+    }
+    return out.toByteArray();
+  }
+
+  private byte[] encodeFailedAttempt(FailedAttempt attempt) throws IOException {
+    TaggedOutput out = new TaggedOutput();
+    out.writeString(ATTEMPT_DRIVER_NAME, attempt.getDriverName());
+    out.writeDouble(ATTEMPT_PROGRESS, attempt.getProgress());
+    out.writeString(ATTEMPT_PROGRESS_MESSAGE, attempt.getProgressMessage());
+    out.writeString(ATTEMPT_ERROR_MESSAGE, attempt.getErrorMessage());
+    if (attempt.getDriverStartTime() != null) {
+      out.writeLong(ATTEMPT_START_TIME, attempt.getDriverStartTime());
+    }
+    if (attempt.getDriverFinishTime() != null) {
+      out.writeLong(ATTEMPT_FINISH_TIME, attempt.getDriverFinishTime());
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode a query encoded by {@link #encodeQuery(QueryContext)}, or java serialized.
+   *
+   * @param bytes the bytes
+   * @return the query
+   * @throws IOException if the bytes can't be decoded
+   */
+  public QueryContext decodeQuery(byte[] bytes) throws IOException {
+    if (!isEncoded(bytes)) {
+      return (QueryContext) SerializationUtils.deserialize(bytes);
+    }
+    TaggedInput in = new TaggedInput(bytes, KIND_QUERY);
+    QueryFields fields = new QueryFields();
+    while (in.next()) {
+      if (in.field() == QUERY_SERIALIZED || in.field() == QUERY_SERIALIZED_UNCOMPRESSED) {
+        return deserializeQuery(in.readBytes(), in.field() == QUERY_SERIALIZED);
+      } else if (in.field() == QUERY_COMPRESSED_FIELDS) {
+        TaggedInput compressed = new TaggedInput(inflate(in.readBytes()));
+        while (compressed.next()) {
+          readQueryField(compressed, fields);
+        }
+      } else {
+        readQueryField(in, fields);
+      }
+    }
+    if (fields.handle == null) {
+      throw new IOException("Encoded query has no query handle");
+    }
+    return fields.toQueryContext();
+  }
+
+  private QueryContext deserializeQuery(byte[] bytes, boolean compressed) throws IOException {
+    InputStream serialized = new ByteArrayInputStream(bytes);
+    if (compressed) {
+      serialized = new InflaterInputStream(serialized);
+    }
+    try (ObjectInputStream objIn = new ObjectInputStream(serialized)) {
+      return (QueryContext) objIn.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static byte[] inflate(byte[] bytes) throws IOException {
+    ByteArrayOutputStream inflated = new ByteArrayOutputStream(bytes.length * 4);
+    try (InputStream inflater = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = inflater.read(buffer)) != -1) {
+        inflated.write(buffer, 0, read);
+      }
+    }
+    return inflated.toByteArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readQueryField(TaggedInput in, QueryFields fields) throws IOException {
+    switch (in.field()) {
+    case QUERY_HANDLE:
+      fields.handle = QueryHandle.fromString(in.readString());
+      break;
+    case QUERY_USER_QUERY:
+      fields.userQuery = in.readString();
+      break;
+    case QUERY_PHASE1_REWRITTEN_QUERY:
+      fields.phase1RewrittenQuery = in.readString();
+      break;
+    case QUERY_CONF_ENTRY:
+      String[] entry = in.readPair();
+      fields.lensConf.addProperty(entry[0], entry[1]);
+      break;
+    case QUERY_CONF_DEFAULT_KEY:
+      readDefaultKey(in, fields.lensConf.getProperties());
+      break;
+    case QUERY_SELECTED_DRIVER_QUERY:
+      fields.selectedDriverQuery = in.readString();
+      break;
+    case QUERY_SELECTED_DRIVER_QUERY_COST:
+      fields.selectedDriverQueryCost = (QueryCost) in.readObject();
+      break;
+    case QUERY_SUBMITTED_USER:
+      fields.submittedUser = in.readString();
+      break;
+    case QUERY_SESSION_IDENTIFIER:
+      fields.lensSessionIdentifier = in.readString();
+      break;
+    case QUERY_DRIVER_QUERY_EXPLICITLY_SET:
+      fields.driverQueryExplicitlySet = in.readBoolean();
+      break;
+    case QUERY_OLAP_QUERY:
+      fields.olapQuery = in.readBoolean();
+      break;
+    case QUERY_DATABASE:
+      fields.database = in.readString();
+      break;
+    case QUERY_PRIORITY:
+      fields.priority = Priority.valueOf(in.readString());
+      break;
+    case QUERY_PERSISTENT:
+      fields.persistent = in.readBoolean();
+      break;
+    case QUERY_DRIVER_PERSISTENT:
+      fields.driverPersistent = in.readBoolean();
+      break;
+    case QUERY_STATUS:
+      fields.status = decodeStatus(new TaggedInput(in.readBytes()));
+      break;
+    case QUERY_RESULT_SET_PATH:
+      fields.resultSetPath = in.readString();
+      break;
+    case QUERY_DRIVER_RESULT_PATH:
+      fields.driverResultPath = in.readString();
+      break;
+    case QUERY_SUBMISSION_TIME:
+      fields.submissionTime = in.readLong();
+      break;
+    case QUERY_LAUNCH_TIME:
+      fields.launchTime = in.readLong();
+      break;
+    case QUERY_END_TIME:
+      fields.endTime = in.readLong();
+      break;
+    case QUERY_CLOSED_TIME:
+      fields.closedTime = in.readLong();
+      break;
+    case QUERY_DRIVER_OP_HANDLE:
+      fields.driverOpHandle = in.readString();
+      break;
+    case QUERY_DRIVER_STATUS:
+      fields.driverStatus = decodeDriverStatus(new TaggedInput(in.readBytes()));
+      break;
+    case QUERY_OUTPUT_FORMATTER:
+      fields.queryOutputFormatter = (QueryOutputFormatter) in.readObject();
+      break;
+    case QUERY_FINISHED_PERSISTED:
+      fields.finishedQueryPersisted = in.readBoolean();
+      break;
+    case QUERY_CLOSED_ON_DRIVER:
+      fields.queryClosedOnDriver = in.readBoolean();
+      break;
+    case QUERY_NAME:
+      fields.queryName = in.readString();
+      break;
+    case QUERY_CONF_HASH:
+      fields.queryConfHash = in.readBytes();
+      break;
+    case QUERY_FAILED_ATTEMPT:
+      fields.failedAttempts.add(decodeFailedAttempt(new TaggedInput(in.readBytes())));
+      break;
+    case QUERY_DRIVER_RETRY_POLICY:
+      fields.driverRetryPolicy = (BackOffRetryHandler<QueryContext>) in.readObject();
+      break;
+    case QUERY_SERVER_RETRY_POLICY:
+      fields.serverRetryPolicy = (BackOffRetryHandler<QueryContext>) in.readObject();
+      break;
+    default:
+      in.skip();
+    }
+  }
+
+  private QueryStatus decodeStatus(TaggedInput in) throws IOException {
+    double progress = 0;
+    Integer queueNumber = null;
+    QueryStatus.Status status = null;
+    String statusMessage = null;
+    boolean resultSetAvailable = false;
+    String progressMessage = null;
+    String errorMessage = null;
+    LensErrorTO error = null;
+    while (in.next()) {
+      switch (in.field()) {
+      case STATUS_PROGRESS:
+        progress = in.readDouble();
+        break;
+      case STATUS_QUEUE_NUMBER:
+        queueNumber = (int) in.readLong();
+        break;
+      case STATUS_STATUS:
+        status = QueryStatus.Status.valueOf(in.readString());
+        break;
+      case STATUS_STATUS_MESSAGE:
+        statusMessage = in.readString();
+        break;
+      case STATUS_RESULT_SET_AVAILABLE:
+        resultSetAvailable = in.readBoolean();
+        break;
+      case STATUS_PROGRESS_MESSAGE:
+        progressMessage = in.readString();
+        break;
+      case STATUS_ERROR_MESSAGE:
+        errorMessage = in.readString();
+        break;
+      case STATUS_ERROR:
+        error = (LensErrorTO) in.readObject();
+        break;
+      default:
+        in.skip();
+      }
+    }
+    return new QueryStatus(progress, queueNumber, status, statusMessage, resultSetAvailable, progressMessage,
+      errorMessage, error);
+  }
+
+  private DriverQueryStatus decodeDriverStatus(TaggedInput in) throws IOException {
+    DriverQueryStatus status = new DriverQueryStatus();
+    while (in.next()) {
+      switch (in.field()) {
+      case DRIVER_STATUS_PROGRESS:
+        status.setProgress(in.readDouble());
+        break;
+      case DRIVER_STATUS_STATE:
+        status.setState(DriverQueryStatus.DriverQueryState.valueOf(in.readString()));
+        break;
+      case DRIVER_STATUS_STATUS_MESSAGE:
+        status.setStatusMessage(in.readString());
+        break;
+      case DRIVER_STATUS_RESULT_SET_AVAILABLE:
+        status.setResultSetAvailable(in.readBoolean());
+        break;
+      case DRIVER_STATUS_PROGRESS_MESSAGE:
+        status.setProgressMessage(in.readString());
+        break;
+      case DRIVER_STATUS_ERROR_MESSAGE:
+        status.setErrorMessage(in.readString());
+        break;
+      case DRIVER_STATUS_START_TIME:
+        status.setDriverStartTime(in.readLong());
+        break;
+      case DRIVER_STATUS_FINISH_TIME:
+        status.setDriverFinishTime(in.readLong());
+        break;
+      default:
+        in.skip();
+      }
+    }
+    return status;
+  }
+
+  private FailedAttempt decodeFailedAttempt(TaggedInput in) throws IOException {
+    String driverName = null;
+    double progress = 0;
+    String progressMessage = null;
+    String errorMessage = null;
+    Long startTime = null;
+    Long finishTime = null;
+    while (in.next()) {
+      switch (in.field()) {
+      case ATTEMPT_DRIVER_NAME:
+        driverName = in.readString();
+        break;
+      case ATTEMPT_PROGRESS:
+        progress = in.readDouble();
+        break;
+      case ATTEMPT_PROGRESS_MESSAGE:
+        progressMessage = in.readString();
+        break;
+      case ATTEMPT_ERROR_MESSAGE:
+        errorMessage = in.readString();
+        break;
+      case ATTEMPT_START_TIME:
+        startTime = in.readLong();
+        break;
+      case ATTEMPT_FINISH_TIME:
+        finishTime = in.readLong();
+        break;
+      default:
+        in.skip();
+      }
+    }
+    return new FailedAttempt(driverName, progress, progressMessage, errorMessage, startTime, finishTime);
+  }
+
+  /**
+   * Encode a session.
+   *
+   * @param info the session
+   * @return the bytes
+   * @throws IOException if the session can't be encoded
+   */
+  public byte[] encodeSession(LensSessionPersistInfo info) throws IOException {
+    TaggedOutput out = new TaggedOutput(KIND_SESSION);
+    LensSessionHandle handle = info.getSessionHandle();
+    out.writeString(SESSION_PUBLIC_ID, handle.getPublicId().toString());
+    out.writeString(SESSION_SECRET_ID, handle.getSecretId().toString());
+    out.writeString(SESSION_DATABASE, info.getDatabase() == null ? "default" : info.getDatabase());
+    out.writeString(SESSION_USERNAME, info.getUsername());
+    out.writeString(SESSION_PASSWORD, info.getPassword());
+    for (LensSessionImpl.ResourceEntry resource : info.getResources()) {
+      out.writePair(SESSION_RESOURCE, resource.getType(), resource.getUri());
+    }
+    writeConf(out, info.getConfig(), SESSION_CONF_ENTRY, SESSION_CONF_DEFAULT_KEY);
+    out.writeLong(SESSION_LAST_ACCESS_TIME, info.getLastAccessTime());
+    out.writeLong(SESSION_MARKED_FOR_CLOSE, info.isMarkedForClose() ? 1 : 0);
+    out.writeString(SESSION_PROXY_USER, info.getProxyUser());
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode a session encoded by {@link #encodeSession(LensSessionPersistInfo)}, or java serialized.
+   *
+   * @param bytes the bytes
+   * @return the session
+   * @throws IOException if the bytes can't be decoded
+   */
+  public LensSessionPersistInfo decodeSession(byte[] bytes) throws IOException {
+    if (!isEncoded(bytes)) {
+      return (LensSessionPersistInfo) SerializationUtils.deserialize(bytes);
+    }
+    LensSessionPersistInfo info = new LensSessionPersistInfo();
+    readSession(bytes, info);
+    return info;
+  }
+
+  /**
+   * Read a session encoded by {@link #encodeSession(LensSessionPersistInfo)} into the given object.
+   *
+   * @param bytes the bytes
+   * @param info  the session to read into
+   * @throws IOException if the bytes can't be decoded
+   */
+  public void readSession(byte[] bytes, LensSessionPersistInfo info) throws IOException {
+    TaggedInput in = new TaggedInput(bytes, KIND_SESSION);
+    String publicId = null;
+    String secretId = null;
+    info.getResources().clear();
+    info.getConfig().clear();
+    while (in.next()) {
+      switch (in.field()) {
+      case SESSION_PUBLIC_ID:
+        publicId = in.readString();
+        break;
+      case SESSION_SECRET_ID:
+        secretId = in.readString();
+        break;
+      case SESSION_DATABASE:
+        info.setDatabase(in.readString());
+        break;
+      case SESSION_USERNAME:
+        info.setUsername(in.readString());
+        break;
+      case SESSION_PASSWORD:
+        info.setPassword(in.readString());
+        break;
+      case SESSION_RESOURCE:
+        String[] resource = in.readPair();
+        info.getResources().add(new LensSessionImpl.ResourceEntry(resource[0], resource[1]));
+        break;
+      case SESSION_CONF_ENTRY:
+        String[] entry = in.readPair();
+        info.getConfig().put(entry[0], entry[1]);
+        break;
+      case SESSION_CONF_DEFAULT_KEY:
+        readDefaultKey(in, info.getConfig());
+        break;
+      case SESSION_LAST_ACCESS_TIME:
+        info.setLastAccessTime(in.readLong());
+        break;
+      case SESSION_MARKED_FOR_CLOSE:
+        info.setMarkedForClose(in.readLong() != 0);
+        break;
+      case SESSION_PROXY_USER:
+        info.setProxyUser(in.readString());
+        break;
+      default:
+        in.skip();
+      }
+    }
+    if (publicId == null || secretId == null) {
+      throw new IOException("Encoded session has no session handle");
+    }
+    info.setSessionHandle(new LensSessionHandle(UUID.fromString(publicId), UUID.fromString(secretId)));
+  }
+
+  /**
+   * Encode a conf. Entries with the default value are written as keys only.
+   *
+   * @param conf the conf
+   * @return the bytes
+   * @throws IOException if the conf can't be encoded
+   */
+  public byte[] encodeConf(LensConf conf) throws IOException {
+    TaggedOutput out = new TaggedOutput(KIND_CONF);
+    writeConf(out, conf.getProperties(), CONF_ENTRY, CONF_DEFAULT_KEY);
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode a conf encoded by {@link #encodeConf(LensConf)}, or XML of the conf.
+   *
+   * @param bytes the bytes
+   * @return the conf
+   * @throws IOException if the bytes can't be decoded
+   */
+  public LensConf decodeConf(byte[] bytes) throws IOException {
+    if (!isEncoded(bytes)) {
+      return LensConf.fromXMLString(new String(bytes, StandardCharsets.UTF_8), LensConf.class);
+    }
+    TaggedInput in = new TaggedInput(bytes, KIND_CONF);
+    LensConf conf = new LensConf();
+    while (in.next()) {
+      switch (in.field()) {
+      case CONF_ENTRY:
+        String[] entry = in.readPair();
+        conf.addProperty(entry[0], entry[1]);
+        break;
+      case CONF_DEFAULT_KEY:
+        readDefaultKey(in, conf.getProperties());
+        break;
+      default:
+        in.skip();
+      }
+    }
+    return conf;
+  }
+
+  private void writeConf(TaggedOutput out, Map<String, String> conf, int entryField, int defaultKeyField)
+    throws IOException {
+    for (Map.Entry<String, String> entry : conf.entrySet()) {
+      if (entry.getValue() != null && entry.getValue().equals(defaults.get(entry.getKey()))) {
+        out.writeString(defaultKeyField, entry.getKey());
+      } else {
+        out.writePair(entryField, entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private void readDefaultKey(TaggedInput in, Map<String, String> conf) throws IOException {
+    String key = in.readString();
+    String value = defaults.get(key);
+    // If the key is no longer in defaults, the entry is dropped and the current default applies
+    if (value != null) {
+      conf.put(key, value);
+    }
+  }
+
+  /**
+   * Fields of a query being decoded, the query context is created once all are read.
+   */
+  private static class QueryFields {
+    private QueryHandle handle;
+    private String userQuery;
+    private String phase1RewrittenQuery;
+    private final LensConf lensConf = new LensConf();
+    private String selectedDriverQuery;
+    private QueryCost selectedDriverQueryCost;
+    private String submittedUser;
+    private String lensSessionIdentifier;
+    private boolean driverQueryExplicitlySet;
+    private boolean olapQuery;
+    private String database = "default";
+    private Priority priority;
+    private boolean persistent;
+    private boolean driverPersistent;
+    private QueryStatus status;
+    private String resultSetPath;
+    private String driverResultPath;
+    private long submissionTime;
+    private long launchTime;
+    private long endTime;
+    private long closedTime;
+    private String driverOpHandle;
+    private DriverQueryStatus driverStatus = new DriverQueryStatus();
+    private QueryOutputFormatter queryOutputFormatter;
+    private boolean finishedQueryPersisted;
+    private boolean queryClosedOnDriver;
+    private String queryName;
+    private byte[] queryConfHash;
+    private final List<FailedAttempt> failedAttempts = Lists.newArrayList();
+    private BackOffRetryHandler<QueryContext> driverRetryPolicy;
+    private BackOffRetryHandler<QueryContext> serverRetryPolicy;
+
+    QueryContext toQueryContext() {
+      QueryContext ctx = new QueryContext(handle, userQuery, submittedUser, database, lensConf, selectedDriverQuery,
+        driverQueryExplicitlySet, submissionTime, persistent, driverPersistent, driverStatus);
+      ctx.setPhase1RewrittenQuery(phase1RewrittenQuery);
+      ctx.setSelectedDriverQueryCost(selectedDriverQueryCost);
+      ctx.setLensSessionIdentifier(lensSessionIdentifier);
+      ctx.setOlapQuery(olapQuery);
+      ctx.setPriority(priority);
+      ctx.setStatusSkippingTransitionTest(status);
+      ctx.setResultSetPath(resultSetPath);
+      ctx.setDriverResultPath(driverResultPath);
+      ctx.setLaunchTime(launchTime);
+      ctx.setEndTime(endTime);
+      ctx.setClosedTime(closedTime);
+      ctx.setDriverOpHandle(driverOpHandle);
+      ctx.setQueryOutputFormatter(queryOutputFormatter);
+      ctx.setFinishedQueryPersisted(finishedQueryPersisted);
+      ctx.setQueryClosedOnDriver(queryClosedOnDriver);
+      ctx.setQueryName(queryName);
+      ctx.setQueryConfHash(queryConfHash);
+      ctx.setFailedAttempts(failedAttempts);
+      ctx.setDriverRetryPolicy(driverRetryPolicy);
+      ctx.setServerRetryPolicy(serverRetryPolicy);
+      return ctx;
+    }
+  }
+
+  /**
+   * Writer of tagged fields.
+   */
+  private static class TaggedOutput {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /** Writer of a value nested in a field, without the header. */
+    TaggedOutput() {
+    }
+
+    TaggedOutput(int kind) throws IOException {
+      out.writeByte(MAGIC_0);
+      out.writeByte(MAGIC_1);
+      writeVarint(kind);
+      writeVarint(VERSION);
+    }
+
+    void writeLong(int field, long value) throws IOException {
+      writeVarint(field << 3 | VARINT);
+      writeVarint(value);
+    }
+
+    void writeBoolean(int field, boolean value) throws IOException {
+      // false is the default of absent fields
+      if (value) {
+        writeLong(field, 1);
+      }
+    }
+
+    void writeDouble(int field, double value) throws IOException {
+      if (value != 0) {
+        writeVarint(field << 3 | FIXED64);
+        out.writeLong(Double.doubleToLongBits(value));
+      }
+    }
+
+    void writeEnum(int field, Enum<?> value) throws IOException {
+      if (value != null) {
+        writeString(field, value.name());
+      }
+    }
+
+    /** Values of pluggable types are java serialized on their own. */
+    void writeObject(int field, Object value) throws IOException {
+      if (value instanceof Serializable) {
+        writeBytes(field, SerializationUtils.serialize((Serializable) value));
+      } else if (value != null) {
+        throw new NotSerializableException(value.getClass().getName());
+      }
+    }
+
+    void writeString(int field, String value) throws IOException {
+      if (value != null) {
+        writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    void writeBytes(int field, byte[] value) throws IOException {
+      writeVarint(field << 3 | BYTES);
+      writeVarint(value.length);
+      out.write(value);
+    }
+
+    void writePair(int field, String first, String second) throws IOException {
+      byte[] firstBytes = first.getBytes(StandardCharsets.UTF_8);
+      byte[] secondBytes = second == null ? null : second.getBytes(StandardCharsets.UTF_8);
+      writeVarint(field << 3 | BYTES);
+      writeVarint(varintSize(firstBytes.length) + firstBytes.length
+        + (secondBytes == null ? 0 : varintSize(secondBytes.length) + secondBytes.length));
+      writeVarint(firstBytes.length);
+      out.write(firstBytes);
+      if (secondBytes != null) {
+        writeVarint(secondBytes.length);
+        out.write(secondBytes);
+      }
+    }
+
+    private void writeVarint(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        out.writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      out.writeByte((int) value);
+    }
+
+    private static int varintSize(long value) {
+      int size = 1;
+      while ((value & ~0x7FL) != 0) {
+        value >>>= 7;
+        size++;
+      }
+      return size;
+    }
+
+    byte[] toByteArray() throws IOException {
+      out.flush();
+      return bytes.toByteArray();
+    }
+  }
+
+  /**
+   * Reader of tagged fields.
+   */
+  private static class TaggedInput {
+    private final byte[] bytes;
+    private int position;
+    private int limit;
+    private int tag;
+
+    /** Reader of a value nested in a field, without the header. */
+    TaggedInput(byte[] bytes) {
+      this.bytes = bytes;
+      this.position = 0;
+      this.limit = bytes.length;
+    }
+
+    TaggedInput(byte[] bytes, int kind) throws IOException {
+      this(bytes);
+      this.position = 2;
+      int actualKind = (int) readVarint();
+      if (actualKind != kind) {
+        throw new IOException("Expected encoded value of kind " + kind + ", found " + actualKind);
+      }
+      int version = (int) readVarint();
+      if (version > VERSION) {
+        throw new IOException("Unsupported encoding version " + version + ", latest known is " + VERSION);
+      }
+    }
+
+    boolean next() throws IOException {
+      if (position >= limit) {
+        return false;
+      }
+      tag = (int) readVarint();
+      return true;
+    }
+
+    int field() {
+      return tag >>> 3;
+    }
+
+    long readLong() throws IOException {
+      checkWireType(VARINT);
+      return readVarint();
+    }
+
+    boolean readBoolean() throws IOException {
+      return readLong() != 0;
+    }
+
+    double readDouble() throws IOException {
+      checkWireType(FIXED64);
+      if (position + 8 > limit) {
+        throw new EOFException("Truncated encoded value");
+      }
+      long bits = 0;
+      for (int i = 0; i < 8; i++) {
+        bits = bits << 8 | (bytes[position++] & 0xFF);
+      }
+      return Double.longBitsToDouble(bits);
+    }
+
+    Object readObject() throws IOException {
+      try {
+        return SerializationUtils.deserialize(readBytes());
+      } catch (SerializationException e) {
+        throw new IOException("Could not deserialize field " + field(), e);
+      }
+    }
+
+    byte[] readBytes() throws IOException {
+      checkWireType(BYTES);
+      int length = readLength();
+      byte[] value = new byte[length];
+      System.arraycopy(bytes, position, value, 0, length);
+      position += length;
+      return value;
+    }
+
+    String readString() throws IOException {
+      checkWireType(BYTES);
+      return readUTF8(readLength());
+    }
+
+    String[] readPair() throws IOException {
+      checkWireType(BYTES);
+      int end = position + readLength();
+      String first = readUTF8(readLength());
+      String second = position < end ? readUTF8(readLength()) : null;
+      position = end;
+      return new String[]{first, second};
+    }
+
+    void skip() throws IOException {
+      switch (tag & 0x7) {
+      case VARINT:
+        readVarint();
+        break;
+      case FIXED64:
+        position += 8;
+        break;
+      case BYTES:
+        position += readLength();
+        break;
+      default:
+        throw new IOException("Unknown wire type " + (tag & 0x7) + " for field " + field());
+      }
+    }
+
+    private String readUTF8(int length) {
+      String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    private int readLength() throws IOException {
+      long length = readVarint();
+      if (length < 0 || position + length > limit) {
+        throw new EOFException("Field length " + length + " is beyond the encoded value");
+      }
+      return (int) length;
+    }
+
+    private void checkWireType(int wireType) throws IOException {
+      if ((tag & 0x7) != wireType) {
+        throw new IOException("Unexpected wire type " + (tag & 0x7) + " for field " + field());
+      }
+    }
+
+    private long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (position >= limit) {
+          throw new EOFException("Truncated encoded value");
+        }
+        byte b = bytes[position++];
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed varint");
+    }
+  }
+}
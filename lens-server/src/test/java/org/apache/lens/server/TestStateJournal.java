@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lens.server.StateJournal.Record;
+import org.apache.lens.server.StateJournal.RecordType;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestStateJournal {
+
+  private final File dir = new File("target/state-journal-test");
+  private FileSystem fs;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    FileUtils.deleteQuietly(dir);
+    fs = FileSystem.getLocal(new Configuration()).getRaw();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    FileUtils.deleteQuietly(dir);
+  }
+
+  private StateJournal newJournal(long maxBytes, Runnable trigger) {
+    return new StateJournal(fs, new Path(dir.getAbsolutePath()), maxBytes, trigger);
+  }
+
+  private static List<Record> recover(StateJournal journal) throws Exception {
+    final List<Record> records = new ArrayList<>();
+    journal.recover(new StateJournal.Replayer() {
+      @Override
+      public void replay(Record record) {
+        records.add(record);
+      }
+    });
+    return records;
+  }
+
+  @Test
+  public void testReplayInOrder() throws Exception {
+    StateJournal journal = newJournal(Long.MAX_VALUE, null);
+    assertTrue(recover(journal).isEmpty());
+    journal.append("query", RecordType.UPDATE, "q1", new byte[]{1});
+    journal.append("session", RecordType.UPDATE, "s1", new byte[]{2, 3});
+    journal.append("query", RecordType.REMOVE, "q1", null);
+    journal.close();
+
+    StateJournal restarted = newJournal(Long.MAX_VALUE, null);
+    List<Record> records = recover(restarted);
+    restarted.close();
+    assertEquals(records.size(), 3);
+    assertEquals(records.get(0), new Record("query", RecordType.UPDATE, "q1", new byte[]{1}));
+    assertEquals(records.get(1), new Record("session", RecordType.UPDATE, "s1", new byte[]{2, 3}));
+    assertEquals(records.get(2), new Record("query", RecordType.REMOVE, "q1", new byte[0]));
+    // appends after restart go to a new segment
+    assertEquals(restarted.getCurrentSegment(), 1);
+  }
+
+  @Test
+  public void testSegmentsBeforeCheckpointAreDeleted() throws Exception {
+    StateJournal journal = newJournal(Long.MAX_VALUE, null);
+    recover(journal);
+    journal.append("query", RecordType.UPDATE, "q1", new byte[]{1});
+    long firstSegment = journal.roll();
+    journal.append("query", RecordType.UPDATE, "q2", new byte[]{2});
+    journal.deleteSegmentsBefore(firstSegment);
+    journal.close();
+
+    assertFalse(new File(dir, StateJournal.SEGMENT_PREFIX + 0).exists());
+    List<Record> records = recover(newJournal(Long.MAX_VALUE, null));
+    assertEquals(records.size(), 1);
+    assertEquals(records.get(0).getKey(), "q2");
+  }
+
+  @Test
+  public void testPartiallyWrittenRecordIsIgnored() throws Exception {
+    StateJournal journal = newJournal(Long.MAX_VALUE, null);
+    recover(journal);
+    journal.append("query", RecordType.UPDATE, "q1", new byte[]{1});
+    journal.append("query", RecordType.UPDATE, "q2", new byte[]{2, 3, 4, 5});
+    journal.close();
+
+    File segment = new File(dir, StateJournal.SEGMENT_PREFIX + 0);
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.setLength(file.length() - 3);
+    }
+    List<Record> records = recover(newJournal(Long.MAX_VALUE, null));
+    assertEquals(records.size(), 1);
+    assertEquals(records.get(0).getKey(), "q1");
+  }
+
+  @Test
+  public void testCheckpointTriggeredOncePerSegment() throws Exception {
+    final AtomicInteger triggered = new AtomicInteger();
+    StateJournal journal = newJournal(64, new Runnable() {
+      @Override
+      public void run() {
+        triggered.incrementAndGet();
+      }
+    });
+    recover(journal);
+    for (int i = 0; i < 10; i++) {
+      journal.append("query", RecordType.UPDATE, "q" + i, new byte[16]);
+    }
+    assertEquals(triggered.get(), 1);
+    journal.roll();
+    for (int i = 0; i < 10; i++) {
+      journal.append("query", RecordType.UPDATE, "q" + i, new byte[16]);
+    }
+    assertEquals(triggered.get(), 2);
+    journal.close();
+  }
+}
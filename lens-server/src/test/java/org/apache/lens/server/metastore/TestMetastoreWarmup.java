@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.metastore;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.apache.lens.cube.metadata.CubeMetastoreClient;
+import org.apache.lens.server.LensServerConf;
+import org.apache.lens.server.api.LensConfConstants;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.ql.metadata.Hive;
+import org.apache.hadoop.hive.ql.metadata.Table;
+
+import org.testng.annotations.Test;
+
+public class TestMetastoreWarmup {
+
+  private static Table createTable(String db, String name, String property) {
+    Table table = new Table(db, name);
+    table.getParameters().put("property", property);
+    return table;
+  }
+
+  @Test
+  public void testSnapshotRoundTrip() throws IOException {
+    File dir = Files.createTempDirectory("warmup").toFile();
+    File file = new File(dir, "snapshot/metastore.snapshot");
+    Map<String, List<Table>> tables = new TreeMap<>();
+    tables.put("db1", Arrays.asList(createTable("db1", "fact1", "a"), createTable("db1", "dim1", "b")));
+    tables.put("db2", Collections.<Table>emptyList());
+    MetastoreWarmup.writeSnapshot(file, new MetastoreWarmup.Snapshot(12345L, tables));
+    // overwritten by a newer snapshot
+    tables.put("db2", Collections.singletonList(createTable("db2", "cube1", "c")));
+    MetastoreWarmup.writeSnapshot(file, new MetastoreWarmup.Snapshot(23456L, tables));
+
+    MetastoreWarmup.Snapshot read = MetastoreWarmup.readSnapshot(file);
+    assertEquals(read.getTime(), 23456L);
+    assertEquals(read.getTables().keySet(), tables.keySet());
+    for (Map.Entry<String, List<Table>> entry : tables.entrySet()) {
+      List<Table> readTables = read.getTables().get(entry.getKey());
+      assertEquals(readTables.size(), entry.getValue().size());
+      for (int i = 0; i < readTables.size(); i++) {
+        assertEquals(readTables.get(i).getTTable(), entry.getValue().get(i).getTTable());
+      }
+    }
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+  }
+
+  @Test
+  public void testReadyWithNothingToLoad() {
+    HiveConf conf = new HiveConf();
+    conf.set(LensConfConstants.METASTORE_WARMUP_DATABASES, "");
+    MetastoreWarmup warmup = new MetastoreWarmup(conf);
+    assertFalse(warmup.isReady());
+    warmup.start();
+    assertTrue(warmup.isReady());
+    warmup.stop();
+  }
+
+  @Test
+  public void testStaleSnapshotTablesNotServed() throws Exception {
+    String db = "warmup_stale_snapshot";
+    HiveConf conf = new HiveConf(LensServerConf.getHiveConf());
+    Hive hive = Hive.get(conf);
+    hive.dropDatabase(db, true, true, true);
+    Database database = new Database();
+    database.setName(db);
+    hive.createDatabase(database);
+    try {
+      hive.createTable(createTable(db, "changed", "current"));
+      hive.createTable(createTable(db, "unchanged", "current"));
+      Table unchanged = hive.getTable(db, "unchanged");
+
+      File file = new File(Files.createTempDirectory("warmup").toFile(), "metastore.snapshot");
+      Map<String, List<Table>> tables = new TreeMap<>();
+      tables.put(db, Arrays.asList(createTable(db, "changed", "stale"), createTable(db, "dropped", "stale"),
+        unchanged));
+      MetastoreWarmup.writeSnapshot(file, new MetastoreWarmup.Snapshot(System.currentTimeMillis(), tables));
+
+      conf.set(LensConfConstants.METASTORE_WARMUP_DATABASES, "");
+      conf.set(LensConfConstants.METASTORE_WARMUP_SNAPSHOT_PATH, file.getPath());
+      MetastoreWarmup warmup = new MetastoreWarmup(conf);
+      warmup.start();
+      long deadline = System.currentTimeMillis() + 60000;
+      while (!warmup.isReady() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(100);
+      }
+      assertTrue(warmup.isReady());
+
+      Map<String, Table> cached = new HashMap<>();
+      for (Table table : CubeMetastoreClient.getInstances().get(db).getCachedHiveTables()) {
+        cached.put(table.getTableName(), table);
+      }
+      assertFalse(cached.containsKey("dropped"));
+      if (cached.containsKey("changed")) {
+        assertEquals(cached.get("changed").getParameters().get("property"), "current");
+      }
+      // tables equal to the metastore ones are served from the snapshot
+      assertEquals(cached.get("unchanged").getTTable(), unchanged.getTTable());
+      warmup.stop();
+    } finally {
+      hive.dropDatabase(db, true, true, true);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query;
+
+import static org.apache.lens.server.api.LensConfConstants.*;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lens.api.query.QueryHandle;
+import org.apache.lens.server.api.driver.LensDriver;
+import org.apache.lens.server.api.driver.StatusUpdateMethod;
+import org.apache.lens.server.api.error.LensException;
+import org.apache.lens.server.api.query.QueryContext;
+import org.apache.lens.server.api.query.collect.ImmutableQueryCollection;
+import org.apache.lens.server.model.MappedDiagnosticLogSegregationContext;
+
+import org.apache.hadoop.conf.Configuration;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Sets;
+
+public class QueryStatusTrackerTest {
+
+  private QueryStatusTracker tracker;
+
+  @AfterMethod
+  public void tearDown() {
+    if (tracker != null) {
+      tracker.shutdown();
+    }
+  }
+
+  private void createTracker(ImmutableQueryCollection launched, QueryStatusTracker.StatusUpdater updater) {
+    Configuration conf = new Configuration(false);
+    conf.setLong(STATUS_POLL_MIN_INTERVAL_MILLIS, 1000);
+    conf.setLong(STATUS_POLL_MAX_INTERVAL_MILLIS, 10000);
+    conf.setFloat(STATUS_POLL_INTERVAL_FACTOR, 0.1f);
+    tracker = new QueryStatusTracker(launched, updater, new MappedDiagnosticLogSegregationContext());
+    tracker.init(conf);
+  }
+
+  private QueryContext mockQuery(String handle, LensDriver driver, long launchTime) {
+    QueryContext ctx = mock(QueryContext.class);
+    when(ctx.getQueryHandle()).thenReturn(QueryHandle.fromString(handle));
+    when(ctx.getQueryHandleString()).thenReturn(handle);
+    when(ctx.getSelectedDriver()).thenReturn(driver);
+    when(ctx.getLaunchTime()).thenReturn(launchTime);
+    return ctx;
+  }
+
+  private LensDriver mockDriver(String name, StatusUpdateMethod method) {
+    LensDriver driver = mock(LensDriver.class);
+    when(driver.getFullyQualifiedName()).thenReturn(name);
+    when(driver.getStatusUpdateMethod()).thenReturn(method);
+    return driver;
+  }
+
+  @Test
+  public void testPollIntervalGrowsWithRunningTime() {
+    createTracker(mock(ImmutableQueryCollection.class), mock(QueryStatusTracker.StatusUpdater.class));
+    LensDriver pullDriver = mockDriver("hive/h1", StatusUpdateMethod.PULL);
+    LensDriver pushDriver = mockDriver("jdbc/j1", StatusUpdateMethod.PUSH);
+    long now = System.currentTimeMillis();
+
+    assertEquals(tracker.getPollInterval(mockQuery("0-0-0-0-1", pullDriver, now - 2000), now), 1000);
+    assertEquals(tracker.getPollInterval(mockQuery("0-0-0-0-2", pullDriver, now - 50000), now), 5000);
+    assertEquals(tracker.getPollInterval(mockQuery("0-0-0-0-3", pullDriver, now - 500000), now), 10000);
+    // push drivers are polled only at the maximum interval
+    assertEquals(tracker.getPollInterval(mockQuery("0-0-0-0-4", pushDriver, now - 2000), now), 10000);
+  }
+
+  @Test
+  public void testDueQueriesArePolledOncePerSweep() throws Exception {
+    LensDriver driver1 = mockDriver("hive/h1", StatusUpdateMethod.PULL);
+    LensDriver driver2 = mockDriver("hive/h2", StatusUpdateMethod.PULL);
+    long now = System.currentTimeMillis();
+    Set<QueryContext> queries = Sets.newLinkedHashSet();
+    queries.add(mockQuery("0-0-0-0-1", driver1, now));
+    queries.add(mockQuery("0-0-0-0-2", driver1, now));
+    queries.add(mockQuery("0-0-0-0-3", driver2, now));
+    ImmutableQueryCollection launched = mock(ImmutableQueryCollection.class);
+    when(launched.getQueries()).thenReturn(queries);
+
+    final Set<QueryHandle> polled = Sets.newSetFromMap(new ConcurrentHashMap<QueryHandle, Boolean>());
+    final CountDownLatch latch = new CountDownLatch(3);
+    createTracker(launched, new QueryStatusTracker.StatusUpdater() {
+      @Override
+      public void updateStatus(QueryContext ctx) {
+        polled.add(ctx.getQueryHandle());
+        tracker.markUpdated(ctx);
+        latch.countDown();
+      }
+    });
+
+    tracker.sweep();
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(polled.size(), 3);
+    for (QueryContext ctx : queries) {
+      assertTrue(tracker.getStaleness(ctx.getQueryHandle()) < 1000);
+    }
+
+    // None of the queries are due again before the minimum poll interval
+    polled.clear();
+    tracker.sweep();
+    Thread.sleep(200);
+    assertTrue(polled.isEmpty());
+  }
+
+  @Test
+  public void testSlowDriverDoesNotDelayOthers() throws Exception {
+    final LensDriver slowDriver = mockDriver("hive/slow", StatusUpdateMethod.PULL);
+    LensDriver fastDriver = mockDriver("jdbc/fast", StatusUpdateMethod.PULL);
+    long now = System.currentTimeMillis();
+    Set<QueryContext> queries = Sets.newLinkedHashSet();
+    queries.add(mockQuery("0-0-0-0-1", slowDriver, now));
+    queries.add(mockQuery("0-0-0-0-2", slowDriver, now));
+    queries.add(mockQuery("0-0-0-0-3", fastDriver, now));
+    ImmutableQueryCollection launched = mock(ImmutableQueryCollection.class);
+    when(launched.getQueries()).thenReturn(queries);
+
+    final CountDownLatch slowPollBlocked = new CountDownLatch(1);
+    final CountDownLatch releaseSlowPoll = new CountDownLatch(1);
+    final CountDownLatch fastPolled = new CountDownLatch(1);
+    createTracker(launched, new QueryStatusTracker.StatusUpdater() {
+      @Override
+      public void updateStatus(QueryContext ctx) throws LensException {
+        if (ctx.getSelectedDriver() == slowDriver) {
+          slowPollBlocked.countDown();
+          try {
+            releaseSlowPoll.await();
+          } catch (InterruptedException e) {
+            throw new LensException(e);
+          }
+        } else {
+          fastPolled.countDown();
+        }
+        tracker.markUpdated(ctx);
+      }
+    });
+
+    try {
+      tracker.sweep();
+      assertTrue(slowPollBlocked.await(10, TimeUnit.SECONDS));
+      assertTrue(fastPolled.await(10, TimeUnit.SECONDS), "poll of a driver waited for a slow driver");
+    } finally {
+      releaseSlowPoll.countDown();
+    }
+  }
+}
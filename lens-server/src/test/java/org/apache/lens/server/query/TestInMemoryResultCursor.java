@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query;
+
+import static org.testng.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.NotFoundException;
+
+import org.apache.lens.api.query.ResultRow;
+import org.apache.lens.server.api.driver.InMemoryResultSet;
+import org.apache.lens.server.api.driver.LensResultSetMetadata;
+import org.apache.lens.server.api.error.LensException;
+
+import org.testng.annotations.Test;
+
+public class TestInMemoryResultCursor {
+
+  /**
+   * In-memory result set of given number of rows, which counts the rows read from it.
+   */
+  private static class CountingResultSet extends InMemoryResultSet {
+    private final int rows;
+    private int read = 0;
+
+    CountingResultSet(int rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public boolean hasNext() throws LensException {
+      return read < rows;
+    }
+
+    @Override
+    public ResultRow next() throws LensException {
+      return new ResultRow(Collections.<Object>singletonList(read++));
+    }
+
+    @Override
+    public void setFetchSize(int size) throws LensException {
+    }
+
+    @Override
+    public Integer size() throws LensException {
+      return rows;
+    }
+
+    @Override
+    public LensResultSetMetadata getMetadata() throws LensException {
+      return null;
+    }
+  }
+
+  private static void assertRows(List<ResultRow> rows, int from, int count) {
+    assertEquals(rows.size(), count);
+    for (int i = 0; i < count; i++) {
+      assertEquals(rows.get(i).getValues().get(0), from + i);
+    }
+  }
+
+  @Test
+  public void testPagesAreReadOnDemand() throws LensException {
+    CountingResultSet resultSet = new CountingResultSet(25);
+    InMemoryResultCursor cursor = new InMemoryResultCursor(resultSet, 10);
+
+    assertRows(cursor.fetch(0, 10).getRows(), 0, 10);
+    assertEquals(resultSet.read, 10);
+    assertFalse(resultSet.canBePurged());
+
+    // re-fetch of last page is served from buffer
+    assertRows(cursor.fetch(0, 10).getRows(), 0, 10);
+    assertEquals(resultSet.read, 10);
+
+    assertRows(cursor.fetch(10, 10).getRows(), 10, 10);
+    assertRows(cursor.fetch(20, 10).getRows(), 20, 5);
+    assertEquals(resultSet.read, 25);
+    assertTrue(resultSet.canBePurged());
+    assertTrue(cursor.fetch(25, 10).getRows().isEmpty());
+  }
+
+  @Test
+  public void testSkipAndFetchAll() throws LensException {
+    InMemoryResultCursor cursor = new InMemoryResultCursor(new CountingResultSet(25), 10);
+    assertRows(cursor.fetch(12, 5).getRows(), 12, 5);
+    assertRows(cursor.fetch(15, 0).getRows(), 15, 10);
+  }
+
+  @Test(expectedExceptions = BadRequestException.class)
+  public void testRowsBeforeBufferAreNotAvailable() throws LensException {
+    InMemoryResultCursor cursor = new InMemoryResultCursor(new CountingResultSet(25), 10);
+    cursor.fetch(0, 20);
+    cursor.fetch(5, 5);
+  }
+
+  @Test(expectedExceptions = NotFoundException.class)
+  public void testExpiredCursor() throws LensException {
+    CountingResultSet resultSet = new CountingResultSet(25);
+    InMemoryResultCursor cursor = new InMemoryResultCursor(resultSet, 10);
+    cursor.fetch(0, 5);
+    cursor.expire();
+    assertTrue(resultSet.canBePurged());
+    cursor.fetch(5, 5);
+  }
+}
@@ -26,6 +26,8 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import javax.ws.rs.core.Application;
 
@@ -224,6 +226,116 @@ public class TestLensDAO extends LensJerseyTest {
     service.closeSession(session);
   }
 
+  /**
+   * Test inserting finished queries in a batch.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testInsertFinishedQueries() throws Exception {
+    QueryExecutionServiceImpl service = LensServices.get().getService(QueryExecutionService.NAME);
+    List<FinishedLensQuery> queries = Lists.newArrayList();
+    for (int i = 0; i < 3; i++) {
+      FinishedLensQuery query = new FinishedLensQuery();
+      query.setHandle(new QueryHandle(UUID.randomUUID()).toString());
+      query.setUserQuery("select " + i + " from batch");
+      query.setSubmitter("batchUser");
+      query.setStatus(QueryStatus.Status.FAILED.name());
+      query.setConf(new LensConf());
+      query.setSubmissionTime(System.currentTimeMillis());
+      query.setFailedAttempts(Lists.newArrayList(
+        new FailedAttempt("batch/driver", 0.5, "half done", "failed", (long) i, i + 1L)));
+      queries.add(query);
+    }
+    service.lensServerDao.insertFinishedQueries(queries.subList(0, 2));
+    for (FinishedLensQuery query : queries.subList(0, 2)) {
+      FinishedLensQuery actual = service.lensServerDao.getQuery(query.getHandle());
+      Assert.assertEquals(actual, query);
+      Assert.assertEquals(actual.getFailedAttempts().size(), 1);
+    }
+
+    // a batch with an already inserted query fails as a whole
+    try {
+      service.lensServerDao.insertFinishedQueries(queries);
+      Assert.fail("Batch with an already inserted query should fail");
+    } catch (SQLException e) {
+      // expected
+    }
+    Assert.assertNull(service.lensServerDao.getQuery(queries.get(2).getHandle()));
+  }
+
+  /**
+   * Test finding finished queries a page at a time.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testFinishedQueriesPaging() throws Exception {
+    QueryExecutionServiceImpl service = LensServices.get().getService(QueryExecutionService.NAME);
+    String user = "pagingUser";
+    long submissionTime = System.currentTimeMillis();
+    final Map<String, Long> submissionTimes = new HashMap<>();
+    for (int i = 0; i < 7; i++) {
+      FinishedLensQuery query = new FinishedLensQuery();
+      query.setHandle(new QueryHandle(UUID.randomUUID()).toString());
+      query.setUserQuery("select " + i + " from paging");
+      query.setSubmitter(user);
+      query.setStatus(QueryStatus.Status.SUCCESSFUL.name());
+      query.setDriverName("paging/driver");
+      query.setDriverQuery("select " + i + " from paging_table");
+      query.setConf(new LensConf());
+      // two queries per submission time, to page through queries submitted at the same time
+      query.setSubmissionTime(submissionTime + i / 2);
+      service.lensServerDao.insertFinishedQuery(query);
+      submissionTimes.put(query.getHandle(), query.getSubmissionTime());
+    }
+    List<String> expected = Lists.newArrayList(submissionTimes.keySet());
+    expected.sort((handle1, handle2) -> {
+      int cmp = Long.compare(submissionTimes.get(handle2), submissionTimes.get(handle1));
+      return cmp != 0 ? cmp : handle2.compareTo(handle1);
+    });
+
+    List<String> found = Lists.newArrayList();
+    FinishedLensQuery after = null;
+    List<FinishedLensQuery> page;
+    do {
+      page = service.lensServerDao.findFinishedQueryDetails(null, user, "paging/driver", null, -1L, Long.MAX_VALUE,
+        after, 3, LensServerDAO.Projection.SUMMARY);
+      Assert.assertTrue(page.size() <= 3);
+      for (FinishedLensQuery query : page) {
+        Assert.assertNull(query.getDriverQuery());
+        Assert.assertNull(query.getConf());
+        Assert.assertEquals(query.getSubmitter(), user);
+        found.add(query.getHandle());
+        after = query;
+      }
+    } while (!page.isEmpty());
+    Assert.assertEquals(found, expected);
+
+    List<FinishedLensQuery> handles = service.lensServerDao.findFinishedQueryDetails(
+      Lists.newArrayList(QueryStatus.Status.SUCCESSFUL), user, null, null, -1L, Long.MAX_VALUE, null, 2,
+      LensServerDAO.Projection.HANDLE);
+    Assert.assertEquals(handles.size(), 2);
+    Assert.assertEquals(handles.get(0).getHandle(), expected.get(0));
+    Assert.assertNull(handles.get(0).getUserQuery());
+
+    // indexes exist, and creating them again is a no-op
+    service.lensServerDao.createFinishedQueriesIndexes();
+    Connection conn = service.lensServerDao.getConnection();
+    try {
+      ResultSet rs = conn.getMetaData().getIndexInfo(null, null, "FINISHED_QUERIES", false, true);
+      List<String> indexes = Lists.newArrayList();
+      while (rs.next()) {
+        indexes.add(String.valueOf(rs.getString("INDEX_NAME")).toLowerCase());
+      }
+      rs.close();
+      Assert.assertTrue(indexes.containsAll(Lists.newArrayList("finished_queries_submitter_time",
+        "finished_queries_status_time", "finished_queries_drivername")), indexes.toString());
+    } finally {
+      conn.close();
+    }
+  }
+
   public void testPreparedQueryDAO() throws Exception {
     QueryExecutionServiceImpl service = LensServices.get().getService(QueryExecutionService.NAME);
     Connection conn = null;
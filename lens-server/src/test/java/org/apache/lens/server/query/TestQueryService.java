@@ -1051,6 +1051,13 @@ public class TestQueryService extends LensJerseyTest {
       String result = new String(bos.toByteArray());
       List<String> actualRows = Arrays.asList(result.split("\n"));
       validatePersistentResult(actualRows, false);
+
+      // resume the download
+      Response partial = parent.path("queryapi/queries/" + handle.toString() + "/httpresultset")
+        .queryParam("sessionid", lensSessionId).request().header("Range", "bytes=1-")
+        .header("If-Range", response.getHeaderString("ETag")).get();
+      assertEquals(partial.getStatus(), 206);
+      assertEquals(partial.readEntity(String.class), result.substring(1));
     } else {
       assertEquals(SEE_OTHER.getStatusCode(), response.getStatus());
       assertTrue(response.getHeaderString("Location").contains(redirectUrl));
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.lens.server.query.ResultDownload.ByteRange;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class TestResultDownload {
+
+  private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+  private final File dir = new File("target/result-download-test");
+  private FileSystem fs;
+  private Path result;
+
+  @BeforeClass
+  public void setUp() throws IOException {
+    FileUtils.deleteQuietly(dir);
+    File file = new File(dir, "result.csv");
+    FileUtils.writeStringToFile(file, CONTENT, StandardCharsets.UTF_8);
+    fs = FileSystem.getLocal(new Configuration());
+    result = new Path(file.getAbsolutePath());
+  }
+
+  @AfterClass
+  public void tearDown() {
+    FileUtils.deleteQuietly(dir);
+  }
+
+  private static HttpHeaders headers(String... nameValues) {
+    HttpHeaders headers = mock(HttpHeaders.class);
+    for (int i = 0; i < nameValues.length; i += 2) {
+      when(headers.getHeaderString(nameValues[i])).thenReturn(nameValues[i + 1]);
+    }
+    return headers;
+  }
+
+  private static byte[] body(Response response) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ((StreamingOutput) response.getEntity()).write(out);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testParseRange() {
+    assertEquals(ResultDownload.parseRange("bytes=0-9", 100), new ByteRange(0, 9));
+    assertEquals(ResultDownload.parseRange("bytes=90-", 100), new ByteRange(90, 99));
+    assertEquals(ResultDownload.parseRange("bytes=90-200", 100), new ByteRange(90, 99));
+    assertEquals(ResultDownload.parseRange("bytes=-10", 100), new ByteRange(90, 99));
+    assertEquals(ResultDownload.parseRange("bytes=-200", 100), new ByteRange(0, 99));
+    assertSame(ResultDownload.parseRange("bytes=100-", 100), ResultDownload.UNSATISFIABLE);
+    assertSame(ResultDownload.parseRange("bytes=-0", 100), ResultDownload.UNSATISFIABLE);
+    // not supported or invalid, whole file is sent
+    assertNull(ResultDownload.parseRange("bytes=0-9,20-29", 100));
+    assertNull(ResultDownload.parseRange("bytes=9-0", 100));
+    assertNull(ResultDownload.parseRange("bytes=a-", 100));
+    assertNull(ResultDownload.parseRange("items=0-9", 100));
+  }
+
+  @Test
+  public void testAcceptsGzip() {
+    assertTrue(ResultDownload.acceptsGzip("deflate, gzip"));
+    assertTrue(ResultDownload.acceptsGzip("gzip;q=0.5"));
+    assertFalse(ResultDownload.acceptsGzip("gzip;q=0"));
+    assertFalse(ResultDownload.acceptsGzip("identity"));
+    assertFalse(ResultDownload.acceptsGzip(null));
+  }
+
+  @Test
+  public void testFullDownload() throws IOException {
+    Response response = ResultDownload.build(fs, result, null, true);
+    assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+    assertEquals(response.getHeaderString(HttpHeaders.CONTENT_LENGTH), String.valueOf(CONTENT.length()));
+    assertEquals(response.getHeaderString(ResultDownload.ACCEPT_RANGES), "bytes");
+    assertNotNull(response.getHeaderString(HttpHeaders.ETAG));
+    assertEquals(new String(body(response), StandardCharsets.UTF_8), CONTENT);
+  }
+
+  @Test
+  public void testResumeDownload() throws IOException {
+    String eTag = ResultDownload.build(fs, result, null, true).getHeaderString(HttpHeaders.ETAG);
+
+    Response response = ResultDownload.build(fs, result,
+      headers(ResultDownload.RANGE, "bytes=30-", ResultDownload.IF_RANGE, eTag), true);
+    assertEquals(response.getStatus(), Response.Status.PARTIAL_CONTENT.getStatusCode());
+    assertEquals(response.getHeaderString(ResultDownload.CONTENT_RANGE), "bytes 30-35/36");
+    assertEquals(response.getHeaderString(HttpHeaders.CONTENT_LENGTH), "6");
+    assertEquals(new String(body(response), StandardCharsets.UTF_8), CONTENT.substring(30));
+
+    // changed result is sent whole
+    response = ResultDownload.build(fs, result,
+      headers(ResultDownload.RANGE, "bytes=30-", ResultDownload.IF_RANGE, "\"changed\""), true);
+    assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+    assertEquals(new String(body(response), StandardCharsets.UTF_8), CONTENT);
+
+    response = ResultDownload.build(fs, result, headers(ResultDownload.RANGE, "bytes=36-"), true);
+    assertEquals(response.getStatus(), Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE.getStatusCode());
+    assertEquals(response.getHeaderString(ResultDownload.CONTENT_RANGE), "bytes */36");
+
+    response = ResultDownload.build(fs, result, headers(ResultDownload.IF_NONE_MATCH, eTag), true);
+    assertEquals(response.getStatus(), Response.Status.NOT_MODIFIED.getStatusCode());
+  }
+
+  @Test
+  public void testGzipDownload() throws IOException {
+    Response response = ResultDownload.build(fs, result, headers(ResultDownload.ACCEPT_ENCODING, "gzip"), true);
+    assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+    assertEquals(response.getHeaderString(HttpHeaders.CONTENT_ENCODING), "gzip");
+    assertNull(response.getHeaderString(HttpHeaders.CONTENT_LENGTH));
+    byte[] decoded = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(body(response))));
+    assertEquals(new String(decoded, StandardCharsets.UTF_8), CONTENT);
+
+    response = ResultDownload.build(fs, result, headers(ResultDownload.ACCEPT_ENCODING, "gzip"), false);
+    assertNull(response.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(new String(body(response), StandardCharsets.UTF_8), CONTENT);
+  }
+}
@@ -35,8 +35,8 @@ import org.apache.lens.server.api.query.cost.StaticQueryCost;
 
 import org.testng.annotations.Test;
 
-import com.beust.jcommander.internal.Sets;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 
 public class DefaultEstimatedQueryCollectionTest {
 
@@ -46,7 +46,6 @@ public class DefaultEstimatedQueryCollectionTest {
   public void testGetTotalQueryCostForUserWithZeroLaunchedQueries() throws LensException {
 
     QueryCollection mockQueries = mock(QueryCollection.class);
-    when(mockQueries.getQueries(MOCK_USER)).thenReturn(Sets.<QueryContext>newLinkedHashSet());
 
     EstimatedQueryCollection queries = new DefaultEstimatedQueryCollection(mockQueries);
     QueryCost actualQueryCost = queries.getTotalQueryCost(MOCK_USER);
@@ -56,22 +55,34 @@ public class DefaultEstimatedQueryCollectionTest {
   @Test
   public void testGetTotalQueryCostForUserWithMoreThanOneLaunchedQueries() throws LensException {
 
-    QueryCollection mockQueries = mock(QueryCollection.class);
-    Set<QueryContext> mockQueriesSet = createQueriesSetWithUserStubbing(2, MOCK_USER);
-    when(mockQueries.getQueries(MOCK_USER)).thenReturn(mockQueriesSet);
-
+    Set<QueryContext> mockQueriesSet = createQueriesSetWithUserStubbing(3, MOCK_USER);
     final QueryContext query0 = Iterables.get(mockQueriesSet, 0);
     final QueryContext query1 = Iterables.get(mockQueriesSet, 1);
-
-    final QueryCost sCost0 = new StaticQueryCost(1.0);
-    final QueryCost sCost1 = new StaticQueryCost(1.0);
-    final QueryCost expectedCost = new StaticQueryCost(2.0);
-
-    when(query0.getSelectedDriverQueryCost()).thenReturn(sCost0);
-    when(query1.getSelectedDriverQueryCost()).thenReturn(sCost1);
-
-    QueryCost actualQueryCost = new DefaultEstimatedQueryCollection(mockQueries).getTotalQueryCost(MOCK_USER);
-    assertEquals(actualQueryCost, expectedCost);
+    final QueryContext query2 = Iterables.get(mockQueriesSet, 2);
+    for (QueryContext query : mockQueriesSet) {
+      when(query.getSelectedDriver()).thenReturn(mock(LensDriver.class));
+    }
+    when(query0.getSelectedDriverQueryCost()).thenReturn(new StaticQueryCost(1.0));
+    when(query1.getSelectedDriverQueryCost()).thenReturn(new StaticQueryCost(1.0));
+    when(query2.getSelectedDriverQueryCost()).thenReturn(new StaticQueryCost(5.0));
+
+    EstimatedQueryCollection queries = new DefaultEstimatedQueryCollection(new DefaultQueryCollection());
+    queries.add(query0);
+    queries.add(query1);
+    assertEquals(queries.getTotalQueryCost(MOCK_USER), new StaticQueryCost(2.0));
+
+    /* Adding a query again must not change the total cost */
+    queries.add(query1);
+    queries.add(query2);
+    assertEquals(queries.getTotalQueryCost(MOCK_USER), new StaticQueryCost(7.0));
+
+    /* Removing a query, including one that is not in the collection, must only subtract what was added */
+    queries.remove(query0);
+    queries.remove(query0);
+    assertEquals(queries.getTotalQueryCost(MOCK_USER), new StaticQueryCost(6.0));
+
+    queries.removeAll(Sets.newHashSet(query1, query2));
+    assertEquals(queries.getTotalQueryCost(MOCK_USER), new StaticQueryCost(0));
   }
 
   @Test
@@ -24,7 +24,10 @@ import static org.apache.lens.server.query.collect.QueryCollectUtil.*;
 import static org.mockito.Mockito.mock;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 
+import java.util.List;
 import java.util.Set;
 
 import org.apache.lens.api.Priority;
@@ -33,6 +36,8 @@ import org.apache.lens.server.api.query.QueryContext;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.Lists;
+
 public class DefaultQueryCollectionTest {
 
   private static final String MOCK_USER = "MockUserEmail";
@@ -140,18 +145,52 @@ public class DefaultQueryCollectionTest {
   }
 
   @Test
-  public void testGetQueriesMustReturnCopyOfUnderlyingCollection() {
+  public void testGetQueriesMustReturnSnapshotOfUnderlyingCollection() {
 
     /* Initialization */
     final int noOfQueriesUsedInTest = 2;
     QueryCollection queries = createQueriesInstanceWithMockedQueries(noOfQueriesUsedInTest);
 
-    /* Execution: Get queries and empty returned collection */
-    Set<QueryContext> copiedSet = queries.getQueries();
-    copiedSet.clear();
+    /* Execution: Get queries twice without modifying the collection, and once after adding a query */
+    Set<QueryContext> snapshot = queries.getQueries();
+    assertSame(queries.getQueries(), snapshot);
+    queries.add(mock(QueryContext.class));
 
-    /* System under set (queries) should still have the added queries, which can be verified by checking count */
-    assertEquals(queries.getQueriesCount(), noOfQueriesUsedInTest);
+    /* Verification: The snapshot is not changed by the addition, and a new snapshot has the added query */
+    assertEquals(snapshot.size(), noOfQueriesUsedInTest);
+    assertEquals(queries.getQueries().size(), noOfQueriesUsedInTest + 1);
+  }
+
+  @Test(expectedExceptions = UnsupportedOperationException.class)
+  public void testGetQueriesMustNotAllowModification() {
+    createQueriesInstanceWithMockedQueries(2).getQueries().clear();
+  }
+
+  @Test
+  public void testGetQueryIndexInInsertionOrder() {
+
+    /* Initialization */
+    QueryCollection queries = new DefaultQueryCollection();
+    List<QueryContext> mockQueries = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      QueryContext mockQuery = mock(QueryContext.class);
+      mockQueries.add(mockQuery);
+      queries.add(mockQuery);
+    }
+
+    /* Execution: Remove every third query, and add the first one back at the end */
+    for (int i = 0; i < mockQueries.size(); i += 3) {
+      queries.remove(mockQueries.get(i));
+    }
+    queries.add(mockQueries.get(0));
+    List<QueryContext> expectedOrder = Lists.newArrayList(queries.getQueries());
+    assertEquals(expectedOrder.get(expectedOrder.size() - 1), mockQueries.get(0));
+
+    /* Verification: Index of each query is its 1 based position in the collection */
+    for (int i = 0; i < expectedOrder.size(); i++) {
+      assertEquals(queries.getQueryIndex(expectedOrder.get(i)).intValue(), i + 1);
+    }
+    assertNull(queries.getQueryIndex(mockQueries.get(3)));
   }
 
   @Test
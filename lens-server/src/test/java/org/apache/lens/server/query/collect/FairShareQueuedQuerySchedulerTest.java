@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.query.collect;
+
+import static org.apache.lens.server.api.LensConfConstants.QUERY_SCHEDULER_USER_WEIGHTS;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lens.api.Priority;
+import org.apache.lens.server.api.metrics.LensMetricsRegistry;
+import org.apache.lens.server.api.query.QueryContext;
+
+import org.apache.hadoop.conf.Configuration;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class FairShareQueuedQuerySchedulerTest {
+
+  private final Map<QueryContext, Integer> submissionOrder = Maps.newIdentityHashMap();
+
+  private final Comparator<QueryContext> fifo = new Comparator<QueryContext>() {
+    @Override
+    public int compare(QueryContext query1, QueryContext query2) {
+      return submissionOrder.get(query1).compareTo(submissionOrder.get(query2));
+    }
+  };
+
+  private QueryContext mockQuery(final String user, final Priority priority) {
+    QueryContext query = mock(QueryContext.class);
+    when(query.getSubmittedUser()).thenReturn(user);
+    when(query.getPriority()).thenReturn(priority);
+    submissionOrder.put(query, submissionOrder.size());
+    return query;
+  }
+
+  private QueuedQueryScheduler createScheduler(final String userWeights) {
+    Configuration conf = new Configuration(false);
+    if (userWeights != null) {
+      conf.set(QUERY_SCHEDULER_USER_WEIGHTS, userWeights);
+    }
+    QueuedQueryScheduler scheduler = new FairShareQueuedQueryScheduler();
+    scheduler.init(conf, fifo);
+    return scheduler;
+  }
+
+  private List<String> takeAll(final QueuedQueryScheduler scheduler) throws InterruptedException {
+    List<String> users = Lists.newArrayList();
+    while (scheduler.size() > 0) {
+      users.add(scheduler.take().getSubmittedUser());
+    }
+    return users;
+  }
+
+  @Test
+  public void testUsersTakeTurns() throws InterruptedException {
+    QueuedQueryScheduler scheduler = createScheduler(null);
+    List<QueryContext> queries = Lists.newArrayList();
+    for (int i = 0; i < 4; i++) {
+      queries.add(mockQuery("heavy", Priority.NORMAL));
+    }
+    queries.add(mockQuery("light", Priority.NORMAL));
+    queries.add(mockQuery("light", Priority.NORMAL));
+    scheduler.addAll(queries);
+
+    assertEquals(scheduler.size(), 6);
+    assertEquals(takeAll(scheduler), Lists.newArrayList("heavy", "light", "heavy", "light", "heavy", "heavy"));
+  }
+
+  @Test
+  public void testUserWeights() throws InterruptedException {
+    QueuedQueryScheduler scheduler = createScheduler("heavy=2");
+    for (int i = 0; i < 4; i++) {
+      scheduler.add(mockQuery("heavy", Priority.NORMAL));
+      scheduler.add(mockQuery("light", Priority.NORMAL));
+    }
+    assertEquals(takeAll(scheduler),
+      Lists.newArrayList("heavy", "heavy", "light", "heavy", "heavy", "light", "light", "light"));
+  }
+
+  @Test
+  public void testHigherPriorityFirstAndUserQueriesInOrder() throws InterruptedException {
+    QueuedQueryScheduler scheduler = createScheduler(null);
+    QueryContext first = mockQuery("user", Priority.LOW);
+    QueryContext second = mockQuery("user", Priority.LOW);
+    QueryContext high = mockQuery("other", Priority.HIGH);
+    scheduler.add(second);
+    scheduler.add(first);
+    scheduler.add(high);
+
+    assertEquals(scheduler.take(), high);
+    assertEquals(scheduler.take(), first);
+    assertEquals(scheduler.take(), second);
+  }
+
+  @Test
+  public void testRemove() throws InterruptedException {
+    QueuedQueryScheduler scheduler = createScheduler(null);
+    QueryContext removed = mockQuery("user", Priority.NORMAL);
+    QueryContext kept = mockQuery("user", Priority.NORMAL);
+    assertTrue(scheduler.add(removed));
+    assertTrue(scheduler.add(kept));
+    assertFalse(scheduler.add(kept));
+
+    assertTrue(scheduler.remove(removed));
+    assertFalse(scheduler.remove(removed));
+    assertEquals(scheduler.size(), 1);
+    assertEquals(scheduler.take(), kept);
+    assertEquals(scheduler.size(), 0);
+  }
+
+  @Test
+  public void testQueueWaitTimeIsMeasuredPerUser() throws InterruptedException {
+    QueuedQueryScheduler scheduler = createScheduler(null);
+    String user = "waitTimeUser";
+    long before = LensMetricsRegistry.getStaticRegistry()
+      .timer(AbstractQueuedQueryScheduler.metricName(user)).getCount();
+    scheduler.add(mockQuery(user, Priority.NORMAL));
+    scheduler.take();
+    assertEquals(LensMetricsRegistry.getStaticRegistry()
+      .timer(AbstractQueuedQueryScheduler.metricName(user)).getCount(), before + 1);
+  }
+}
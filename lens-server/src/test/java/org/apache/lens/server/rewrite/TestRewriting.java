@@ -99,18 +99,18 @@ public class TestRewriting {
   private CubeQueryRewriter getMockedRewriter() throws ParseException, LensException, HiveException {
     CubeQueryRewriter mockwriter = Mockito.mock(CubeQueryRewriter.class);
     Mockito.when(mockwriter.rewrite(Matchers.any(String.class))).thenAnswer(invocation -> {
+      Object[] args = invocation.getArguments();
+      return getMockedCubeContext((String) args[0]);
+    });
+    Mockito.when(mockwriter.rewrite(Matchers.any(ASTNode.class))).thenAnswer(invocation -> {
       Object[] args = invocation.getArguments();
       // return query for first NUM_SUCCESS calls and fail later
       if (++i <= NUM_SUCCESS) {
-        return getMockedCubeContext((String) args[0]);
+        return getMockedCubeContext((ASTNode) args[0]);
       } else {
         throw new RuntimeException("Mock fail");
       }
     });
-    Mockito.when(mockwriter.rewrite(Matchers.any(ASTNode.class))).thenAnswer(invocation -> {
-      Object[] args = invocation.getArguments();
-      return getMockedCubeContext((ASTNode) args[0]);
-    });
     Mockito.doCallRealMethod().when(mockwriter).clear();
     return mockwriter;
   }
@@ -455,7 +455,8 @@ public class TestRewriting {
     Assert.assertEquals(cubeQueries.get(0).query, q2);
     Assert.assertEquals(cubeQueries.get(1).query, q2);
 
-    // failing query for second driver
+    // failing query for second driver, which doesn't share the rewrite of the first one
+    conf.setBoolean(LensConfConstants.REWRITE_SHARE_ACROSS_DRIVERS, false);
     MockDriver driver2 = new MockDriver();
     driver2.configure(conf, null, null);
     drivers.add(driver2);
@@ -499,6 +500,54 @@ public class TestRewriting {
     Assert.assertNotNull(ctx.getDriverRewriteError(driver2));
   }
 
+  @Test
+  public void testRewriteSharedAcrossDrivers() throws Exception {
+    SessionState.start(hconf);
+    CubeQueryRewriter mockWriter = Mockito.mock(CubeQueryRewriter.class);
+    List<ASTNode> rewrittenASTs = new ArrayList<>();
+    Mockito.when(mockWriter.rewrite(Matchers.any(ASTNode.class))).thenAnswer(invocation -> {
+      ASTNode ast = (ASTNode) invocation.getArguments()[0];
+      rewrittenASTs.add(ast);
+      return getMockedCubeContext(ast);
+    });
+    PowerMockito.stub(PowerMockito.method(RewriteUtil.class, "getCubeRewriter")).toReturn(mockWriter);
+    PowerMockito.stub(PowerMockito.method(RewriteUtil.class, "getClient")).toReturn(getMockedClient());
+
+    Configuration conf = new Configuration();
+    MockDriver driver1 = new MockDriver();
+    driver1.configure(new Configuration(conf), null, null);
+    // differs only in driver local configuration
+    MockDriver driver2 = new MockDriver();
+    Configuration driver2Conf = new Configuration(conf);
+    driver2Conf.set("lens.driver.mock.connection", "other");
+    driver2.configure(driver2Conf, null, null);
+    // differs in configuration the rewrite depends on
+    MockDriver driver3 = new MockDriver();
+    Configuration driver3Conf = new Configuration(conf);
+    driver3Conf.set("lens.cube.query.driver.supported.storages", "c3");
+    driver3.configure(driver3Conf, null, null);
+
+    long sharedBefore = LensMetricsRegistry.getStaticRegistry().meter(MetricRegistry.name(RewriteUtil.class,
+      RewriteUtil.SHARED_REWRITES_METER)).getCount();
+    QueryContext ctx = new QueryContext("select name from cube_table", null, new LensConf(), conf,
+      Arrays.<LensDriver>asList(driver1, driver2, driver3));
+    Map<LensDriver, RewriteUtil.DriverRewriterRunnable> runnables = RewriteUtil.rewriteQuery(ctx);
+    runRewrites(runnables);
+
+    // rewritten once for the first two drivers and once for the third, from copies of one parsed query
+    Mockito.verify(mockWriter, Mockito.times(2)).rewrite(Matchers.any(ASTNode.class));
+    Mockito.verify(mockWriter, Mockito.never()).rewrite(Matchers.any(String.class));
+    Assert.assertNotSame(rewrittenASTs.get(0), rewrittenASTs.get(1));
+    Assert.assertNotSame(rewrittenASTs.get(0).getToken(), rewrittenASTs.get(1).getToken());
+    String rewrittenQuery = runnables.get(driver1).getRewrittenQuery();
+    for (RewriteUtil.DriverRewriterRunnable runnable : runnables.values()) {
+      Assert.assertTrue(runnable.isSucceeded(), runnable.getFailureCause());
+      Assert.assertEquals(runnable.getRewrittenQuery(), rewrittenQuery);
+    }
+    Assert.assertEquals(LensMetricsRegistry.getStaticRegistry().meter(MetricRegistry.name(RewriteUtil.class,
+      RewriteUtil.SHARED_REWRITES_METER)).getCount(), sharedBefore + 1);
+  }
+
   private void assertIsCubeQuery(String query, LensConf lensConf, Configuration conf, List<LensDriver> drivers)
     throws LensException {
     List<RewriteUtil.CubeQueryInfo> cubeQueries = RewriteUtil.findCubePositions(query, hconf);
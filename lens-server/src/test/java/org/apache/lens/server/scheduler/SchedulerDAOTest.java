@@ -195,4 +195,54 @@ public class SchedulerDAOTest {
     //Assert.assertEquals(schedulerDAO.getJobs("lens", 1L, System.currentTimeMillis(), SchedulerJobState.NEW).size(), 2);
     Assert.assertEquals(schedulerDAO.getJobs("Alice", null, null, SchedulerJobState.NEW).size(), 0);
   }
+
+  @Test(priority = 4)
+  public void testWaitingInstanceRuns() throws Exception {
+    long currentTime = System.currentTimeMillis();
+    List<SchedulerJobInstanceRun> runs = new ArrayList<>();
+    Set<SchedulerJobInstanceHandle> handles = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      SchedulerJobInstanceHandle instanceHandle = new SchedulerJobInstanceHandle(UUID.randomUUID());
+      schedulerDAO.storeJobInstance(new SchedulerJobInstanceInfo(instanceHandle, jobHandle, currentTime + i,
+        new ArrayList<SchedulerJobInstanceRun>()));
+      SchedulerJobInstanceRun failedRun = new SchedulerJobInstanceRun(instanceHandle, 1,
+        new LensSessionHandle(UUID.randomUUID(), UUID.randomUUID()), currentTime, currentTime, "/tmp/", null,
+        SchedulerJobInstanceState.FAILED);
+      SchedulerJobInstanceRun waitingRun = new SchedulerJobInstanceRun(instanceHandle, 2,
+        new LensSessionHandle(UUID.randomUUID(), UUID.randomUUID()), currentTime, currentTime, "/tmp/", null,
+        SchedulerJobInstanceState.WAITING);
+      schedulerDAO.storeJobInstanceRun(failedRun);
+      schedulerDAO.storeJobInstanceRun(waitingRun);
+      runs.add(waitingRun);
+      handles.add(instanceHandle);
+    }
+
+    Map<SchedulerJobInstanceHandle, SchedulerJobInstanceInfo> waiting = new HashMap<>();
+    for (SchedulerJobInstanceInfo info : schedulerDAO.getInstancesWithRuns(SchedulerJobInstanceState.WAITING)) {
+      waiting.put(info.getId(), info);
+    }
+    for (SchedulerJobInstanceRun run : runs) {
+      SchedulerJobInstanceInfo info = waiting.get(run.getHandle());
+      Assert.assertNotNull(info);
+      Assert.assertEquals(info.getJobId(), jobHandle);
+      Assert.assertEquals(info.getInstanceRunList(), Collections.singletonList(run));
+    }
+
+    for (SchedulerJobInstanceRun run : runs) {
+      run.setInstanceState(SchedulerJobInstanceState.LAUNCHING);
+    }
+    int[] updated = schedulerDAO.updateJobInstanceRuns(runs);
+    Assert.assertEquals(updated.length, runs.size());
+    for (int count : updated) {
+      Assert.assertEquals(count, 1);
+    }
+    for (SchedulerJobInstanceInfo info : schedulerDAO.getInstancesWithRuns(SchedulerJobInstanceState.WAITING)) {
+      Assert.assertFalse(handles.contains(info.getId()));
+    }
+    for (SchedulerJobInstanceRun run : runs) {
+      List<SchedulerJobInstanceRun> stored = schedulerDAO.getSchedulerJobInstanceInfo(run.getHandle())
+        .getInstanceRunList();
+      Assert.assertEquals(stored.get(1).getInstanceState(), SchedulerJobInstanceState.LAUNCHING);
+    }
+  }
 }
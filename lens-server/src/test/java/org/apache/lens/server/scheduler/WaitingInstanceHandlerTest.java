@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.scheduler;
+
+import static org.apache.lens.api.scheduler.SchedulerJobInstanceState.WAITING;
+
+import static org.mockito.Mockito.*;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.lens.api.LensSessionHandle;
+import org.apache.lens.api.scheduler.*;
+import org.apache.lens.server.api.LensConfConstants;
+import org.apache.lens.server.api.events.LensEventService;
+import org.apache.lens.server.api.events.SchedulerAlarmEvent;
+import org.apache.lens.server.api.query.events.QueryEnded;
+import org.apache.lens.server.api.query.events.QueryQueuedForRetry;
+import org.apache.lens.server.scheduler.SchedulerServiceImpl.WaitingInstanceHandler;
+
+import org.apache.hadoop.conf.Configuration;
+
+import org.joda.time.DateTime;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit-test")
+public class WaitingInstanceHandlerTest {
+
+  private static final long MIN_DELAY = 300;
+
+  private static SchedulerJobInstanceInfo waitingInstance() {
+    SchedulerJobInstanceHandle instanceHandle = new SchedulerJobInstanceHandle(UUID.randomUUID());
+    long time = System.currentTimeMillis();
+    List<SchedulerJobInstanceRun> runs = new ArrayList<>();
+    runs.add(new SchedulerJobInstanceRun(instanceHandle, 1, new LensSessionHandle(UUID.randomUUID(),
+      UUID.randomUUID()), time, time, "/tmp/", null, WAITING));
+    return new SchedulerJobInstanceInfo(instanceHandle, new SchedulerJobHandle(UUID.randomUUID()), time, runs);
+  }
+
+  @Test
+  public void testSignals() throws Exception {
+    SchedulerDAO schedulerDAO = mock(SchedulerDAO.class);
+    final List<Long> passes = new CopyOnWriteArrayList<>();
+    when(schedulerDAO.getInstancesWithRuns(WAITING)).thenAnswer(new Answer<List<SchedulerJobInstanceInfo>>() {
+      @Override
+      public List<SchedulerJobInstanceInfo> answer(InvocationOnMock invocation) {
+        passes.add(System.currentTimeMillis());
+        return Collections.emptyList();
+      }
+    });
+    WaitingInstanceHandler handler =
+      new WaitingInstanceHandler(mock(LensEventService.class), schedulerDAO, 60 * 1000, MIN_DELAY);
+    Thread thread = new Thread(handler);
+    thread.start();
+    try {
+      // the waiting instances are scheduled right away on start
+      verify(schedulerDAO, timeout(5000)).getInstancesWithRuns(WAITING);
+
+      // signals coalesce into one pass, no sooner than the minimum interval
+      for (int i = 0; i < 5; i++) {
+        handler.signal();
+      }
+      verify(schedulerDAO, timeout(5000).times(2)).getInstancesWithRuns(WAITING);
+      Assert.assertTrue(passes.get(1) - passes.get(0) >= MIN_DELAY, "pass before the minimum interval");
+      Thread.sleep(2 * MIN_DELAY);
+      Assert.assertEquals(passes.size(), 2, "pass without a signal before the interval");
+
+      // a rerun notified by the handler doesn't signal it
+      handler.onEvent(new SchedulerAlarmEvent(new SchedulerJobHandle(UUID.randomUUID()), new DateTime(),
+        SchedulerAlarmEvent.EventType.SCHEDULE, new SchedulerJobInstanceHandle(UUID.randomUUID())));
+      Thread.sleep(2 * MIN_DELAY);
+      Assert.assertEquals(passes.size(), 2, "pass after a rerun");
+
+      // a query ending, a query queued for retry and a new instance signal the handler
+      handler.onEvent(mock(QueryEnded.class));
+      verify(schedulerDAO, timeout(5000).times(3)).getInstancesWithRuns(WAITING);
+      Assert.assertTrue(passes.get(2) - passes.get(1) >= MIN_DELAY, "pass before the minimum interval");
+      handler.onEvent(mock(QueryQueuedForRetry.class));
+      verify(schedulerDAO, timeout(5000).times(4)).getInstancesWithRuns(WAITING);
+      handler.onEvent(new SchedulerAlarmEvent(new SchedulerJobHandle(UUID.randomUUID()), new DateTime(),
+        SchedulerAlarmEvent.EventType.SCHEDULE, null));
+      verify(schedulerDAO, timeout(5000).times(5)).getInstancesWithRuns(WAITING);
+    } finally {
+      thread.interrupt();
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testScheduleUpdatedRuns() throws Exception {
+    SchedulerJobInstanceInfo counted = waitingInstance();
+    SchedulerJobInstanceInfo uncounted = waitingInstance();
+    SchedulerJobInstanceInfo failed = waitingInstance();
+    SchedulerDAO schedulerDAO = mock(SchedulerDAO.class);
+    when(schedulerDAO.getInstancesWithRuns(WAITING)).thenReturn(Arrays.asList(counted, uncounted, failed));
+    when(schedulerDAO.updateJobInstanceRuns(anyListOf(SchedulerJobInstanceRun.class)))
+      .thenReturn(new int[]{1, Statement.SUCCESS_NO_INFO, 0});
+    LensEventService eventService = mock(LensEventService.class);
+    WaitingInstanceHandler handler = new WaitingInstanceHandler(eventService, schedulerDAO, 60 * 1000, MIN_DELAY);
+
+    Assert.assertEquals(handler.scheduleWaitingInstances(), 2);
+    ArgumentCaptor<SchedulerAlarmEvent> events = ArgumentCaptor.forClass(SchedulerAlarmEvent.class);
+    verify(eventService, times(2)).notifyEvent(events.capture());
+    Assert.assertEquals(events.getAllValues().get(0).getPreviousInstance(), counted.getId());
+    Assert.assertEquals(events.getAllValues().get(1).getPreviousInstance(), uncounted.getId());
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void testDeprecatedInterval() {
+    Configuration conf = new Configuration(false);
+    Assert.assertEquals(SchedulerServiceImpl.getWaitingThreadInterval(conf),
+      LensConfConstants.DEFAULT_SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS);
+    conf.setLong(LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS,
+      LensConfConstants.DEFAULT_SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS);
+    conf.setLong(LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_DEPRECATED, 1000);
+    Assert.assertEquals(SchedulerServiceImpl.getWaitingThreadInterval(conf), 1000);
+    conf.setLong(LensConfConstants.SCHEDULED_INSTANCE_WAITING_THREAD_INTERVAL_MILLIS, 2000);
+    Assert.assertEquals(SchedulerServiceImpl.getWaitingThreadInterval(conf), 2000);
+  }
+}
@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.lens.server.util;
+
+import static org.testng.Assert.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.lens.api.LensConf;
+import org.apache.lens.api.LensSessionHandle;
+import org.apache.lens.api.Priority;
+import org.apache.lens.api.query.FailedAttempt;
+import org.apache.lens.api.query.QueryStatus;
+import org.apache.lens.server.api.driver.DriverQueryStatus;
+import org.apache.lens.server.api.driver.LensDriver;
+import org.apache.lens.server.api.query.QueryContext;
+import org.apache.lens.server.api.query.cost.FactPartitionBasedQueryCost;
+import org.apache.lens.server.session.LensSessionImpl.LensSessionPersistInfo;
+import org.apache.lens.server.session.LensSessionImpl.ResourceEntry;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+
+import org.testng.annotations.Test;
+
+public class TestStateCodec {
+
+  private final StateCodec codec;
+
+  public TestStateCodec() {
+    Configuration defaults = new Configuration(false);
+    defaults.set("lens.query.enable.persistent.resultset", "true");
+    defaults.set("lens.query.result.output.dir.format", "ROW FORMAT DELIMITED");
+    codec = new StateCodec(defaults);
+  }
+
+  private static LensSessionPersistInfo createSession() {
+    LensSessionPersistInfo info = new LensSessionPersistInfo();
+    info.setSessionHandle(new LensSessionHandle(UUID.randomUUID(), UUID.randomUUID()));
+    info.setDatabase("db1");
+    info.setUsername("user");
+    info.setPassword("pass");
+    info.setLastAccessTime(12345L);
+    info.setMarkedForClose(true);
+    info.getResources().add(new ResourceEntry("jar", "file:///tmp/a.jar"));
+    info.getConfig().put("lens.query.enable.persistent.resultset", "true");
+    info.getConfig().put("lens.session.custom", "value");
+    return info;
+  }
+
+  private static void assertSessionEquals(LensSessionPersistInfo actual, LensSessionPersistInfo expected) {
+    assertEquals(actual.getSessionHandle(), expected.getSessionHandle());
+    assertEquals(actual.getDatabase(), expected.getDatabase());
+    assertEquals(actual.getUsername(), expected.getUsername());
+    assertEquals(actual.getPassword(), expected.getPassword());
+    assertEquals(actual.getLastAccessTime(), expected.getLastAccessTime());
+    assertEquals(actual.isMarkedForClose(), expected.isMarkedForClose());
+    assertEquals(actual.getResources().size(), expected.getResources().size());
+    for (int i = 0; i < expected.getResources().size(); i++) {
+      assertEquals(actual.getResources().get(i).getType(), expected.getResources().get(i).getType());
+      assertEquals(actual.getResources().get(i).getUri(), expected.getResources().get(i).getUri());
+    }
+    assertEquals(actual.getConfig(), expected.getConfig());
+  }
+
+  @Test
+  public void testSessionRoundTrip() throws IOException {
+    LensSessionPersistInfo info = createSession();
+    byte[] encoded = codec.encodeSession(info);
+    assertTrue(StateCodec.isEncoded(encoded));
+    assertSessionEquals(codec.decodeSession(encoded), info);
+    // Value equal to default is written as key only
+    assertFalse(new String(encoded, StandardCharsets.ISO_8859_1).contains("true"));
+  }
+
+  @Test
+  public void testSessionExternalizable() throws Exception {
+    LensSessionPersistInfo info = createSession();
+    LensSessionPersistInfo copy = SerializationUtils.clone(info);
+    assertSessionEquals(copy, info);
+  }
+
+  @Test
+  public void testLegacySessionFormat() throws Exception {
+    LensSessionPersistInfo info = createSession();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeUTF(info.getSessionHandle().toString());
+      out.writeUTF(info.getDatabase());
+      out.writeUTF(info.getUsername());
+      out.writeUTF(info.getPassword());
+      out.writeInt(info.getResources().size());
+      for (ResourceEntry resource : info.getResources()) {
+        out.writeUTF(resource.getType());
+        out.writeUTF(resource.getUri());
+      }
+      out.writeInt(info.getConfig().size());
+      for (Map.Entry<String, String> entry : info.getConfig().entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue());
+      }
+      out.writeLong(info.getLastAccessTime());
+      out.writeBoolean(info.isMarkedForClose());
+      out.writeUTF("");
+    }
+    LensSessionPersistInfo read = new LensSessionPersistInfo();
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      read.readExternal(in);
+    }
+    assertSessionEquals(read, info);
+  }
+
+  @Test
+  public void testConfRoundTrip() throws IOException {
+    LensConf conf = new LensConf();
+    conf.addProperty("lens.query.enable.persistent.resultset", "true");
+    conf.addProperty("lens.query.result.output.dir.format", "custom");
+    conf.addProperty("empty", "");
+    byte[] encoded = codec.encodeConf(conf);
+    LensConf decoded = codec.decodeConf(encoded);
+    assertEquals(decoded.getProperties(), conf.getProperties());
+    // Value equal to default is written as key only, and decoded with the current default
+    assertFalse(new String(encoded, StandardCharsets.ISO_8859_1).contains("true"));
+    Configuration changedDefaults = new Configuration(false);
+    changedDefaults.set("lens.query.enable.persistent.resultset", "false");
+    decoded = new StateCodec(changedDefaults).decodeConf(encoded);
+    assertEquals(decoded.getProperties().get("lens.query.enable.persistent.resultset"), "false");
+    assertEquals(decoded.getProperties().get("lens.query.result.output.dir.format"), "custom");
+    // XML is still readable
+    decoded = codec.decodeConf(conf.toXMLString().getBytes(StandardCharsets.UTF_8));
+    assertEquals(decoded.getProperties(), conf.getProperties());
+  }
+
+  private static QueryContext createQuery() {
+    LensConf qconf = new LensConf();
+    qconf.addProperty("lens.session.custom", "value");
+    qconf.addProperty("lens.query.enable.persistent.resultset", "true");
+    QueryContext ctx = new QueryContext("select * from t", "user", qconf, new Configuration(false),
+      new ArrayList<LensDriver>());
+    ctx.setQueryName("q1");
+    ctx.setLensSessionIdentifier("session1");
+    ctx.setPriority(Priority.HIGH);
+    ctx.setSelectedDriverQuery("select * from t_driver");
+    ctx.setSelectedDriverQueryCost(new FactPartitionBasedQueryCost(12.5));
+    ctx.setStatusSkippingTransitionTest(new QueryStatus(0.5, 3, QueryStatus.Status.RUNNING, "running", false,
+      "half way", null, null));
+    ctx.setLaunchTime(1000L);
+    ctx.setDriverOpHandle("op1");
+    ctx.getDriverStatus().setState(DriverQueryStatus.DriverQueryState.RUNNING);
+    ctx.getDriverStatus().setProgress(0.25);
+    ctx.getDriverStatus().setDriverStartTime(900L);
+    ctx.getFailedAttempts().add(new FailedAttempt("hive/hive1", 0.75, "progress", "error", 100L, 200L));
+    ctx.setQueryConfHash(new byte[]{1, 2, 3});
+    return ctx;
+  }
+
+  private static void assertQueryEquals(QueryContext actual, QueryContext expected) {
+    assertEquals(actual.getQueryHandle(), expected.getQueryHandle());
+    assertEquals(actual.getUserQuery(), expected.getUserQuery());
+    assertEquals(actual.getPhase1RewrittenQuery(), expected.getPhase1RewrittenQuery());
+    assertEquals(actual.getSubmittedUser(), expected.getSubmittedUser());
+    assertEquals(actual.getDatabase(), expected.getDatabase());
+    assertEquals(actual.getQueryName(), expected.getQueryName());
+    assertEquals(actual.getLensSessionIdentifier(), expected.getLensSessionIdentifier());
+    assertEquals(actual.getPriority(), expected.getPriority());
+    assertEquals(actual.getSelectedDriverQuery(), expected.getSelectedDriverQuery());
+    assertEquals(actual.getSelectedDriverQueryCost(), expected.getSelectedDriverQueryCost());
+    assertEquals(actual.getLensConf().getProperties(), expected.getLensConf().getProperties());
+    assertEquals(actual.getStatus().toString(), expected.getStatus().toString());
+    assertEquals(actual.getSubmissionTime(), expected.getSubmissionTime());
+    assertEquals(actual.getLaunchTime(), expected.getLaunchTime());
+    assertEquals(actual.getDriverOpHandle(), expected.getDriverOpHandle());
+    assertEquals(actual.getDriverStatus(), expected.getDriverStatus());
+    assertEquals(actual.getFailedAttempts(), expected.getFailedAttempts());
+    assertEquals(actual.getQueryConfHash(), expected.getQueryConfHash());
+    assertEquals(actual.isPersistent(), expected.isPersistent());
+    assertEquals(actual.isDriverPersistent(), expected.isDriverPersistent());
+  }
+
+  @Test
+  public void testQueryRoundTrip() throws IOException {
+    QueryContext ctx = createQuery();
+    for (boolean compress : new boolean[]{false, true}) {
+      assertQueryEquals(codec.decodeQuery(codec.encodeQuery(ctx, compress)), ctx);
+    }
+    byte[] encoded = codec.encodeQuery(ctx);
+    // Query is written field by field, with conf value equal to default written as key only
+    assertFalse(new String(encoded, StandardCharsets.ISO_8859_1).contains("java.util"));
+    assertFalse(new String(encoded, StandardCharsets.ISO_8859_1).contains("true"));
+
+    // java serialized query is still readable
+    assertQueryEquals(codec.decodeQuery(SerializationUtils.serialize(ctx)), ctx);
+  }
+
+  @Test
+  public void testVersion1Query() throws IOException {
+    QueryContext ctx = createQuery();
+    byte[] serialized = SerializationUtils.serialize(ctx);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    // magic, kind, version, then the java serialized query in field 3 with bytes wire type
+    bytes.write(new byte[]{'L', 'C', 1, 1, 3 << 3 | 2});
+    for (int length = serialized.length; ; length >>>= 7) {
+      if ((length & ~0x7F) == 0) {
+        bytes.write(length);
+        break;
+      }
+      bytes.write(length & 0x7F | 0x80);
+    }
+    bytes.write(serialized);
+    assertQueryEquals(codec.decodeQuery(bytes.toByteArray()), ctx);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testKindMismatch() throws IOException {
+    codec.decodeQuery(codec.encodeConf(new LensConf()));
+  }
+}